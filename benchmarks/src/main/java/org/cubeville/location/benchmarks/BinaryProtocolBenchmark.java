@@ -0,0 +1,148 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.benchmarks;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.bspfsystems.bungeelocation.core.BinaryReader;
+import org.bspfsystems.bungeelocation.core.BulkLocationResponse;
+import org.bspfsystems.bungeelocation.core.LocationCodec;
+import org.bspfsystems.bungeelocation.core.LocationResponse;
+import org.bspfsystems.bungeelocation.core.RegionDictionary;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks encoding and decoding the binary location responses, for a
+ * single target and for bulk requests over many targets, with the regions
+ * sent either by name or as ids from a {@link RegionDictionary}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BinaryProtocolBenchmark {
+    
+    @Param({"10", "100", "1000", "5000"})
+    public int players;
+    
+    @Param({"false", "true"})
+    public boolean dictionary;
+    
+    private LocationResponse single;
+    private BulkLocationResponse bulk;
+    private RegionDictionary encodeDictionary;
+    private RegionDictionary decodeDictionary;
+    private String singleMessage;
+    private String bulkMessage;
+    
+    /**
+     * Generates the players, and encodes the messages to decode.
+     */
+    @Setup
+    public void setup() {
+        
+        final List<LocationResponse> locations = new SyntheticPlayers(this.players, 4).getResponses();
+        this.single = locations.get(0);
+        this.bulk = new BulkLocationResponse(1, this.single.getSenderId(), locations, Collections.emptyList());
+        
+        this.encodeDictionary = this.dictionary ? new RegionDictionary() : null;
+        this.singleMessage = LocationCodec.encodeResponse(this.single, this.encodeDictionary);
+        this.bulkMessage = LocationCodec.encodeBulkResponse(this.bulk, this.encodeDictionary);
+        
+        if (this.dictionary) {
+            this.decodeDictionary = new RegionDictionary();
+            this.decodeDictionary.define(0, this.encodeDictionary.getNames(0));
+        }
+    }
+    
+    /**
+     * Encodes a response for a single target.
+     * 
+     * @return The encoded message.
+     */
+    @Benchmark
+    @NotNull
+    public String encodeResponse() {
+        return LocationCodec.encodeResponse(this.single, this.encodeDictionary);
+    }
+    
+    /**
+     * Decodes a response for a single target.
+     * 
+     * @return The decoded {@link LocationResponse}.
+     */
+    @Benchmark
+    @NotNull
+    public LocationResponse decodeResponse() {
+        return LocationCodec.decodeResponse(this.open(this.singleMessage), this.decodeDictionary);
+    }
+    
+    /**
+     * Encodes a bulk response for every player.
+     * 
+     * @return The encoded message.
+     */
+    @Benchmark
+    @NotNull
+    public String encodeBulkResponse() {
+        return LocationCodec.encodeBulkResponse(this.bulk, this.encodeDictionary);
+    }
+    
+    /**
+     * Decodes a bulk response for every player.
+     * 
+     * @return The decoded {@link BulkLocationResponse}.
+     */
+    @Benchmark
+    @NotNull
+    public BulkLocationResponse decodeBulkResponse() {
+        return LocationCodec.decodeBulkResponse(this.open(this.bulkMessage), this.decodeDictionary);
+    }
+    
+    /**
+     * Opens the given message, and skips the message type, as the BungeeCord
+     * plugin does before choosing the decoder.
+     * 
+     * @param message The encoded message.
+     * @return The {@link BinaryReader}, positioned after the message type.
+     */
+    @NotNull
+    private BinaryReader open(@NotNull final String message) {
+        final BinaryReader reader = LocationCodec.open(message);
+        reader.readUnsignedByte();
+        return reader;
+    }
+}
@@ -0,0 +1,445 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.benchmarks;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+import net.md_5.bungee.api.CommandSender;
+import net.md_5.bungee.api.ProxyConfig;
+import net.md_5.bungee.api.ProxyServer;
+import net.md_5.bungee.api.ReconnectHandler;
+import net.md_5.bungee.api.Title;
+import net.md_5.bungee.api.chat.BaseComponent;
+import net.md_5.bungee.api.config.ConfigurationAdapter;
+import net.md_5.bungee.api.config.ServerInfo;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import net.md_5.bungee.api.plugin.PluginManager;
+import net.md_5.bungee.api.scheduler.TaskScheduler;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Represents a fake {@link ProxyServer} for the benchmarks, which only knows
+ * a fixed collection of online players.
+ * <p>
+ * Everything else fails with an {@link UnsupportedOperationException}, so
+ * that a benchmark that starts to depend on more of the proxy is noticed
+ * instead of measuring a stub.
+ */
+final class FakeProxyServer extends ProxyServer {
+    
+    private final Collection<ProxiedPlayer> players;
+    
+    /**
+     * Constructs a new {@link FakeProxyServer}.
+     * 
+     * @param players The online {@link ProxiedPlayer ProxiedPlayers}.
+     */
+    FakeProxyServer(@NotNull final Collection<ProxiedPlayer> players) {
+        this.players = Collections.unmodifiableCollection(players);
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public String getName() {
+        throw new UnsupportedOperationException("getName");
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public String getVersion() {
+        throw new UnsupportedOperationException("getVersion");
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @param name Ignored.
+     * @param args Ignored.
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public String getTranslation(final String name, final Object... args) {
+        throw new UnsupportedOperationException("getTranslation");
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public Logger getLogger() {
+        throw new UnsupportedOperationException("getLogger");
+    }
+    
+    /**
+     * Gets the online players given to this {@link FakeProxyServer}.
+     * 
+     * @return The online {@link ProxiedPlayer ProxiedPlayers}.
+     */
+    @Override
+    @NotNull
+    public Collection<ProxiedPlayer> getPlayers() {
+        return this.players;
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @param name Ignored.
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public ProxiedPlayer getPlayer(final String name) {
+        throw new UnsupportedOperationException("getPlayer");
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @param uuid Ignored.
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public ProxiedPlayer getPlayer(final UUID uuid) {
+        throw new UnsupportedOperationException("getPlayer");
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    @Deprecated
+    public Map<String, ServerInfo> getServers() {
+        throw new UnsupportedOperationException("getServers");
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public Map<String, ServerInfo> getServersCopy() {
+        throw new UnsupportedOperationException("getServersCopy");
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @param name Ignored.
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public ServerInfo getServerInfo(final String name) {
+        throw new UnsupportedOperationException("getServerInfo");
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public PluginManager getPluginManager() {
+        throw new UnsupportedOperationException("getPluginManager");
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public ConfigurationAdapter getConfigurationAdapter() {
+        throw new UnsupportedOperationException("getConfigurationAdapter");
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @param adapter Ignored.
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public void setConfigurationAdapter(final ConfigurationAdapter adapter) {
+        throw new UnsupportedOperationException("setConfigurationAdapter");
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public ReconnectHandler getReconnectHandler() {
+        throw new UnsupportedOperationException("getReconnectHandler");
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @param handler Ignored.
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public void setReconnectHandler(final ReconnectHandler handler) {
+        throw new UnsupportedOperationException("setReconnectHandler");
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public void stop() {
+        throw new UnsupportedOperationException("stop");
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @param reason Ignored.
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public void stop(final String reason) {
+        throw new UnsupportedOperationException("stop");
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @param channel Ignored.
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public void registerChannel(final String channel) {
+        throw new UnsupportedOperationException("registerChannel");
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @param channel Ignored.
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public void unregisterChannel(final String channel) {
+        throw new UnsupportedOperationException("unregisterChannel");
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public Collection<String> getChannels() {
+        throw new UnsupportedOperationException("getChannels");
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    @Deprecated
+    public String getGameVersion() {
+        throw new UnsupportedOperationException("getGameVersion");
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    @Deprecated
+    public int getProtocolVersion() {
+        throw new UnsupportedOperationException("getProtocolVersion");
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @param name Ignored.
+     * @param address Ignored.
+     * @param motd Ignored.
+     * @param restricted Ignored.
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    @Deprecated
+    public ServerInfo constructServerInfo(final String name, final InetSocketAddress address, final String motd, final boolean restricted) {
+        throw new UnsupportedOperationException("constructServerInfo");
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @param name Ignored.
+     * @param address Ignored.
+     * @param motd Ignored.
+     * @param restricted Ignored.
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public ServerInfo constructServerInfo(final String name, final SocketAddress address, final String motd, final boolean restricted) {
+        throw new UnsupportedOperationException("constructServerInfo");
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public CommandSender getConsole() {
+        throw new UnsupportedOperationException("getConsole");
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public File getPluginsFolder() {
+        throw new UnsupportedOperationException("getPluginsFolder");
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public TaskScheduler getScheduler() {
+        throw new UnsupportedOperationException("getScheduler");
+    }
+    
+    /**
+     * Gets the number of online players given to this
+     * {@link FakeProxyServer}.
+     * 
+     * @return The number of online {@link ProxiedPlayer ProxiedPlayers}.
+     */
+    @Override
+    public int getOnlineCount() {
+        return this.players.size();
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @param message Ignored.
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    @Deprecated
+    public void broadcast(final String message) {
+        throw new UnsupportedOperationException("broadcast");
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @param message Ignored.
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public void broadcast(final BaseComponent... message) {
+        throw new UnsupportedOperationException("broadcast");
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @param message Ignored.
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public void broadcast(final BaseComponent message) {
+        throw new UnsupportedOperationException("broadcast");
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    @Deprecated
+    public Collection<String> getDisabledCommands() {
+        throw new UnsupportedOperationException("getDisabledCommands");
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public ProxyConfig getConfig() {
+        throw new UnsupportedOperationException("getConfig");
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @param match Ignored.
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public Collection<ProxiedPlayer> matchPlayer(final String match) {
+        throw new UnsupportedOperationException("matchPlayer");
+    }
+    
+    /**
+     * Not supported by this {@link FakeProxyServer}.
+     * 
+     * @throws UnsupportedOperationException Always.
+     */
+    @Override
+    public Title createTitle() {
+        throw new UnsupportedOperationException("createTitle");
+    }
+}
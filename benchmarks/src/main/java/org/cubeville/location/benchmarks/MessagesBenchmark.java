@@ -0,0 +1,118 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.md_5.bungee.api.chat.BaseComponent;
+import net.md_5.bungee.api.chat.ComponentBuilder;
+import org.bspfsystems.bungeelocation.core.Direction;
+import org.bspfsystems.bungeelocation.core.LocationResponse;
+import org.cubeville.location.bungeecord.LocationMessages;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks rendering location responses as chat messages on the proxy,
+ * and resolving the facing direction from a yaw.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MessagesBenchmark {
+    
+    @Param({"10", "100", "1000", "5000"})
+    public int players;
+    
+    private List<String> names;
+    private List<LocationResponse> locations;
+    private float[] yaws;
+    
+    /**
+     * Generates the players to render.
+     */
+    @Setup
+    public void setup() {
+        
+        final SyntheticPlayers synthetic = new SyntheticPlayers(this.players, 4);
+        this.names = synthetic.getNames();
+        this.locations = synthetic.getResponses();
+        
+        this.yaws = new float[this.locations.size()];
+        for (int index = 0; index < this.yaws.length; index++) {
+            this.yaws[index] = this.locations.get(index).getYaw();
+        }
+    }
+    
+    /**
+     * Renders the location of a single target, with its world and regions.
+     * 
+     * @return The rendered message.
+     */
+    @Benchmark
+    @NotNull
+    public BaseComponent[] renderLocation() {
+        return LocationMessages.location(this.names.get(0), "survival", this.locations.get(0), true);
+    }
+    
+    /**
+     * Renders the locations of every player as a single list message, as
+     * sent for a bulk request.
+     * 
+     * @return The rendered message.
+     */
+    @Benchmark
+    @NotNull
+    public BaseComponent[] renderList() {
+        final ComponentBuilder builder = LocationMessages.list("Players on survival");
+        for (int index = 0; index < this.locations.size(); index++) {
+            LocationMessages.line(builder, this.names.get(index), this.locations.get(index));
+        }
+        return LocationMessages.end(builder);
+    }
+    
+    /**
+     * Resolves the facing direction of every player from their yaw.
+     * 
+     * @param blackhole The {@link Blackhole} to consume the directions.
+     */
+    @Benchmark
+    public void resolveDirections(@NotNull final Blackhole blackhole) {
+        for (final float yaw : this.yaws) {
+            blackhole.consume(Direction.fromYaw(yaw));
+        }
+    }
+}
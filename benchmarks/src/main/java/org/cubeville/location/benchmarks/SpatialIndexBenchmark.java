@@ -0,0 +1,181 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.benchmarks;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.bspfsystems.bungeelocation.core.LocationResponse;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.cubeville.location.bukkit.SpatialIndex;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the {@link SpatialIndex} of the Bukkit plugin, which answers
+ * the area requests of {@code /where} and is updated on every movement to
+ * another block.
+ * <p>
+ * The synthetic players are squeezed into 1000 by 1000 blocks around the
+ * origin of their world, so that the nearby queries find some of them. The
+ * {@link World Worlds} are fakes that only know their name and
+ * {@link UUID}, which is all the {@link SpatialIndex} asks them for.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SpatialIndexBenchmark {
+    
+    private static final int SPREAD = 20;
+    
+    @Param({"100", "1000", "5000"})
+    public int players;
+    
+    private SpatialIndex index;
+    private UUID centerId;
+    private UUID worldId;
+    private UUID moverId;
+    private Location[] moves;
+    private int move;
+    
+    /**
+     * Indexes the synthetic players, and prepares the positions that one of
+     * them moves between.
+     */
+    @Setup
+    public void setup() {
+        
+        final SyntheticPlayers synthetic = new SyntheticPlayers(this.players, -1);
+        final List<UUID> ids = synthetic.getIds();
+        final List<LocationResponse> locations = synthetic.getResponses();
+        final Map<String, World> worlds = new HashMap<String, World>();
+        
+        this.index = new SpatialIndex();
+        for (int index = 0; index < ids.size(); index++) {
+            final LocationResponse location = locations.get(index);
+            final World world = worlds.computeIfAbsent(location.getWorldName(), SpatialIndexBenchmark::createWorld);
+            this.index.onMove(ids.get(index), new Location(world, location.getX() / SPREAD, location.getY(), location.getZ() / SPREAD));
+        }
+        
+        final LocationResponse center = locations.get(0);
+        final World world = worlds.get(center.getWorldName());
+        this.centerId = ids.get(0);
+        this.worldId = world.getUID();
+        this.moverId = ids.get(ids.size() - 1);
+        this.moves = new Location[16];
+        for (int index = 0; index < this.moves.length; index++) {
+            this.moves[index] = new Location(world, index * 7, 64, index * -11);
+        }
+        this.move = 0;
+    }
+    
+    /**
+     * Finds the players within 32 blocks of a player.
+     * 
+     * @return The {@link UUID UUIDs} of the players.
+     */
+    @Benchmark
+    @Nullable
+    public List<UUID> nearbySmall() {
+        return this.index.getNearby(this.centerId, 32);
+    }
+    
+    /**
+     * Finds the players within 256 blocks of a player.
+     * 
+     * @return The {@link UUID UUIDs} of the players.
+     */
+    @Benchmark
+    @Nullable
+    public List<UUID> nearbyLarge() {
+        return this.index.getNearby(this.centerId, 256);
+    }
+    
+    /**
+     * Finds the players inside a 200 by 200 block box, over the whole
+     * height of the world.
+     * 
+     * @return The {@link UUID UUIDs} of the players.
+     */
+    @Benchmark
+    @NotNull
+    public List<UUID> insideBox() {
+        return this.index.getInside(this.worldId, -100, -64, -100, 100, 320, 100, null);
+    }
+    
+    /**
+     * Moves a player to the next of the prepared positions, most of which
+     * are in another chunk.
+     */
+    @Benchmark
+    public void move() {
+        this.index.onMove(this.moverId, this.moves[this.move]);
+        this.move = (this.move + 1) % this.moves.length;
+    }
+    
+    /**
+     * Creates a fake {@link World} that only answers its name and
+     * {@link UUID}, and fails on anything else.
+     * 
+     * @param name The name of the {@link World}.
+     * @return The fake {@link World}.
+     */
+    @NotNull
+    private static World createWorld(@NotNull final String name) {
+        
+        final UUID worldId = UUID.nameUUIDFromBytes(name.getBytes());
+        return (World) Proxy.newProxyInstance(World.class.getClassLoader(), new Class<?>[] {World.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getName":
+                    return name;
+                case "getUID":
+                    return worldId;
+                case "hashCode":
+                    return worldId.hashCode();
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "FakeWorld{" + name + "}";
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+}
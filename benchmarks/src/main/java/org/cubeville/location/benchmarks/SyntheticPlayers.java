@@ -0,0 +1,139 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import org.bspfsystems.bungeelocation.core.LocationResponse;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Generates a reproducible set of synthetic players, with names, locations
+ * and WorldGuard regions, for the benchmarks to run against.
+ * <p>
+ * The same seed always produces the same players, so that runs before and
+ * after a change measure the same data.
+ */
+final class SyntheticPlayers {
+    
+    private static final long SEED = 0x43564C6F636174L;
+    private static final String[] WORLDS = {"world", "world_nether", "world_the_end", "creative"};
+    private static final String[] SYLLABLES = {"ka", "zu", "mi", "ro", "tex", "an", "bel", "dor", "fi", "gra", "hol", "jin", "lu", "ne", "pix", "qua", "shi", "vo", "wen", "yar"};
+    private static final List<String> REGIONS = Collections.unmodifiableList(Arrays.asList("spawn", "market", "arena", "town_hall", "harbor", "north_wall", "plot_17", "plot_42"));
+    
+    private final List<UUID> ids;
+    private final List<String> names;
+    private final List<LocationResponse> responses;
+    
+    /**
+     * Generates the given number of synthetic players.
+     * 
+     * @param count The number of players.
+     * @param regions The maximum number of WorldGuard regions each player is
+     *                in, or {@code -1} if no regions should be included.
+     */
+    SyntheticPlayers(final int count, final int regions) {
+        
+        final Random random = new Random(SEED);
+        this.ids = new ArrayList<UUID>(count);
+        this.names = new ArrayList<String>(count);
+        this.responses = new ArrayList<LocationResponse>(count);
+        
+        final UUID senderId = new UUID(random.nextLong(), random.nextLong());
+        for (int index = 0; index < count; index++) {
+            
+            final UUID playerId = new UUID(random.nextLong(), random.nextLong());
+            final StringBuilder name = new StringBuilder();
+            final int syllables = 2 + random.nextInt(3);
+            for (int syllable = 0; syllable < syllables; syllable++) {
+                name.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            }
+            if (random.nextBoolean()) {
+                name.setCharAt(0, Character.toUpperCase(name.charAt(0)));
+            }
+            name.append(index % 100);
+            
+            this.ids.add(playerId);
+            this.names.add(name.toString());
+            this.responses.add(new LocationResponse(0, senderId, playerId, WORLDS[random.nextInt(WORLDS.length)], random.nextInt(20000) - 10000, random.nextInt(320) - 64, random.nextInt(20000) - 10000, random.nextFloat() * 360.0F - 180.0F, this.pickRegions(random, regions)));
+        }
+    }
+    
+    /**
+     * Picks a random set of WorldGuard regions for a single player.
+     * 
+     * @param random The {@link Random} to pick with.
+     * @param regions The maximum number of regions, or {@code -1} if no
+     *                regions should be included.
+     * @return The region names, or {@code null} if no regions should be
+     *         included.
+     */
+    @Nullable
+    private List<String> pickRegions(@NotNull final Random random, final int regions) {
+        if (regions < 0) {
+            return null;
+        }
+        final int count = regions == 0 ? 0 : 1 + random.nextInt(regions);
+        final List<String> picked = new ArrayList<String>(count);
+        for (int index = 0; index < count; index++) {
+            picked.add(REGIONS.get(random.nextInt(REGIONS.size())));
+        }
+        return Collections.unmodifiableList(picked);
+    }
+    
+    /**
+     * Gets the {@link UUID UUIDs} of the players.
+     * 
+     * @return The {@link UUID UUIDs}.
+     */
+    @NotNull
+    List<UUID> getIds() {
+        return this.ids;
+    }
+    
+    /**
+     * Gets the names of the players, in the same order as their
+     * {@link UUID UUIDs}.
+     * 
+     * @return The names.
+     */
+    @NotNull
+    List<String> getNames() {
+        return this.names;
+    }
+    
+    /**
+     * Gets a {@link LocationResponse} for each of the players, in the same
+     * order as their {@link UUID UUIDs}.
+     * 
+     * @return The {@link LocationResponse LocationResponses}.
+     */
+    @NotNull
+    List<LocationResponse> getResponses() {
+        return this.responses;
+    }
+}
@@ -0,0 +1,221 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.benchmarks;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import net.md_5.bungee.api.ProxyServer;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import org.cubeville.cvplayerdata.PlayerDataManager;
+import org.cubeville.location.bungeecord.PlayerNameIndex;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks tab-completing player names for {@code /where} from the
+ * {@link PlayerNameIndex}, which is what the tab completion of the command
+ * spends its time on.
+ * <p>
+ * The {@link ProxyServer}, the {@link ProxiedPlayer ProxiedPlayers} and the
+ * {@link PlayerDataManager} are fakes, which are only called while the
+ * index is built and while the ranks are cached, not while completing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TabCompleteBenchmark {
+    
+    @Param({"10", "100", "1000", "5000"})
+    public int players;
+    
+    private PlayerNameIndex index;
+    private UUID limitedId;
+    private String shortPrefix;
+    private String longPrefix;
+    
+    /**
+     * Builds a {@link PlayerNameIndex} over the synthetic players, where
+     * every other player is outranked by the limited sender.
+     */
+    @Setup
+    public void setup() {
+        
+        final SyntheticPlayers synthetic = new SyntheticPlayers(this.players, -1);
+        final List<UUID> ids = synthetic.getIds();
+        final List<String> names = synthetic.getNames();
+        
+        final List<ProxiedPlayer> online = new ArrayList<ProxiedPlayer>(ids.size());
+        final FakePlayerDataManager playerDataManager = new FakePlayerDataManager();
+        for (int index = 0; index < ids.size(); index++) {
+            online.add(TabCompleteBenchmark.createPlayer(ids.get(index), names.get(index)));
+            if (index % 10 == 0) {
+                playerDataManager.visibleNames.put(ids.get(index), "~" + names.get(index));
+            }
+            if (index % 2 == 0) {
+                playerDataManager.outranked.add(ids.get(index));
+            }
+        }
+        
+        this.limitedId = ids.get(0);
+        this.index = new PlayerNameIndex(new FakeProxyServer(online), playerDataManager);
+        this.shortPrefix = names.get(ids.size() / 2).substring(0, 1);
+        this.longPrefix = names.get(ids.size() / 2).substring(0, 3);
+        this.index.complete("", this.limitedId);
+    }
+    
+    /**
+     * Completes an empty argument, which lists every player.
+     * 
+     * @return The completions.
+     */
+    @Benchmark
+    @NotNull
+    public List<String> completeAll() {
+        return this.index.complete("", null);
+    }
+    
+    /**
+     * Completes a single-character prefix.
+     * 
+     * @return The completions.
+     */
+    @Benchmark
+    @NotNull
+    public List<String> completeShortPrefix() {
+        return this.index.complete(this.shortPrefix, null);
+    }
+    
+    /**
+     * Completes a three-character prefix.
+     * 
+     * @return The completions.
+     */
+    @Benchmark
+    @NotNull
+    public List<String> completeLongPrefix() {
+        return this.index.complete(this.longPrefix, null);
+    }
+    
+    /**
+     * Completes an empty argument for a sender that may only see the players
+     * they outrank.
+     * 
+     * @return The completions.
+     */
+    @Benchmark
+    @NotNull
+    public List<String> completeLimited() {
+        return this.index.complete("", this.limitedId);
+    }
+    
+    /**
+     * Creates a fake {@link ProxiedPlayer} that only answers its
+     * {@link UUID} and name, and fails on anything else.
+     * 
+     * @param playerId The {@link UUID} of the player.
+     * @param name The name of the player.
+     * @return The fake {@link ProxiedPlayer}.
+     */
+    @NotNull
+    private static ProxiedPlayer createPlayer(@NotNull final UUID playerId, @NotNull final String name) {
+        return (ProxiedPlayer) Proxy.newProxyInstance(ProxiedPlayer.class.getClassLoader(), new Class<?>[] {ProxiedPlayer.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getUniqueId":
+                    return playerId;
+                case "getName":
+                    return name;
+                case "hashCode":
+                    return playerId.hashCode();
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "FakePlayer{" + name + "}";
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+    
+    /**
+     * Represents a fake {@link PlayerDataManager} over fixed collections,
+     * where every sender outranks the same fixed set of players.
+     */
+    private static final class FakePlayerDataManager extends PlayerDataManager {
+        
+        private final Map<UUID, String> visibleNames;
+        private final Set<UUID> outranked;
+        
+        /**
+         * Constructs a new, empty {@link FakePlayerDataManager}.
+         */
+        private FakePlayerDataManager() {
+            this.visibleNames = new HashMap<UUID, String>();
+            this.outranked = new HashSet<UUID>();
+        }
+        
+        /**
+         * Gets the visible name of a player.
+         * 
+         * @param playerId The {@link UUID} of the player.
+         * @return The visible name, or {@code null} if it is the real name.
+         */
+        @Override
+        @Nullable
+        public String getPlayerVisibleName(@NotNull final UUID playerId) {
+            return this.visibleNames.get(playerId);
+        }
+        
+        /**
+         * Checks if the given sender outranks the given target.
+         * 
+         * @param senderId The {@link UUID} of the sender.
+         * @param targetId The {@link UUID} of the target.
+         * @return {@code true} if the sender may see the target,
+         *         {@code false} otherwise.
+         */
+        @Override
+        public boolean outranks(@NotNull final UUID senderId, @NotNull final UUID targetId) {
+            return this.outranked.contains(targetId);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.bspfsystems.bungeelocation.core.LocationConstants;
+import org.bspfsystems.bungeelocation.core.LocationRequest;
+import org.bspfsystems.bungeelocation.core.LocationResponse;
+import org.bspfsystems.bungeelocation.core.TextCodec;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the original pipe-delimited text protocol, which is still used
+ * for servers and proxies that predate the binary one.
+ * <p>
+ * {@link #decodeRequest()} and {@link #encodeResponse()} are what the Bukkit
+ * plugin does to answer a text request, and {@link #decodeResponse()} what
+ * the BungeeCord plugin does with the answer. All of them call the
+ * {@link TextCodec} the plugins use, without the IPC and logging around it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TextProtocolBenchmark {
+    
+    private static final String CONSOLE_NAME = "CONSOLE";
+    
+    @Param({"-1", "0", "4"})
+    public int regions;
+    
+    private LocationResponse location;
+    private String regionText;
+    private String request;
+    private String response;
+    
+    /**
+     * Builds the request and response messages to benchmark with, and the
+     * region text that the Bukkit plugin keeps for each set of regions.
+     */
+    @Setup
+    public void setup() {
+        
+        this.location = new SyntheticPlayers(1, this.regions).getResponses().get(0);
+        final List<String> regionNames = this.location.getRegions();
+        if (regionNames == null) {
+            this.regionText = null;
+        } else {
+            this.regionText = regionNames.isEmpty() ? LocationConstants.REGIONS_UNKNOWN : String.join(LocationConstants.SEPARATOR, regionNames);
+        }
+        
+        this.request = TextCodec.encodeRequest(this.location.getSenderId(), this.location.getTargetId(), this.regions >= 0, CONSOLE_NAME);
+        this.response = this.encodeResponse();
+    }
+    
+    /**
+     * Decodes a text request, as the Bukkit plugin does.
+     * 
+     * @return The decoded {@link LocationRequest}.
+     */
+    @Benchmark
+    @NotNull
+    public LocationRequest decodeRequest() {
+        return TextCodec.decodeRequest(this.request);
+    }
+    
+    /**
+     * Encodes a text response to the request, as the Bukkit plugin does.
+     * 
+     * @return The response message, without the channel.
+     */
+    @Benchmark
+    @NotNull
+    public String encodeResponse() {
+        return TextCodec.encodeResponse(this.request, this.location.getWorldName(), this.location.getX(), this.location.getY(), this.location.getZ(), this.location.getYaw(), this.regionText);
+    }
+    
+    /**
+     * Decodes a text response, as the BungeeCord plugin does.
+     * 
+     * @return The decoded {@link LocationResponse}.
+     */
+    @Benchmark
+    @NotNull
+    public LocationResponse decodeResponse() {
+        return TextCodec.decodeResponse(this.response, CONSOLE_NAME);
+    }
+}
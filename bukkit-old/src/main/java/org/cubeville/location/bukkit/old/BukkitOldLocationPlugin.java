@@ -27,14 +27,11 @@ import com.sk89q.worldguard.WorldGuard;
 import com.sk89q.worldguard.protection.ApplicableRegionSet;
 import com.sk89q.worldguard.protection.managers.RegionManager;
 import com.sk89q.worldguard.protection.regions.ProtectedRegion;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Iterator;
-import java.util.List;
-import java.util.StringTokenizer;
 import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.bspfsystems.bungeelocation.core.FieldCursor;
 import org.bspfsystems.bungeelocation.core.LocationConstants;
 import org.bukkit.Location;
 import org.bukkit.Server;
@@ -44,8 +41,6 @@ import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.cubeville.cvipc.CVIPC;
 import org.cubeville.cvipc.IPCInterface;
-import org.jetbrains.annotations.NotNull;
-import org.jetbrains.annotations.UnmodifiableView;
 
 /**
  * Represents the main entrypoint to the Bukkit plugin systems for the
@@ -111,29 +106,37 @@ public final class BukkitOldLocationPlugin extends JavaPlugin implements IPCInte
             return;
         }
         
-        final List<String> parts = this.getMessageParts(message);
-        if (parts.size() < 3) {
+        final FieldCursor cursor = new FieldCursor(message);
+        final int fields = cursor.remaining();
+        if (fields < 3) {
             logger.log(Level.WARNING, "Missing some combination of sender UUID, target UUID, and regions flag.");
             logger.log(Level.WARNING, "Message: " + message);
             return;
         }
-        if (parts.size() > 3) {
+        if (fields > 3) {
             logger.log(Level.WARNING, "Message contains too much data. Should only contain sender UUID, target UUID, and regions flag.");
             logger.log(Level.WARNING, "Message: " + message);
             return;
         }
         
-        final String rawSenderId = parts.get(0);
-        final String rawTargetId = parts.get(1);
-        final boolean getRegions = parts.get(2).equalsIgnoreCase("true");
+        final StringBuilder builder = new StringBuilder(message.length() + 64);
+        builder.append(LocationConstants.RESPONSE_CHANNEL).append(LocationConstants.SEPARATOR);
+        
+        cursor.next();
+        cursor.appendTo(builder).append(LocationConstants.SEPARATOR);
         
+        cursor.next();
         final UUID targetId;
         try {
-            targetId = UUID.fromString(rawTargetId);
+            targetId = cursor.uuidValue();
         } catch (final IllegalArgumentException e) {
-            logger.log(Level.WARNING, "Unable to parse target UUID. Sender UUID: " + rawSenderId, e);
+            logger.log(Level.WARNING, "Unable to parse target UUID. Message: " + message, e);
             return;
         }
+        cursor.appendTo(builder).append(LocationConstants.SEPARATOR);
+        
+        cursor.next();
+        final boolean getRegions = cursor.booleanValue();
         
         final Player target = this.server.getPlayer(targetId);
         if (target == null) {
@@ -146,20 +149,11 @@ public final class BukkitOldLocationPlugin extends JavaPlugin implements IPCInte
         final Location location = target.getLocation();
         final World world = location.getWorld();
         final String worldName = world == null ? "null" : world.getName();
-        final String x = String.valueOf((int) location.getX());
-        final String y = String.valueOf((int) location.getY());
-        final String z = String.valueOf((int) location.getZ());
-        final String yaw = String.valueOf(location.getYaw());
-        
-        final StringBuilder builder = new StringBuilder();
-        builder.append(LocationConstants.RESPONSE_CHANNEL).append(LocationConstants.SEPARATOR);
-        builder.append(rawSenderId).append(LocationConstants.SEPARATOR);
-        builder.append(rawTargetId).append(LocationConstants.SEPARATOR);
         builder.append(worldName).append(LocationConstants.SEPARATOR);
-        builder.append(x).append(LocationConstants.SEPARATOR);
-        builder.append(y).append(LocationConstants.SEPARATOR);
-        builder.append(z).append(LocationConstants.SEPARATOR);
-        builder.append(yaw);
+        builder.append((int) location.getX()).append(LocationConstants.SEPARATOR);
+        builder.append((int) location.getY()).append(LocationConstants.SEPARATOR);
+        builder.append((int) location.getZ()).append(LocationConstants.SEPARATOR);
+        builder.append(location.getYaw());
         
         if (!getRegions) {
             this.ipcPlugin.sendMessage(builder.toString());
@@ -168,7 +162,7 @@ public final class BukkitOldLocationPlugin extends JavaPlugin implements IPCInte
         
         builder.append(LocationConstants.SEPARATOR);
         if (world == null) {
-            logger.log(Level.WARNING, "Sender UUID: " + rawSenderId + " / Target UUID: " + rawTargetId + " / Null World.");
+            logger.log(Level.WARNING, "Message: " + message + " / Null World.");
             builder.append(LocationConstants.REGIONS_UNKNOWN);
             this.ipcPlugin.sendMessage(builder.toString());
             return;
@@ -176,7 +170,7 @@ public final class BukkitOldLocationPlugin extends JavaPlugin implements IPCInte
         
         final RegionManager regionManager = WorldGuard.getInstance().getPlatform().getRegionContainer().get(BukkitAdapter.adapt(world));
         if (regionManager == null) {
-            logger.log(Level.WARNING, "Sender UUID: " + rawSenderId + " / Target UUID: " + rawTargetId + " / World: " + worldName + " / Null Region Manager.");
+            logger.log(Level.WARNING, "Message: " + message + " / World: " + worldName + " / Null Region Manager.");
             builder.append(LocationConstants.REGIONS_UNKNOWN);
             this.ipcPlugin.sendMessage(builder.toString());
             return;
@@ -199,25 +193,4 @@ public final class BukkitOldLocationPlugin extends JavaPlugin implements IPCInte
         
         this.ipcPlugin.sendMessage(builder.toString());
     }
-    
-    /**
-     * Processes the given whole IPC message into a {@link List} of various
-     * parts.
-     *
-     * @param message The full IPC message.
-     * @return The separated parts of the IPC message.
-     */
-    @NotNull
-    @UnmodifiableView
-    private List<String> getMessageParts(final String message) {
-        
-        final List<String> parts = new ArrayList<String>();
-        final StringTokenizer tokenizer = new StringTokenizer(message, LocationConstants.SEPARATOR);
-        
-        while(tokenizer.hasMoreTokens()) {
-            parts.add(tokenizer.nextToken());
-        }
-        
-        return Collections.unmodifiableList(parts);
-    }
 }
@@ -0,0 +1,148 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.bukkit;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.bspfsystems.bungeelocation.core.LatencyHistogram;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Records how long each stage of answering a location request takes on this
+ * server, in a {@link LatencyHistogram} per {@link Stage}.
+ * <p>
+ * Recording is lock-free and does not allocate, so it is done for every
+ * request. The histograms are reported by {@code /cvlocation metrics}, and
+ * logged periodically by running this {@link BackendMetrics}.
+ */
+public final class BackendMetrics implements Runnable {
+    
+    /**
+     * The stages of answering a location request on this server.
+     */
+    public enum Stage {
+        
+        /**
+         * Waiting in the {@link LocationSampler} queue for the main server
+         * thread.
+         */
+        QUEUE("Queue"),
+        
+        /**
+         * Sampling a single player on the main server thread, including
+         * their WorldGuard regions.
+         */
+        SAMPLE("Sample"),
+        
+        /**
+         * Getting the WorldGuard regions of a single player from the
+         * {@link RegionMembership} index.
+         */
+        REGIONS("Regions"),
+        
+        /**
+         * Encoding a binary response.
+         */
+        ENCODE("Encode"),
+        
+        /**
+         * Announcing any new region names and handing a binary response to
+         * the IPC plugin.
+         */
+        SEND("IPC send");
+        
+        private final String name;
+        
+        /**
+         * Constructs a new {@link Stage}.
+         * 
+         * @param name The display name of the {@link Stage}.
+         */
+        Stage(@NotNull final String name) {
+            this.name = name;
+        }
+        
+        /**
+         * Gets the display name of this {@link Stage}.
+         * 
+         * @return The display name.
+         */
+        @NotNull
+        public String getName() {
+            return this.name;
+        }
+    }
+    
+    private static final Stage[] STAGES = Stage.values();
+    
+    private final Logger logger;
+    private final LatencyHistogram[] stages;
+    
+    /**
+     * Constructs a new, empty set of {@link BackendMetrics}.
+     * 
+     * @param logger The {@link Logger} to log the periodic reports to.
+     */
+    public BackendMetrics(@NotNull final Logger logger) {
+        this.logger = logger;
+        this.stages = new LatencyHistogram[STAGES.length];
+        for (int index = 0; index < STAGES.length; index++) {
+            this.stages[index] = new LatencyHistogram();
+        }
+    }
+    
+    /**
+     * Records the time elapsed since the given start time for the given
+     * {@link Stage}.
+     * 
+     * @param stage The {@link Stage}.
+     * @param startNanos The start time, as returned by
+     *                   {@link System#nanoTime()}.
+     */
+    public void record(@NotNull final Stage stage, final long startNanos) {
+        this.stages[stage.ordinal()].recordSince(startNanos);
+    }
+    
+    /**
+     * Gets the {@link LatencyHistogram} of the given {@link Stage}.
+     * 
+     * @param stage The {@link Stage}.
+     * @return The {@link LatencyHistogram}.
+     */
+    @NotNull
+    public LatencyHistogram getHistogram(@NotNull final Stage stage) {
+        return this.stages[stage.ordinal()];
+    }
+    
+    /**
+     * Logs a report of every {@link Stage} that has recorded anything so far.
+     */
+    @Override
+    public void run() {
+        for (final Stage stage : STAGES) {
+            final LatencyHistogram histogram = this.getHistogram(stage);
+            if (histogram.getCount() > 0L) {
+                this.logger.log(Level.INFO, "Metrics: " + stage.getName() + ": " + histogram.format());
+            }
+        }
+    }
+}
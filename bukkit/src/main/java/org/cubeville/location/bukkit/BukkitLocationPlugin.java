@@ -21,46 +21,68 @@
 
 package org.cubeville.location.bukkit;
 
-import com.sk89q.worldedit.bukkit.BukkitAdapter;
-import com.sk89q.worldedit.math.BlockVector3;
-import com.sk89q.worldguard.WorldGuard;
-import com.sk89q.worldguard.protection.ApplicableRegionSet;
-import com.sk89q.worldguard.protection.managers.RegionManager;
 import com.sk89q.worldguard.protection.regions.ProtectedRegion;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
-import java.util.StringTokenizer;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.bspfsystems.bungeelocation.core.BinaryReader;
+import org.bspfsystems.bungeelocation.core.BulkLocationRequest;
+import org.bspfsystems.bungeelocation.core.BulkLocationResponse;
+import org.bspfsystems.bungeelocation.core.LocationCodec;
 import org.bspfsystems.bungeelocation.core.LocationConstants;
+import org.bspfsystems.bungeelocation.core.LocationHistoryRequest;
+import org.bspfsystems.bungeelocation.core.LocationHistoryResponse;
+import org.bspfsystems.bungeelocation.core.LocationNotFound;
+import org.bspfsystems.bungeelocation.core.LocationRequest;
+import org.bspfsystems.bungeelocation.core.LocationResponse;
+import org.bspfsystems.bungeelocation.core.LocationTrace;
+import org.bspfsystems.bungeelocation.core.TextCodec;
 import org.bukkit.Location;
 import org.bukkit.Server;
-import org.bukkit.World;
-import org.bukkit.entity.Player;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.cubeville.cvipc.CVIPC;
 import org.cubeville.cvipc.IPCInterface;
+import org.cubeville.location.bukkit.command.CVLocationCommand;
 import org.jetbrains.annotations.NotNull;
-import org.jetbrains.annotations.UnmodifiableView;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * Represents the main entrypoint to the Bukkit plugin systems for the
  * BungeeLocation Bukkit plugin.
  * <p>
  * This also represents the {@link IPCInterface} for receiving and processing
- * location request IPC messages.
+ * location request IPC messages, in either the text or the binary protocol.
  */
 public final class BukkitLocationPlugin extends JavaPlugin implements IPCInterface {
     
+    /**
+     * The permission needed to use {@code /cvlocation}, which shows the
+     * statistics and metrics of this plugin, and the location log.
+     */
+    public static final String PERMISSION_ADMIN = "cvlocation.admin";
+    
     private Server server;
     private CVIPC ipcPlugin;
+    private BackendMetrics metrics;
+    private ResponseSender responseSender;
+    private LocationSampler sampler;
+    private LocationFollower follower;
+    private SpatialIndex spatialIndex;
+    private RegionMembership regionMembership;
+    private LocationAreaFinder areaFinder;
+    private LocationHistory history;
+    private LocationLog log;
     
     /**
-     * Enables the plugin, registering the IPC request channel.
+     * Enables the plugin, registering the IPC request channels and announcing
+     * the supported protocol version to the proxy.
      */
     @Override
     public void onEnable() {
@@ -77,27 +99,107 @@ public final class BukkitLocationPlugin extends JavaPlugin implements IPCInterfa
         
         this.ipcPlugin = (CVIPC) ipcPlugin;
         
+        this.saveDefaultConfig();
+        final FileConfiguration config = this.getConfig();
+        
+        this.metrics = new BackendMetrics(this.getLogger());
+        final long metricsInterval = config.getLong("metrics.log-interval-minutes", 15L) * 60L * 20L;
+        if (metricsInterval > 0L) {
+            this.server.getScheduler().runTaskTimerAsynchronously(this, this.metrics, metricsInterval, metricsInterval);
+        }
+        this.responseSender = new ResponseSender(this.ipcPlugin, this.metrics);
+        
+        final MovementListener movementListener = new MovementListener();
+        this.server.getPluginManager().registerEvents(movementListener, this);
+        
+        LocationSnapshot snapshot = null;
+        if (config.getBoolean("snapshot.enabled", false)) {
+            snapshot = new LocationSnapshot();
+            movementListener.subscribe(snapshot);
+            snapshot.populate(this.server.getOnlinePlayers());
+        }
+        
+        this.regionMembership = new RegionMembership(this.server, new RegionLookup(this.getLogger()));
+        this.server.getPluginManager().registerEvents(this.regionMembership, this);
+        movementListener.subscribe(this.regionMembership);
+        this.regionMembership.populate(this.server.getOnlinePlayers());
+        final long regionCheckInterval = Math.max(1L, config.getLong("region-membership.check-interval-ticks", 20L));
+        this.server.getScheduler().runTaskTimer(this, this.regionMembership, regionCheckInterval, regionCheckInterval);
+        this.sampler = new LocationSampler(this, snapshot, this.regionMembership, this.metrics);
+        
+        this.follower = new LocationFollower(this, this.responseSender, this.sampler, config.getInt("follow.keyframe-interval", 20));
+        final long followInterval = Math.max(1L, config.getLong("follow.interval-ticks", 5L));
+        this.server.getScheduler().runTaskTimer(this, this.follower, followInterval, followInterval);
+        
+        this.spatialIndex = new SpatialIndex();
+        movementListener.subscribe(this.spatialIndex);
+        this.spatialIndex.populate(this.server.getOnlinePlayers());
+        this.areaFinder = new LocationAreaFinder(this, this.sampler, this.spatialIndex, this.regionMembership, this.responseSender, config.getInt("area.max-radius", 256));
+        
+        this.history = null;
+        if (config.getBoolean("history.enabled", true)) {
+            this.history = new LocationHistory(this, config.getInt("history.interval-ticks", 20), config.getInt("history.retention-minutes", 15) * 60 * 20);
+            this.server.getPluginManager().registerEvents(this.history, this);
+            this.history.populate(this.server.getOnlinePlayers());
+            this.server.getScheduler().runTaskTimer(this, this.history, this.history.getInterval(), this.history.getInterval());
+        }
+        
+        this.log = null;
+        if (config.getBoolean("log.enabled", false)) {
+            this.log = new LocationLog(this, this.getDataFolder().toPath().resolve("log"), config.getLong("log.segment-size-mb", 16L) * 1024L * 1024L, config.getLong("log.segment-minutes", 60L) * 60L * 1000L, TimeUnit.DAYS.toMillis(config.getLong("log.retention-days", 7L)));
+            this.log.start(config.getLong("log.compact-interval-minutes", 30L));
+            final long logInterval = Math.max(1L, config.getLong("log.interval-ticks", 20L));
+            this.server.getScheduler().runTaskTimer(this, this.log, logInterval, logInterval);
+        }
+        
+        final PluginCommand command = this.getCommand("cvlocation");
+        if (command == null) {
+            throw new RuntimeException("cvlocation command not registered.");
+        }
+        final CVLocationCommand executor = new CVLocationCommand(this);
+        command.setExecutor(executor);
+        command.setTabCompleter(executor);
+        
         this.ipcPlugin.registerInterface(LocationConstants.REQUEST_CHANNEL, this);
+        this.ipcPlugin.registerInterface(LocationConstants.BINARY_REQUEST_CHANNEL, this);
+        this.ipcPlugin.registerInterface(LocationConstants.HELLO_CHANNEL, this);
+        
+        this.sendHello();
     }
     
     /**
-     * Disables the plugin, unregistering the IPC request channel.
+     * Disables the plugin, unregistering the IPC request channels, and
+     * writing out the location log.
      */
     @Override
     public void onDisable() {
         this.ipcPlugin.deregisterInterface(LocationConstants.REQUEST_CHANNEL);
+        this.ipcPlugin.deregisterInterface(LocationConstants.BINARY_REQUEST_CHANNEL);
+        this.ipcPlugin.deregisterInterface(LocationConstants.HELLO_CHANNEL);
+        if (this.log != null) {
+            this.log.close();
+        }
     }
     
     /**
      * Processes the incoming IPC message and channel.
      * <p>
-     * This only has 1 channel registered: The location request channel.
+     * This has 3 channels registered: The text location request channel, the
+     * binary location request channel, and the hello channel.
      * <p>
      * The location request will find the player with the given target
      * {@link UUID}, obtain their {@link Location}, and, if requested, also
      * obtain the set of {@link ProtectedRegion} names that the player is
      * located in. It will then compile the data and send it back via the
-     * response channel.
+     * response channel that matches the format of the request.
+     * <p>
+     * Only the request itself is parsed on the calling thread. The location
+     * is sampled on the main server thread by the {@link LocationSampler},
+     * and the response is serialized and sent asynchronously.
+     * <p>
+     * A hello message from the proxy is answered with the protocol version
+     * supported by this plugin, and restarts the announcements of the
+     * {@link ResponseSender}.
      * 
      * @param channel The channel the IPC message is destined for.
      * @param message The IPC message.
@@ -106,118 +208,274 @@ public final class BukkitLocationPlugin extends JavaPlugin implements IPCInterfa
     public void process(final String channel, final String message) {
         
         final Logger logger = this.getLogger();
-        if (!channel.equalsIgnoreCase(LocationConstants.REQUEST_CHANNEL)) {
-            logger.log(Level.WARNING, "Invalid channel for Bukkit Location plugin: " + channel + ". Channel should be " + LocationConstants.REQUEST_CHANNEL);
+        if (channel.equalsIgnoreCase(LocationConstants.HELLO_CHANNEL)) {
+            this.processHello(message);
             return;
         }
-        
-        final List<String> parts = this.getMessageParts(message);
-        if (parts.size() < 3) {
-            logger.log(Level.WARNING, "Missing some combination of sender UUID, target UUID, and regions flag.");
-            logger.log(Level.WARNING, "Message: " + message);
+        if (channel.equalsIgnoreCase(LocationConstants.BINARY_REQUEST_CHANNEL)) {
+            this.processBinary(message);
             return;
         }
-        if (parts.size() > 3) {
-            logger.log(Level.WARNING, "Message contains too much data. Should only contain sender UUID, target UUID, and regions flag.");
-            logger.log(Level.WARNING, "Message: " + message);
+        if (!channel.equalsIgnoreCase(LocationConstants.REQUEST_CHANNEL)) {
+            logger.log(Level.WARNING, "Invalid channel for Bukkit Location plugin: " + channel + ". Channel should be " + LocationConstants.REQUEST_CHANNEL + " or " + LocationConstants.BINARY_REQUEST_CHANNEL);
             return;
         }
         
-        final String rawSenderId = parts.get(0);
-        final String rawTargetId = parts.get(1);
-        final boolean getRegions = parts.get(2).equalsIgnoreCase("true");
-        
-        final UUID targetId;
+        final LocationRequest request;
         try {
-            targetId = UUID.fromString(rawTargetId);
+            request = TextCodec.decodeRequest(message);
         } catch (final IllegalArgumentException e) {
-            logger.log(Level.WARNING, "Unable to parse target UUID. Sender UUID: " + rawSenderId, e);
+            logger.log(Level.WARNING, "Unable to decode text location request.", e);
+            logger.log(Level.WARNING, "Message: " + message);
             return;
         }
         
-        final Player target = this.server.getPlayer(targetId);
-        if (target == null) {
-            return;
-        }
-        if (!target.isOnline()) {
-            return;
-        }
+        this.sampler.submit(request.getTargetId(), request.isRegions(), sample -> this.sendText(message, request.isRegions(), sample));
+    }
+    
+    /**
+     * Sends the response to a text location request.
+     * <p>
+     * The sender and target fields are copied from the original request, so
+     * that they are echoed back exactly as the proxy sent them.
+     * 
+     * @param message The original IPC message, without the channel.
+     * @param getRegions {@code true} if the WorldGuard regions were
+     *                   requested, {@code false} otherwise.
+     * @param sample The {@link LocationSample} of the target, or {@code null}
+     *               if the target is not online.
+     */
+    private void sendText(@NotNull final String message, final boolean getRegions, @Nullable final LocationSample sample) {
         
-        final Location location = target.getLocation();
-        final World world = location.getWorld();
-        final String worldName = world == null ? "null" : world.getName();
-        final String x = String.valueOf((int) location.getX());
-        final String y = String.valueOf((int) location.getY());
-        final String z = String.valueOf((int) location.getZ());
-        final String yaw = String.valueOf(location.getYaw());
-        
-        final StringBuilder builder = new StringBuilder();
-        builder.append(LocationConstants.RESPONSE_CHANNEL).append(LocationConstants.SEPARATOR);
-        builder.append(rawSenderId).append(LocationConstants.SEPARATOR);
-        builder.append(rawTargetId).append(LocationConstants.SEPARATOR);
-        builder.append(worldName).append(LocationConstants.SEPARATOR);
-        builder.append(x).append(LocationConstants.SEPARATOR);
-        builder.append(y).append(LocationConstants.SEPARATOR);
-        builder.append(z).append(LocationConstants.SEPARATOR);
-        builder.append(yaw);
-        
-        if (!getRegions) {
-            this.ipcPlugin.sendMessage(builder.toString());
+        if (sample == null) {
             return;
         }
         
-        builder.append(LocationConstants.SEPARATOR);
-        if (world == null) {
-            logger.log(Level.WARNING, "Sender UUID: " + rawSenderId + " / Target UUID: " + rawTargetId + " / Null World.");
-            builder.append(LocationConstants.REGIONS_UNKNOWN);
-            this.ipcPlugin.sendMessage(builder.toString());
-            return;
-        }
+        final RegionSet regions = sample.getRegions();
+        final String response = TextCodec.encodeResponse(message, sample.getWorldName(), sample.getX(), sample.getY(), sample.getZ(), sample.getYaw(), getRegions && regions != null ? regions.getText() : null);
+        this.ipcPlugin.sendMessage(LocationConstants.RESPONSE_CHANNEL + LocationConstants.SEPARATOR + response);
+    }
+    
+    /**
+     * Processes a hello message from the proxy, restarting the announcements
+     * of the {@link ResponseSender} and answering with the protocol version
+     * supported by this plugin.
+     * <p>
+     * Proxies that predate the version announcement are treated as only
+     * supporting the text protocol.
+     * 
+     * @param message The IPC message, without the channel.
+     */
+    private void processHello(@NotNull final String message) {
         
-        final RegionManager regionManager = WorldGuard.getInstance().getPlatform().getRegionContainer().get(BukkitAdapter.adapt(world));
-        if (regionManager == null) {
-            logger.log(Level.WARNING, "Sender UUID: " + rawSenderId + " / Target UUID: " + rawTargetId + " / World: " + worldName + " / Null Region Manager.");
-            builder.append(LocationConstants.REGIONS_UNKNOWN);
-            this.ipcPlugin.sendMessage(builder.toString());
-            return;
+        int proxyVersion;
+        try {
+            proxyVersion = Integer.parseInt(message.trim());
+        } catch (final NumberFormatException e) {
+            proxyVersion = LocationConstants.PROTOCOL_TEXT;
         }
         
-        final ApplicableRegionSet regions = regionManager.getApplicableRegions(BlockVector3.at(location.getX(), location.getY(), location.getZ()));
-        if (regions.size() == 0) {
-            builder.append(LocationConstants.REGION_GLOBAL);
-            this.ipcPlugin.sendMessage(builder.toString());
-            return;
+        this.responseSender.reset(proxyVersion);
+        this.sendHello();
+    }
+    
+    /**
+     * Processes a binary-encoded location request, sending the response back
+     * via the binary response channel, or a follow request, starting or
+     * stopping the updates for its target. Area requests are answered from
+     * the {@link SpatialIndex}, and history requests from the
+     * {@link LocationHistory}.
+     * 
+     * @param message The encoded IPC message, without the channel.
+     */
+    private void processBinary(@NotNull final String message) {
+        
+        final Logger logger = this.getLogger();
+        final long received = System.nanoTime();
+        try {
+            final BinaryReader reader = LocationCodec.open(message);
+            final int type = reader.readUnsignedByte();
+            if (type == LocationCodec.TYPE_REQUEST) {
+                final LocationRequest request = LocationCodec.decodeRequest(reader);
+                this.sampler.submit(request.getTargetId(), request.isRegions(), sample -> this.sendBinary(request, sample, received));
+            } else if (type == LocationCodec.TYPE_BULK_REQUEST) {
+                final BulkLocationRequest request = LocationCodec.decodeBulkRequest(reader);
+                this.sampler.submit(request.getTargetIds(), request.isRegions(), samples -> this.sendBulk(request, samples));
+            } else if (type == LocationCodec.TYPE_LIST_REQUEST) {
+                final LocationListStreamer streamer = new LocationListStreamer(this, this.responseSender, this.sampler, LocationCodec.decodeListRequest(reader));
+                this.server.getScheduler().runTask(this, streamer::start);
+            } else if (type == LocationCodec.TYPE_FOLLOW_REQUEST) {
+                this.follower.follow(LocationCodec.decodeFollowRequest(reader));
+            } else if (type == LocationCodec.TYPE_AREA_REQUEST) {
+                this.areaFinder.find(LocationCodec.decodeAreaRequest(reader));
+            } else if (type == LocationCodec.TYPE_HISTORY_REQUEST) {
+                this.sendHistory(LocationCodec.decodeHistoryRequest(reader));
+            } else {
+                logger.log(Level.WARNING, "Unexpected binary message type: " + type);
+            }
+        } catch (final IllegalArgumentException e) {
+            logger.log(Level.WARNING, "Unable to decode binary location request.", e);
+            logger.log(Level.WARNING, "Message: " + message);
         }
+    }
+    
+    /**
+     * Sends the response to a binary location request.
+     * <p>
+     * If the request is traced, the response is followed by the
+     * {@link LocationTrace} of the time spent on this server, measured from
+     * the time the request was received.
+     * 
+     * @param request The original {@link LocationRequest}.
+     * @param sample The {@link LocationSample} of the target, or {@code null}
+     *               if the target is not online, in which case only a tracked
+     *               request is answered.
+     * @param received The time the request was received, as returned by
+     *                 {@link System#nanoTime()}.
+     */
+    private void sendBinary(@NotNull final LocationRequest request, @Nullable final LocationSample sample, final long received) {
         
-        final Iterator<ProtectedRegion> iterator = regions.iterator();
-        while (iterator.hasNext()) {
-            builder.append(iterator.next().getId());
-            if (iterator.hasNext()) {
-                builder.append(LocationConstants.SEPARATOR);
+        if (sample == null) {
+            if (request.getRequestId() != 0) {
+                final LocationNotFound notFound = new LocationNotFound(request.getRequestId(), request.getSenderId(), request.getTargetId());
+                this.responseSender.send(dictionary -> LocationCodec.encodeNotFound(notFound));
             }
+            return;
         }
         
-        this.ipcPlugin.sendMessage(builder.toString());
+        final LocationResponse response = sample.toResponse(request.getRequestId(), request.getSenderId(), request.getTargetId(), request.isRegions(), request.isDirectionOnly());
+        final LocationTrace requestTrace = request.getTrace();
+        final LocationTrace trace = requestTrace == null ? null : new LocationTrace(requestTrace.getDispatched(), Math.max(0L, sample.getSampled() - received), sample.getRegionNanos(), System.nanoTime() - received);
+        this.responseSender.send(dictionary -> LocationCodec.encodeResponse(response, dictionary, trace));
+    }
+    
+    /**
+     * Sends the response to a location history request.
+     * <p>
+     * If the {@link LocationHistory} is disabled, the response holds no
+     * locations, as if the history did not go back far enough.
+     * 
+     * @param request The original {@link LocationHistoryRequest}.
+     */
+    private void sendHistory(@NotNull final LocationHistoryRequest request) {
+        
+        final LocationHistoryResponse response;
+        if (this.history != null) {
+            response = this.history.find(request);
+        } else {
+            response = new LocationHistoryResponse(request.getRequestId(), request.getSenderId(), request.getTargetId(), this.server.getPlayer(request.getTargetId()) != null, Collections.<LocationResponse>emptyList(), Collections.<Integer>emptyList());
+        }
+        this.responseSender.send(dictionary -> LocationCodec.encodeHistoryResponse(response));
     }
     
     /**
-     * Processes the given whole IPC message into a {@link List} of various
-     * parts.
+     * Sends the response to a bulk location request as a single message.
      * 
-     * @param message The full IPC message.
-     * @return The separated parts of the IPC message.
+     * @param request The original {@link BulkLocationRequest}.
+     * @param samples The {@link LocationSample LocationSamples} of the
+     *                targets, with {@code null} for each target that is not
+     *                online.
      */
-    @NotNull
-    @UnmodifiableView
-    private List<String> getMessageParts(final String message) {
+    private void sendBulk(@NotNull final BulkLocationRequest request, @NotNull final List<LocationSample> samples) {
         
-        final List<String> parts = new ArrayList<String>();
-        final StringTokenizer tokenizer = new StringTokenizer(message, LocationConstants.SEPARATOR);
+        final List<UUID> targetIds = request.getTargetIds();
+        final List<LocationResponse> locations = new ArrayList<LocationResponse>(targetIds.size());
+        final List<UUID> offlineIds = new ArrayList<UUID>();
         
-        while(tokenizer.hasMoreTokens()) {
-            parts.add(tokenizer.nextToken());
+        for (int index = 0; index < targetIds.size(); index++) {
+            final LocationSample sample = samples.get(index);
+            if (sample == null) {
+                offlineIds.add(targetIds.get(index));
+            } else {
+                locations.add(sample.toResponse(request.getRequestId(), request.getSenderId(), targetIds.get(index), request.isRegions(), request.isDirectionOnly()));
+            }
         }
         
-        return Collections.unmodifiableList(parts);
+        final BulkLocationResponse response = new BulkLocationResponse(request.getRequestId(), request.getSenderId(), locations, offlineIds);
+        this.responseSender.send(dictionary -> LocationCodec.encodeBulkResponse(response, dictionary));
+    }
+    
+    /**
+     * Gets the {@link BackendMetrics} of the location requests answered by
+     * this server.
+     * 
+     * @return The {@link BackendMetrics}.
+     */
+    @NotNull
+    public BackendMetrics getMetrics() {
+        return this.metrics;
+    }
+    
+    /**
+     * Gets the {@link ResponseSender} that sends binary messages to the
+     * proxy.
+     * 
+     * @return The {@link ResponseSender}.
+     */
+    @NotNull
+    public ResponseSender getResponseSender() {
+        return this.responseSender;
+    }
+    
+    /**
+     * Gets the {@link SpatialIndex} of the positions of every online player.
+     * 
+     * @return The {@link SpatialIndex}.
+     */
+    @NotNull
+    public SpatialIndex getSpatialIndex() {
+        return this.spatialIndex;
+    }
+    
+    /**
+     * Gets the {@link LocationHistory} of the recent locations of every
+     * online player.
+     * 
+     * @return The {@link LocationHistory}, or {@code null} if it is
+     *         disabled.
+     */
+    @Nullable
+    public LocationHistory getHistory() {
+        return this.history;
+    }
+    
+    /**
+     * Gets the {@link LocationLog} that records the locations of every
+     * online player to disk.
+     * 
+     * @return The {@link LocationLog}, or {@code null} if it is disabled.
+     */
+    @Nullable
+    public LocationLog getLog() {
+        return this.log;
+    }
+    
+    /**
+     * Gets the {@link RegionMembership} index of the regions every online
+     * player is in.
+     * 
+     * @return The {@link RegionMembership} index.
+     */
+    @NotNull
+    public RegionMembership getRegionMembership() {
+        return this.regionMembership;
+    }
+    
+    /**
+     * Gets the {@link LocationFollower} that pushes the locations of followed
+     * targets.
+     * 
+     * @return The {@link LocationFollower}.
+     */
+    @NotNull
+    public LocationFollower getFollower() {
+        return this.follower;
+    }
+    
+    /**
+     * Announces the protocol version supported by this plugin to the proxy.
+     */
+    private void sendHello() {
+        this.ipcPlugin.sendMessage(LocationConstants.HELLO_CHANNEL + LocationConstants.SEPARATOR + LocationConstants.PROTOCOL_VERSION);
     }
 }
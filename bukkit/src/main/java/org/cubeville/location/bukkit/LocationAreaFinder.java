@@ -0,0 +1,180 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.bukkit;
+
+import com.sk89q.worldedit.bukkit.BukkitAdapter;
+import com.sk89q.worldguard.WorldGuard;
+import com.sk89q.worldguard.protection.managers.RegionManager;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+import com.sk89q.worldguard.protection.regions.RegionContainer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Level;
+import org.bspfsystems.bungeelocation.core.LocationAreaRequest;
+import org.bspfsystems.bungeelocation.core.LocationAreaResponse;
+import org.bspfsystems.bungeelocation.core.LocationCodec;
+import org.bspfsystems.bungeelocation.core.LocationResponse;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Answers {@link LocationAreaRequest LocationAreaRequests} from the
+ * {@link SpatialIndex} and the {@link RegionMembership} index, so that finding
+ * the {@link Player Players} around another {@link Player} only checks the
+ * {@link Player Players} in the chunks that overlap the area, and finding the
+ * {@link Player Players} inside a {@link ProtectedRegion} does not check any
+ * positions at all.
+ * <p>
+ * The area is resolved and the {@link Player Players} in it are sampled on
+ * the main server thread, and the response is serialized and sent
+ * asynchronously.
+ */
+public final class LocationAreaFinder {
+    
+    private final Plugin plugin;
+    private final Server server;
+    private final LocationSampler sampler;
+    private final SpatialIndex index;
+    private final RegionMembership membership;
+    private final ResponseSender sender;
+    private final int maxRadius;
+    
+    /**
+     * Constructs a new {@link LocationAreaFinder}.
+     * 
+     * @param plugin The {@link Plugin} to schedule tasks for.
+     * @param sampler The {@link LocationSampler} to sample with.
+     * @param index The {@link SpatialIndex} to find the
+     *              {@link Player Players} near another {@link Player} with.
+     * @param membership The {@link RegionMembership} index to find the
+     *                   {@link Player Players} in a {@link ProtectedRegion}
+     *                   with.
+     * @param sender The {@link ResponseSender}, used to send the responses.
+     * @param maxRadius The largest radius, in blocks, that may be requested
+     *                  around a {@link Player}. Larger radii are reduced to
+     *                  it.
+     */
+    public LocationAreaFinder(@NotNull final Plugin plugin, @NotNull final LocationSampler sampler, @NotNull final SpatialIndex index, @NotNull final RegionMembership membership, @NotNull final ResponseSender sender, final int maxRadius) {
+        this.plugin = plugin;
+        this.server = plugin.getServer();
+        this.sampler = sampler;
+        this.index = index;
+        this.membership = membership;
+        this.sender = sender;
+        this.maxRadius = Math.max(1, maxRadius);
+    }
+    
+    /**
+     * Answers the given {@link LocationAreaRequest} on the next tick.
+     * <p>
+     * This may be called from any thread.
+     * 
+     * @param request The {@link LocationAreaRequest}.
+     */
+    public void find(@NotNull final LocationAreaRequest request) {
+        this.server.getScheduler().runTask(this.plugin, () -> this.answer(request));
+    }
+    
+    /**
+     * Answers the given {@link LocationAreaRequest}.
+     * <p>
+     * This must only be run on the main server thread.
+     * 
+     * @param request The {@link LocationAreaRequest}.
+     */
+    private void answer(@NotNull final LocationAreaRequest request) {
+        
+        final String regionName = request.getRegionName();
+        final UUID centerId = request.getCenterId();
+        final int radius;
+        final List<UUID> targetIds;
+        if (regionName != null) {
+            radius = 0;
+            targetIds = this.findInRegion(regionName);
+        } else {
+            radius = Math.max(0, Math.min(request.getRadius(), this.maxRadius));
+            targetIds = this.index.getNearby(centerId, radius);
+        }
+        
+        final List<LocationResponse> locations = new ArrayList<LocationResponse>(targetIds == null ? 0 : targetIds.size());
+        if (targetIds != null) {
+            for (final UUID targetId : targetIds) {
+                final LocationSample sample = this.sampler.sample(targetId, request.isRegions());
+                if (sample != null) {
+                    locations.add(sample.toResponse(request.getRequestId(), request.getSenderId(), targetId, request.isRegions(), request.isDirectionOnly()));
+                }
+            }
+        }
+        
+        final LocationAreaResponse response = new LocationAreaResponse(request.getRequestId(), request.getSenderId(), centerId, radius, regionName, targetIds != null, Collections.unmodifiableList(locations));
+        this.server.getScheduler().runTaskAsynchronously(this.plugin, () -> {
+            try {
+                this.sender.send(dictionary -> LocationCodec.encodeAreaResponse(response, dictionary));
+            } catch (final RuntimeException e) {
+                this.plugin.getLogger().log(Level.WARNING, "Unable to send location area response.", e);
+            }
+        });
+    }
+    
+    /**
+     * Finds the {@link Player Players} inside the {@link ProtectedRegion}
+     * with the given id, in every {@link World} that defines it.
+     * <p>
+     * The {@link Player Players} are taken from the {@link RegionMembership}
+     * index, so no positions are checked against the shape of the
+     * {@link ProtectedRegion}.
+     * 
+     * @param regionName The id of the {@link ProtectedRegion}.
+     * @return The {@link UUID UUIDs} of the {@link Player Players}, or
+     *         {@code null} if no {@link World} defines the
+     *         {@link ProtectedRegion}.
+     */
+    @Nullable
+    private List<UUID> findInRegion(@NotNull final String regionName) {
+        
+        final RegionContainer container = WorldGuard.getInstance().getPlatform().getRegionContainer();
+        List<UUID> inside = null;
+        for (final World world : this.server.getWorlds()) {
+            
+            final RegionManager regionManager = container.get(BukkitAdapter.adapt(world));
+            if (regionManager == null) {
+                continue;
+            }
+            final ProtectedRegion region = regionManager.getRegion(regionName);
+            if (region == null) {
+                continue;
+            }
+            
+            if (inside == null) {
+                inside = new ArrayList<UUID>();
+            }
+            inside.addAll(this.membership.getMembers(world.getUID(), region.getId()));
+        }
+        return inside;
+    }
+}
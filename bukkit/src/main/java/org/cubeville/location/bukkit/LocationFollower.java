@@ -0,0 +1,268 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.bukkit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import org.bspfsystems.bungeelocation.core.LocationCodec;
+import org.bspfsystems.bungeelocation.core.LocationDelta;
+import org.bspfsystems.bungeelocation.core.LocationFollowRequest;
+import org.bspfsystems.bungeelocation.core.LocationResponse;
+import org.bukkit.Location;
+import org.bukkit.Server;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Pushes the {@link Location Locations} of followed {@link Player Players} to
+ * the proxy whenever they change.
+ * <p>
+ * The proxy subscribes to each target at most once, no matter how many
+ * players are following it. Every followed target is sampled together on a
+ * single scheduled task, and an update is only sent if the block position,
+ * the world, or (if requested) the WorldGuard regions have changed since the
+ * last update, so a target that stands still costs a single sample per run.
+ * The interval of the task therefore also limits how often updates are sent
+ * for any target.
+ * <p>
+ * If the proxy accepts them, updates are sent as {@link LocationDelta
+ * LocationDeltas} against the previous update, with a full keyframe every
+ * few updates, so that a proxy that missed an update is back in sync soon.
+ * <p>
+ * A target that is no longer online is dropped, and the proxy is told, so
+ * that it can follow the target onto its new server.
+ */
+public final class LocationFollower implements Runnable {
+    
+    private final Plugin plugin;
+    private final Server server;
+    private final ResponseSender sender;
+    private final LocationSampler sampler;
+    private final int keyframeInterval;
+    
+    private final Map<UUID, Subscription> subscriptions;
+    
+    /**
+     * Constructs a new {@link LocationFollower}.
+     * 
+     * @param plugin The {@link Plugin} to schedule tasks for.
+     * @param sender The {@link ResponseSender}, used to send the updates.
+     * @param sampler The {@link LocationSampler} to sample with.
+     * @param keyframeInterval The number of updates after which a full
+     *                         keyframe is sent instead of a delta.
+     */
+    public LocationFollower(@NotNull final Plugin plugin, @NotNull final ResponseSender sender, @NotNull final LocationSampler sampler, final int keyframeInterval) {
+        this.plugin = plugin;
+        this.server = plugin.getServer();
+        this.sender = sender;
+        this.sampler = sampler;
+        this.keyframeInterval = Math.max(1, keyframeInterval);
+        
+        this.subscriptions = new ConcurrentHashMap<UUID, Subscription>();
+    }
+    
+    /**
+     * Starts, replaces, or stops the subscription for the target of the
+     * given {@link LocationFollowRequest}.
+     * <p>
+     * This may be called from any thread. A new or replaced subscription
+     * sends its first update on the next run as a keyframe, even if the
+     * target has not moved.
+     * 
+     * @param request The {@link LocationFollowRequest}.
+     */
+    public void follow(@NotNull final LocationFollowRequest request) {
+        if (request.isStop()) {
+            this.subscriptions.remove(request.getTargetId());
+        } else {
+            this.subscriptions.put(request.getTargetId(), new Subscription(request.getTargetId(), request.isRegions(), request.isDelta()));
+        }
+    }
+    
+    /**
+     * Gets the number of followed targets.
+     * 
+     * @return The number of followed targets.
+     */
+    public int size() {
+        return this.subscriptions.size();
+    }
+    
+    /**
+     * Samples every followed target, and hands the updates for the ones that
+     * have changed off to an asynchronous task to be serialized and sent.
+     * <p>
+     * This must only be run on the main server thread.
+     */
+    @Override
+    public void run() {
+        
+        if (this.subscriptions.isEmpty()) {
+            return;
+        }
+        
+        final List<LocationResponse> updates = new ArrayList<LocationResponse>();
+        final List<LocationDelta> deltas = new ArrayList<LocationDelta>();
+        final List<UUID> ended = new ArrayList<UUID>();
+        for (final Subscription subscription : this.subscriptions.values()) {
+            
+            final LocationSample sample = this.sampler.sample(subscription.targetId, subscription.regions);
+            if (sample == null) {
+                if (this.subscriptions.remove(subscription.targetId, subscription)) {
+                    ended.add(subscription.targetId);
+                }
+                continue;
+            }
+            if (!subscription.update(sample)) {
+                continue;
+            }
+            
+            final LocationResponse update = sample.toResponse(0, null, subscription.targetId, subscription.regions, subscription.delta);
+            if (subscription.delta) {
+                deltas.add(subscription.next(update, this.keyframeInterval));
+            } else {
+                updates.add(update);
+            }
+        }
+        
+        if (updates.isEmpty() && deltas.isEmpty() && ended.isEmpty()) {
+            return;
+        }
+        this.server.getScheduler().runTaskAsynchronously(this.plugin, () -> {
+            try {
+                for (final LocationResponse update : updates) {
+                    this.sender.send(dictionary -> LocationCodec.encodeFollowUpdate(update, dictionary));
+                }
+                for (final LocationDelta delta : deltas) {
+                    this.sender.send(dictionary -> LocationCodec.encodeFollowDelta(delta, dictionary));
+                }
+                for (final UUID targetId : ended) {
+                    this.sender.send(dictionary -> LocationCodec.encodeFollowEnd(targetId));
+                }
+            } catch (final RuntimeException e) {
+                this.plugin.getLogger().log(Level.WARNING, "Unable to send location updates for followed targets.", e);
+            }
+        });
+    }
+    
+    /**
+     * Represents the subscription for a single followed target, along with
+     * the last {@link LocationSample} sent for it, and the state of its
+     * {@link LocationDelta} stream.
+     */
+    private static final class Subscription {
+        
+        private final UUID targetId;
+        private final boolean regions;
+        private final boolean delta;
+        
+        private LocationSample last;
+        private LocationResponse lastSent;
+        private int sequence;
+        private int sinceKeyframe;
+        
+        /**
+         * Constructs a new {@link Subscription}.
+         * 
+         * @param targetId The {@link UUID} of the followed {@link Player}.
+         * @param regions {@code true} if the WorldGuard regions should be
+         *                sent, {@code false} otherwise.
+         * @param delta {@code true} if the updates may be sent as
+         *              {@link LocationDelta LocationDeltas}, {@code false}
+         *              otherwise.
+         */
+        private Subscription(@NotNull final UUID targetId, final boolean regions, final boolean delta) {
+            this.targetId = targetId;
+            this.regions = regions;
+            this.delta = delta;
+            this.last = null;
+            this.lastSent = null;
+            this.sequence = 0;
+            this.sinceKeyframe = 0;
+        }
+        
+        /**
+         * Creates the next {@link LocationDelta} of this subscription, which
+         * is a keyframe if it is the first update, or if enough deltas have
+         * been sent since the last keyframe.
+         * 
+         * @param update The {@link LocationResponse} to send.
+         * @param keyframeInterval The number of updates after which a full
+         *                         keyframe is sent instead of a delta.
+         * @return The {@link LocationDelta}.
+         */
+        @NotNull
+        private LocationDelta next(@NotNull final LocationResponse update, final int keyframeInterval) {
+            
+            final boolean keyframe = this.lastSent == null || this.sinceKeyframe >= keyframeInterval;
+            final LocationDelta delta = LocationDelta.between(keyframe ? null : this.lastSent, update, this.sequence);
+            this.sinceKeyframe = delta.isKeyframe() ? 1 : this.sinceKeyframe + 1;
+            this.sequence = (this.sequence + 1) & 0xFF;
+            this.lastSent = update;
+            return delta;
+        }
+        
+        /**
+         * Records the given {@link LocationSample}, if it differs from the
+         * last one sent.
+         * <p>
+         * Only the block position, the world and the WorldGuard regions are
+         * compared, so turning on the spot does not trigger an update.
+         * 
+         * @param sample The new {@link LocationSample}.
+         * @return {@code true} if an update should be sent, {@code false}
+         *         otherwise.
+         */
+        private boolean update(@NotNull final LocationSample sample) {
+            
+            final LocationSample last = this.last;
+            if (last != null && last.getX() == sample.getX() && last.getY() == sample.getY() && last.getZ() == sample.getZ()
+                    && Objects.equals(last.getWorldName(), sample.getWorldName()) && this.isSameRegions(last.getRegions(), sample.getRegions())) {
+                return false;
+            }
+            this.last = sample;
+            return true;
+        }
+        
+        /**
+         * Checks if the given WorldGuard regions are the same.
+         * 
+         * @param last The regions of the last sample.
+         * @param current The regions of the current sample.
+         * @return {@code true} if the regions are the same, or were not
+         *         requested, {@code false} otherwise.
+         */
+        private boolean isSameRegions(@Nullable final RegionSet last, @Nullable final RegionSet current) {
+            if (!this.regions || last == current) {
+                return true;
+            }
+            return last != null && current != null && last.getNames().equals(current.getNames());
+        }
+    }
+}
@@ -0,0 +1,449 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.bukkit;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import org.bspfsystems.bungeelocation.core.Direction;
+import org.bspfsystems.bungeelocation.core.LocationHistoryRequest;
+import org.bspfsystems.bungeelocation.core.LocationHistoryResponse;
+import org.bspfsystems.bungeelocation.core.LocationResponse;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.Plugin;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Keeps the recent {@link Location Locations} of every online
+ * {@link Player}, so that the proxy can ask where a {@link Player} was a
+ * while ago, or for the trail they left behind.
+ * <p>
+ * Every {@link Player} has a fixed-size ring of samples, stored as
+ * primitive arrays, which is sized to hold the configured retention window
+ * and recycled once they quit. Sampling runs on the main server thread at
+ * a fixed interval, reads each {@link Location} into the same scratch
+ * {@link Location}, and does not allocate, so the memory used is bounded
+ * by the peak number of online {@link Player Players}.
+ * <p>
+ * Samples are stamped with the time they were taken at, read from
+ * {@link System#nanoTime()}, and requests are answered by elapsed time, so
+ * that the ages stay right while the server runs behind its nominal tick
+ * rate. A {@link Player} only has history for the time they have been on
+ * this server since they last joined it.
+ */
+public final class LocationHistory implements Listener, Runnable {
+    
+    private static final int NO_WORLD = -1;
+    
+    private final Plugin plugin;
+    private final int interval;
+    private final int capacity;
+    private final ConcurrentMap<UUID, Track> tracks;
+    private final ConcurrentMap<UUID, Integer> worldIds;
+    private final Deque<Track> freeTracks;
+    private final Location scratch;
+    
+    private volatile String[] worldNames;
+    
+    /**
+     * Constructs a new, empty {@link LocationHistory}.
+     * 
+     * @param plugin The {@link Plugin} that owns this {@link LocationHistory}.
+     * @param interval The number of ticks between samples.
+     * @param retention The number of ticks to keep the samples for.
+     */
+    public LocationHistory(@NotNull final Plugin plugin, final int interval, final int retention) {
+        this.plugin = plugin;
+        this.interval = Math.max(1, interval);
+        this.capacity = Math.max(1, retention / this.interval);
+        this.tracks = new ConcurrentHashMap<UUID, Track>();
+        this.worldIds = new ConcurrentHashMap<UUID, Integer>();
+        this.freeTracks = new ArrayDeque<Track>();
+        this.scratch = new Location(null, 0.0D, 0.0D, 0.0D);
+        
+        this.worldNames = new String[0];
+    }
+    
+    /**
+     * Gets the number of ticks between samples.
+     * 
+     * @return The sample interval, in ticks.
+     */
+    public int getInterval() {
+        return this.interval;
+    }
+    
+    /**
+     * Adds all of the given {@link Player Players} to the history, such as
+     * when the plugin is enabled while players are already online.
+     * <p>
+     * This must only be run on the main server thread.
+     * 
+     * @param players The {@link Player Players} to add.
+     */
+    public void populate(@NotNull final Collection<? extends Player> players) {
+        for (final Player player : players) {
+            this.join(player);
+        }
+    }
+    
+    /**
+     * Records a sample of every online {@link Player}.
+     * <p>
+     * This must only be run on the main server thread.
+     */
+    @Override
+    public void run() {
+        
+        final long now = LocationHistory.now();
+        for (final Player player : this.plugin.getServer().getOnlinePlayers()) {
+            final Track track = this.tracks.get(player.getUniqueId());
+            if (track == null) {
+                continue;
+            }
+            final Location location = player.getLocation(this.scratch);
+            track.record(now, this.getWorldId(location.getWorld()), (int) location.getX(), (int) location.getY(), (int) location.getZ(), location.getYaw());
+        }
+    }
+    
+    /**
+     * Answers the given {@link LocationHistoryRequest} from the history.
+     * <p>
+     * A single point is the newest sample taken at least the requested
+     * number of seconds ago. Several points are spread evenly from that long
+     * ago (or the oldest sample) until now, skipping repeats of the same
+     * sample.
+     * <p>
+     * This may be called from any thread.
+     * 
+     * @param request The {@link LocationHistoryRequest} to answer.
+     * @return The {@link LocationHistoryResponse}.
+     */
+    @NotNull
+    public LocationHistoryResponse find(@NotNull final LocationHistoryRequest request) {
+        
+        final UUID targetId = request.getTargetId();
+        final Track track = this.tracks.get(targetId);
+        if (track == null) {
+            return new LocationHistoryResponse(request.getRequestId(), request.getSenderId(), targetId, false, Collections.<LocationResponse>emptyList(), Collections.<Integer>emptyList());
+        }
+        
+        final long now = LocationHistory.now();
+        final String[] worldNames = this.worldNames;
+        final int points = Math.max(1, Math.min(request.getPoints(), this.capacity));
+        final List<LocationResponse> locations = new ArrayList<LocationResponse>(points);
+        final List<Integer> ages = new ArrayList<Integer>(points);
+        
+        synchronized (track) {
+            
+            if (!targetId.equals(track.owner)) {
+                return new LocationHistoryResponse(request.getRequestId(), request.getSenderId(), targetId, false, Collections.<LocationResponse>emptyList(), Collections.<Integer>emptyList());
+            }
+            if (track.size == 0) {
+                return new LocationHistoryResponse(request.getRequestId(), request.getSenderId(), targetId, true, locations, ages);
+            }
+            final long oldest = now - track.time(0);
+            final long requested = TimeUnit.SECONDS.toMillis(request.getAgeSeconds());
+            final long span = points == 1 || (requested > 0L && requested < oldest) ? requested : oldest;
+            
+            int previous = -1;
+            for (int point = 0; point < points; point++) {
+                final long age = points == 1 ? span : span * (points - 1 - point) / (points - 1);
+                final int index = track.find(now - age);
+                if (index < 0 || index == previous) {
+                    continue;
+                }
+                previous = index;
+                
+                final int slot = track.slot(index);
+                final int world = track.worlds[slot];
+                final String worldName = world >= 0 && world < worldNames.length ? worldNames[world] : null;
+                if (request.isDirectionOnly()) {
+                    locations.add(new LocationResponse(request.getRequestId(), request.getSenderId(), targetId, worldName, track.xs[slot], track.ys[slot], track.zs[slot], Direction.fromYaw(track.yaws[slot]), null));
+                } else {
+                    locations.add(new LocationResponse(request.getRequestId(), request.getSenderId(), targetId, worldName, track.xs[slot], track.ys[slot], track.zs[slot], track.yaws[slot], null));
+                }
+                ages.add((int) TimeUnit.MILLISECONDS.toSeconds(now - track.times[slot]));
+            }
+        }
+        return new LocationHistoryResponse(request.getRequestId(), request.getSenderId(), targetId, true, locations, ages);
+    }
+    
+    /**
+     * Gets the current time that samples are stamped with.
+     * 
+     * @return The current time, in milliseconds, only meaningful relative
+     *         to other stamps.
+     */
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+    
+    /**
+     * Gets the number of {@link Player Players} with a history.
+     * 
+     * @return The number of {@link Player Players}.
+     */
+    public int size() {
+        return this.tracks.size();
+    }
+    
+    /**
+     * Gets the number of samples that each {@link Player} keeps.
+     * 
+     * @return The number of samples per {@link Player}.
+     */
+    public int getCapacity() {
+        return this.capacity;
+    }
+    
+    /**
+     * Gets the number of samples allocated across all rings, including the
+     * ones waiting to be reused.
+     * 
+     * @return The number of allocated samples.
+     */
+    public long getAllocated() {
+        final int free;
+        synchronized (this.freeTracks) {
+            free = this.freeTracks.size();
+        }
+        return (long) (this.tracks.size() + free) * this.capacity;
+    }
+    
+    /**
+     * Gives a joining {@link Player} an empty ring, reusing the ring of a
+     * {@link Player} that has quit if there is one.
+     * <p>
+     * This must only be run on the main server thread.
+     * 
+     * @param player The joining {@link Player}.
+     */
+    private void join(@NotNull final Player player) {
+        
+        Track track;
+        synchronized (this.freeTracks) {
+            track = this.freeTracks.poll();
+        }
+        if (track == null) {
+            track = new Track(this.capacity);
+        }
+        synchronized (track) {
+            track.owner = player.getUniqueId();
+        }
+        this.tracks.put(player.getUniqueId(), track);
+    }
+    
+    /**
+     * Gets the compact id of the given {@link World}, registering it if it has
+     * not been seen before.
+     * <p>
+     * This must only be run on the main server thread.
+     * 
+     * @param world The {@link World}.
+     * @return The id of the {@link World}, or {@link #NO_WORLD} if it is
+     *         {@code null}.
+     */
+    private int getWorldId(@Nullable final World world) {
+        
+        if (world == null) {
+            return NO_WORLD;
+        }
+        
+        final Integer existing = this.worldIds.get(world.getUID());
+        if (existing != null) {
+            return existing;
+        }
+        
+        final String[] worldNames = Arrays.copyOf(this.worldNames, this.worldNames.length + 1);
+        final int id = worldNames.length - 1;
+        worldNames[id] = world.getName();
+        this.worldNames = worldNames;
+        this.worldIds.put(world.getUID(), id);
+        return id;
+    }
+    
+    /**
+     * Gives a joining {@link Player} an empty ring.
+     * 
+     * @param event The {@link PlayerJoinEvent}.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerJoin(@NotNull final PlayerJoinEvent event) {
+        this.join(event.getPlayer());
+    }
+    
+    /**
+     * Drops the history of a quitting {@link Player}, keeping their ring to
+     * be reused.
+     * 
+     * @param event The {@link PlayerQuitEvent}.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(@NotNull final PlayerQuitEvent event) {
+        
+        final Track track = this.tracks.remove(event.getPlayer().getUniqueId());
+        if (track == null) {
+            return;
+        }
+        synchronized (track) {
+            track.owner = null;
+            track.size = 0;
+            track.next = 0;
+        }
+        synchronized (this.freeTracks) {
+            this.freeTracks.push(track);
+        }
+    }
+    
+    /**
+     * Represents the ring of samples of a single {@link Player}.
+     * <p>
+     * Samples are written on the main server thread and read by requests on
+     * any thread, both while synchronized on the {@link Track}. A request
+     * only reads the samples while the {@link Track} still belongs to the
+     * {@link Player} it looked up, as a request that fetched the
+     * {@link Track} just before its {@link Player} quit may otherwise read
+     * the samples of the next {@link Player} to reuse it.
+     */
+    private static final class Track {
+        
+        private final long[] times;
+        private final int[] worlds;
+        private final int[] xs;
+        private final int[] ys;
+        private final int[] zs;
+        private final float[] yaws;
+        
+        private UUID owner;
+        private int next;
+        private int size;
+        
+        /**
+         * Constructs a new, empty {@link Track}.
+         * 
+         * @param capacity The number of samples to keep.
+         */
+        private Track(final int capacity) {
+            this.times = new long[capacity];
+            this.worlds = new int[capacity];
+            this.xs = new int[capacity];
+            this.ys = new int[capacity];
+            this.zs = new int[capacity];
+            this.yaws = new float[capacity];
+            this.owner = null;
+            this.next = 0;
+            this.size = 0;
+        }
+        
+        /**
+         * Records a sample, overwriting the oldest one once the ring is full.
+         * 
+         * @param time The time the sample was taken at, in milliseconds.
+         * @param world The id of the world.
+         * @param x The X coordinate.
+         * @param y The Y coordinate.
+         * @param z The Z coordinate.
+         * @param yaw The yaw.
+         */
+        private synchronized void record(final long time, final int world, final int x, final int y, final int z, final float yaw) {
+            final int slot = this.next;
+            this.times[slot] = time;
+            this.worlds[slot] = world;
+            this.xs[slot] = x;
+            this.ys[slot] = y;
+            this.zs[slot] = z;
+            this.yaws[slot] = yaw;
+            this.next = slot + 1 == this.times.length ? 0 : slot + 1;
+            this.size = Math.min(this.size + 1, this.times.length);
+        }
+        
+        /**
+         * Gets the array slot of the sample at the given index, counted from
+         * the oldest sample.
+         * <p>
+         * This must only be called while synchronized on this {@link Track}.
+         * 
+         * @param index The index, from {@code 0} to the size, exclusive.
+         * @return The array slot.
+         */
+        private int slot(final int index) {
+            final int slot = this.next - this.size + index;
+            return slot < 0 ? slot + this.times.length : slot;
+        }
+        
+        /**
+         * Gets the time of the sample at the given index, counted from the
+         * oldest sample.
+         * <p>
+         * This must only be called while synchronized on this {@link Track}.
+         * 
+         * @param index The index, from {@code 0} to the size, exclusive.
+         * @return The time the sample was taken at, in milliseconds.
+         */
+        private long time(final int index) {
+            return this.times[this.slot(index)];
+        }
+        
+        /**
+         * Finds the newest sample taken at or before the given time, with a
+         * binary search, as the times only grow from the oldest sample on.
+         * <p>
+         * This must only be called while synchronized on this {@link Track}.
+         * 
+         * @param time The time, in milliseconds.
+         * @return The index of the sample, counted from the oldest sample, or
+         *         {@code -1} if every sample was taken after the time.
+         */
+        private int find(final long time) {
+            int low = 0;
+            int high = this.size - 1;
+            int found = -1;
+            while (low <= high) {
+                final int middle = (low + high) >>> 1;
+                if (this.time(middle) <= time) {
+                    found = middle;
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return found;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.bukkit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Level;
+import org.bspfsystems.bungeelocation.core.LocationCodec;
+import org.bspfsystems.bungeelocation.core.LocationListPage;
+import org.bspfsystems.bungeelocation.core.LocationListRequest;
+import org.bspfsystems.bungeelocation.core.LocationResponse;
+import org.bukkit.Server;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Answers a {@link LocationListRequest} by streaming the locations of every
+ * online {@link Player} back to the proxy, one {@link LocationListPage} per
+ * tick.
+ * <p>
+ * Only the {@link UUID UUIDs} of the {@link Player Players} that were online
+ * when the request arrived are kept, so at most a single page of samples is
+ * held at any time, no matter how many {@link Player Players} are online.
+ * {@link Player Players} that leave before their page is sampled are
+ * skipped.
+ */
+public final class LocationListStreamer implements Runnable {
+    
+    private static final int MAX_PAGE_SIZE = 64;
+    
+    private final Plugin plugin;
+    private final Server server;
+    private final ResponseSender sender;
+    private final LocationSampler sampler;
+    private final LocationListRequest request;
+    private final int pageSize;
+    
+    private UUID[] targetIds;
+    private int position;
+    private int page;
+    private int pages;
+    private BukkitTask task;
+    
+    /**
+     * Constructs a new {@link LocationListStreamer}.
+     * 
+     * @param plugin The {@link Plugin} to schedule tasks for.
+     * @param sender The {@link ResponseSender}, used to send the pages.
+     * @param sampler The {@link LocationSampler} to sample with.
+     * @param request The {@link LocationListRequest} to answer.
+     */
+    public LocationListStreamer(@NotNull final Plugin plugin, @NotNull final ResponseSender sender, @NotNull final LocationSampler sampler, @NotNull final LocationListRequest request) {
+        this.plugin = plugin;
+        this.server = plugin.getServer();
+        this.sender = sender;
+        this.sampler = sampler;
+        this.request = request;
+        this.pageSize = Math.max(1, Math.min(request.getPageSize(), MAX_PAGE_SIZE));
+    }
+    
+    /**
+     * Records the {@link Player Players} that are currently online, and
+     * starts streaming their locations from the next tick.
+     * <p>
+     * This must only be run on the main server thread.
+     */
+    public void start() {
+        
+        final List<UUID> online = new ArrayList<UUID>();
+        for (final Player player : this.server.getOnlinePlayers()) {
+            online.add(player.getUniqueId());
+        }
+        
+        this.targetIds = online.toArray(new UUID[0]);
+        this.position = 0;
+        this.page = 0;
+        this.pages = Math.max(1, (this.targetIds.length + this.pageSize - 1) / this.pageSize);
+        this.task = this.server.getScheduler().runTaskTimer(this.plugin, this, 1L, 1L);
+    }
+    
+    /**
+     * Samples the next page of {@link Player Players}, and hands it off to an
+     * asynchronous task to be sent. Stops once the last page has been
+     * sampled.
+     * <p>
+     * This must only be run on the main server thread.
+     */
+    @Override
+    public void run() {
+        
+        final int end = Math.min(this.position + this.pageSize, this.targetIds.length);
+        final List<LocationResponse> locations = new ArrayList<LocationResponse>(end - this.position);
+        for (; this.position < end; this.position++) {
+            final UUID targetId = this.targetIds[this.position];
+            this.targetIds[this.position] = null;
+            final LocationSample sample = this.sampler.sample(targetId, this.request.isRegions());
+            if (sample != null) {
+                locations.add(sample.toResponse(this.request.getRequestId(), this.request.getSenderId(), targetId, this.request.isRegions(), this.request.isDirectionOnly()));
+            }
+        }
+        
+        this.page++;
+        if (this.page >= this.pages) {
+            this.task.cancel();
+        }
+        
+        final LocationListPage listPage = new LocationListPage(this.request.getRequestId(), this.request.getSenderId(), this.page, this.pages, locations);
+        this.server.getScheduler().runTaskAsynchronously(this.plugin, () -> {
+            try {
+                this.sender.send(dictionary -> LocationCodec.encodeListPage(listPage, dictionary));
+            } catch (final RuntimeException e) {
+                this.plugin.getLogger().log(Level.WARNING, "Unable to send location list page " + listPage.getPage() + "/" + listPage.getPages() + ".", e);
+            }
+        });
+    }
+}
@@ -0,0 +1,593 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.bukkit;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Records the {@link Location} of every online {@link Player} to segment
+ * files on disk, so that their movements can still be looked up long after
+ * they have logged off.
+ * <p>
+ * Sampling runs on the main server thread at a fixed interval, and only
+ * copies the {@link Location Locations} into one of a few reusable batches
+ * of primitive arrays. The batches are appended to the memory-mapped
+ * {@link LogSegment LogSegments} by a single writer thread, so the main
+ * server thread never waits on the disk. If the writer falls so far behind
+ * that every batch is still queued, the sample is dropped and counted
+ * instead.
+ * <p>
+ * A new {@link LogSegment} is started once the current one is full, or has
+ * been written to for the configured time. The writer thread also compacts
+ * the sealed {@link LogSegment LogSegments} at a fixed interval: segments
+ * past the retention window are deleted, and the others are rewritten once,
+ * merging small segments together, and leaving out the records of players
+ * that have not moved since their previous record.
+ */
+public final class LocationLog implements Runnable {
+    
+    private static final int BATCHES = 4;
+    private static final String COMPACTING_SUFFIX = ".compacting";
+    private static final long KEYFRAME_MILLIS = 60L * 1000L;
+    private static final long MAX_RETENTION_MILLIS = 3650L * 24L * 60L * 60L * 1000L;
+    
+    private final Plugin plugin;
+    private final Logger logger;
+    private final Path directory;
+    private final int capacity;
+    private final long segmentMillis;
+    private final long retentionMillis;
+    private final ScheduledExecutorService writer;
+    private final BlockingQueue<Batch> freeBatches;
+    private final List<LogSegment> segments;
+    private final Location scratch;
+    private final AtomicLong dropped;
+    
+    private LogSegment active;
+    
+    /**
+     * Constructs a new {@link LocationLog}, which does not record anything
+     * until it is started.
+     * 
+     * @param plugin The {@link Plugin} that owns this {@link LocationLog}.
+     * @param directory The directory to keep the segment files in.
+     * @param segmentBytes The size of each segment file, in bytes.
+     * @param segmentMillis The longest time, in milliseconds, to write to a
+     *                      single segment file.
+     * @param retentionMillis How long, in milliseconds, to keep the records,
+     *                        up to ten years.
+     */
+    public LocationLog(@NotNull final Plugin plugin, @NotNull final Path directory, final long segmentBytes, final long segmentMillis, final long retentionMillis) {
+        this.plugin = plugin;
+        this.logger = plugin.getLogger();
+        this.directory = directory;
+        this.capacity = LogSegment.getCapacity(segmentBytes);
+        this.segmentMillis = Math.max(1000L, Math.min(segmentMillis, LogSegment.MAX_SPAN_MILLIS));
+        this.retentionMillis = Math.max(0L, Math.min(retentionMillis, MAX_RETENTION_MILLIS));
+        this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "CVLocation Log Writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.freeBatches = new ArrayBlockingQueue<Batch>(BATCHES);
+        for (int batch = 0; batch < BATCHES; batch++) {
+            this.freeBatches.add(new Batch());
+        }
+        this.segments = new CopyOnWriteArrayList<LogSegment>();
+        this.scratch = new Location(null, 0.0D, 0.0D, 0.0D);
+        this.dropped = new AtomicLong(0L);
+        
+        this.active = null;
+    }
+    
+    /**
+     * Starts the writer thread, which first opens the existing segment files,
+     * and then compacts them at the given interval.
+     * 
+     * @param compactMinutes The number of minutes between compactions.
+     */
+    public void start(final long compactMinutes) {
+        this.writer.execute(this::load);
+        final long interval = Math.max(1L, compactMinutes);
+        this.writer.scheduleWithFixedDelay(this::compact, interval, interval, TimeUnit.MINUTES);
+    }
+    
+    /**
+     * Writes the queued batches, seals the current {@link LogSegment}, and
+     * stops the writer thread, waiting a few seconds for it to finish.
+     * <p>
+     * This is run on the main server thread when the plugin is disabled.
+     */
+    public void close() {
+        
+        try {
+            this.writer.execute(this::seal);
+        } catch (final RejectedExecutionException e) {
+            return;
+        }
+        this.writer.shutdown();
+        try {
+            if (!this.writer.awaitTermination(5L, TimeUnit.SECONDS)) {
+                this.logger.log(Level.WARNING, "Timed out waiting for the location log to be written.");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Copies the {@link Location} of every online {@link Player} into a free
+     * batch, and queues it to be written.
+     * <p>
+     * This must only be run on the main server thread.
+     */
+    @Override
+    public void run() {
+        
+        final Collection<? extends Player> players = this.plugin.getServer().getOnlinePlayers();
+        if (players.isEmpty()) {
+            return;
+        }
+        final Batch batch = this.freeBatches.poll();
+        if (batch == null) {
+            this.dropped.incrementAndGet();
+            return;
+        }
+        
+        batch.clear(System.currentTimeMillis(), players.size());
+        for (final Player player : players) {
+            final Location location = player.getLocation(this.scratch);
+            final World world = location.getWorld();
+            batch.add(player.getUniqueId(), world == null ? null : world.getName(), (int) location.getX(), (int) location.getY(), (int) location.getZ(), location.getYaw());
+        }
+        
+        try {
+            this.writer.execute(batch);
+        } catch (final RejectedExecutionException e) {
+            this.freeBatches.offer(batch);
+        }
+    }
+    
+    /**
+     * Streams the records of the given {@link Player} between the given
+     * times to the given {@link Visitor}, from the oldest to the newest.
+     * <p>
+     * Only the {@link LogSegment LogSegments} overlapping the times are
+     * scanned, each from its index entry closest to the start time, so no
+     * segment is ever read as a whole.
+     * <p>
+     * This may be called from any thread, but reads from the disk, so it
+     * should not be called on the main server thread.
+     * 
+     * @param playerId The {@link UUID} of the {@link Player}.
+     * @param from The earliest time, in milliseconds since the epoch.
+     * @param to The latest time, in milliseconds since the epoch.
+     * @param visitor The {@link Visitor} to stream the records to.
+     */
+    public void query(@NotNull final UUID playerId, final long from, final long to, @NotNull final Visitor visitor) {
+        for (final LogSegment segment : this.segments) {
+            if (segment.getBase() > to || segment.getEnd() < from) {
+                continue;
+            }
+            if (!segment.scan(playerId, from, to, visitor)) {
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Gets the number of segment files.
+     * 
+     * @return The number of segment files.
+     */
+    public int getSegmentCount() {
+        return this.segments.size();
+    }
+    
+    /**
+     * Gets the number of records across all segment files.
+     * 
+     * @return The number of records.
+     */
+    public long getRecordCount() {
+        long records = 0L;
+        for (final LogSegment segment : this.segments) {
+            records += segment.size();
+        }
+        return records;
+    }
+    
+    /**
+     * Gets the number of bytes used by all segment files, not counting the
+     * room left in the current one.
+     * 
+     * @return The number of bytes used.
+     */
+    public long getBytes() {
+        long bytes = 0L;
+        for (final LogSegment segment : this.segments) {
+            bytes += segment.getBytes();
+        }
+        return bytes;
+    }
+    
+    /**
+     * Gets the number of samples dropped because the writer thread had
+     * fallen behind.
+     * 
+     * @return The number of dropped samples.
+     */
+    public long getDropped() {
+        return this.dropped.get();
+    }
+    
+    /**
+     * Opens the existing segment files, oldest first, removing any left over
+     * from a compaction that did not finish.
+     * <p>
+     * This must only be run on the writer thread.
+     */
+    private void load() {
+        
+        final List<Path> paths = new ArrayList<Path>();
+        try {
+            Files.createDirectories(this.directory);
+            try (final DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory)) {
+                for (final Path path : stream) {
+                    final String fileName = path.getFileName().toString();
+                    if (fileName.contains(COMPACTING_SUFFIX)) {
+                        Files.deleteIfExists(path);
+                    } else if (fileName.endsWith(LogSegment.SEGMENT_SUFFIX)) {
+                        paths.add(path);
+                    }
+                }
+            }
+        } catch (final IOException e) {
+            this.logger.log(Level.WARNING, "Unable to read the location log directory " + this.directory + ".", e);
+            return;
+        }
+        
+        final List<LogSegment> segments = new ArrayList<LogSegment>(paths.size());
+        for (final Path path : paths) {
+            try {
+                segments.add(LogSegment.open(path));
+            } catch (final IOException e) {
+                this.logger.log(Level.WARNING, "Unable to open location log segment " + path + ", skipping it.", e);
+            }
+        }
+        segments.sort((first, second) -> Long.compare(first.getBase(), second.getBase()));
+        this.segments.addAll(0, segments);
+    }
+    
+    /**
+     * Appends a batch to the current {@link LogSegment}, starting a new one
+     * when it is full or too old, and publishes the records to queries.
+     * <p>
+     * This must only be run on the writer thread.
+     * 
+     * @param batch The {@link Batch} to write.
+     */
+    private void write(@NotNull final Batch batch) {
+        
+        try {
+            if (this.active != null && batch.time - this.active.getBase() >= this.segmentMillis) {
+                this.rotate(batch.time);
+            }
+            for (int index = 0; index < batch.size; index++) {
+                if (this.active == null || !this.active.append(batch.ids[index], batch.time, batch.worlds[index], batch.xs[index], batch.ys[index], batch.zs[index], batch.yaws[index])) {
+                    this.rotate(batch.time);
+                    this.active.append(batch.ids[index], batch.time, batch.worlds[index], batch.xs[index], batch.ys[index], batch.zs[index], batch.yaws[index]);
+                }
+            }
+            if (this.active != null) {
+                this.active.commit();
+            }
+        } catch (final IOException e) {
+            this.logger.log(Level.WARNING, "Unable to write to the location log.", e);
+        }
+    }
+    
+    /**
+     * Seals the current {@link LogSegment}, if any, and starts a new one.
+     * <p>
+     * This must only be run on the writer thread.
+     * 
+     * @param time The time of the first record of the new
+     *             {@link LogSegment}, in milliseconds since the epoch.
+     * @throws IOException If the new segment file could not be created.
+     */
+    private void rotate(final long time) throws IOException {
+        
+        long base = time;
+        if (this.active != null) {
+            base = Math.max(base, this.active.getBase() + 1L);
+            final LogSegment sealed = this.active;
+            this.active = null;
+            sealed.seal();
+        }
+        
+        Files.createDirectories(this.directory);
+        final LogSegment segment = LogSegment.create(this.directory.resolve(base + LogSegment.SEGMENT_SUFFIX), base, this.capacity, false);
+        this.segments.add(segment);
+        this.active = segment;
+    }
+    
+    /**
+     * Seals the current {@link LogSegment}, if any, so that the next one is
+     * started with the next batch.
+     * <p>
+     * This must only be run on the writer thread.
+     */
+    private void seal() {
+        
+        if (this.active == null) {
+            return;
+        }
+        try {
+            this.active.seal();
+        } catch (final IOException e) {
+            this.logger.log(Level.WARNING, "Unable to seal location log segment.", e);
+        }
+        this.active = null;
+    }
+    
+    /**
+     * Deletes the sealed {@link LogSegment LogSegments} past the retention
+     * window, and rewrites the ones that have not been compacted yet,
+     * merging consecutive small ones into a single {@link LogSegment}, as
+     * long as it does not span more than {@link LogSegment#MAX_SPAN_MILLIS}.
+     * <p>
+     * This must only be run on the writer thread.
+     */
+    private void compact() {
+        
+        final long cutoff = System.currentTimeMillis() - this.retentionMillis;
+        final List<LogSegment> group = new ArrayList<LogSegment>();
+        int records = 0;
+        for (final LogSegment segment : this.segments) {
+            
+            if (segment == this.active) {
+                break;
+            }
+            if (segment.getEnd() < cutoff) {
+                this.segments.remove(segment);
+                this.delete(segment);
+                continue;
+            }
+            
+            if (segment.isCompacted() && segment.size() >= this.capacity / 2) {
+                this.merge(group, cutoff);
+                group.clear();
+                records = 0;
+                continue;
+            }
+            if (records + segment.size() > this.capacity || (!group.isEmpty() && segment.getEnd() - group.get(0).getBase() > LogSegment.MAX_SPAN_MILLIS)) {
+                this.merge(group, cutoff);
+                group.clear();
+                records = 0;
+            }
+            group.add(segment);
+            records += segment.size();
+        }
+        this.merge(group, cutoff);
+    }
+    
+    /**
+     * Rewrites the given consecutive {@link LogSegment LogSegments} as a
+     * single compacted {@link LogSegment}, which takes the place of the
+     * first one.
+     * <p>
+     * Nothing is done for a single {@link LogSegment} that has already been
+     * compacted.
+     * <p>
+     * This must only be run on the writer thread.
+     * 
+     * @param group The {@link LogSegment LogSegments} to merge, oldest first.
+     * @param cutoff The time of the oldest record to keep, in milliseconds
+     *               since the epoch.
+     */
+    private void merge(@NotNull final List<LogSegment> group, final long cutoff) {
+        
+        if (group.isEmpty() || (group.size() == 1 && group.get(0).isCompacted())) {
+            return;
+        }
+        
+        final LogSegment first = group.get(0);
+        final Path target = this.directory.resolve(first.getBase() + LogSegment.SEGMENT_SUFFIX);
+        final Path temporary = this.directory.resolve(first.getBase() + COMPACTING_SUFFIX);
+        final LogSegment merged;
+        try {
+            Files.deleteIfExists(temporary);
+            merged = LogSegment.compact(group, temporary, cutoff, KEYFRAME_MILLIS);
+            merged.moveTo(target);
+        } catch (final IOException e) {
+            this.logger.log(Level.WARNING, "Unable to compact location log segment " + target + ".", e);
+            return;
+        }
+        
+        this.segments.set(this.segments.indexOf(first), merged);
+        for (final LogSegment segment : group.subList(1, group.size())) {
+            this.segments.remove(segment);
+            this.delete(segment);
+        }
+    }
+    
+    /**
+     * Deletes the files of the given {@link LogSegment}, logging any failure.
+     * 
+     * @param segment The {@link LogSegment} to delete.
+     */
+    private void delete(@NotNull final LogSegment segment) {
+        try {
+            segment.delete();
+        } catch (final IOException e) {
+            this.logger.log(Level.WARNING, "Unable to delete location log segment.", e);
+        }
+    }
+    
+    /**
+     * Receives the records streamed by a query of the {@link LocationLog}.
+     */
+    @FunctionalInterface
+    public interface Visitor {
+        
+        /**
+         * Receives a single record.
+         * 
+         * @param time The time of the record, in milliseconds since the
+         *             epoch.
+         * @param worldName The name of the world, or {@code null} if unknown.
+         * @param x The block X coordinate.
+         * @param y The block Y coordinate.
+         * @param z The block Z coordinate.
+         * @param yaw The yaw, in degrees.
+         * @return {@code true} to receive the next record, {@code false} to
+         *         stop the query.
+         */
+        boolean visit(final long time, @Nullable final String worldName, final int x, final int y, final int z, final float yaw);
+    }
+    
+    /**
+     * Represents a sample of every online {@link Player}, stored as
+     * primitive arrays that are reused from one sample to the next.
+     * <p>
+     * A {@link Batch} is filled on the main server thread, written on the
+     * writer thread, and then returned to the free batches.
+     */
+    private final class Batch implements Runnable {
+        
+        private UUID[] ids;
+        private String[] worlds;
+        private int[] xs;
+        private int[] ys;
+        private int[] zs;
+        private float[] yaws;
+        private long time;
+        private int size;
+        
+        /**
+         * Constructs a new, empty {@link Batch}.
+         */
+        private Batch() {
+            this.ids = new UUID[0];
+            this.worlds = new String[0];
+            this.xs = new int[0];
+            this.ys = new int[0];
+            this.zs = new int[0];
+            this.yaws = new float[0];
+            this.time = 0L;
+            this.size = 0;
+        }
+        
+        /**
+         * Empties this {@link Batch}, growing it if needed.
+         * 
+         * @param time The time of the sample, in milliseconds since the
+         *             epoch.
+         * @param players The number of {@link Player Players} to make room
+         *                for.
+         */
+        private void clear(final long time, final int players) {
+            this.grow(players);
+            this.time = time;
+            this.size = 0;
+        }
+        
+        /**
+         * Grows this {@link Batch}, if needed, so that it has room for the
+         * given number of {@link Player Players}.
+         * 
+         * @param players The number of {@link Player Players}.
+         */
+        private void grow(final int players) {
+            if (players <= this.ids.length) {
+                return;
+            }
+            final int length = Math.max(players, this.ids.length << 1);
+            this.ids = Arrays.copyOf(this.ids, length);
+            this.worlds = Arrays.copyOf(this.worlds, length);
+            this.xs = Arrays.copyOf(this.xs, length);
+            this.ys = Arrays.copyOf(this.ys, length);
+            this.zs = Arrays.copyOf(this.zs, length);
+            this.yaws = Arrays.copyOf(this.yaws, length);
+        }
+        
+        /**
+         * Adds the {@link Location} of a {@link Player} to this
+         * {@link Batch}.
+         * 
+         * @param playerId The {@link UUID} of the {@link Player}.
+         * @param worldName The name of the world, or {@code null} if unknown.
+         * @param x The block X coordinate.
+         * @param y The block Y coordinate.
+         * @param z The block Z coordinate.
+         * @param yaw The yaw, in degrees.
+         */
+        private void add(@NotNull final UUID playerId, @Nullable final String worldName, final int x, final int y, final int z, final float yaw) {
+            this.grow(this.size + 1);
+            final int index = this.size++;
+            this.ids[index] = playerId;
+            this.worlds[index] = worldName;
+            this.xs[index] = x;
+            this.ys[index] = y;
+            this.zs[index] = z;
+            this.yaws[index] = yaw;
+        }
+        
+        /**
+         * Writes this {@link Batch} to the {@link LocationLog}, and returns
+         * it to the free batches.
+         */
+        @Override
+        public void run() {
+            try {
+                LocationLog.this.write(this);
+            } finally {
+                LocationLog.this.freeBatches.offer(this);
+            }
+        }
+    }
+}
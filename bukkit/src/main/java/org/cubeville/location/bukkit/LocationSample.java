@@ -0,0 +1,175 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.bukkit;
+
+import java.util.List;
+import java.util.UUID;
+import org.bspfsystems.bungeelocation.core.Direction;
+import org.bspfsystems.bungeelocation.core.LocationResponse;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Represents the {@link Location} of a {@link Player}, sampled on the main
+ * server thread, that can safely be serialized on any other thread.
+ */
+public final class LocationSample {
+    
+    private final String worldName;
+    private final int x;
+    private final int y;
+    private final int z;
+    private final float yaw;
+    private final RegionSet regions;
+    private final long sampled;
+    private final long regionNanos;
+    
+    /**
+     * Constructs a new {@link LocationSample}.
+     * 
+     * @param worldName The name of the world, or {@code null} if the world
+     *                  could not be determined.
+     * @param x The X coordinate.
+     * @param y The Y coordinate.
+     * @param z The Z coordinate.
+     * @param yaw The yaw.
+     * @param regions The WorldGuard regions at the {@link Location}, or
+     *                {@code null} if they were not sampled.
+     * @param sampled The time the {@link Location} was sampled, as returned
+     *                by {@link System#nanoTime()}.
+     * @param regionNanos The time, in nanoseconds, spent getting the
+     *                    WorldGuard regions, or {@code 0} if they were not
+     *                    sampled.
+     */
+    public LocationSample(@Nullable final String worldName, final int x, final int y, final int z, final float yaw, @Nullable final RegionSet regions, final long sampled, final long regionNanos) {
+        this.worldName = worldName;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.yaw = yaw;
+        this.regions = regions;
+        this.sampled = sampled;
+        this.regionNanos = regionNanos;
+    }
+    
+    /**
+     * Gets the name of the world.
+     * 
+     * @return The world name, or {@code null} if it could not be determined.
+     */
+    @Nullable
+    public String getWorldName() {
+        return this.worldName;
+    }
+    
+    /**
+     * Gets the X coordinate.
+     * 
+     * @return The X coordinate.
+     */
+    public int getX() {
+        return this.x;
+    }
+    
+    /**
+     * Gets the Y coordinate.
+     * 
+     * @return The Y coordinate.
+     */
+    public int getY() {
+        return this.y;
+    }
+    
+    /**
+     * Gets the Z coordinate.
+     * 
+     * @return The Z coordinate.
+     */
+    public int getZ() {
+        return this.z;
+    }
+    
+    /**
+     * Gets the yaw.
+     * 
+     * @return The yaw.
+     */
+    public float getYaw() {
+        return this.yaw;
+    }
+    
+    /**
+     * Gets the WorldGuard regions at the sampled {@link Location}.
+     * 
+     * @return The regions, or {@code null} if they were not sampled.
+     */
+    @Nullable
+    public RegionSet getRegions() {
+        return this.regions;
+    }
+    
+    /**
+     * Gets the time the {@link Location} was sampled.
+     * 
+     * @return The sample time, as returned by {@link System#nanoTime()}.
+     */
+    public long getSampled() {
+        return this.sampled;
+    }
+    
+    /**
+     * Gets the time spent getting the WorldGuard regions.
+     * 
+     * @return The region lookup time, in nanoseconds, or {@code 0} if the
+     *         regions were not sampled.
+     */
+    public long getRegionNanos() {
+        return this.regionNanos;
+    }
+    
+    /**
+     * Converts this {@link LocationSample} into a {@link LocationResponse}.
+     * 
+     * @param requestId The id of the request being answered, or {@code 0} if
+     *                  it is not tracked.
+     * @param senderId The {@link UUID} of the sender, or {@code null} if the
+     *                 request came from the console.
+     * @param targetId The {@link UUID} of the sampled {@link Player}.
+     * @param getRegions {@code true} if the WorldGuard regions were
+     *                   requested, {@code false} otherwise.
+     * @param directionOnly {@code true} if only the {@link Direction} should
+     *                      be sent instead of the exact yaw, {@code false}
+     *                      otherwise.
+     * @return The {@link LocationResponse}.
+     */
+    @NotNull
+    public LocationResponse toResponse(final int requestId, @Nullable final UUID senderId, @NotNull final UUID targetId, final boolean getRegions, final boolean directionOnly) {
+        final RegionSet regions = getRegions ? this.regions : null;
+        final List<String> names = regions == null ? null : regions.getNames();
+        if (directionOnly) {
+            return new LocationResponse(requestId, senderId, targetId, this.worldName, this.x, this.y, this.z, Direction.fromYaw(this.yaw), names);
+        }
+        return new LocationResponse(requestId, senderId, targetId, this.worldName, this.x, this.y, this.z, this.yaw, names);
+    }
+}
@@ -0,0 +1,281 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.bukkit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.bukkit.Location;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Samples the {@link Location Locations} of {@link Player Players} on the main
+ * server thread on behalf of the IPC thread.
+ * <p>
+ * Requests are queued from any thread, and drained once per tick by a single
+ * scheduled task. Every distinct target is sampled only once per tick, no
+ * matter how many requests are waiting on it. The callbacks are then run
+ * together in a single asynchronous task, so that serializing and sending
+ * the responses never happens on the main thread.
+ * <p>
+ * If a {@link LocationSnapshot} is in use, requests that do not need the
+ * WorldGuard regions are answered straight from it on the calling thread,
+ * and only fall back to the queue if the snapshot cannot answer them.
+ * <p>
+ * The WorldGuard regions are taken from the {@link RegionMembership} index,
+ * which only looks them up again once the {@link Player} has moved to
+ * another block.
+ */
+public final class LocationSampler implements Runnable {
+    
+    private final Plugin plugin;
+    private final Server server;
+    private final Logger logger;
+    private final LocationSnapshot snapshot;
+    private final RegionMembership regionMembership;
+    private final BackendMetrics metrics;
+    
+    private final Queue<PendingSample> queue;
+    private final AtomicBoolean scheduled;
+    
+    /**
+     * Constructs a new {@link LocationSampler}.
+     * 
+     * @param plugin The {@link Plugin} to schedule tasks for.
+     * @param snapshot The {@link LocationSnapshot} to answer requests from,
+     *                 or {@code null} if the snapshot mode is disabled.
+     * @param regionMembership The {@link RegionMembership} index to take the
+     *                         WorldGuard regions from.
+     * @param metrics The {@link BackendMetrics} to record the time spent
+     *                queued and sampling in.
+     */
+    public LocationSampler(@NotNull final Plugin plugin, @Nullable final LocationSnapshot snapshot, @NotNull final RegionMembership regionMembership, @NotNull final BackendMetrics metrics) {
+        this.plugin = plugin;
+        this.server = plugin.getServer();
+        this.logger = plugin.getLogger();
+        this.snapshot = snapshot;
+        this.regionMembership = regionMembership;
+        this.metrics = metrics;
+        
+        this.queue = new ConcurrentLinkedQueue<PendingSample>();
+        this.scheduled = new AtomicBoolean(false);
+    }
+    
+    /**
+     * Queues a sample of the {@link Player} with the given {@link UUID}.
+     * <p>
+     * This may be called from any thread. The callback is run asynchronously
+     * (or directly on the calling thread, if answered from the
+     * {@link LocationSnapshot}), and is given {@code null} if the
+     * {@link Player} is not online.
+     * 
+     * @param targetId The {@link UUID} of the {@link Player} to sample.
+     * @param regions {@code true} if the WorldGuard regions should also be
+     *                sampled, {@code false} otherwise.
+     * @param callback The callback to run with the sample.
+     */
+    public void submit(@NotNull final UUID targetId, final boolean regions, @NotNull final Consumer<LocationSample> callback) {
+        this.submit(Collections.singletonList(targetId), regions, samples -> callback.accept(samples.get(0)));
+    }
+    
+    /**
+     * Queues a sample of each of the {@link Player Players} with the given
+     * {@link UUID UUIDs}, to be taken together on the same tick.
+     * <p>
+     * This may be called from any thread. The callback is run asynchronously
+     * (or directly on the calling thread, if answered from the
+     * {@link LocationSnapshot}), and is given the samples in the same order
+     * as the targets, with {@code null} for each {@link Player} that is not
+     * online.
+     * 
+     * @param targetIds The {@link UUID UUIDs} of the {@link Player Players}
+     *                  to sample.
+     * @param regions {@code true} if the WorldGuard regions should also be
+     *                sampled, {@code false} otherwise.
+     * @param callback The callback to run with the samples.
+     */
+    public void submit(@NotNull final List<UUID> targetIds, final boolean regions, @NotNull final Consumer<List<LocationSample>> callback) {
+        
+        if (!regions && this.snapshot != null) {
+            final List<LocationSample> samples = new ArrayList<LocationSample>(targetIds.size());
+            for (final UUID targetId : targetIds) {
+                final LocationSample sample = this.snapshot.get(targetId);
+                if (sample == null) {
+                    break;
+                }
+                samples.add(sample);
+            }
+            if (samples.size() == targetIds.size()) {
+                this.complete(targetIds, samples, callback);
+                return;
+            }
+        }
+        
+        this.queue.add(new PendingSample(targetIds, regions, callback));
+        if (this.scheduled.compareAndSet(false, true)) {
+            this.server.getScheduler().runTask(this.plugin, this);
+        }
+    }
+    
+    /**
+     * Drains the queued requests, sampling each distinct target once, and
+     * then hands the samples off to an asynchronous task.
+     * <p>
+     * This must only be run on the main server thread.
+     */
+    @Override
+    public void run() {
+        
+        this.scheduled.set(false);
+        final List<PendingSample> batch = new ArrayList<PendingSample>();
+        PendingSample pending;
+        while ((pending = this.queue.poll()) != null) {
+            this.metrics.record(BackendMetrics.Stage.QUEUE, pending.submitted);
+            batch.add(pending);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        
+        final Map<UUID, Boolean> targets = new HashMap<UUID, Boolean>();
+        for (final PendingSample request : batch) {
+            for (final UUID targetId : request.targetIds) {
+                targets.merge(targetId, request.regions, Boolean::logicalOr);
+            }
+        }
+        
+        final Map<UUID, LocationSample> samples = new HashMap<UUID, LocationSample>(targets.size() * 2);
+        for (final Map.Entry<UUID, Boolean> entry : targets.entrySet()) {
+            samples.put(entry.getKey(), this.sample(entry.getKey(), entry.getValue()));
+        }
+        
+        this.server.getScheduler().runTaskAsynchronously(this.plugin, () -> {
+            for (final PendingSample request : batch) {
+                final List<LocationSample> results = new ArrayList<LocationSample>(request.targetIds.size());
+                for (final UUID targetId : request.targetIds) {
+                    results.add(samples.get(targetId));
+                }
+                this.complete(request.targetIds, results, request.callback);
+            }
+        });
+    }
+    
+    /**
+     * Runs the given callback with the given {@link LocationSample
+     * LocationSamples}, logging any failure.
+     * 
+     * @param targetIds The {@link UUID UUIDs} of the sampled
+     *                  {@link Player Players}.
+     * @param samples The {@link LocationSample LocationSamples}, with
+     *                {@code null} for each {@link Player} that is not online.
+     * @param callback The callback to run.
+     */
+    private void complete(@NotNull final List<UUID> targetIds, @NotNull final List<LocationSample> samples, @NotNull final Consumer<List<LocationSample>> callback) {
+        try {
+            callback.accept(samples);
+        } catch (final RuntimeException e) {
+            this.logger.log(Level.WARNING, "Unable to send location response for target UUID(s) " + targetIds + ".", e);
+        }
+    }
+    
+    /**
+     * Samples the {@link Location} of the {@link Player} with the given
+     * {@link UUID}.
+     * <p>
+     * This must only be run on the main server thread.
+     * 
+     * @param targetId The {@link UUID} of the {@link Player} to sample.
+     * @param regions {@code true} if the WorldGuard regions should also be
+     *                sampled, {@code false} otherwise.
+     * @return The {@link LocationSample}, or {@code null} if the
+     *         {@link Player} is not online.
+     */
+    @Nullable
+    public LocationSample sample(@NotNull final UUID targetId, final boolean regions) {
+        
+        final long start = System.nanoTime();
+        final Player target = this.server.getPlayer(targetId);
+        if (target == null) {
+            return null;
+        }
+        if (!target.isOnline()) {
+            return null;
+        }
+        
+        final Location location = target.getLocation();
+        final World world = location.getWorld();
+        RegionSet regionSet = null;
+        long regionNanos = 0L;
+        if (regions) {
+            final long lookup = System.nanoTime();
+            regionSet = this.regionMembership.getRegions(targetId, location);
+            regionNanos = System.nanoTime() - lookup;
+            this.metrics.getHistogram(BackendMetrics.Stage.REGIONS).record(regionNanos);
+        }
+        
+        final LocationSample sample = new LocationSample(world == null ? null : world.getName(), (int) location.getX(), (int) location.getY(), (int) location.getZ(), location.getYaw(), regionSet, start, regionNanos);
+        this.metrics.record(BackendMetrics.Stage.SAMPLE, start);
+        return sample;
+    }
+    
+    /**
+     * Represents a queued request for one or more
+     * {@link LocationSample LocationSamples}.
+     */
+    private static final class PendingSample {
+        
+        private final List<UUID> targetIds;
+        private final boolean regions;
+        private final Consumer<List<LocationSample>> callback;
+        private final long submitted;
+        
+        /**
+         * Constructs a new {@link PendingSample}.
+         * 
+         * @param targetIds The {@link UUID UUIDs} of the
+         *                  {@link Player Players} to sample.
+         * @param regions {@code true} if the WorldGuard regions should also
+         *                be sampled, {@code false} otherwise.
+         * @param callback The callback to run with the samples.
+         */
+        private PendingSample(@NotNull final List<UUID> targetIds, final boolean regions, @NotNull final Consumer<List<LocationSample>> callback) {
+            this.targetIds = targetIds;
+            this.regions = regions;
+            this.callback = callback;
+            this.submitted = System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,332 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.bukkit;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.StampedLock;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Keeps a compact snapshot of the {@link Location} of every online
+ * {@link Player}, so that location requests can be answered from any thread
+ * without touching the Bukkit API.
+ * <p>
+ * The snapshot is stored as a set of primitive arrays, one slot per online
+ * {@link Player}. Slots are written on the main server thread by the
+ * {@link MovementListener} as players join, move, turn, teleport, change
+ * worlds and quit, so only players that actually moved are ever updated.
+ * Readers on other threads use optimistic reads of a {@link StampedLock},
+ * and never block the main thread.
+ * <p>
+ * As every change is applied on the main thread as it happens, the snapshot
+ * is always exactly as current as sampling on the main thread would be, even
+ * while the server is lagging, so it is used regardless of how long ago a
+ * {@link Player} last moved.
+ */
+public final class LocationSnapshot implements MovementListener.Subscriber {
+    
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int NO_WORLD = -1;
+    
+    private final StampedLock lock;
+    private final ConcurrentMap<UUID, Integer> slots;
+    private final ConcurrentMap<UUID, Integer> worldIds;
+    private final Deque<Integer> freeSlots;
+    
+    private volatile String[] worldNames;
+    private int size;
+    
+    private long[] mostBits;
+    private long[] leastBits;
+    private int[] worlds;
+    private int[] xs;
+    private int[] ys;
+    private int[] zs;
+    private float[] yaws;
+    
+    /**
+     * Constructs a new, empty {@link LocationSnapshot}.
+     */
+    public LocationSnapshot() {
+        this.lock = new StampedLock();
+        this.slots = new ConcurrentHashMap<UUID, Integer>();
+        this.worldIds = new ConcurrentHashMap<UUID, Integer>();
+        this.freeSlots = new ArrayDeque<Integer>();
+        
+        this.worldNames = new String[0];
+        this.size = 0;
+        
+        this.mostBits = new long[INITIAL_CAPACITY];
+        this.leastBits = new long[INITIAL_CAPACITY];
+        this.worlds = new int[INITIAL_CAPACITY];
+        this.xs = new int[INITIAL_CAPACITY];
+        this.ys = new int[INITIAL_CAPACITY];
+        this.zs = new int[INITIAL_CAPACITY];
+        this.yaws = new float[INITIAL_CAPACITY];
+    }
+    
+    /**
+     * Adds all of the given {@link Player Players} to the snapshot, such as
+     * when the plugin is enabled while players are already online.
+     * <p>
+     * This must only be run on the main server thread.
+     * 
+     * @param players The {@link Player Players} to add.
+     */
+    public void populate(@NotNull final Collection<? extends Player> players) {
+        for (final Player player : players) {
+            this.update(player.getUniqueId(), player.getLocation());
+        }
+    }
+    
+    /**
+     * Gets the snapshotted {@link Location} of the {@link Player} with the
+     * given {@link UUID}.
+     * <p>
+     * This may be called from any thread.
+     * 
+     * @param playerId The {@link UUID} of the {@link Player}.
+     * @return The {@link LocationSample} (without regions), or {@code null} if
+     *         the {@link Player} is not in the snapshot.
+     */
+    @Nullable
+    public LocationSample get(@NotNull final UUID playerId) {
+        
+        final Integer slot = this.slots.get(playerId);
+        if (slot == null) {
+            return null;
+        }
+        
+        final long stamp = this.lock.tryOptimisticRead();
+        final LocationSample sample = this.read(slot, playerId);
+        if (this.lock.validate(stamp)) {
+            return sample;
+        }
+        
+        final long readStamp = this.lock.readLock();
+        try {
+            return this.read(slot, playerId);
+        } finally {
+            this.lock.unlockRead(readStamp);
+        }
+    }
+    
+    /**
+     * Reads the given slot of the snapshot.
+     * <p>
+     * When called during an optimistic read, the arrays may be concurrently
+     * modified, so this must not fail on inconsistent data; the result is
+     * discarded if the read turns out to be invalid.
+     * 
+     * @param slot The slot to read.
+     * @param playerId The {@link UUID} of the {@link Player} expected in the
+     *                 slot.
+     * @return The {@link LocationSample}, or {@code null} if the slot does
+     *         not (or no longer) belong to the {@link Player}.
+     */
+    @Nullable
+    private LocationSample read(final int slot, @NotNull final UUID playerId) {
+        
+        final long[] mostBits = this.mostBits;
+        final long[] leastBits = this.leastBits;
+        final int[] worlds = this.worlds;
+        final int[] xs = this.xs;
+        final int[] ys = this.ys;
+        final int[] zs = this.zs;
+        final float[] yaws = this.yaws;
+        if (slot >= mostBits.length || slot >= leastBits.length || slot >= worlds.length || slot >= xs.length || slot >= ys.length || slot >= zs.length || slot >= yaws.length) {
+            return null;
+        }
+        if (mostBits[slot] != playerId.getMostSignificantBits() || leastBits[slot] != playerId.getLeastSignificantBits()) {
+            return null;
+        }
+        
+        final String[] worldNames = this.worldNames;
+        final int world = worlds[slot];
+        final String worldName = world >= 0 && world < worldNames.length ? worldNames[world] : null;
+        return new LocationSample(worldName, xs[slot], ys[slot], zs[slot], yaws[slot], null, System.nanoTime(), 0L);
+    }
+    
+    /**
+     * Updates the slot of the {@link Player} with the given {@link UUID},
+     * allocating one if needed.
+     * <p>
+     * This must only be run on the main server thread.
+     * 
+     * @param playerId The {@link UUID} of the {@link Player}.
+     * @param location The new {@link Location} of the {@link Player}.
+     */
+    private void update(@NotNull final UUID playerId, @NotNull final Location location) {
+        
+        final int world = this.getWorldId(location.getWorld());
+        final Integer existing = this.slots.get(playerId);
+        final long stamp = this.lock.writeLock();
+        final int slot;
+        try {
+            if (existing != null) {
+                slot = existing;
+            } else {
+                slot = this.allocate();
+                this.mostBits[slot] = playerId.getMostSignificantBits();
+                this.leastBits[slot] = playerId.getLeastSignificantBits();
+            }
+            
+            this.worlds[slot] = world;
+            this.xs[slot] = (int) location.getX();
+            this.ys[slot] = (int) location.getY();
+            this.zs[slot] = (int) location.getZ();
+            this.yaws[slot] = location.getYaw();
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+        
+        if (existing == null) {
+            this.slots.put(playerId, slot);
+        }
+    }
+    
+    /**
+     * Removes the {@link Player} with the given {@link UUID} from the
+     * snapshot, freeing its slot.
+     * <p>
+     * This must only be run on the main server thread.
+     * 
+     * @param playerId The {@link UUID} of the {@link Player}.
+     */
+    private void remove(@NotNull final UUID playerId) {
+        
+        final Integer slot = this.slots.remove(playerId);
+        if (slot == null) {
+            return;
+        }
+        
+        final long stamp = this.lock.writeLock();
+        try {
+            this.mostBits[slot] = 0L;
+            this.leastBits[slot] = 0L;
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+        this.freeSlots.push(slot);
+    }
+    
+    /**
+     * Allocates a slot, growing the arrays if needed.
+     * <p>
+     * This must only be called while holding the write lock.
+     * 
+     * @return The allocated slot.
+     */
+    private int allocate() {
+        
+        final Integer free = this.freeSlots.poll();
+        if (free != null) {
+            return free;
+        }
+        
+        final int slot = this.size++;
+        if (slot >= this.mostBits.length) {
+            final int capacity = this.mostBits.length << 1;
+            this.mostBits = Arrays.copyOf(this.mostBits, capacity);
+            this.leastBits = Arrays.copyOf(this.leastBits, capacity);
+            this.worlds = Arrays.copyOf(this.worlds, capacity);
+            this.xs = Arrays.copyOf(this.xs, capacity);
+            this.ys = Arrays.copyOf(this.ys, capacity);
+            this.zs = Arrays.copyOf(this.zs, capacity);
+            this.yaws = Arrays.copyOf(this.yaws, capacity);
+        }
+        return slot;
+    }
+    
+    /**
+     * Gets the compact id of the given {@link World}, registering it if it has
+     * not been seen before.
+     * <p>
+     * This must only be run on the main server thread.
+     * 
+     * @param world The {@link World}.
+     * @return The id of the {@link World}, or {@link #NO_WORLD} if it is
+     *         {@code null}.
+     */
+    private int getWorldId(@Nullable final World world) {
+        
+        if (world == null) {
+            return NO_WORLD;
+        }
+        
+        final Integer existing = this.worldIds.get(world.getUID());
+        if (existing != null) {
+            return existing;
+        }
+        
+        final String[] worldNames = Arrays.copyOf(this.worldNames, this.worldNames.length + 1);
+        final int id = worldNames.length - 1;
+        worldNames[id] = world.getName();
+        this.worldNames = worldNames;
+        this.worldIds.put(world.getUID(), id);
+        return id;
+    }
+    
+    /**
+     * Updates the slot of a {@link Player} that joined, or is at a new
+     * position.
+     * 
+     * @param playerId The {@link UUID} of the {@link Player}.
+     * @param location The new {@link Location} of the {@link Player}.
+     */
+    @Override
+    public void onMove(@NotNull final UUID playerId, @NotNull final Location location) {
+        this.update(playerId, location);
+    }
+    
+    /**
+     * Updates the direction of a {@link Player} that turned without moving
+     * to another block.
+     * 
+     * @param playerId The {@link UUID} of the {@link Player}.
+     * @param location The new {@link Location} of the {@link Player}.
+     */
+    @Override
+    public void onTurn(@NotNull final UUID playerId, @NotNull final Location location) {
+        this.update(playerId, location);
+    }
+    
+    /**
+     * Removes a quitting {@link Player} from the snapshot.
+     * 
+     * @param playerId The {@link UUID} of the {@link Player}.
+     */
+    @Override
+    public void onQuit(@NotNull final UUID playerId) {
+        this.remove(playerId);
+    }
+}
@@ -0,0 +1,811 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.bukkit;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Represents a single segment file of the {@link LocationLog}, holding
+ * fixed-width location records in the order they were appended.
+ * <p>
+ * A segment starts with a header of {@link #HEADER_SIZE} bytes, holding the
+ * time the segment starts at, the number of records committed so far, and
+ * the names of the worlds that the records refer to. Each record then takes
+ * {@link #RECORD_SIZE} bytes: the {@link UUID} of the player (16), the
+ * milliseconds since the start of the segment (4), the block X and Z
+ * coordinates (4 each), the block Y coordinate (2), the world (1) and the
+ * yaw in 256ths of a turn (1). A segment never spans more than
+ * {@link #MAX_SPAN_MILLIS}, so that the time of every record fits.
+ * <p>
+ * The file is memory-mapped and only written by the writer thread of the
+ * {@link LocationLog}, with absolute puts. The number of records is only
+ * published once a whole batch is written, so queries on other threads can
+ * read every committed record without locking.
+ * <p>
+ * Every segment keeps a sparse index per player, pointing at every
+ * {@link #INDEX_STRIDE}th record of the player, so that a query can seek
+ * close to the first matching record, and skip the segments that the player
+ * is not in at all. The index is written next to the segment once it is
+ * sealed, and rebuilt from the records if it is missing.
+ */
+public final class LogSegment {
+    
+    /**
+     * The file name suffix of a segment file.
+     */
+    public static final String SEGMENT_SUFFIX = ".seg";
+    
+    /**
+     * The longest time, in milliseconds, between the start of a segment and
+     * its newest record.
+     */
+    public static final long MAX_SPAN_MILLIS = 24L * 60L * 60L * 1000L;
+    
+    private static final String INDEX_SUFFIX = ".idx";
+    
+    private static final int HEADER_SIZE = 4096;
+    private static final int RECORD_SIZE = 32;
+    private static final int INDEX_STRIDE = 16;
+    private static final int NO_WORLD = 0xFF;
+    
+    private static final int MAGIC = 0x43564C47;
+    private static final int INDEX_MAGIC = 0x43564C49;
+    private static final int VERSION = 1;
+    private static final int FLAG_COMPACTED = 0x01;
+    
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_BASE = 8;
+    private static final int OFFSET_COUNT = 16;
+    private static final int OFFSET_FLAGS = 20;
+    private static final int OFFSET_WORLD_COUNT = 24;
+    private static final int OFFSET_WORLDS = 28;
+    
+    private final long base;
+    private final int capacity;
+    private final boolean compacted;
+    private final MappedByteBuffer buffer;
+    private final Map<UUID, PlayerIndex> index;
+    private final Map<String, Integer> worldIds;
+    
+    private volatile Path path;
+    private volatile String[] worldNames;
+    private volatile int count;
+    private volatile int end;
+    private int appended;
+    private int worldsEnd;
+    
+    /**
+     * Constructs a new {@link LogSegment} over the given mapped file.
+     * 
+     * @param path The {@link Path} of the segment file.
+     * @param base The time the segment starts at, in milliseconds since the
+     *             epoch.
+     * @param capacity The number of records the mapped file has room for.
+     * @param compacted {@code true} if the segment was written by a
+     *                  compaction, {@code false} otherwise.
+     * @param buffer The {@link MappedByteBuffer} of the whole file.
+     */
+    private LogSegment(@NotNull final Path path, final long base, final int capacity, final boolean compacted, @NotNull final MappedByteBuffer buffer) {
+        this.base = base;
+        this.capacity = capacity;
+        this.compacted = compacted;
+        this.buffer = buffer;
+        this.index = new HashMap<UUID, PlayerIndex>();
+        this.worldIds = new HashMap<String, Integer>();
+        
+        this.path = path;
+        this.worldNames = new String[0];
+        this.count = 0;
+        this.end = 0;
+        this.appended = 0;
+        this.worldsEnd = OFFSET_WORLDS;
+    }
+    
+    /**
+     * Creates a new, empty {@link LogSegment}, mapping a file with room for
+     * the given number of records.
+     * 
+     * @param path The {@link Path} of the new segment file, which must not
+     *             exist yet.
+     * @param base The time the segment starts at, in milliseconds since the
+     *             epoch.
+     * @param capacity The number of records to make room for.
+     * @param compacted {@code true} if the segment is written by a
+     *                  compaction, {@code false} otherwise.
+     * @return The new {@link LogSegment}.
+     * @throws IOException If the file could not be created.
+     */
+    @NotNull
+    public static LogSegment create(@NotNull final Path path, final long base, final int capacity, final boolean compacted) throws IOException {
+        
+        final MappedByteBuffer buffer;
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0L, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+        }
+        
+        buffer.putInt(OFFSET_MAGIC, MAGIC);
+        buffer.putInt(OFFSET_VERSION, VERSION);
+        buffer.putLong(OFFSET_BASE, base);
+        buffer.putInt(OFFSET_COUNT, 0);
+        buffer.putInt(OFFSET_FLAGS, compacted ? FLAG_COMPACTED : 0);
+        buffer.putInt(OFFSET_WORLD_COUNT, 0);
+        return new LogSegment(path, base, capacity, compacted, buffer);
+    }
+    
+    /**
+     * Opens an existing segment file read-only, loading its sparse index, or
+     * rebuilding it from the records if it is missing or out of date.
+     * <p>
+     * Only the committed records are mapped, so a segment that was still
+     * being written when the server stopped is opened with the records of
+     * its last complete batch.
+     * 
+     * @param path The {@link Path} of the segment file.
+     * @return The opened {@link LogSegment}.
+     * @throws IOException If the file could not be read, or is not a valid
+     *                     segment file.
+     */
+    @NotNull
+    public static LogSegment open(@NotNull final Path path) throws IOException {
+        
+        final MappedByteBuffer buffer;
+        final int count;
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Truncated location log segment: " + path);
+            }
+            final ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0L, HEADER_SIZE);
+            if (header.getInt(OFFSET_MAGIC) != MAGIC) {
+                throw new IOException("Not a location log segment: " + path);
+            }
+            if (header.getInt(OFFSET_VERSION) != VERSION) {
+                throw new IOException("Unsupported location log segment version " + header.getInt(OFFSET_VERSION) + ": " + path);
+            }
+            
+            final long available = Math.max(0L, (channel.size() - HEADER_SIZE) / RECORD_SIZE);
+            count = (int) Math.min(Math.max(0, header.getInt(OFFSET_COUNT)), available);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, HEADER_SIZE + (long) count * RECORD_SIZE);
+        }
+        
+        final LogSegment segment = new LogSegment(path, buffer.getLong(OFFSET_BASE), count, (buffer.getInt(OFFSET_FLAGS) & FLAG_COMPACTED) != 0, buffer);
+        segment.loadWorlds();
+        segment.appended = count;
+        segment.count = count;
+        segment.end = count == 0 ? 0 : buffer.getInt(HEADER_SIZE + (count - 1) * RECORD_SIZE + 16);
+        if (!segment.readIndex()) {
+            segment.rebuildIndex();
+            segment.writeIndex();
+        }
+        return segment;
+    }
+    
+    /**
+     * Writes a new segment with the records of the given segments, in order,
+     * leaving out the records from before the given cutoff, and the records
+     * of players that have not moved since their previous record, unless
+     * that record is older than the given keyframe interval.
+     * <p>
+     * The given segments must not span more than {@link #MAX_SPAN_MILLIS}
+     * from the start of the first one to the end of the last one.
+     * 
+     * @param sources The {@link LogSegment LogSegments} to compact, in the
+     *                order they were written.
+     * @param path The {@link Path} of the new segment file, which must not
+     *             exist yet.
+     * @param cutoff The time of the oldest record to keep, in milliseconds
+     *               since the epoch.
+     * @param keyframeMillis The longest time, in milliseconds, between two
+     *                       kept records of a player that has not moved.
+     * @return The new, sealed {@link LogSegment}, sized to the records it
+     *         holds.
+     * @throws IOException If the new segment could not be written.
+     */
+    @NotNull
+    public static LogSegment compact(@NotNull final List<LogSegment> sources, @NotNull final Path path, final long cutoff, final long keyframeMillis) throws IOException {
+        
+        final LogSegment target = LogSegment.create(path, sources.get(0).getBase(), LogSegment.copy(sources, null, cutoff, keyframeMillis), true);
+        LogSegment.copy(sources, target, cutoff, keyframeMillis);
+        target.seal();
+        return target;
+    }
+    
+    /**
+     * Copies the records of the given segments to the given target, in
+     * order, leaving out the same records as
+     * {@link #compact(List, Path, long, long)}. Without a target, the
+     * records that would be kept are only counted, so that the target can be
+     * created with the exact room they need, instead of being truncated
+     * while it is still mapped.
+     * 
+     * @param sources The {@link LogSegment LogSegments} to copy, in the order
+     *                they were written.
+     * @param target The {@link LogSegment} to append the records to, or
+     *               {@code null} to only count them.
+     * @param cutoff The time of the oldest record to keep, in milliseconds
+     *               since the epoch.
+     * @param keyframeMillis The longest time, in milliseconds, between two
+     *                       kept records of a player that has not moved.
+     * @return The number of records kept.
+     */
+    private static int copy(@NotNull final List<LogSegment> sources, @Nullable final LogSegment target, final long cutoff, final long keyframeMillis) {
+        
+        int kept = 0;
+        final Map<UUID, long[]> previous = new HashMap<UUID, long[]>();
+        for (final LogSegment source : sources) {
+            
+            final ByteBuffer buffer = source.buffer;
+            final String[] worldNames = source.worldNames;
+            final int count = source.count;
+            for (int record = 0; record < count; record++) {
+                
+                final int offset = HEADER_SIZE + record * RECORD_SIZE;
+                final long time = source.base + buffer.getInt(offset + 16);
+                if (time < cutoff) {
+                    continue;
+                }
+                final int world = buffer.get(offset + 30) & 0xFF;
+                final int x = buffer.getInt(offset + 20);
+                final int y = buffer.getShort(offset + 28);
+                final int z = buffer.getInt(offset + 24);
+                final long horizontal = (long) x << 32 | z & 0xFFFFFFFFL;
+                final long vertical = (long) y << 8 | world;
+                
+                final UUID playerId = new UUID(buffer.getLong(offset), buffer.getLong(offset + 8));
+                final long[] last = previous.get(playerId);
+                if (last != null && last[1] == horizontal && last[2] == vertical && time - last[0] < keyframeMillis) {
+                    continue;
+                }
+                if (last == null) {
+                    previous.put(playerId, new long[] {time, horizontal, vertical});
+                } else {
+                    last[0] = time;
+                    last[1] = horizontal;
+                    last[2] = vertical;
+                }
+                if (target != null) {
+                    target.append(playerId, time, world < worldNames.length ? worldNames[world] : null, x, y, z, buffer.get(offset + 31));
+                }
+                kept++;
+            }
+        }
+        
+        return kept;
+    }
+    
+    /**
+     * Appends a record to this {@link LogSegment}, without publishing it to
+     * queries until the next {@link #commit()}.
+     * <p>
+     * This must only be called on the writer thread of the
+     * {@link LocationLog}.
+     * 
+     * @param playerId The {@link UUID} of the player.
+     * @param time The time of the record, in milliseconds since the epoch.
+     * @param worldName The name of the world, or {@code null} if unknown.
+     * @param x The block X coordinate.
+     * @param y The block Y coordinate.
+     * @param z The block Z coordinate.
+     * @param yaw The yaw, in degrees.
+     * @return {@code true} if the record was appended, {@code false} if this
+     *         {@link LogSegment} is full, or the record is more than
+     *         {@link #MAX_SPAN_MILLIS} after its start.
+     */
+    public boolean append(@NotNull final UUID playerId, final long time, @Nullable final String worldName, final int x, final int y, final int z, final float yaw) {
+        return this.append(playerId, time, worldName, x, y, z, (byte) Math.round(yaw * 256.0F / 360.0F));
+    }
+    
+    /**
+     * Appends a record with an already encoded yaw.
+     * 
+     * @param playerId The {@link UUID} of the player.
+     * @param time The time of the record, in milliseconds since the epoch.
+     * @param worldName The name of the world, or {@code null} if unknown.
+     * @param x The block X coordinate.
+     * @param y The block Y coordinate.
+     * @param z The block Z coordinate.
+     * @param yaw The yaw, in 256ths of a turn.
+     * @return {@code true} if the record was appended, {@code false} if this
+     *         {@link LogSegment} is full, or the record is more than
+     *         {@link #MAX_SPAN_MILLIS} after its start.
+     */
+    private boolean append(@NotNull final UUID playerId, final long time, @Nullable final String worldName, final int x, final int y, final int z, final byte yaw) {
+        
+        if (this.appended == this.capacity || time - this.base > MAX_SPAN_MILLIS) {
+            return false;
+        }
+        
+        final int record = this.appended;
+        final int offset = HEADER_SIZE + record * RECORD_SIZE;
+        final int elapsed = (int) (time - this.base);
+        this.buffer.putLong(offset, playerId.getMostSignificantBits());
+        this.buffer.putLong(offset + 8, playerId.getLeastSignificantBits());
+        this.buffer.putInt(offset + 16, elapsed);
+        this.buffer.putInt(offset + 20, x);
+        this.buffer.putInt(offset + 24, z);
+        this.buffer.putShort(offset + 28, (short) y);
+        this.buffer.put(offset + 30, (byte) this.getWorldId(worldName));
+        this.buffer.put(offset + 31, yaw);
+        
+        synchronized (this.index) {
+            PlayerIndex playerIndex = this.index.get(playerId);
+            if (playerIndex == null) {
+                playerIndex = new PlayerIndex();
+                this.index.put(playerId, playerIndex);
+            }
+            playerIndex.add(record, elapsed);
+        }
+        this.appended = record + 1;
+        this.end = elapsed;
+        return true;
+    }
+    
+    /**
+     * Publishes the records appended since the last commit to queries, and
+     * records their number in the header.
+     * <p>
+     * This must only be called on the writer thread of the
+     * {@link LocationLog}.
+     */
+    public void commit() {
+        this.buffer.putInt(OFFSET_COUNT, this.appended);
+        this.count = this.appended;
+    }
+    
+    /**
+     * Commits the remaining records, flushes the mapped file to disk, and
+     * writes the sparse index next to it. No more records may be appended
+     * afterwards.
+     * <p>
+     * This must only be called on the writer thread of the
+     * {@link LocationLog}.
+     * 
+     * @throws IOException If the index could not be written.
+     */
+    public void seal() throws IOException {
+        this.commit();
+        this.buffer.force();
+        this.writeIndex();
+    }
+    
+    /**
+     * Streams the records of the given player between the given times to
+     * the given {@link LocationLog.Visitor}, in the order they were written.
+     * <p>
+     * The scan starts at the last indexed record of the player before the
+     * start time, and reads the mapped file record by record from there, so
+     * only the part of the segment around the records of the player is ever
+     * paged in.
+     * <p>
+     * This may be called from any thread.
+     * 
+     * @param playerId The {@link UUID} of the player.
+     * @param from The earliest time, in milliseconds since the epoch.
+     * @param to The latest time, in milliseconds since the epoch.
+     * @param visitor The {@link LocationLog.Visitor} to stream the records
+     *                to.
+     * @return {@code false} if the {@link LocationLog.Visitor} asked to
+     *         stop, {@code true} otherwise.
+     */
+    public boolean scan(@NotNull final UUID playerId, final long from, final long to, @NotNull final LocationLog.Visitor visitor) {
+        
+        final int count = this.count;
+        final long fromElapsed = Math.max(0L, from - this.base);
+        final long toElapsed = to - this.base;
+        if (toElapsed < 0L || fromElapsed > Integer.MAX_VALUE) {
+            return true;
+        }
+        
+        final int start;
+        final int last;
+        synchronized (this.index) {
+            final PlayerIndex playerIndex = this.index.get(playerId);
+            if (playerIndex == null) {
+                return true;
+            }
+            start = playerIndex.seek((int) fromElapsed);
+            last = playerIndex.last;
+        }
+        
+        final long most = playerId.getMostSignificantBits();
+        final long least = playerId.getLeastSignificantBits();
+        final String[] worldNames = this.worldNames;
+        final int stop = Math.min(last + 1, count);
+        for (int record = start; record < stop; record++) {
+            
+            final int offset = HEADER_SIZE + record * RECORD_SIZE;
+            if (this.buffer.getLong(offset) != most || this.buffer.getLong(offset + 8) != least) {
+                continue;
+            }
+            final int elapsed = this.buffer.getInt(offset + 16);
+            if (elapsed < fromElapsed) {
+                continue;
+            }
+            if (elapsed > toElapsed) {
+                return true;
+            }
+            
+            final int world = this.buffer.get(offset + 30) & 0xFF;
+            final float yaw = this.buffer.get(offset + 31) * 360.0F / 256.0F;
+            if (!visitor.visit(this.base + elapsed, world < worldNames.length ? worldNames[world] : null, this.buffer.getInt(offset + 20), this.buffer.getShort(offset + 28), this.buffer.getInt(offset + 24), yaw)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Moves the segment file and its index to the given {@link Path},
+     * replacing any segment already there.
+     * <p>
+     * This must only be called on the writer thread of the
+     * {@link LocationLog}, once this {@link LogSegment} is sealed.
+     * 
+     * @param target The new {@link Path} of the segment file.
+     * @throws IOException If the files could not be moved.
+     */
+    public void moveTo(@NotNull final Path target) throws IOException {
+        Files.move(this.path, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(indexPath(this.path), indexPath(target), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.path = target;
+    }
+    
+    /**
+     * Deletes the segment file and its index. The records stay readable by
+     * the queries that are already running, until the mapping is released.
+     * 
+     * @throws IOException If the files could not be deleted.
+     */
+    public void delete() throws IOException {
+        Files.deleteIfExists(this.path);
+        Files.deleteIfExists(indexPath(this.path));
+    }
+    
+    /**
+     * Gets the time this {@link LogSegment} starts at.
+     * 
+     * @return The time of the start, in milliseconds since the epoch.
+     */
+    public long getBase() {
+        return this.base;
+    }
+    
+    /**
+     * Gets the time of the newest record in this {@link LogSegment}.
+     * 
+     * @return The time of the newest record, in milliseconds since the
+     *         epoch, or the start time if there are no records.
+     */
+    public long getEnd() {
+        return this.base + this.end;
+    }
+    
+    /**
+     * Gets the number of committed records.
+     * 
+     * @return The number of records.
+     */
+    public int size() {
+        return this.count;
+    }
+    
+    /**
+     * Gets the number of bytes taken by the header and the committed
+     * records.
+     * 
+     * @return The number of bytes used.
+     */
+    public long getBytes() {
+        return HEADER_SIZE + (long) this.count * RECORD_SIZE;
+    }
+    
+    /**
+     * Checks if this {@link LogSegment} was written by a compaction.
+     * 
+     * @return {@code true} if this {@link LogSegment} was compacted,
+     *         {@code false} otherwise.
+     */
+    public boolean isCompacted() {
+        return this.compacted;
+    }
+    
+    /**
+     * Gets the number of records that fit in a segment file of the given
+     * size.
+     * 
+     * @param bytes The size of the file, in bytes.
+     * @return The number of records.
+     */
+    public static int getCapacity(final long bytes) {
+        return (int) Math.min(Integer.MAX_VALUE / RECORD_SIZE, Math.max(1L, (bytes - HEADER_SIZE) / RECORD_SIZE));
+    }
+    
+    /**
+     * Gets the {@link Path} of the index of the segment file at the given
+     * {@link Path}.
+     * 
+     * @param path The {@link Path} of the segment file.
+     * @return The {@link Path} of the index.
+     */
+    @NotNull
+    private static Path indexPath(@NotNull final Path path) {
+        return path.resolveSibling(path.getFileName().toString() + INDEX_SUFFIX);
+    }
+    
+    /**
+     * Gets the id of the world with the given name in this
+     * {@link LogSegment}, adding it to the header if it has not been seen
+     * before.
+     * 
+     * @param worldName The name of the world, or {@code null} if unknown.
+     * @return The id of the world, or {@link #NO_WORLD} if it is unknown, or
+     *         there is no more room for it in the header.
+     */
+    private int getWorldId(@Nullable final String worldName) {
+        
+        if (worldName == null) {
+            return NO_WORLD;
+        }
+        final Integer existing = this.worldIds.get(worldName);
+        if (existing != null) {
+            return existing;
+        }
+        
+        final byte[] bytes = worldName.getBytes(StandardCharsets.UTF_8);
+        final int id = this.worldNames.length;
+        if (id == NO_WORLD || this.worldsEnd + 2 + bytes.length > HEADER_SIZE) {
+            return NO_WORLD;
+        }
+        
+        this.buffer.putShort(this.worldsEnd, (short) bytes.length);
+        this.buffer.put(this.worldsEnd + 2, bytes);
+        this.worldsEnd += 2 + bytes.length;
+        this.buffer.putInt(OFFSET_WORLD_COUNT, id + 1);
+        
+        final String[] worldNames = Arrays.copyOf(this.worldNames, id + 1);
+        worldNames[id] = worldName;
+        this.worldNames = worldNames;
+        this.worldIds.put(worldName, id);
+        return id;
+    }
+    
+    /**
+     * Loads the world names from the header.
+     * 
+     * @throws IOException If the world names are malformed.
+     */
+    private void loadWorlds() throws IOException {
+        
+        final int worldCount = this.buffer.getInt(OFFSET_WORLD_COUNT);
+        if (worldCount < 0 || worldCount > NO_WORLD) {
+            throw new IOException("Invalid world count " + worldCount + ": " + this.path);
+        }
+        
+        final String[] worldNames = new String[worldCount];
+        int position = OFFSET_WORLDS;
+        for (int id = 0; id < worldCount; id++) {
+            final int length = this.buffer.getShort(position) & 0xFFFF;
+            if (position + 2 + length > HEADER_SIZE) {
+                throw new IOException("Invalid world names: " + this.path);
+            }
+            final byte[] bytes = new byte[length];
+            this.buffer.get(position + 2, bytes);
+            worldNames[id] = new String(bytes, StandardCharsets.UTF_8);
+            this.worldIds.put(worldNames[id], id);
+            position += 2 + length;
+        }
+        this.worldNames = worldNames;
+        this.worldsEnd = position;
+    }
+    
+    /**
+     * Rebuilds the sparse index by reading every committed record.
+     */
+    private void rebuildIndex() {
+        synchronized (this.index) {
+            this.index.clear();
+            for (int record = 0; record < this.count; record++) {
+                final int offset = HEADER_SIZE + record * RECORD_SIZE;
+                final UUID playerId = new UUID(this.buffer.getLong(offset), this.buffer.getLong(offset + 8));
+                PlayerIndex playerIndex = this.index.get(playerId);
+                if (playerIndex == null) {
+                    playerIndex = new PlayerIndex();
+                    this.index.put(playerId, playerIndex);
+                }
+                playerIndex.add(record, this.buffer.getInt(offset + 16));
+            }
+        }
+    }
+    
+    /**
+     * Writes the sparse index next to the segment file.
+     * 
+     * @throws IOException If the index could not be written.
+     */
+    private void writeIndex() throws IOException {
+        
+        final ByteBuffer output;
+        synchronized (this.index) {
+            int size = 16;
+            for (final PlayerIndex playerIndex : this.index.values()) {
+                size += 28 + playerIndex.size * 8;
+            }
+            output = ByteBuffer.allocate(size);
+            output.putInt(INDEX_MAGIC).putInt(VERSION).putInt(this.count).putInt(this.index.size());
+            for (final Map.Entry<UUID, PlayerIndex> entry : this.index.entrySet()) {
+                final PlayerIndex playerIndex = entry.getValue();
+                output.putLong(entry.getKey().getMostSignificantBits()).putLong(entry.getKey().getLeastSignificantBits());
+                output.putInt(playerIndex.records).putInt(playerIndex.last).putInt(playerIndex.size);
+                for (int entryIndex = 0; entryIndex < playerIndex.size; entryIndex++) {
+                    output.putInt(playerIndex.positions[entryIndex]).putInt(playerIndex.times[entryIndex]);
+                }
+            }
+        }
+        
+        output.flip();
+        try (final FileChannel channel = FileChannel.open(indexPath(this.path), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (output.hasRemaining()) {
+                channel.write(output);
+            }
+        }
+    }
+    
+    /**
+     * Reads the sparse index written next to the segment file.
+     * 
+     * @return {@code true} if the index was read, {@code false} if it is
+     *         missing, malformed, or does not match the committed records.
+     */
+    private boolean readIndex() {
+        
+        final Path indexPath = indexPath(this.path);
+        if (!Files.isRegularFile(indexPath)) {
+            return false;
+        }
+        
+        try {
+            final ByteBuffer input = ByteBuffer.wrap(Files.readAllBytes(indexPath));
+            if (input.getInt() != INDEX_MAGIC || input.getInt() != VERSION || input.getInt() != this.count) {
+                return false;
+            }
+            
+            final int players = input.getInt();
+            final Map<UUID, PlayerIndex> index = new HashMap<UUID, PlayerIndex>();
+            for (int player = 0; player < players; player++) {
+                final UUID playerId = new UUID(input.getLong(), input.getLong());
+                final PlayerIndex playerIndex = new PlayerIndex();
+                playerIndex.records = input.getInt();
+                playerIndex.last = input.getInt();
+                final int size = input.getInt();
+                if (size < 0 || size > input.remaining() / 8) {
+                    return false;
+                }
+                playerIndex.positions = new int[Math.max(1, size)];
+                playerIndex.times = new int[Math.max(1, size)];
+                for (int entryIndex = 0; entryIndex < size; entryIndex++) {
+                    playerIndex.positions[entryIndex] = input.getInt();
+                    playerIndex.times[entryIndex] = input.getInt();
+                }
+                playerIndex.size = size;
+                index.put(playerId, playerIndex);
+            }
+            
+            synchronized (this.index) {
+                this.index.clear();
+                this.index.putAll(index);
+            }
+            return true;
+        } catch (final IOException | RuntimeException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * Represents the sparse index of the records of a single player in a
+     * {@link LogSegment}.
+     * <p>
+     * It must only be accessed while synchronized on the index of the
+     * {@link LogSegment}.
+     */
+    private static final class PlayerIndex {
+        
+        private int[] positions;
+        private int[] times;
+        private int size;
+        private int records;
+        private int last;
+        
+        /**
+         * Constructs a new, empty {@link PlayerIndex}.
+         */
+        private PlayerIndex() {
+            this.positions = new int[4];
+            this.times = new int[4];
+            this.size = 0;
+            this.records = 0;
+            this.last = -1;
+        }
+        
+        /**
+         * Counts a new record of the player, indexing it if it is the first
+         * of a stride.
+         * 
+         * @param record The number of the record in the {@link LogSegment}.
+         * @param elapsed The time of the record, in milliseconds since the
+         *                start of the {@link LogSegment}.
+         */
+        private void add(final int record, final int elapsed) {
+            if (this.records % INDEX_STRIDE == 0) {
+                if (this.size == this.positions.length) {
+                    this.positions = Arrays.copyOf(this.positions, this.size << 1);
+                    this.times = Arrays.copyOf(this.times, this.size << 1);
+                }
+                this.positions[this.size] = record;
+                this.times[this.size] = elapsed;
+                this.size++;
+            }
+            this.records++;
+            this.last = record;
+        }
+        
+        /**
+         * Finds the record to start scanning from for the records at or after
+         * the given time, with a binary search, as the times only grow.
+         * 
+         * @param elapsed The time, in milliseconds since the start of the
+         *                {@link LogSegment}.
+         * @return The number of the last indexed record before the time, or
+         *         of the first indexed record if there is none.
+         */
+        private int seek(final int elapsed) {
+            int low = 0;
+            int high = this.size - 1;
+            int found = 0;
+            while (low <= high) {
+                final int middle = (low + high) >>> 1;
+                if (this.times[middle] < elapsed) {
+                    found = middle;
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return this.size == 0 ? 0 : this.positions[found];
+        }
+    }
+}
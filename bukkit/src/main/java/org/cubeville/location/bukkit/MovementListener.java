@@ -0,0 +1,230 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.bukkit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerRespawnEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+import org.bukkit.event.vehicle.VehicleMoveEvent;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Listens for every way a {@link Player} can change position, and passes the
+ * new {@link Location} on to the {@link Subscriber Subscribers} that keep
+ * track of where the online {@link Player Players} are.
+ * <p>
+ * Movement within the same block is filtered out here, once, as that is by
+ * far the most common {@link PlayerMoveEvent}. A {@link Player} turning
+ * without moving to another block is only passed on as a turn, which the
+ * {@link Subscriber Subscribers} that do not keep track of the direction
+ * ignore.
+ * <p>
+ * {@link Subscriber Subscribers} are called on the main server thread, in
+ * the order they subscribed.
+ */
+public final class MovementListener implements Listener {
+    
+    private final List<Subscriber> subscribers;
+    
+    /**
+     * Constructs a new {@link MovementListener} without any
+     * {@link Subscriber Subscribers}.
+     */
+    public MovementListener() {
+        this.subscribers = new ArrayList<Subscriber>();
+    }
+    
+    /**
+     * Adds the given {@link Subscriber}, which is told about every
+     * {@link Player} that changes position from now on.
+     * <p>
+     * This must only be called on the main server thread.
+     * 
+     * @param subscriber The {@link Subscriber} to add.
+     */
+    public void subscribe(@NotNull final Subscriber subscriber) {
+        this.subscribers.add(subscriber);
+    }
+    
+    /**
+     * Tells every {@link Subscriber} that the {@link Player} with the given
+     * {@link UUID} is at the given {@link Location}.
+     * 
+     * @param playerId The {@link UUID} of the {@link Player}.
+     * @param location The new {@link Location} of the {@link Player}.
+     */
+    private void move(@NotNull final UUID playerId, @NotNull final Location location) {
+        for (final Subscriber subscriber : this.subscribers) {
+            subscriber.onMove(playerId, location);
+        }
+    }
+    
+    /**
+     * Tells every {@link Subscriber} about a joining {@link Player}.
+     * 
+     * @param event The {@link PlayerJoinEvent}.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerJoin(@NotNull final PlayerJoinEvent event) {
+        final Player player = event.getPlayer();
+        this.move(player.getUniqueId(), player.getLocation());
+    }
+    
+    /**
+     * Tells every {@link Subscriber} about a quitting {@link Player}.
+     * 
+     * @param event The {@link PlayerQuitEvent}.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(@NotNull final PlayerQuitEvent event) {
+        final UUID playerId = event.getPlayer().getUniqueId();
+        for (final Subscriber subscriber : this.subscribers) {
+            subscriber.onQuit(playerId);
+        }
+    }
+    
+    /**
+     * Tells every {@link Subscriber} about a {@link Player} that moved to
+     * another block, or only about the turn if they stayed in the same block.
+     * 
+     * @param event The {@link PlayerMoveEvent}.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerMove(@NotNull final PlayerMoveEvent event) {
+        
+        final Location from = event.getFrom();
+        final Location to = event.getTo();
+        if (to == null) {
+            return;
+        }
+        if (from.getBlockX() != to.getBlockX() || from.getBlockY() != to.getBlockY() || from.getBlockZ() != to.getBlockZ() || from.getWorld() != to.getWorld()) {
+            this.move(event.getPlayer().getUniqueId(), to);
+            return;
+        }
+        if (from.getYaw() == to.getYaw()) {
+            return;
+        }
+        
+        final UUID playerId = event.getPlayer().getUniqueId();
+        for (final Subscriber subscriber : this.subscribers) {
+            subscriber.onTurn(playerId, to);
+        }
+    }
+    
+    /**
+     * Tells every {@link Subscriber} about a teleporting {@link Player}.
+     * 
+     * @param event The {@link PlayerTeleportEvent}.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerTeleport(@NotNull final PlayerTeleportEvent event) {
+        final Location to = event.getTo();
+        if (to != null) {
+            this.move(event.getPlayer().getUniqueId(), to);
+        }
+    }
+    
+    /**
+     * Tells every {@link Subscriber} about a respawning {@link Player}.
+     * 
+     * @param event The {@link PlayerRespawnEvent}.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerRespawn(@NotNull final PlayerRespawnEvent event) {
+        this.move(event.getPlayer().getUniqueId(), event.getRespawnLocation());
+    }
+    
+    /**
+     * Tells every {@link Subscriber} about a {@link Player} that changed
+     * worlds.
+     * 
+     * @param event The {@link PlayerChangedWorldEvent}.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerChangedWorld(@NotNull final PlayerChangedWorldEvent event) {
+        final Player player = event.getPlayer();
+        this.move(player.getUniqueId(), player.getLocation());
+    }
+    
+    /**
+     * Tells every {@link Subscriber} about any {@link Player Players} riding
+     * a vehicle, as they do not trigger a {@link PlayerMoveEvent} while doing
+     * so.
+     * 
+     * @param event The {@link VehicleMoveEvent}.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onVehicleMove(@NotNull final VehicleMoveEvent event) {
+        for (final Entity passenger : event.getVehicle().getPassengers()) {
+            if (passenger instanceof Player) {
+                this.move(passenger.getUniqueId(), passenger.getLocation());
+            }
+        }
+    }
+    
+    /**
+     * Represents something that keeps track of where the online
+     * {@link Player Players} are.
+     */
+    public interface Subscriber {
+        
+        /**
+         * Called when a {@link Player} joins, or is at a new position after
+         * moving to another block, teleporting, respawning or changing
+         * worlds.
+         * 
+         * @param playerId The {@link UUID} of the {@link Player}.
+         * @param location The new {@link Location} of the {@link Player}.
+         */
+        void onMove(@NotNull UUID playerId, @NotNull Location location);
+        
+        /**
+         * Called when a {@link Player} turns without moving to another
+         * block. Does nothing by default.
+         * 
+         * @param playerId The {@link UUID} of the {@link Player}.
+         * @param location The new {@link Location} of the {@link Player}.
+         */
+        default void onTurn(@NotNull final UUID playerId, @NotNull final Location location) {
+            // Do nothing.
+        }
+        
+        /**
+         * Called when a {@link Player} quits.
+         * 
+         * @param playerId The {@link UUID} of the {@link Player}.
+         */
+        void onQuit(@NotNull UUID playerId);
+    }
+}
@@ -0,0 +1,125 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.bukkit;
+
+import com.sk89q.worldedit.bukkit.BukkitAdapter;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldguard.WorldGuard;
+import com.sk89q.worldguard.protection.ApplicableRegionSet;
+import com.sk89q.worldguard.protection.managers.RegionManager;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Looks up the {@link ProtectedRegion ProtectedRegions} at a {@link Location}
+ * from WorldGuard.
+ * <p>
+ * This must only be used on the main server thread.
+ */
+public final class RegionLookup {
+    
+    private final Logger logger;
+    
+    /**
+     * Constructs a new {@link RegionLookup}.
+     * 
+     * @param logger The {@link Logger} to log failed lookups to.
+     */
+    public RegionLookup(@NotNull final Logger logger) {
+        this.logger = logger;
+    }
+    
+    /**
+     * Gets the {@link ProtectedRegion ProtectedRegions} at the given
+     * {@link Location}.
+     * 
+     * @param location The {@link Location} to check.
+     * @param targetId The target of the request, used for logging.
+     * @return The {@link RegionSet} at the {@link Location}, which is
+     *         {@link RegionSet#UNKNOWN} if the regions could not be
+     *         determined.
+     */
+    @NotNull
+    public RegionSet lookup(@NotNull final Location location, @NotNull final UUID targetId) {
+        
+        final World world = location.getWorld();
+        if (world == null) {
+            this.logger.log(Level.WARNING, "Target UUID: " + targetId + " / Null World.");
+            return RegionSet.UNKNOWN;
+        }
+        
+        final RegionManager regionManager = WorldGuard.getInstance().getPlatform().getRegionContainer().get(BukkitAdapter.adapt(world));
+        if (regionManager == null) {
+            this.logger.log(Level.WARNING, "Target UUID: " + targetId + " / World: " + world.getName() + " / Null Region Manager.");
+            return RegionSet.UNKNOWN;
+        }
+        
+        final ApplicableRegionSet regions = regionManager.getApplicableRegions(BlockVector3.at(location.getBlockX(), location.getBlockY(), location.getBlockZ()));
+        if (regions.size() == 0) {
+            return RegionSet.GLOBAL;
+        }
+        
+        final List<String> names = new ArrayList<String>(regions.size());
+        for (final ProtectedRegion region : regions) {
+            names.add(region.getId());
+        }
+        return new RegionSet(Collections.unmodifiableList(names));
+    }
+    
+    /**
+     * Gets a fingerprint of the {@link ProtectedRegion ProtectedRegions}
+     * defined in the given {@link World}, which changes whenever a region is
+     * added, removed or redefined, or the regions of the {@link World} are
+     * reloaded.
+     * <p>
+     * WorldGuard replaces a {@link ProtectedRegion} with a new instance when
+     * it is redefined, and with new instances for every region when they are
+     * reloaded, so the identity of each region is combined with its bounds,
+     * without comparing any shapes point by point.
+     * 
+     * @param world The {@link World}.
+     * @return The fingerprint, which is {@code 0} if the {@link World} has
+     *         no {@link RegionManager}.
+     */
+    public long getFingerprint(@NotNull final World world) {
+        
+        final RegionManager regionManager = WorldGuard.getInstance().getPlatform().getRegionContainer().get(BukkitAdapter.adapt(world));
+        if (regionManager == null) {
+            return 0L;
+        }
+        
+        long fingerprint = System.identityHashCode(regionManager);
+        for (final ProtectedRegion region : regionManager.getRegions().values()) {
+            final long hash = (System.identityHashCode(region) * 31L + region.getMinimumPoint().hashCode()) * 31L + region.getMaximumPoint().hashCode();
+            fingerprint += hash * 0x9E3779B97F4A7C15L;
+        }
+        return fingerprint * 31L + regionManager.size();
+    }
+}
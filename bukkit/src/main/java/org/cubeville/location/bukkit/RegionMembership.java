@@ -0,0 +1,391 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.bukkit;
+
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import org.bukkit.Location;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Keeps track of which {@link ProtectedRegion ProtectedRegions} every online
+ * {@link Player} is in, and of which {@link Player Players} are in every
+ * {@link ProtectedRegion}, so that the {@link Player Players} in a region can
+ * be listed without checking any positions.
+ * <p>
+ * The membership of a {@link Player} is only looked up again when they move
+ * to another block, teleport, respawn or change worlds, and the reverse index
+ * is only touched when the result differs from the previous one. Requests
+ * for the regions of a {@link Player} are answered with that result, so
+ * WorldGuard is never queried at request time, only once per block crossed.
+ * <p>
+ * As WorldGuard does not publish an event when regions change, whether
+ * through a command or another plugin, the regions of every {@link World}
+ * are compared on a schedule to how they were before, and the membership of
+ * every {@link Player} in a {@link World} whose regions changed is looked up
+ * again.
+ * <p>
+ * The index must only be accessed from the main server thread.
+ */
+public final class RegionMembership implements Listener, MovementListener.Subscriber, Runnable {
+    
+    private final Server server;
+    private final RegionLookup regionLookup;
+    
+    private final Map<UUID, Member> members;
+    private final Map<UUID, Map<String, Set<UUID>>> worlds;
+    private final Map<UUID, Long> fingerprints;
+    
+    private final LongAdder recomputations;
+    private final LongAdder reuses;
+    
+    /**
+     * Constructs a new, empty {@link RegionMembership} index.
+     * 
+     * @param server The {@link Server} to get the online {@link World Worlds}
+     *               from.
+     * @param regionLookup The {@link RegionLookup} to look up the regions of
+     *                     a {@link Player} with.
+     */
+    public RegionMembership(@NotNull final Server server, @NotNull final RegionLookup regionLookup) {
+        this.server = server;
+        this.regionLookup = regionLookup;
+        
+        this.members = new HashMap<UUID, Member>();
+        this.worlds = new HashMap<UUID, Map<String, Set<UUID>>>();
+        this.fingerprints = new HashMap<UUID, Long>();
+        
+        this.recomputations = new LongAdder();
+        this.reuses = new LongAdder();
+    }
+    
+    /**
+     * Adds all of the given {@link Player Players} to the index, such as when
+     * the plugin is enabled while players are already online.
+     * 
+     * @param players The {@link Player Players} to add.
+     */
+    public void populate(@NotNull final Collection<? extends Player> players) {
+        for (final World world : this.server.getWorlds()) {
+            this.fingerprints.put(world.getUID(), this.regionLookup.getFingerprint(world));
+        }
+        for (final Player player : players) {
+            this.update(player.getUniqueId(), player.getLocation(), false);
+        }
+    }
+    
+    /**
+     * Compares the regions of every {@link World} to how they were on the
+     * previous run, and looks up the membership of every {@link Player} in a
+     * {@link World} whose regions changed again.
+     */
+    @Override
+    public void run() {
+        for (final World world : this.server.getWorlds()) {
+            final long fingerprint = this.regionLookup.getFingerprint(world);
+            final Long previous = this.fingerprints.put(world.getUID(), fingerprint);
+            if (previous == null || previous != fingerprint) {
+                this.refresh(world);
+            }
+        }
+    }
+    
+    /**
+     * Gets the {@link UUID UUIDs} of the {@link Player Players} in the
+     * {@link ProtectedRegion} with the given id.
+     * 
+     * @param worldId The {@link UUID} of the {@link World} of the
+     *                {@link ProtectedRegion}.
+     * @param regionName The id of the {@link ProtectedRegion}, in any case.
+     * @return The {@link UUID UUIDs} of the {@link Player Players}, which is
+     *         empty if there are none.
+     */
+    @NotNull
+    public List<UUID> getMembers(@NotNull final UUID worldId, @NotNull final String regionName) {
+        
+        final Map<String, Set<UUID>> regions = this.worlds.get(worldId);
+        if (regions == null) {
+            return new ArrayList<UUID>();
+        }
+        final Set<UUID> players = regions.get(regionName.toLowerCase(Locale.ROOT));
+        return players == null ? new ArrayList<UUID>() : new ArrayList<UUID>(players);
+    }
+    
+    /**
+     * Gets the {@link ProtectedRegion ProtectedRegions} the {@link Player}
+     * with the given {@link UUID} is in, at the given {@link Location}.
+     * <p>
+     * The result of the last lookup is reused if the {@link Player} is still
+     * at the same block, which is the case unless they moved without the
+     * index hearing about it yet.
+     * 
+     * @param playerId The {@link UUID} of the {@link Player}.
+     * @param location The current {@link Location} of the {@link Player}.
+     * @return The {@link RegionSet} the {@link Player} is in, which is
+     *         {@link RegionSet#UNKNOWN} if the regions could not be
+     *         determined.
+     */
+    @NotNull
+    public RegionSet getRegions(@NotNull final UUID playerId, @NotNull final Location location) {
+        if (!this.update(playerId, location, false)) {
+            this.reuses.increment();
+        }
+        final Member member = this.members.get(playerId);
+        return member == null ? RegionSet.UNKNOWN : member.regions;
+    }
+    
+    /**
+     * Gets the number of indexed {@link Player Players}.
+     * 
+     * @return The number of {@link Player Players}.
+     */
+    public int size() {
+        return this.members.size();
+    }
+    
+    /**
+     * Gets the number of {@link ProtectedRegion ProtectedRegions} that at
+     * least one {@link Player} is in, across all {@link World Worlds}.
+     * 
+     * @return The number of occupied regions.
+     */
+    public int getRegionCount() {
+        int count = 0;
+        for (final Map<String, Set<UUID>> regions : this.worlds.values()) {
+            count += regions.size();
+        }
+        return count;
+    }
+    
+    /**
+     * Gets the number of times the regions of a {@link Player} were looked
+     * up, because they crossed a block boundary or the regions changed.
+     * 
+     * @return The number of lookups.
+     */
+    public long getRecomputations() {
+        return this.recomputations.sum();
+    }
+    
+    /**
+     * Gets the number of requests for the regions of a {@link Player} that
+     * were answered without looking them up again.
+     * 
+     * @return The number of reused results.
+     */
+    public long getReuses() {
+        return this.reuses.sum();
+    }
+    
+    /**
+     * Looks up the membership of every {@link Player} in the given
+     * {@link World} again, after its regions changed.
+     * 
+     * @param world The {@link World}.
+     */
+    private void refresh(@NotNull final World world) {
+        for (final Player player : world.getPlayers()) {
+            this.update(player.getUniqueId(), player.getLocation(), true);
+        }
+    }
+    
+    /**
+     * Updates the membership of the {@link Player} with the given
+     * {@link UUID}, if they are at a different block than before.
+     * 
+     * @param playerId The {@link UUID} of the {@link Player}.
+     * @param location The new {@link Location} of the {@link Player}.
+     * @param force {@code true} if the membership should be looked up even
+     *              if the {@link Player} has not moved, {@code false}
+     *              otherwise.
+     * @return {@code true} if the membership was looked up, {@code false}
+     *         if the previous result was kept.
+     */
+    private boolean update(@NotNull final UUID playerId, @NotNull final Location location, final boolean force) {
+        
+        final World world = location.getWorld();
+        if (world == null) {
+            this.remove(playerId);
+            return true;
+        }
+        
+        final UUID worldId = world.getUID();
+        final int x = location.getBlockX();
+        final int y = location.getBlockY();
+        final int z = location.getBlockZ();
+        
+        Member member = this.members.get(playerId);
+        if (!force && member != null && member.x == x && member.y == y && member.z == z && member.worldId.equals(worldId)) {
+            return false;
+        }
+        
+        this.recomputations.increment();
+        final RegionSet regions = this.regionLookup.lookup(location, playerId);
+        if (member == null) {
+            member = new Member(worldId, regions);
+            this.members.put(playerId, member);
+            this.join(playerId, worldId, regions);
+        } else if (!member.worldId.equals(worldId) || !member.regions.getNames().equals(regions.getNames())) {
+            this.leave(playerId, member.worldId, member.regions);
+            member.worldId = worldId;
+            member.regions = regions;
+            this.join(playerId, worldId, regions);
+        }
+        
+        member.x = x;
+        member.y = y;
+        member.z = z;
+        return true;
+    }
+    
+    /**
+     * Removes the {@link Player} with the given {@link UUID} from the index.
+     * 
+     * @param playerId The {@link UUID} of the {@link Player}.
+     */
+    private void remove(@NotNull final UUID playerId) {
+        final Member member = this.members.remove(playerId);
+        if (member != null) {
+            this.leave(playerId, member.worldId, member.regions);
+        }
+    }
+    
+    /**
+     * Adds the {@link Player} with the given {@link UUID} to the members of
+     * each of the given regions.
+     * 
+     * @param playerId The {@link UUID} of the {@link Player}.
+     * @param worldId The {@link UUID} of the {@link World}.
+     * @param regions The {@link RegionSet} the {@link Player} is in.
+     */
+    private void join(@NotNull final UUID playerId, @NotNull final UUID worldId, @NotNull final RegionSet regions) {
+        if (regions.isUnknown()) {
+            return;
+        }
+        final Map<String, Set<UUID>> worldRegions = this.worlds.computeIfAbsent(worldId, id -> new HashMap<String, Set<UUID>>());
+        for (final String name : regions.getNames()) {
+            worldRegions.computeIfAbsent(name.toLowerCase(Locale.ROOT), key -> new HashSet<UUID>()).add(playerId);
+        }
+    }
+    
+    /**
+     * Removes the {@link Player} with the given {@link UUID} from the members
+     * of each of the given regions, dropping any region (and {@link World})
+     * that is left empty.
+     * 
+     * @param playerId The {@link UUID} of the {@link Player}.
+     * @param worldId The {@link UUID} of the {@link World}.
+     * @param regions The {@link RegionSet} the {@link Player} was in.
+     */
+    private void leave(@NotNull final UUID playerId, @NotNull final UUID worldId, @NotNull final RegionSet regions) {
+        
+        final Map<String, Set<UUID>> worldRegions = this.worlds.get(worldId);
+        if (worldRegions == null) {
+            return;
+        }
+        
+        for (final String name : regions.getNames()) {
+            final String key = name.toLowerCase(Locale.ROOT);
+            final Set<UUID> players = worldRegions.get(key);
+            if (players != null && players.remove(playerId) && players.isEmpty()) {
+                worldRegions.remove(key);
+            }
+        }
+        if (worldRegions.isEmpty()) {
+            this.worlds.remove(worldId);
+        }
+    }
+    
+    /**
+     * Updates the membership of a {@link Player} that joined, or is at a new
+     * position.
+     * 
+     * @param playerId The {@link UUID} of the {@link Player}.
+     * @param location The new {@link Location} of the {@link Player}.
+     */
+    @Override
+    public void onMove(@NotNull final UUID playerId, @NotNull final Location location) {
+        this.update(playerId, location, false);
+    }
+    
+    /**
+     * Removes a quitting {@link Player} from the index.
+     * 
+     * @param playerId The {@link UUID} of the {@link Player}.
+     */
+    @Override
+    public void onQuit(@NotNull final UUID playerId) {
+        this.remove(playerId);
+    }
+    
+    /**
+     * Drops the members of the regions of a {@link World} when it is
+     * unloaded.
+     * 
+     * @param event The {@link WorldUnloadEvent}.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onWorldUnload(@NotNull final WorldUnloadEvent event) {
+        final UUID worldId = event.getWorld().getUID();
+        this.worlds.remove(worldId);
+        this.fingerprints.remove(worldId);
+    }
+    
+    /**
+     * Represents the last looked up membership of a single {@link Player}.
+     */
+    private static final class Member {
+        
+        private UUID worldId;
+        private RegionSet regions;
+        private int x;
+        private int y;
+        private int z;
+        
+        /**
+         * Constructs a new {@link Member}.
+         * 
+         * @param worldId The {@link UUID} of the {@link World}.
+         * @param regions The {@link RegionSet} the {@link Player} is in.
+         */
+        private Member(@NotNull final UUID worldId, @NotNull final RegionSet regions) {
+            this.worldId = worldId;
+            this.regions = regions;
+        }
+    }
+}
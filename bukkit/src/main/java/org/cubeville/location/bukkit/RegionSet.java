@@ -0,0 +1,96 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.bukkit;
+
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+import java.util.Collections;
+import java.util.List;
+import org.bspfsystems.bungeelocation.core.LocationConstants;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.UnmodifiableView;
+
+/**
+ * Represents the names of the {@link ProtectedRegion ProtectedRegions} at a
+ * location, along with their pre-serialized text form, so that a cached set
+ * can be sent repeatedly without being rebuilt.
+ */
+public final class RegionSet {
+    
+    /**
+     * The {@link RegionSet} used when the regions could not be determined.
+     */
+    public static final RegionSet UNKNOWN = new RegionSet(Collections.emptyList());
+    
+    /**
+     * The {@link RegionSet} used when a location is not in any region.
+     */
+    public static final RegionSet GLOBAL = new RegionSet(Collections.singletonList(LocationConstants.REGION_GLOBAL));
+    
+    private final List<String> names;
+    private final String text;
+    
+    /**
+     * Constructs a new {@link RegionSet}.
+     * 
+     * @param names The region names. If empty, the regions could not be
+     *              determined.
+     */
+    public RegionSet(@NotNull @UnmodifiableView final List<String> names) {
+        this.names = names;
+        this.text = names.isEmpty() ? LocationConstants.REGIONS_UNKNOWN : String.join(LocationConstants.SEPARATOR, names);
+    }
+    
+    /**
+     * Gets the region names.
+     * 
+     * @return The region names, a single {@link LocationConstants#REGION_GLOBAL}
+     *         entry if there are none, or an empty {@link List} if they could
+     *         not be determined.
+     */
+    @NotNull
+    @UnmodifiableView
+    public List<String> getNames() {
+        return this.names;
+    }
+    
+    /**
+     * Gets the region names as they are sent in the text protocol.
+     * 
+     * @return The separator-joined region names, or
+     *         {@link LocationConstants#REGIONS_UNKNOWN} if they could not be
+     *         determined.
+     */
+    @NotNull
+    public String getText() {
+        return this.text;
+    }
+    
+    /**
+     * Checks if the regions could not be determined.
+     * 
+     * @return {@code true} if the regions are unknown, {@code false}
+     *         otherwise.
+     */
+    public boolean isUnknown() {
+        return this.names.isEmpty();
+    }
+}
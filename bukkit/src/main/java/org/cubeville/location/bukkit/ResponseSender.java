@@ -0,0 +1,136 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.bukkit;
+
+import java.util.List;
+import java.util.function.Function;
+import org.bspfsystems.bungeelocation.core.LocationCodec;
+import org.bspfsystems.bungeelocation.core.LocationConstants;
+import org.bspfsystems.bungeelocation.core.RegionDictionary;
+import org.cubeville.cvipc.CVIPC;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Sends binary messages to the proxy via the binary response channel.
+ * <p>
+ * If the proxy supports {@link LocationConstants#PROTOCOL_REGION_IDS}, the
+ * WorldGuard regions in each message are written as the ids of a
+ * {@link RegionDictionary}, and any region names that the proxy has not been
+ * told about yet are announced right before the message that first uses
+ * them. Messages are encoded on the calling thread, and only the
+ * announcement and the send itself are serialized.
+ * <p>
+ * Every hello message from the proxy starts the announcements over, so a
+ * proxy that has lost track of the dictionary only needs to say hello.
+ */
+public final class ResponseSender {
+    
+    private static final int MAX_ANNOUNCEMENT = 256;
+    
+    private final CVIPC ipcPlugin;
+    private final BackendMetrics metrics;
+    private final RegionDictionary dictionary;
+    private final Object lock;
+    
+    private volatile boolean enabled;
+    private int announced;
+    
+    /**
+     * Constructs a new {@link ResponseSender}.
+     * 
+     * @param ipcPlugin The {@link CVIPC} plugin, used to send the messages.
+     * @param metrics The {@link BackendMetrics} to record the time spent
+     *                encoding and sending in.
+     */
+    public ResponseSender(@NotNull final CVIPC ipcPlugin, @NotNull final BackendMetrics metrics) {
+        this.ipcPlugin = ipcPlugin;
+        this.metrics = metrics;
+        this.dictionary = new RegionDictionary();
+        this.lock = new Object();
+        this.enabled = false;
+        this.announced = 0;
+    }
+    
+    /**
+     * Encodes and sends a message via the binary response channel.
+     * 
+     * @param encoder The {@link Function} encoding the message, given the
+     *                {@link RegionDictionary} to write the WorldGuard regions
+     *                with, or {@code null} if the names must be written.
+     */
+    public void send(@NotNull final Function<RegionDictionary, String> encoder) {
+        
+        final RegionDictionary dictionary = this.enabled ? this.dictionary : null;
+        final long start = System.nanoTime();
+        String message = encoder.apply(dictionary);
+        this.metrics.record(BackendMetrics.Stage.ENCODE, start);
+        
+        final long sending = System.nanoTime();
+        synchronized (this.lock) {
+            if (dictionary != null && !this.enabled) {
+                message = encoder.apply(null);
+            } else if (dictionary != null) {
+                this.announce();
+            }
+            this.ipcPlugin.sendMessage(LocationConstants.BINARY_RESPONSE_CHANNEL + LocationConstants.SEPARATOR + message);
+        }
+        this.metrics.record(BackendMetrics.Stage.SEND, sending);
+    }
+    
+    /**
+     * Resets the announcements after a hello message from the proxy.
+     * 
+     * @param proxyVersion The protocol version announced by the proxy.
+     */
+    public void reset(final int proxyVersion) {
+        synchronized (this.lock) {
+            this.enabled = proxyVersion >= LocationConstants.PROTOCOL_REGION_IDS;
+            this.announced = 0;
+        }
+    }
+    
+    /**
+     * Gets the number of distinct region names sent so far.
+     * 
+     * @return The number of region names.
+     */
+    public int getRegionCount() {
+        return this.dictionary.size();
+    }
+    
+    /**
+     * Announces every region name that has not been announced yet, in
+     * batches of at most {@value #MAX_ANNOUNCEMENT} names.
+     * <p>
+     * This must be called while holding the lock.
+     */
+    private void announce() {
+        
+        List<String> names = this.dictionary.getNames(this.announced);
+        while (!names.isEmpty()) {
+            final List<String> batch = names.size() > MAX_ANNOUNCEMENT ? names.subList(0, MAX_ANNOUNCEMENT) : names;
+            this.ipcPlugin.sendMessage(LocationConstants.BINARY_RESPONSE_CHANNEL + LocationConstants.SEPARATOR + LocationCodec.encodeRegionDictionary(this.announced, batch));
+            this.announced += batch.size();
+            names = names.subList(batch.size(), names.size());
+        }
+    }
+}
@@ -0,0 +1,419 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.bukkit;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Indexes the block position of every online {@link Player} by the chunk they
+ * are in, per {@link World}, so that the {@link Player Players} inside an
+ * area can be found without checking every online {@link Player}.
+ * <p>
+ * The index is updated on the main server thread by the
+ * {@link MovementListener} as players join, move to another block, teleport,
+ * change worlds and quit. A {@link Player} is only
+ * moved between chunk cells when they cross a chunk boundary. A query only
+ * visits the cells that overlap its bounding box, or every occupied cell of
+ * the {@link World} if there are fewer of those.
+ * <p>
+ * The index must only be accessed from the main server thread; only the
+ * query counters may be read from other threads.
+ */
+public final class SpatialIndex implements MovementListener.Subscriber {
+    
+    private final Map<UUID, Map<Long, Set<UUID>>> worlds;
+    private final Map<UUID, IndexedPlayer> players;
+    
+    private final LongAdder queries;
+    private final LongAdder candidates;
+    
+    /**
+     * Constructs a new, empty {@link SpatialIndex}.
+     */
+    public SpatialIndex() {
+        this.worlds = new HashMap<UUID, Map<Long, Set<UUID>>>();
+        this.players = new HashMap<UUID, IndexedPlayer>();
+        
+        this.queries = new LongAdder();
+        this.candidates = new LongAdder();
+    }
+    
+    /**
+     * Adds all of the given {@link Player Players} to the index, such as when
+     * the plugin is enabled while players are already online.
+     * 
+     * @param players The {@link Player Players} to add.
+     */
+    public void populate(@NotNull final Collection<? extends Player> players) {
+        for (final Player player : players) {
+            this.update(player.getUniqueId(), player.getLocation());
+        }
+    }
+    
+    /**
+     * Gets the {@link UUID UUIDs} of the {@link Player Players} within the
+     * given radius of the {@link Player} with the given {@link UUID},
+     * including that {@link Player}.
+     * 
+     * @param centerId The {@link UUID} of the {@link Player} at the center.
+     * @param radius The radius, in blocks.
+     * @return The {@link UUID UUIDs} of the {@link Player Players}, or
+     *         {@code null} if the center {@link Player} is not indexed.
+     */
+    @Nullable
+    public List<UUID> getNearby(@NotNull final UUID centerId, final int radius) {
+        
+        final IndexedPlayer center = this.players.get(centerId);
+        if (center == null) {
+            return null;
+        }
+        
+        final int centerX = center.x;
+        final int centerY = center.y;
+        final int centerZ = center.z;
+        final long radiusSquared = (long) radius * radius;
+        return this.getInside(center.worldId, centerX - radius, centerY - radius, centerZ - radius, centerX + radius, centerY + radius, centerZ + radius, (x, y, z) -> {
+            final long dx = x - centerX;
+            final long dy = y - centerY;
+            final long dz = z - centerZ;
+            return dx * dx + dy * dy + dz * dz <= radiusSquared;
+        });
+    }
+    
+    /**
+     * Gets the {@link UUID UUIDs} of the {@link Player Players} whose block
+     * position lies inside the given bounding box, all bounds inclusive, and
+     * is accepted by the given {@link BlockFilter}.
+     * 
+     * @param worldId The {@link UUID} of the {@link World}.
+     * @param minX The minimum block X coordinate.
+     * @param minY The minimum block Y coordinate.
+     * @param minZ The minimum block Z coordinate.
+     * @param maxX The maximum block X coordinate.
+     * @param maxY The maximum block Y coordinate.
+     * @param maxZ The maximum block Z coordinate.
+     * @param filter The {@link BlockFilter} for the exact shape of the area,
+     *               or {@code null} if the area is the bounding box.
+     * @return The {@link UUID UUIDs} of the {@link Player Players}, which is
+     *         empty if there are none.
+     */
+    @NotNull
+    public List<UUID> getInside(@NotNull final UUID worldId, final int minX, final int minY, final int minZ, final int maxX, final int maxY, final int maxZ, @Nullable final BlockFilter filter) {
+        
+        this.queries.increment();
+        final Map<Long, Set<UUID>> cells = this.worlds.get(worldId);
+        if (cells == null) {
+            return new ArrayList<UUID>();
+        }
+        
+        final int minChunkX = minX >> 4;
+        final int minChunkZ = minZ >> 4;
+        final int maxChunkX = maxX >> 4;
+        final int maxChunkZ = maxZ >> 4;
+        final long boxCells = ((long) maxChunkX - minChunkX + 1L) * ((long) maxChunkZ - minChunkZ + 1L);
+        
+        final List<UUID> inside = new ArrayList<UUID>();
+        if (boxCells > cells.size()) {
+            for (final Map.Entry<Long, Set<UUID>> entry : cells.entrySet()) {
+                final long key = entry.getKey();
+                final int chunkX = (int) (key >> 32);
+                final int chunkZ = (int) key;
+                if (chunkX >= minChunkX && chunkX <= maxChunkX && chunkZ >= minChunkZ && chunkZ <= maxChunkZ) {
+                    this.collect(entry.getValue(), minX, minY, minZ, maxX, maxY, maxZ, filter, inside);
+                }
+            }
+            return inside;
+        }
+        
+        for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+            for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                final Set<UUID> cell = cells.get(this.getCellKey(chunkX, chunkZ));
+                if (cell != null) {
+                    this.collect(cell, minX, minY, minZ, maxX, maxY, maxZ, filter, inside);
+                }
+            }
+        }
+        return inside;
+    }
+    
+    /**
+     * Checks if any indexed {@link Player} is in the given {@link World}.
+     * 
+     * @param worldId The {@link UUID} of the {@link World}.
+     * @return {@code true} if the {@link World} is occupied, {@code false}
+     *         otherwise.
+     */
+    public boolean isOccupied(@NotNull final UUID worldId) {
+        return this.worlds.containsKey(worldId);
+    }
+    
+    /**
+     * Gets the number of indexed {@link Player Players}.
+     * 
+     * @return The number of {@link Player Players}.
+     */
+    public int size() {
+        return this.players.size();
+    }
+    
+    /**
+     * Gets the number of occupied chunk cells, across all
+     * {@link World Worlds}.
+     * 
+     * @return The number of cells.
+     */
+    public int getCellCount() {
+        int count = 0;
+        for (final Map<Long, Set<UUID>> cells : this.worlds.values()) {
+            count += cells.size();
+        }
+        return count;
+    }
+    
+    /**
+     * Gets the number of area queries answered by the index.
+     * 
+     * @return The number of queries.
+     */
+    public long getQueries() {
+        return this.queries.sum();
+    }
+    
+    /**
+     * Gets the number of {@link Player Players} checked against the exact
+     * bounds of a query, after the cells were narrowed down.
+     * 
+     * @return The number of candidates.
+     */
+    public long getCandidates() {
+        return this.candidates.sum();
+    }
+    
+    /**
+     * Adds the {@link Player Players} in the given cell whose block position
+     * lies inside the given bounding box, and is accepted by the given
+     * {@link BlockFilter}, to the given {@link List}.
+     * 
+     * @param cell The {@link UUID UUIDs} of the {@link Player Players} in the
+     *             cell.
+     * @param minX The minimum block X coordinate.
+     * @param minY The minimum block Y coordinate.
+     * @param minZ The minimum block Z coordinate.
+     * @param maxX The maximum block X coordinate.
+     * @param maxY The maximum block Y coordinate.
+     * @param maxZ The maximum block Z coordinate.
+     * @param filter The {@link BlockFilter}, or {@code null} if there is
+     *               none.
+     * @param inside The {@link List} to add to.
+     */
+    private void collect(@NotNull final Set<UUID> cell, final int minX, final int minY, final int minZ, final int maxX, final int maxY, final int maxZ, @Nullable final BlockFilter filter, @NotNull final List<UUID> inside) {
+        this.candidates.add(cell.size());
+        for (final UUID playerId : cell) {
+            final IndexedPlayer player = this.players.get(playerId);
+            if (player.x < minX || player.x > maxX || player.y < minY || player.y > maxY || player.z < minZ || player.z > maxZ) {
+                continue;
+            }
+            if (filter == null || filter.test(player.x, player.y, player.z)) {
+                inside.add(playerId);
+            }
+        }
+    }
+    
+    /**
+     * Updates the indexed position of the {@link Player} with the given
+     * {@link UUID}, moving them to another cell if they crossed a chunk
+     * boundary or changed worlds.
+     * 
+     * @param playerId The {@link UUID} of the {@link Player}.
+     * @param location The new {@link Location} of the {@link Player}.
+     */
+    private void update(@NotNull final UUID playerId, @NotNull final Location location) {
+        
+        final World world = location.getWorld();
+        if (world == null) {
+            this.remove(playerId);
+            return;
+        }
+        
+        final UUID worldId = world.getUID();
+        final int x = location.getBlockX();
+        final int y = location.getBlockY();
+        final int z = location.getBlockZ();
+        final long cell = this.getCellKey(x >> 4, z >> 4);
+        
+        IndexedPlayer player = this.players.get(playerId);
+        if (player == null) {
+            player = new IndexedPlayer(worldId, cell);
+            this.players.put(playerId, player);
+            this.getCell(worldId, cell).add(playerId);
+        } else if (player.cell != cell || !player.worldId.equals(worldId)) {
+            this.removeFromCell(playerId, player);
+            player.worldId = worldId;
+            player.cell = cell;
+            this.getCell(worldId, cell).add(playerId);
+        }
+        
+        player.x = x;
+        player.y = y;
+        player.z = z;
+    }
+    
+    /**
+     * Removes the {@link Player} with the given {@link UUID} from the index.
+     * 
+     * @param playerId The {@link UUID} of the {@link Player}.
+     */
+    private void remove(@NotNull final UUID playerId) {
+        final IndexedPlayer player = this.players.remove(playerId);
+        if (player != null) {
+            this.removeFromCell(playerId, player);
+        }
+    }
+    
+    /**
+     * Removes the {@link Player} with the given {@link UUID} from their
+     * current cell, dropping the cell (and {@link World}) once empty.
+     * 
+     * @param playerId The {@link UUID} of the {@link Player}.
+     * @param player The {@link IndexedPlayer}.
+     */
+    private void removeFromCell(@NotNull final UUID playerId, @NotNull final IndexedPlayer player) {
+        
+        final Map<Long, Set<UUID>> cells = this.worlds.get(player.worldId);
+        if (cells == null) {
+            return;
+        }
+        final Set<UUID> cell = cells.get(player.cell);
+        if (cell == null) {
+            return;
+        }
+        
+        cell.remove(playerId);
+        if (cell.isEmpty()) {
+            cells.remove(player.cell);
+            if (cells.isEmpty()) {
+                this.worlds.remove(player.worldId);
+            }
+        }
+    }
+    
+    /**
+     * Gets the cell with the given key in the given {@link World}, creating
+     * it if needed.
+     * 
+     * @param worldId The {@link UUID} of the {@link World}.
+     * @param cell The key of the cell.
+     * @return The {@link UUID UUIDs} of the {@link Player Players} in the
+     *         cell.
+     */
+    @NotNull
+    private Set<UUID> getCell(@NotNull final UUID worldId, final long cell) {
+        return this.worlds.computeIfAbsent(worldId, id -> new HashMap<Long, Set<UUID>>()).computeIfAbsent(cell, key -> new HashSet<UUID>());
+    }
+    
+    /**
+     * Gets the key of the cell of the given chunk.
+     * 
+     * @param chunkX The chunk X coordinate.
+     * @param chunkZ The chunk Z coordinate.
+     * @return The key of the cell.
+     */
+    private long getCellKey(final int chunkX, final int chunkZ) {
+        return (long) chunkX << 32 | chunkZ & 0xFFFFFFFFL;
+    }
+    
+    /**
+     * Updates the indexed position of a {@link Player} that joined, or is at a new
+     * position.
+     * 
+     * @param playerId The {@link UUID} of the {@link Player}.
+     * @param location The new {@link Location} of the {@link Player}.
+     */
+    @Override
+    public void onMove(@NotNull final UUID playerId, @NotNull final Location location) {
+        this.update(playerId, location);
+    }
+    
+    /**
+     * Removes a quitting {@link Player} from the index.
+     * 
+     * @param playerId The {@link UUID} of the {@link Player}.
+     */
+    @Override
+    public void onQuit(@NotNull final UUID playerId) {
+        this.remove(playerId);
+    }
+    
+    /**
+     * Represents the exact shape of an area inside its bounding box.
+     */
+    @FunctionalInterface
+    public interface BlockFilter {
+        
+        /**
+         * Checks if the given block position is inside the area.
+         * 
+         * @param x The block X coordinate.
+         * @param y The block Y coordinate.
+         * @param z The block Z coordinate.
+         * @return {@code true} if the position is inside the area,
+         *         {@code false} otherwise.
+         */
+        boolean test(int x, int y, int z);
+    }
+    
+    /**
+     * Represents the indexed position of a single {@link Player}.
+     */
+    private static final class IndexedPlayer {
+        
+        private UUID worldId;
+        private long cell;
+        private int x;
+        private int y;
+        private int z;
+        
+        /**
+         * Constructs a new {@link IndexedPlayer}.
+         * 
+         * @param worldId The {@link UUID} of the {@link World}.
+         * @param cell The key of the cell.
+         */
+        private IndexedPlayer(@NotNull final UUID worldId, final long cell) {
+            this.worldId = worldId;
+            this.cell = cell;
+        }
+    }
+}
@@ -0,0 +1,339 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.bukkit.command;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import org.bspfsystems.bungeelocation.core.Direction;
+import org.bspfsystems.bungeelocation.core.Durations;
+import org.bukkit.ChatColor;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.Server;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabExecutor;
+import org.bukkit.entity.Player;
+import org.cubeville.location.bukkit.BackendMetrics;
+import org.cubeville.location.bukkit.BukkitLocationPlugin;
+import org.cubeville.location.bukkit.LocationHistory;
+import org.cubeville.location.bukkit.LocationLog;
+import org.cubeville.location.bukkit.RegionMembership;
+import org.cubeville.location.bukkit.SpatialIndex;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Represents the {@code /cvlocation} administrative {@link Command}, which
+ * reports the internal statistics of the Bukkit plugin, the latency of each
+ * stage of answering a location request, or the recorded movements of a
+ * player.
+ */
+public final class CVLocationCommand implements TabExecutor {
+    
+    private static final int DEFAULT_LOG_LIMIT = 20;
+    private static final int MAX_LOG_LIMIT = 200;
+    private static final long MAX_LOG_SECONDS = 366L * 24L * 60L * 60L;
+    private static final DateTimeFormatter LOG_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+    
+    private final BukkitLocationPlugin plugin;
+    
+    /**
+     * Constructs a new {@code /cvlocation} {@link Command}.
+     * 
+     * @param plugin The {@link BukkitLocationPlugin} to report on.
+     */
+    public CVLocationCommand(@NotNull final BukkitLocationPlugin plugin) {
+        this.plugin = plugin;
+    }
+    
+    /**
+     * Executes this {@code /cvlocation} {@link Command}.
+     * 
+     * @param sender The {@link CommandSender} executing this {@link Command}.
+     * @param command The {@link Command} being executed.
+     * @param label The alias used to execute the {@link Command}.
+     * @param args The arguments supplied with this {@link Command}.
+     * @return {@code true}, as the usage is sent directly.
+     */
+    @Override
+    public boolean onCommand(@NotNull final CommandSender sender, @NotNull final Command command, @NotNull final String label, @NotNull final String[] args) {
+        
+        if (!sender.hasPermission(BukkitLocationPlugin.PERMISSION_ADMIN)) {
+            sender.sendMessage(ChatColor.RED + "You do not have permission to execute this command.");
+            return true;
+        }
+        if (args.length == 1 && args[0].equalsIgnoreCase("metrics")) {
+            this.sendMetrics(sender);
+            return true;
+        }
+        if (args.length > 0 && args[0].equalsIgnoreCase("log")) {
+            this.sendLog(sender, label, args);
+            return true;
+        }
+        if (args.length != 1 || !args[0].equalsIgnoreCase("stats")) {
+            sender.sendMessage(ChatColor.RED + "Syntax: /" + label + " <stats|metrics>");
+            sender.sendMessage(ChatColor.RED + "Syntax: /" + label + " log <player> <duration> [limit]");
+            return true;
+        }
+        
+        sender.sendMessage(ChatColor.GOLD + "Followed players: " + ChatColor.WHITE + this.plugin.getFollower().size());
+        sender.sendMessage(ChatColor.GOLD + "Region names sent: " + ChatColor.WHITE + this.plugin.getResponseSender().getRegionCount());
+        
+        final SpatialIndex spatialIndex = this.plugin.getSpatialIndex();
+        sender.sendMessage(ChatColor.GOLD + "Spatial index: " + ChatColor.WHITE + spatialIndex.size() + ChatColor.GRAY + " players in " + ChatColor.WHITE + spatialIndex.getCellCount() + ChatColor.GRAY + " chunks");
+        sender.sendMessage(ChatColor.GOLD + "  Area queries: " + ChatColor.WHITE + spatialIndex.getQueries() + ChatColor.GOLD + " / Candidates checked: " + ChatColor.WHITE + spatialIndex.getCandidates());
+        
+        final RegionMembership regionMembership = this.plugin.getRegionMembership();
+        sender.sendMessage(ChatColor.GOLD + "Region membership: " + ChatColor.WHITE + regionMembership.size() + ChatColor.GRAY + " players in " + ChatColor.WHITE + regionMembership.getRegionCount() + ChatColor.GRAY + " regions");
+        sender.sendMessage(ChatColor.GOLD + "  Recomputed: " + ChatColor.WHITE + regionMembership.getRecomputations() + ChatColor.GOLD + " / Reused: " + ChatColor.WHITE + regionMembership.getReuses());
+        
+        final LocationHistory history = this.plugin.getHistory();
+        if (history == null) {
+            sender.sendMessage(ChatColor.GOLD + "Location history: " + ChatColor.GRAY + "disabled");
+        } else {
+            sender.sendMessage(ChatColor.GOLD + "Location history: " + ChatColor.WHITE + history.size() + ChatColor.GRAY + " players, " + ChatColor.WHITE + history.getCapacity() + ChatColor.GRAY + " samples each, " + ChatColor.WHITE + history.getAllocated() + ChatColor.GRAY + " samples allocated");
+        }
+        
+        final LocationLog log = this.plugin.getLog();
+        if (log == null) {
+            sender.sendMessage(ChatColor.GOLD + "Location log: " + ChatColor.GRAY + "disabled");
+        } else {
+            sender.sendMessage(ChatColor.GOLD + "Location log: " + ChatColor.WHITE + log.getRecordCount() + ChatColor.GRAY + " records in " + ChatColor.WHITE + log.getSegmentCount() + ChatColor.GRAY + " segments, " + ChatColor.WHITE + String.format("%.1f", log.getBytes() / 1048576.0D) + ChatColor.GRAY + " MB");
+            sender.sendMessage(ChatColor.GOLD + "  Dropped samples: " + ChatColor.WHITE + log.getDropped());
+        }
+        return true;
+    }
+    
+    /**
+     * Sends the latency of each stage of answering a location request to the
+     * given {@link CommandSender}.
+     * 
+     * @param sender The {@link CommandSender} to send the metrics to.
+     */
+    private void sendMetrics(@NotNull final CommandSender sender) {
+        
+        final BackendMetrics metrics = this.plugin.getMetrics();
+        sender.sendMessage(ChatColor.GOLD + "Latency (ms):");
+        for (final BackendMetrics.Stage stage : BackendMetrics.Stage.values()) {
+            sender.sendMessage(ChatColor.YELLOW + "  " + stage.getName() + ": " + ChatColor.WHITE + metrics.getHistogram(stage).format());
+        }
+    }
+    
+    /**
+     * Sends the recorded movements of a player to the given
+     * {@link CommandSender}, from the {@link LocationLog}.
+     * <p>
+     * The player is looked up on the main server thread, and the
+     * {@link LocationLog} is then queried off it with only the {@link UUID}
+     * of the player, and the results are sent back on it. Only the
+     * records where the player has moved to another block are shown.
+     * 
+     * @param sender The {@link CommandSender} to send the movements to.
+     * @param label The alias used to execute the {@link Command}.
+     * @param args The arguments supplied with this {@link Command}.
+     */
+    private void sendLog(@NotNull final CommandSender sender, @NotNull final String label, @NotNull final String[] args) {
+        
+        final LocationLog log = this.plugin.getLog();
+        if (log == null) {
+            sender.sendMessage(ChatColor.RED + "The location log is disabled.");
+            return;
+        }
+        if (args.length < 3 || args.length > 4) {
+            sender.sendMessage(ChatColor.RED + "Syntax: /" + label + " log <player> <duration> [limit]");
+            return;
+        }
+        
+        final String playerName = args[1];
+        final long seconds = Durations.parseSeconds(args[2], MAX_LOG_SECONDS);
+        if (seconds < 1L) {
+            sender.sendMessage(ChatColor.RED + "Invalid duration " + ChatColor.GOLD + args[2] + ChatColor.RED + ", use e.g. 30m, 6h or 48h.");
+            return;
+        }
+        int limit = DEFAULT_LOG_LIMIT;
+        if (args.length == 4) {
+            try {
+                limit = Integer.parseInt(args[3]);
+            } catch (final NumberFormatException e) {
+                limit = -1;
+            }
+            if (limit < 1 || limit > MAX_LOG_LIMIT) {
+                sender.sendMessage(ChatColor.RED + "The limit must be between 1 and " + MAX_LOG_LIMIT + ".");
+                return;
+            }
+        }
+        
+        final Server server = this.plugin.getServer();
+        final UUID playerId = this.findPlayer(server, playerName);
+        if (playerId == null) {
+            sender.sendMessage(ChatColor.RED + "Unknown player " + ChatColor.GOLD + playerName);
+            return;
+        }
+        
+        final int maxLines = limit;
+        final String duration = args[2];
+        server.getScheduler().runTaskAsynchronously(this.plugin, () -> {
+            
+            final long to = System.currentTimeMillis();
+            final List<String> lines = new ArrayList<String>();
+            final LogCursor cursor = new LogCursor();
+            log.query(playerId, to - seconds * 1000L, to, (time, worldName, x, y, z, yaw) -> {
+                cursor.records++;
+                if (cursor.isSame(worldName, x, y, z)) {
+                    return true;
+                }
+                cursor.moves++;
+                if (lines.size() < maxLines) {
+                    lines.add(ChatColor.GRAY + LOG_TIME.format(Instant.ofEpochMilli(time)) + " " + ChatColor.WHITE + (worldName == null ? "UNKNOWN" : worldName) + " " + x + ", " + y + ", " + z + ChatColor.GRAY + " (" + Direction.fromYaw(yaw).getName() + ")");
+                }
+                return true;
+            });
+            
+            server.getScheduler().runTask(this.plugin, () -> {
+                sender.sendMessage(ChatColor.GOLD + "Location log of " + playerName + " for the last " + duration + ": " + ChatColor.WHITE + cursor.records + ChatColor.GRAY + " records, " + ChatColor.WHITE + cursor.moves + ChatColor.GRAY + " moves");
+                for (final String line : lines) {
+                    sender.sendMessage(line);
+                }
+                if (cursor.moves > lines.size()) {
+                    sender.sendMessage(ChatColor.GRAY + "" + ChatColor.ITALIC + (cursor.moves - lines.size()) + " more moves, use a shorter duration or a higher limit.");
+                }
+            });
+        });
+    }
+    
+    /**
+     * Finds the {@link UUID} of the player with the given name, or of the
+     * given {@link UUID}.
+     * <p>
+     * Players that are not online are looked up among the players that have
+     * played on the {@link Server} before, without asking the session
+     * servers, so this must only be called on the main server thread.
+     * 
+     * @param server The {@link Server}.
+     * @param playerName The name or {@link UUID} of the player.
+     * @return The {@link UUID} of the player, or {@code null} if the player
+     *         has never played on the {@link Server}.
+     */
+    @Nullable
+    private UUID findPlayer(@NotNull final Server server, @NotNull final String playerName) {
+        
+        final Player online = server.getPlayerExact(playerName);
+        if (online != null) {
+            return online.getUniqueId();
+        }
+        try {
+            return UUID.fromString(playerName);
+        } catch (final IllegalArgumentException e) {
+            for (final OfflinePlayer offline : server.getOfflinePlayers()) {
+                if (playerName.equalsIgnoreCase(offline.getName())) {
+                    return offline.getUniqueId();
+                }
+            }
+            return null;
+        }
+    }
+    
+    /**
+     * Tab-completes this {@code /cvlocation} {@link Command}.
+     * 
+     * @param sender The {@link CommandSender} tab-completing this
+     *               {@link Command}.
+     * @param command The {@link Command} being tab-completed.
+     * @param label The alias used for the {@link Command}.
+     * @param args The arguments supplied so far.
+     * @return The possible completions for the last argument.
+     */
+    @NotNull
+    @Override
+    public List<String> onTabComplete(@NotNull final CommandSender sender, @NotNull final Command command, @NotNull final String label, @NotNull final String[] args) {
+        
+        if (args.length != 1 || !sender.hasPermission(BukkitLocationPlugin.PERMISSION_ADMIN)) {
+            return Collections.emptyList();
+        }
+        
+        final List<String> completions = new ArrayList<String>();
+        if ("stats".startsWith(args[0].toLowerCase())) {
+            completions.add("stats");
+        }
+        if ("metrics".startsWith(args[0].toLowerCase())) {
+            completions.add("metrics");
+        }
+        if ("log".startsWith(args[0].toLowerCase())) {
+            completions.add("log");
+        }
+        return completions;
+    }
+    
+    /**
+     * Keeps track of the records streamed by a query of the
+     * {@link LocationLog}, and of the previous position of the player.
+     */
+    private static final class LogCursor {
+        
+        private int records;
+        private int moves;
+        private String worldName;
+        private int x;
+        private int y;
+        private int z;
+        
+        /**
+         * Constructs a new {@link LogCursor}, before any record.
+         */
+        private LogCursor() {
+            this.records = 0;
+            this.moves = 0;
+            this.worldName = null;
+            this.x = 0;
+            this.y = Integer.MIN_VALUE;
+            this.z = 0;
+        }
+        
+        /**
+         * Checks if the given position is the same block as the previous one,
+         * and remembers it for the next record.
+         * 
+         * @param worldName The name of the world, or {@code null} if unknown.
+         * @param x The block X coordinate.
+         * @param y The block Y coordinate.
+         * @param z The block Z coordinate.
+         * @return {@code true} if the position is the same as the previous
+         *         one, {@code false} otherwise.
+         */
+        private boolean isSame(@Nullable final String worldName, final int x, final int y, final int z) {
+            if (x == this.x && y == this.y && z == this.z && Objects.equals(worldName, this.worldName)) {
+                return true;
+            }
+            this.worldName = worldName;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            return false;
+        }
+    }
+}
@@ -21,12 +21,20 @@
 
 package org.cubeville.location.bungeecord;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
-import java.util.StringTokenizer;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import net.md_5.bungee.api.ChatColor;
@@ -34,17 +42,32 @@ import net.md_5.bungee.api.CommandSender;
 import net.md_5.bungee.api.ProxyServer;
 import net.md_5.bungee.api.chat.BaseComponent;
 import net.md_5.bungee.api.chat.ComponentBuilder;
-import net.md_5.bungee.api.connection.ProxiedPlayer;
 import net.md_5.bungee.api.plugin.Plugin;
 import net.md_5.bungee.api.plugin.PluginManager;
+import net.md_5.bungee.config.Configuration;
+import net.md_5.bungee.config.ConfigurationProvider;
+import net.md_5.bungee.config.YamlConfiguration;
+import org.cubeville.location.bungeecord.command.WhereAdminCommand;
+import org.cubeville.location.bungeecord.command.WhereAllCommand;
 import org.cubeville.location.bungeecord.command.WhereCommand;
+import org.bspfsystems.bungeelocation.core.BinaryReader;
+import org.bspfsystems.bungeelocation.core.BulkLocationResponse;
+import org.bspfsystems.bungeelocation.core.LocationAreaResponse;
+import org.bspfsystems.bungeelocation.core.LocationCodec;
 import org.bspfsystems.bungeelocation.core.LocationConstants;
+import org.bspfsystems.bungeelocation.core.LocationHistoryResponse;
+import org.bspfsystems.bungeelocation.core.LocationListPage;
+import org.bspfsystems.bungeelocation.core.LocationNotFound;
+import org.bspfsystems.bungeelocation.core.LocationResponse;
+import org.bspfsystems.bungeelocation.core.LocationTrace;
+import org.bspfsystems.bungeelocation.core.RegionDictionary;
+import org.bspfsystems.bungeelocation.core.TextCodec;
 import org.cubeville.cvipc.CVIPC;
 import org.cubeville.cvipc.IPCInterface;
 import org.cubeville.cvplayerdata.CVPlayerData;
+import org.cubeville.cvplayerdata.PlayerDataManager;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
-import org.jetbrains.annotations.UnmodifiableView;
 
 /**
  * Represents the main entrypoint to the BungeeCord plugin systems for the
@@ -57,15 +80,28 @@ public final class BungeeLocationPlugin extends Plugin implements IPCInterface {
     
     public static final String PERMISSION_UNLIMITED = "cvlocation.unlimited";
     public static final String PERMISSION_LIMITED = "cvlocation.limited";
+    public static final String PERMISSION_ADMIN = "cvlocation.admin";
+    
+    private static final long REQUEST_TIMEOUT_MILLIS = 5000L;
+    private static final long NAME_REFRESH_SECONDS = 30L;
+    private static final int COMMAND_THREADS = 4;
     
     public static final BaseComponent[] NO_PERMISSION_MESSAGE = new ComponentBuilder("You do not have permission to execute this command.").color(ChatColor.RED).create();
     
     private ProxyServer proxy;
     private CVIPC ipcPlugin;
     private CVPlayerData playerDataPlugin;
+    private ServerProtocols protocols;
+    private ConcurrentMap<String, RegionDictionary> regionDictionaries;
+    private QueryMetrics metrics;
+    private RequestTracer tracer;
+    private PendingRequests pendingRequests;
+    private ResponseCache responseCache;
+    private FollowSubscriptions followSubscriptions;
+    private ExecutorService commandExecutor;
     
     /**
-     * Enables the plugin, registering the IPC request channel.
+     * Enables the plugin, registering the IPC response channels.
      */
     @Override
     public void onEnable() {
@@ -91,23 +127,70 @@ public final class BungeeLocationPlugin extends Plugin implements IPCInterface {
         }
         this.playerDataPlugin = (CVPlayerData) playerDataPlugin;
         
-        pluginManager.registerCommand(this, new WhereCommand(this.proxy, this.ipcPlugin, this.playerDataPlugin));
+        this.protocols = new ServerProtocols(this.ipcPlugin, this.getLogger());
+        pluginManager.registerListener(this, this.protocols);
+        this.regionDictionaries = new ConcurrentHashMap<String, RegionDictionary>();
+        this.metrics = new QueryMetrics(this.getLogger());
+        this.pendingRequests = new PendingRequests(this.proxy, this.getLogger(), this.protocols, this.metrics, REQUEST_TIMEOUT_MILLIS);
+        this.proxy.getScheduler().schedule(this, this.pendingRequests, PendingRequests.TICK_MILLIS, PendingRequests.TICK_MILLIS, TimeUnit.MILLISECONDS);
+        
+        final Configuration config = this.loadConfig();
+        final long metricsInterval = config.getLong("metrics.log-interval-minutes", 15L);
+        if (metricsInterval > 0L) {
+            this.proxy.getScheduler().schedule(this, this.metrics, metricsInterval, metricsInterval, TimeUnit.MINUTES);
+        }
+        this.tracer = new RequestTracer(config.getInt("tracing.sample-rate", 100), config.getInt("tracing.ring-size", 64));
+        if (config.getBoolean("response-cache.enabled", true)) {
+            this.responseCache = new ResponseCache(this.getLogger(), config.getInt("response-cache.max-entries", 256), config.getLong("response-cache.ttl-ms", 500L));
+            pluginManager.registerListener(this, this.responseCache);
+        }
+        
+        final PlayerNameIndex nameIndex = new PlayerNameIndex(this.proxy, this.playerDataPlugin.getPlayerDataManager());
+        pluginManager.registerListener(this, nameIndex);
+        this.proxy.getScheduler().schedule(this, nameIndex, NAME_REFRESH_SECONDS, NAME_REFRESH_SECONDS, TimeUnit.SECONDS);
+        
+        this.followSubscriptions = new FollowSubscriptions(this.proxy, this.ipcPlugin, this.playerDataPlugin.getPlayerDataManager(), this.protocols);
+        pluginManager.registerListener(this, this.followSubscriptions);
+        
+        this.commandExecutor = this.createCommandExecutor();
+        final WhereCommand whereCommand = new WhereCommand(this, this.proxy, this.ipcPlugin, this.playerDataPlugin, this.protocols, this.pendingRequests, nameIndex, this.followSubscriptions, this.metrics, this.tracer, this.commandExecutor);
+        pluginManager.registerCommand(this, whereCommand);
+        pluginManager.registerCommand(this, new WhereAllCommand(this.proxy, this.ipcPlugin, this.playerDataPlugin, this.protocols, this.pendingRequests, whereCommand));
+        pluginManager.registerCommand(this, new WhereAdminCommand(this.pendingRequests, this.responseCache, this.followSubscriptions, this.metrics, this.tracer));
         
         this.ipcPlugin.registerInterface(LocationConstants.RESPONSE_CHANNEL, this);
+        this.ipcPlugin.registerInterface(LocationConstants.BINARY_RESPONSE_CHANNEL, this);
+        this.ipcPlugin.registerInterface(LocationConstants.HELLO_CHANNEL, this);
     }
     
     /**
-     * Disables the plugin, unregistering the IPC request channel.
+     * Gets the {@link ResponseCache}.
+     * 
+     * @return The {@link ResponseCache}, or {@code null} if it is disabled.
+     */
+    @Nullable
+    public ResponseCache getResponseCache() {
+        return this.responseCache;
+    }
+    
+    /**
+     * Disables the plugin, stopping the command executor and unregistering
+     * the IPC response channels.
      */
     @Override
     public void onDisable() {
+        this.commandExecutor.shutdown();
         this.ipcPlugin.deregisterInterface(LocationConstants.RESPONSE_CHANNEL);
+        this.ipcPlugin.deregisterInterface(LocationConstants.BINARY_RESPONSE_CHANNEL);
+        this.ipcPlugin.deregisterInterface(LocationConstants.HELLO_CHANNEL);
     }
     
     /**
      * Processes the incoming IPC message and channel.
      * <p>
-     * This only has 1 channel registered: The location response channel.
+     * This has 3 channels registered: The text location response channel, the
+     * binary location response channel, and the hello channel, on which the
+     * Bukkit plugins announce the protocol version they support.
      * <p>
      * The location response should contain at minimum:
      *  - The original sender's {@link UUID}.
@@ -123,6 +206,7 @@ public final class BungeeLocationPlugin extends Plugin implements IPCInterface {
      *    found, OR
      *  - The list of WorldGuard regions that the target player is standing in.
      * 
+     * @param serverName The name of the server that sent the IPC message.
      * @param channel The channel the IPC message is destined for.
      * @param message The IPC message.
      */
@@ -130,246 +214,561 @@ public final class BungeeLocationPlugin extends Plugin implements IPCInterface {
     public void process(final String serverName, final String channel, final String message) {
         
         final Logger logger = this.getLogger();
+        if (channel.equalsIgnoreCase(LocationConstants.HELLO_CHANNEL)) {
+            this.protocols.update(serverName, message);
+            return;
+        }
+        
+        final long started = System.nanoTime();
+        if (channel.equalsIgnoreCase(LocationConstants.BINARY_RESPONSE_CHANNEL)) {
+            this.processBinary(serverName, message, started);
+            this.metrics.record(QueryMetrics.Stage.RESPONSE, started);
+            return;
+        }
         if (!channel.equalsIgnoreCase(LocationConstants.RESPONSE_CHANNEL)) {
-            logger.log(Level.WARNING, "Invalid channel for BungeeCord Location plugin: " + channel + ". Channel should be " + LocationConstants.RESPONSE_CHANNEL);
+            logger.log(Level.WARNING, "Invalid channel for BungeeCord Location plugin: " + channel + ". Channel should be " + LocationConstants.RESPONSE_CHANNEL + " or " + LocationConstants.BINARY_RESPONSE_CHANNEL);
             return;
         }
         
-        final List<String> parts = this.getMessageParts(message);
-        if (parts.size() < 7) {
-            logger.log(Level.WARNING, "Missing some combination of sender UUID, target name, world name, X, Y, Z, and Yaw.");
+        final LocationResponse response = this.decodeText(message);
+        if (response != null) {
+            this.processResponse(serverName, response, message);
+        }
+        this.metrics.record(QueryMetrics.Stage.RESPONSE, started);
+    }
+    
+    /**
+     * Processes a binary-encoded location response, of either a single, a
+     * bulk, a list, or an area location request, the answer that the target
+     * of a single request was not found, or an update for a followed target.
+     * <p>
+     * WorldGuard regions sent as ids are resolved with the
+     * {@link RegionDictionary} of the server, which is kept up to date by
+     * the announcements of the server. If an id could not be resolved, a
+     * hello message is sent to the server, so that it announces the whole
+     * {@link RegionDictionary} again.
+     * <p>
+     * A single location response that answers a traced request is followed
+     * by its {@link LocationTrace}, which is recorded by the
+     * {@link RequestTracer} once the response has been shown.
+     * 
+     * @param serverName The name of the server that sent the IPC message.
+     * @param message The encoded IPC message, without the channel.
+     * @param received The time the IPC message was received, as returned by
+     *                 {@link System#nanoTime()}.
+     */
+    private void processBinary(@NotNull final String serverName, @NotNull final String message, final long received) {
+        
+        final Logger logger = this.getLogger();
+        final RegionDictionary dictionary = this.regionDictionaries.computeIfAbsent(serverName, name -> new RegionDictionary());
+        try {
+            final BinaryReader reader = LocationCodec.open(message);
+            final int type = reader.readUnsignedByte();
+            if (type == LocationCodec.TYPE_REGION_DICTIONARY) {
+                LocationCodec.decodeRegionDictionary(reader, dictionary);
+            } else if (type == LocationCodec.TYPE_RESPONSE) {
+                final LocationResponse response = LocationCodec.decodeResponse(reader, dictionary);
+                final LocationTrace trace = LocationCodec.decodeTrace(reader);
+                this.processResponse(serverName, response, message);
+                if (trace != null) {
+                    this.tracer.record(serverName, this.playerDataPlugin.getPlayerDataManager().getPlayerVisibleName(response.getTargetId()), trace, received);
+                }
+            } else if (type == LocationCodec.TYPE_BULK_RESPONSE) {
+                this.processBulkResponse(serverName, LocationCodec.decodeBulkResponse(reader, dictionary), message);
+            } else if (type == LocationCodec.TYPE_LIST_PAGE) {
+                this.processListPage(serverName, LocationCodec.decodeListPage(reader, dictionary), message);
+            } else if (type == LocationCodec.TYPE_NOT_FOUND) {
+                this.processNotFound(serverName, LocationCodec.decodeNotFound(reader), message);
+            } else if (type == LocationCodec.TYPE_FOLLOW_UPDATE) {
+                this.processFollowUpdate(serverName, LocationCodec.decodeFollowUpdate(reader, dictionary));
+            } else if (type == LocationCodec.TYPE_FOLLOW_DELTA) {
+                final LocationResponse update = this.followSubscriptions.applyDelta(serverName, LocationCodec.decodeFollowDelta(reader, dictionary));
+                if (update != null) {
+                    this.processFollowUpdate(serverName, update);
+                }
+            } else if (type == LocationCodec.TYPE_FOLLOW_END) {
+                this.followSubscriptions.end(serverName, LocationCodec.decodeFollowEnd(reader));
+            } else if (type == LocationCodec.TYPE_AREA_RESPONSE) {
+                this.processAreaResponse(serverName, LocationCodec.decodeAreaResponse(reader, dictionary), message);
+            } else if (type == LocationCodec.TYPE_HISTORY_RESPONSE) {
+                this.processHistoryResponse(serverName, LocationCodec.decodeHistoryResponse(reader), message);
+            } else {
+                logger.log(Level.WARNING, "Unexpected binary message type: " + type);
+            }
+        } catch (final IllegalArgumentException e) {
+            logger.log(Level.WARNING, "Unable to decode binary location response.", e);
             logger.log(Level.WARNING, "Message: " + message);
+        }
+        
+        if (dictionary.takeMissing()) {
+            logger.log(Level.INFO, "Region dictionary of server " + serverName + " is out of date, requesting it again.");
+            this.protocols.sendHello(serverName);
+        }
+    }
+    
+    /**
+     * Sends the location in the given {@link LocationResponse} to the
+     * original sender, and to any other senders whose identical requests
+     * were coalesced with it, and caches it for repeat requests.
+     * 
+     * @param serverName The name of the server that sent the response.
+     * @param response The decoded {@link LocationResponse}.
+     * @param message The original IPC message, used for logging.
+     */
+    private void processResponse(@NotNull final String serverName, @NotNull final LocationResponse response, @NotNull final String message) {
+        
+        final List<UUID> senderIds;
+        if (response.getRequestId() == 0) {
+            senderIds = this.pendingRequests.completeByTarget(serverName, response.getSenderId(), response.getTargetId());
+        } else {
+            senderIds = this.pendingRequests.complete(response.getRequestId());
+        }
+        if (senderIds == null) {
+            this.dropResponse(serverName, message);
             return;
         }
         
-        final Iterator<String> iterator = parts.iterator();
-        final String rawSenderId = iterator.next();
-        final String rawTargetId = iterator.next();
-        final String worldName = iterator.next();
-        final String x = iterator.next();
-        final String y = iterator.next();
-        final String z = iterator.next();
-        final String direction = this.processYaw(iterator.next());
+        if (this.responseCache != null) {
+            this.responseCache.put(serverName, response);
+        }
+        this.sendResponse(serverName, response, senderIds, message);
+    }
+    
+    /**
+     * Renders the given update for a followed target to its followers, and
+     * caches it for repeat requests, as it is the latest known location of
+     * the target.
+     * 
+     * @param serverName The name of the server that sent the update.
+     * @param update The decoded {@link LocationResponse}.
+     */
+    private void processFollowUpdate(@NotNull final String serverName, @NotNull final LocationResponse update) {
+        if (this.responseCache != null) {
+            this.responseCache.put(serverName, update);
+        }
+        this.followSubscriptions.update(serverName, update);
+    }
+    
+    /**
+     * Answers a location request from the {@link ResponseCache}, if it holds
+     * a recent enough response for the target.
+     * 
+     * @param serverName The name of the server the target is connected to.
+     * @param senderId The {@link UUID} of the sender, or {@code null} if the
+     *                 console is the sender.
+     * @param targetId The {@link UUID} of the target.
+     * @param getRegions {@code true} if the WorldGuard regions are requested,
+     *                   {@code false} otherwise.
+     * @return {@code true} if the request was answered from the cache,
+     *         {@code false} if it must be sent to the server.
+     */
+    public boolean sendCached(@NotNull final String serverName, @Nullable final UUID senderId, @NotNull final UUID targetId, final boolean getRegions) {
+        
+        if (this.responseCache == null) {
+            return false;
+        }
+        final LocationResponse response = this.responseCache.get(serverName, targetId, getRegions);
+        if (response == null) {
+            return false;
+        }
         
-        final CommandSender sender;
-        final boolean samePlayer;
+        this.sendResponse(serverName, response, Collections.singletonList(senderId), "(cached response for " + targetId + ")");
+        return true;
+    }
+    
+    /**
+     * Sends the location in the given {@link LocationResponse} to each of
+     * the given senders.
+     * 
+     * @param serverName The name of the server that sent the response.
+     * @param response The {@link LocationResponse}.
+     * @param senderIds The {@link UUID UUIDs} of the senders, with
+     *                  {@code null} for the console.
+     * @param message The original IPC message, used for logging.
+     */
+    private void sendResponse(@NotNull final String serverName, @NotNull final LocationResponse response, @NotNull final List<UUID> senderIds, @NotNull final String message) {
         
-        if (rawSenderId.equalsIgnoreCase(this.proxy.getConsole().getName())) {
-            sender = this.proxy.getConsole();
-            samePlayer = false;
-        } else {
-            
-            final UUID senderId;
-            try {
-                senderId = UUID.fromString(rawSenderId);
-            } catch (final IllegalArgumentException e) {
-                logger.log(Level.WARNING, "Unable to parse sender UUID.", e);
-                logger.log(Level.WARNING, "Message: " + message);
-                return;
-            }
+        final long started = System.nanoTime();
+        final UUID targetId = response.getTargetId();
+        final String targetName = this.playerDataPlugin.getPlayerDataManager().getPlayerVisibleName(targetId);
+        
+        BaseComponent[] fullMessage = null;
+        for (final UUID senderId : senderIds) {
             
-            sender = this.proxy.getPlayer(senderId);
+            final CommandSender sender = this.getSender(senderId, message);
             if (sender == null) {
-                logger.log(Level.WARNING, "Original Sender is offline when location response was received.");
-                logger.log(Level.WARNING, "Sender UUID: " + rawSenderId);
-                logger.log(Level.WARNING, "Message: " + message);
-                return;
+                continue;
             }
             
-            samePlayer = rawSenderId.equalsIgnoreCase(rawTargetId);
+            final boolean permitted = sender.hasPermission(PERMISSION_UNLIMITED) || sender.hasPermission(PERMISSION_LIMITED);
+            if (permitted) {
+                if (fullMessage == null) {
+                    fullMessage = LocationMessages.location(targetName, serverName, response, true);
+                }
+                if (targetId.equals(senderId)) {
+                    sender.sendMessage(LocationMessages.location(targetName + " (That's you!)", serverName, response, true));
+                } else {
+                    sender.sendMessage(fullMessage);
+                }
+            } else if (targetId.equals(senderId)) {
+                sender.sendMessage(LocationMessages.location(targetName + " (That's you!)", null, response, false));
+            } else {
+                sender.sendMessage(NO_PERMISSION_MESSAGE);
+            }
         }
+        this.metrics.record(QueryMetrics.Stage.RENDER, started);
+    }
+    
+    /**
+     * Sends the locations in the given {@link BulkLocationResponse} to the
+     * original sender, one line per target.
+     * 
+     * @param serverName The name of the server that sent the response.
+     * @param response The decoded {@link BulkLocationResponse}.
+     * @param message The original IPC message, used for logging.
+     */
+    private void processBulkResponse(@NotNull final String serverName, @NotNull final BulkLocationResponse response, @NotNull final String message) {
         
-        final UUID targetId;
-        try {
-            targetId = UUID.fromString(rawTargetId);
-        } catch (final IllegalArgumentException e) {
-            logger.log(Level.WARNING, "Unable to parse target UUID.", e);
-            logger.log(Level.WARNING, "Message: " + message);
+        if (response.getRequestId() != 0 && this.pendingRequests.complete(response.getRequestId()) == null) {
+            this.dropResponse(serverName, message);
             return;
         }
         
-        final String targetName = this.playerDataPlugin.getPlayerDataManager().getPlayerVisibleName(targetId);
-        
-        final List<String> regions;
-        if (!iterator.hasNext()) {
-            regions = null;
-        } else {
-            final String first = iterator.next();
-            if (first.equalsIgnoreCase(LocationConstants.REGIONS_UNKNOWN)) {
-                regions = Collections.emptyList();
-            } else {
-                regions = new ArrayList<String>();
-                regions.add(first);
-                while (iterator.hasNext()) {
-                    regions.add(iterator.next());
-                }
-            }
+        final CommandSender sender = this.getSender(response.getSenderId(), message);
+        if (sender == null) {
+            return;
+        }
+        if (!sender.hasPermission(PERMISSION_UNLIMITED) && !sender.hasPermission(PERMISSION_LIMITED)) {
+            sender.sendMessage(NO_PERMISSION_MESSAGE);
+            return;
         }
         
-        final boolean unlimited = sender.hasPermission(PERMISSION_UNLIMITED);
-        final boolean limited = sender.hasPermission(PERMISSION_LIMITED);
+        final PlayerDataManager playerDataManager = this.playerDataPlugin.getPlayerDataManager();
+        final ComponentBuilder builder = LocationMessages.list("Server: " + serverName);
+        for (final LocationResponse location : response.getLocations()) {
+            LocationMessages.line(builder, playerDataManager.getPlayerVisibleName(location.getTargetId()), location);
+        }
         
-        if (samePlayer) {
-            if (unlimited || limited) {
-                this.sendLocation(sender, targetName + " (That's you!)", serverName, worldName, x, y, z, direction, regions);
-            } else {
-                this.sendLocation(sender, targetName + " (That's you!)", null, null, x, y, z, direction, null);
+        final List<UUID> offlineIds = response.getOfflineIds();
+        if (!offlineIds.isEmpty()) {
+            final List<String> names = new ArrayList<String>(offlineIds.size());
+            for (final UUID offlineId : offlineIds) {
+                names.add(playerDataManager.getPlayerVisibleName(offlineId));
             }
-        } else if (unlimited || limited) {
-            this.sendLocation(sender, targetName, serverName, worldName, x, y, z, direction, regions);
-        } else {
-            sender.sendMessage(NO_PERMISSION_MESSAGE);
+            builder.append("\nNo longer online: ").color(ChatColor.RED).append(String.join(", ", names)).color(ChatColor.GOLD);
         }
+        sender.sendMessage(LocationMessages.end(builder));
     }
     
     /**
-     * Processes the given whole IPC message into a {@link List} of various
-     * parts.
+     * Sends the locations in the given {@link LocationAreaResponse} to the
+     * original sender, one line per target.
+     * <p>
+     * A sender that may only check the location of the players they outrank
+     * is only shown those players.
+     * <p>
+     * Region searches are sent to every server at once, so a server that
+     * does not define the region, or has nobody in it, does not show
+     * anything. Its request is completed with the number of players found
+     * instead, or {@code -1} if the region is not defined, for the
+     * {@code /where} command to summarize once every server has answered.
      * 
-     * @param message The full IPC message.
-     * @return The separated parts of the IPC message.
+     * @param serverName The name of the server that sent the response.
+     * @param response The decoded {@link LocationAreaResponse}.
+     * @param message The original IPC message, used for logging.
      */
-    @NotNull
-    @UnmodifiableView
-    private List<String> getMessageParts(final String message) {
+    private void processAreaResponse(@NotNull final String serverName, @NotNull final LocationAreaResponse response, @NotNull final String message) {
         
-        final List<String> parts = new ArrayList<String>();
-        final StringTokenizer tokenizer = new StringTokenizer(message, LocationConstants.SEPARATOR);
+        final int requestId = response.getRequestId();
+        final boolean region = response.getRegionName() != null;
+        final Integer result = region ? Integer.valueOf(response.isFound() ? response.getLocations().size() : -1) : null;
+        if (requestId != 0 && this.pendingRequests.complete(requestId, result) == null) {
+            this.dropResponse(serverName, message);
+            return;
+        }
+        if (region && response.getLocations().isEmpty()) {
+            return;
+        }
         
-        while(tokenizer.hasMoreTokens()) {
-            parts.add(tokenizer.nextToken());
+        final UUID senderId = response.getSenderId();
+        final CommandSender sender = this.getSender(senderId, message);
+        if (sender == null) {
+            return;
         }
         
-        return Collections.unmodifiableList(parts);
+        final boolean unlimited = senderId == null || sender.hasPermission(PERMISSION_UNLIMITED);
+        if (!unlimited && !sender.hasPermission(PERMISSION_LIMITED)) {
+            sender.sendMessage(NO_PERMISSION_MESSAGE);
+            return;
+        }
+        
+        final PlayerDataManager playerDataManager = this.playerDataPlugin.getPlayerDataManager();
+        final String area;
+        if (response.getRegionName() != null) {
+            area = "region " + response.getRegionName();
+        } else {
+            area = response.getRadius() + " blocks of " + playerDataManager.getPlayerVisibleName(response.getCenterId());
+        }
+        
+        if (!response.isFound()) {
+            sender.sendMessage(new ComponentBuilder(playerDataManager.getPlayerVisibleName(response.getCenterId()) + " is no longer online on " + serverName + ".").color(ChatColor.RED).create());
+            return;
+        }
+        
+        final ComponentBuilder builder = LocationMessages.list((response.getRegionName() != null ? "Players in " : "Players within ") + area + " on " + serverName);
+        int shown = 0;
+        for (final LocationResponse location : response.getLocations()) {
+            final UUID targetId = location.getTargetId();
+            if (unlimited || targetId.equals(senderId) || playerDataManager.outranks(senderId, targetId)) {
+                LocationMessages.line(builder, playerDataManager.getPlayerVisibleName(targetId), location);
+                shown++;
+            }
+        }
+        if (shown == 0) {
+            builder.append("\nNo players to show.").color(ChatColor.GRAY).italic(true);
+        }
+        sender.sendMessage(LocationMessages.end(builder));
     }
     
     /**
-     * Gets the {@link String} compass direction value for the given
-     * {@link String} yaw value.
+     * Sends the past locations in the given {@link LocationHistoryResponse}
+     * to the original sender, one line per location, from the oldest to the
+     * newest.
      * 
-     * @param yawValue The {@link String} representation of the yaw value.
-     * @return The {@link String} representation of the compass direction.
+     * @param serverName The name of the server that sent the response.
+     * @param response The decoded {@link LocationHistoryResponse}.
+     * @param message The original IPC message, used for logging.
      */
-    @NotNull
-    private String processYaw(@NotNull final String yawValue) {
+    private void processHistoryResponse(@NotNull final String serverName, @NotNull final LocationHistoryResponse response, @NotNull final String message) {
         
-        float yaw;
-        try {
-            yaw = Float.parseFloat(yawValue);
-        } catch (final NumberFormatException e) {
-            return "Undetermined";
-        }
-        
-        while (yaw < -180.0F) {
-            yaw += 360.0F;
-        }
-        while (yaw > 180.0F) {
-            yaw -= 360.0F;
-        }
-        
-        if (yaw >= -180.0F && yaw < -157.0F || yaw >= 157.5F) {
-            return "North";
-        } else if (yaw >= -157.0F && yaw < -112.5F) {
-            return "Northeast";
-        } else if (yaw >= -112.5F && yaw < -67.5F) {
-            return "East";
-        } else if (yaw >= -67.5F && yaw < -22.5F) {
-            return "Southeast";
-        } else if (yaw >= -22.5F && yaw < 22.5F) {
-            return "South";
-        } else if (yaw >= 22.5F && yaw < 67.5F) {
-            return "Southwest";
-        } else if (yaw >= 67.5F && yaw < 112.5F) {
-            return "West";
-        } else if (yaw >= 112.5F) {
-            return "Northwest";
-        } else {
-            return "Undetermined";
+        if (response.getRequestId() != 0 && this.pendingRequests.complete(response.getRequestId()) == null) {
+            this.dropResponse(serverName, message);
+            return;
+        }
+        
+        final UUID senderId = response.getSenderId();
+        final CommandSender sender = this.getSender(senderId, message);
+        if (sender == null) {
+            return;
         }
+        if (senderId != null && !sender.hasPermission(PERMISSION_UNLIMITED) && !sender.hasPermission(PERMISSION_LIMITED)) {
+            sender.sendMessage(NO_PERMISSION_MESSAGE);
+            return;
+        }
+        
+        final String targetName = this.playerDataPlugin.getPlayerDataManager().getPlayerVisibleName(response.getTargetId());
+        if (!response.isFound()) {
+            sender.sendMessage(new ComponentBuilder(targetName + " is no longer online on " + serverName + ".").color(ChatColor.RED).create());
+            return;
+        }
+        if (response.getLocations().isEmpty()) {
+            sender.sendMessage(new ComponentBuilder("No location history for " + targetName + " that far back on " + serverName + ".").color(ChatColor.RED).create());
+            return;
+        }
+        
+        final ComponentBuilder builder = LocationMessages.list("Location history of " + targetName + " on " + serverName);
+        final List<LocationResponse> locations = response.getLocations();
+        final List<Integer> ages = response.getAges();
+        for (int index = 0; index < locations.size(); index++) {
+            LocationMessages.history(builder, ages.get(index), locations.get(index));
+        }
+        sender.sendMessage(LocationMessages.end(builder));
     }
     
     /**
-     * Sends the given location data to the given {@link CommandSender} sender.
+     * Sends the locations in the given {@link LocationListPage} to the
+     * original sender as soon as it arrives, one line per target.
+     * <p>
+     * A sender that may only check the location of the players they outrank
+     * is only shown those players.
      * 
-     * @param sender The {@link CommandSender} to the location data to.
-     * @param targetName The name of the target {@link ProxiedPlayer}.
-     * @param serverName The server name that the target is connected to, or
-     *                   {@code null} if it should not be displayed.
-     * @param worldName The world name that the target is connected to, or
-     *                  {@code null} if it should not be displayed.
-     * @param x The X coordinate.
-     * @param y The Y coordinate.
-     * @param z The Z coordinate.
-     * @param direction The compass direction the target {@link ProxiedPlayer}
-     *                  is facing.
-     * @param regions The {@link List} of WorldGuard regions that the target
-     *                {@link ProxiedPlayer} is standing in. If {@code null}, no
-     *                regions are to be listed. If the {@link List} is empty,
-     *                then an error occurred while retrieving the regions from
-     *                the Bukkit side, and an error message will be displayed.
+     * @param serverName The name of the server that sent the page.
+     * @param page The decoded {@link LocationListPage}.
+     * @param message The original IPC message, used for logging.
      */
-    private void sendLocation(@NotNull final CommandSender sender, @NotNull final String targetName, @Nullable final String serverName, @Nullable final String worldName, @NotNull final String x, @NotNull final String y, @NotNull final String z, @NotNull final String direction, @Nullable final List<String> regions) {
+    private void processListPage(@NotNull final String serverName, @NotNull final LocationListPage page, @NotNull final String message) {
+        
+        if (page.getRequestId() != 0 && !this.pendingRequests.completePage(page.getRequestId(), page.getPage(), page.getPages())) {
+            this.dropResponse(serverName, message);
+            return;
+        }
         
-        final BaseComponent[] divide = new ComponentBuilder("--------------------------------").color(ChatColor.DARK_GRAY).create();
-        final String location = "Location: (" + x + ", " + y + ", " + z + ")";
+        final UUID senderId = page.getSenderId();
+        final CommandSender sender = this.getSender(senderId, message);
+        if (sender == null) {
+            return;
+        }
         
-        sender.sendMessage(divide);
-        sender.sendMessage(this.formatText("Player: " + targetName));
-        if (serverName != null) {
-            sender.sendMessage(this.formatText("Server: " + serverName));
+        final boolean unlimited = senderId == null || sender.hasPermission(PERMISSION_UNLIMITED);
+        if (!unlimited && !sender.hasPermission(PERMISSION_LIMITED)) {
+            sender.sendMessage(NO_PERMISSION_MESSAGE);
+            return;
         }
-        if (worldName != null) {
-            if (worldName.equalsIgnoreCase("null")) {
-                sender.sendMessage(new ComponentBuilder("World: ").color(ChatColor.YELLOW).append("UNKNOWN").color(ChatColor.RED).create());
-            } else {
-                sender.sendMessage(this.formatText("World: " + worldName));
+        
+        final PlayerDataManager playerDataManager = this.playerDataPlugin.getPlayerDataManager();
+        final ComponentBuilder builder = LocationMessages.list("Server: " + serverName);
+        builder.append(" (page " + page.getPage() + "/" + page.getPages() + ")").color(ChatColor.GRAY);
+        
+        int shown = 0;
+        for (final LocationResponse location : page.getLocations()) {
+            final UUID targetId = location.getTargetId();
+            if (unlimited || targetId.equals(senderId) || playerDataManager.outranks(senderId, targetId)) {
+                LocationMessages.line(builder, playerDataManager.getPlayerVisibleName(targetId), location);
+                shown++;
             }
         }
-        sender.sendMessage(this.formatText(location));
-        sender.sendMessage(this.formatText("Direction: " + direction));
-        sender.sendMessage(divide);
+        if (shown == 0) {
+            builder.append("\nNo players to show.").color(ChatColor.GRAY).italic(true);
+        }
+        sender.sendMessage(LocationMessages.end(builder));
+    }
+    
+    /**
+     * Tells the original sender, and any other senders whose identical
+     * requests were coalesced with it, that the target of the request is not
+     * online on the server it was sent to.
+     * 
+     * @param serverName The name of the server that sent the answer.
+     * @param notFound The decoded {@link LocationNotFound}.
+     * @param message The original IPC message, used for logging.
+     */
+    private void processNotFound(@NotNull final String serverName, @NotNull final LocationNotFound notFound, @NotNull final String message) {
         
-        if (regions == null) {
+        final List<UUID> senderIds = this.pendingRequests.complete(notFound.getRequestId());
+        if (senderIds == null) {
+            this.dropResponse(serverName, message);
             return;
         }
+        if (this.responseCache != null) {
+            this.responseCache.invalidate(notFound.getTargetId());
+        }
         
-        final ComponentBuilder regionsBuilder = new ComponentBuilder("Regions: ").color(ChatColor.YELLOW);
-        if (regions.isEmpty()) {
-            sender.sendMessage(regionsBuilder.append("UNKNOWN").color(ChatColor.RED).create());
-            sender.sendMessage(divide);
-            return;
+        final String targetName = this.playerDataPlugin.getPlayerDataManager().getPlayerVisibleName(notFound.getTargetId());
+        final BaseComponent[] notFoundMessage = new ComponentBuilder(targetName).color(ChatColor.GOLD).append(" is no longer online on ").color(ChatColor.RED).append(serverName).color(ChatColor.GOLD).append(".").color(ChatColor.RED).create();
+        for (final UUID senderId : senderIds) {
+            final CommandSender sender = this.getSender(senderId, message);
+            if (sender != null) {
+                sender.sendMessage(notFoundMessage);
+            }
+        }
+    }
+    
+    /**
+     * Logs that a response was dropped for being late or a duplicate.
+     * 
+     * @param serverName The name of the server that sent the response.
+     * @param message The IPC message that was dropped.
+     */
+    private void dropResponse(@NotNull final String serverName, @NotNull final String message) {
+        final Logger logger = this.getLogger();
+        if (logger.isLoggable(Level.FINE)) {
+            logger.log(Level.FINE, "Dropping late or duplicate location response from server " + serverName + ": " + message);
         }
+    }
+    
+    /**
+     * Gets the {@link CommandSender} that sent the original location request.
+     * 
+     * @param senderId The {@link UUID} of the sender, or {@code null} if the
+     *                 request came from the console.
+     * @param message The original IPC message, used for logging.
+     * @return The {@link CommandSender}, or {@code null} if the sender is no
+     *         longer online.
+     */
+    @Nullable
+    private CommandSender getSender(@Nullable final UUID senderId, @NotNull final String message) {
         
-        if (regions.size() == 1 && regions.get(0).equalsIgnoreCase(LocationConstants.REGION_GLOBAL)) {
-            sender.sendMessage(regionsBuilder.append("GLOBAL REGION").color(ChatColor.AQUA).create());
-            sender.sendMessage(divide);
-            return;
+        if (senderId == null) {
+            return this.proxy.getConsole();
         }
         
-        final Iterator<String> iterator = regions.iterator();
-        while (iterator.hasNext()) {
-            regionsBuilder.append(iterator.next()).color(ChatColor.GREEN);
-            if (iterator.hasNext()) {
-                regionsBuilder.append(", ").color(ChatColor.GREEN).append(iterator.next()).color(ChatColor.DARK_GREEN);
-                if (iterator.hasNext()) {
-                    regionsBuilder.append(", ").color(ChatColor.DARK_GREEN);
+        final CommandSender sender = this.proxy.getPlayer(senderId);
+        if (sender == null) {
+            final Logger logger = this.getLogger();
+            logger.log(Level.WARNING, "Original Sender is offline when location response was received.");
+            logger.log(Level.WARNING, "Sender UUID: " + senderId);
+            logger.log(Level.WARNING, "Message: " + message);
+        }
+        return sender;
+    }
+    
+    /**
+     * Creates the {@link ExecutorService} that {@code /where} commands are
+     * run on, so that slow player data lookups never block the command
+     * handling of the proxy.
+     * <p>
+     * On Java 21 or newer, every command runs on its own virtual thread.
+     * Otherwise, a small pool of daemon threads is used.
+     * 
+     * @return The {@link ExecutorService}.
+     */
+    @NotNull
+    private ExecutorService createCommandExecutor() {
+        
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (final ReflectiveOperationException e) {
+            this.getLogger().log(Level.FINE, "Virtual threads are not available, using a thread pool for commands.");
+        }
+        
+        final AtomicInteger threadCount = new AtomicInteger(0);
+        return Executors.newFixedThreadPool(COMMAND_THREADS, runnable -> {
+            final Thread thread = new Thread(runnable, "CVLocation Command Thread #" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * Loads the configuration from the data folder, first saving the default
+     * configuration there if it does not exist yet.
+     * 
+     * @return The loaded {@link Configuration}.
+     */
+    @NotNull
+    private Configuration loadConfig() {
+        
+        final Logger logger = this.getLogger();
+        final File dataFolder = this.getDataFolder();
+        final File configFile = new File(dataFolder, "config.yml");
+        final ConfigurationProvider provider = ConfigurationProvider.getProvider(YamlConfiguration.class);
+        
+        if (!configFile.exists()) {
+            try (final InputStream defaults = this.getResourceAsStream("config.yml")) {
+                if (!dataFolder.isDirectory() && !dataFolder.mkdirs()) {
+                    throw new IOException("Unable to create data folder " + dataFolder.getPath());
                 }
+                Files.copy(defaults, configFile.toPath());
+            } catch (final IOException e) {
+                logger.log(Level.WARNING, "Unable to save default configuration.", e);
             }
         }
         
-        sender.sendMessage(regionsBuilder.create());
-        sender.sendMessage(divide);
+        try {
+            return provider.load(configFile);
+        } catch (final IOException e) {
+            logger.log(Level.WARNING, "Unable to load configuration, using the defaults.", e);
+            return provider.load(this.getResourceAsStream("config.yml"));
+        }
     }
     
     /**
-     * Gets the {@link BaseComponent[]} as {@link ChatColor#YELLOW}-formatted
-     * text for the given {@link String}.
+     * Decodes a location response in the original pipe-delimited text format.
      * 
-     * @param string The {@link String} to format.
-     * @return The formatted {@link BaseComponent[]}.
+     * @param message The IPC message, without the channel.
+     * @return The decoded {@link LocationResponse}, or {@code null} if the
+     *         message could not be decoded.
      */
-    @NotNull
-    private BaseComponent[] formatText(@NotNull final String string) {
-        return new ComponentBuilder(string).color(ChatColor.YELLOW).create();
+    @Nullable
+    private LocationResponse decodeText(@NotNull final String message) {
+        
+        try {
+            return TextCodec.decodeResponse(message, this.proxy.getConsole().getName());
+        } catch (final IllegalArgumentException e) {
+            final Logger logger = this.getLogger();
+            logger.log(Level.WARNING, "Unable to decode text location response.", e);
+            logger.log(Level.WARNING, "Message: " + message);
+            return null;
+        }
     }
 }
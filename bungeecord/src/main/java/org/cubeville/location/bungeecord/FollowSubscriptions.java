@@ -0,0 +1,540 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.bungeecord;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import net.md_5.bungee.api.ChatColor;
+import net.md_5.bungee.api.ProxyServer;
+import net.md_5.bungee.api.chat.BaseComponent;
+import net.md_5.bungee.api.chat.ComponentBuilder;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import net.md_5.bungee.api.connection.Server;
+import net.md_5.bungee.api.event.PlayerDisconnectEvent;
+import net.md_5.bungee.api.event.ServerSwitchEvent;
+import net.md_5.bungee.api.plugin.Listener;
+import net.md_5.bungee.event.EventHandler;
+import net.md_5.bungee.event.EventPriority;
+import org.bspfsystems.bungeelocation.core.LocationCodec;
+import org.bspfsystems.bungeelocation.core.LocationConstants;
+import org.bspfsystems.bungeelocation.core.LocationDelta;
+import org.bspfsystems.bungeelocation.core.LocationFollowRequest;
+import org.bspfsystems.bungeelocation.core.LocationResponse;
+import org.cubeville.cvipc.CVIPC;
+import org.cubeville.cvplayerdata.PlayerDataManager;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Tracks which {@link ProxiedPlayer ProxiedPlayers} are following which
+ * targets, and renders the location updates pushed by the Bukkit servers to
+ * every follower.
+ * <p>
+ * Each target is subscribed to only once on its server, no matter how many
+ * players are following it, asking for the WorldGuard regions if any of the
+ * followers wants them. When a target switches servers, the subscription is
+ * moved to the new server, and the old server drops its own subscription
+ * once the target has left it. Following stops when the target or the
+ * follower disconnects, or when the follower cancels it.
+ * <p>
+ * Servers that support it send the updates as {@link LocationDelta
+ * LocationDeltas}, which are applied to the last update of the target. If an
+ * update was missed, the target is subscribed to again, so that its server
+ * starts over with a keyframe.
+ * <p>
+ * The subscriptions are changed from the command, the IPC and the event
+ * threads, so all access to them is synchronized.
+ */
+public final class FollowSubscriptions implements Listener {
+    
+    /**
+     * The maximum number of targets that a single player may follow at
+     * once.
+     */
+    public static final int MAX_FOLLOWS = 5;
+    
+    private final ProxyServer proxy;
+    private final CVIPC ipcPlugin;
+    private final PlayerDataManager playerDataManager;
+    private final ServerProtocols protocols;
+    private final Map<UUID, FollowedTarget> targets;
+    private long resyncs;
+    
+    /**
+     * Constructs a new {@link FollowSubscriptions}.
+     * 
+     * @param proxy The BungeeCord {@link ProxyServer}.
+     * @param ipcPlugin The {@link CVIPC} plugin, used to send the follow
+     *                  requests.
+     * @param playerDataManager The {@link PlayerDataManager}, used to get the
+     *                          visible names of the targets.
+     * @param protocols The {@link ServerProtocols}, used to determine whether
+     *                  a server supports following.
+     */
+    public FollowSubscriptions(@NotNull final ProxyServer proxy, @NotNull final CVIPC ipcPlugin, @NotNull final PlayerDataManager playerDataManager, @NotNull final ServerProtocols protocols) {
+        this.proxy = proxy;
+        this.ipcPlugin = ipcPlugin;
+        this.playerDataManager = playerDataManager;
+        this.protocols = protocols;
+        this.targets = new LinkedHashMap<UUID, FollowedTarget>();
+        this.resyncs = 0L;
+    }
+    
+    /**
+     * Checks if a Bukkit plugin that speaks the given protocol version
+     * supports following.
+     * 
+     * @param version The protocol version of the server, as probed by the
+     *                {@link ServerProtocols}.
+     * @return {@code true} if following is supported, {@code false}
+     *         otherwise.
+     */
+    public static boolean isSupported(final int version) {
+        return version >= LocationConstants.PROTOCOL_FOLLOW;
+    }
+    
+    /**
+     * Starts following the given target for the given follower, or changes
+     * whether they want the WorldGuard regions if they already follow it.
+     * <p>
+     * The server the target is connected to is sent a new follow request,
+     * which replaces any earlier one for the target, so that it sends a
+     * fresh update right away for the new follower.
+     * 
+     * @param followerId The {@link UUID} of the follower.
+     * @param target The target {@link ProxiedPlayer}.
+     * @param regions {@code true} if the follower wants the WorldGuard
+     *                regions, {@code false} otherwise.
+     * @param version The protocol version of the server the target is
+     *                connected to, as probed by the {@link ServerProtocols}.
+     */
+    public synchronized void follow(@NotNull final UUID followerId, @NotNull final ProxiedPlayer target, final boolean regions, final int version) {
+        
+        final Server server = target.getServer();
+        if (server == null) {
+            return;
+        }
+        
+        final String serverName = server.getInfo().getName();
+        final FollowedTarget followed = this.targets.computeIfAbsent(target.getUniqueId(), targetId -> new FollowedTarget(targetId, serverName));
+        followed.followers.put(followerId, regions);
+        followed.version = version;
+        this.subscribe(followed);
+    }
+    
+    /**
+     * Stops following the given target for the given follower.
+     * 
+     * @param followerId The {@link UUID} of the follower.
+     * @param targetId The {@link UUID} of the target.
+     * @return {@code true} if the follower was following the target,
+     *         {@code false} otherwise.
+     */
+    public synchronized boolean unfollow(@NotNull final UUID followerId, @NotNull final UUID targetId) {
+        
+        final FollowedTarget followed = this.targets.get(targetId);
+        if (followed == null || followed.followers.remove(followerId) == null) {
+            return false;
+        }
+        this.refresh(followed);
+        return true;
+    }
+    
+    /**
+     * Stops following every target for the given follower.
+     * 
+     * @param followerId The {@link UUID} of the follower.
+     * @return The number of targets that are no longer followed by the
+     *         follower.
+     */
+    public synchronized int unfollowAll(@NotNull final UUID followerId) {
+        
+        int count = 0;
+        for (final FollowedTarget followed : new ArrayList<FollowedTarget>(this.targets.values())) {
+            if (followed.followers.remove(followerId) != null) {
+                this.refresh(followed);
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Gets the number of targets that the given follower is following.
+     * 
+     * @param followerId The {@link UUID} of the follower.
+     * @return The number of followed targets.
+     */
+    public synchronized int getFollowCount(@NotNull final UUID followerId) {
+        int count = 0;
+        for (final FollowedTarget followed : this.targets.values()) {
+            if (followed.followers.containsKey(followerId)) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Gets the number of targets that are followed by at least one
+     * follower.
+     * 
+     * @return The number of followed targets.
+     */
+    public synchronized int getTargetCount() {
+        return this.targets.size();
+    }
+    
+    /**
+     * Gets the total number of follows, across all targets.
+     * 
+     * @return The number of follows.
+     */
+    public synchronized int getFollowCount() {
+        int count = 0;
+        for (final FollowedTarget followed : this.targets.values()) {
+            count += followed.followers.size();
+        }
+        return count;
+    }
+    
+    /**
+     * Gets the number of times a followed target was subscribed to again,
+     * after an update was missed.
+     * 
+     * @return The number of resyncs.
+     */
+    public synchronized long getResyncs() {
+        return this.resyncs;
+    }
+    
+    /**
+     * Applies the given {@link LocationDelta} to the last update of its
+     * target.
+     * <p>
+     * A delta that does not directly follow the last update is dropped, and
+     * the target is subscribed to again, so that its server sends a keyframe
+     * next. Until then, any further deltas are dropped as well.
+     * 
+     * @param serverName The name of the server that sent the update.
+     * @param delta The {@link LocationDelta}.
+     * @return The current {@link LocationResponse} of the target, or
+     *         {@code null} if the delta could not be applied.
+     */
+    @Nullable
+    public synchronized LocationResponse applyDelta(@NotNull final String serverName, @NotNull final LocationDelta delta) {
+        
+        final UUID targetId = delta.getTargetId();
+        final FollowedTarget followed = this.targets.get(targetId);
+        if (followed == null) {
+            this.sendFollowRequest(serverName, new LocationFollowRequest(targetId, false, true, false));
+            return null;
+        }
+        if (!followed.serverName.equals(serverName)) {
+            return null;
+        }
+        
+        if (!delta.isKeyframe()) {
+            if (followed.awaitingKeyframe) {
+                return null;
+            }
+            if (followed.last == null || delta.getSequence() != (followed.sequence + 1 & 0xFF)) {
+                this.resyncs++;
+                this.subscribe(followed);
+                return null;
+            }
+        }
+        
+        followed.last = delta.apply(followed.last);
+        followed.sequence = delta.getSequence();
+        followed.awaitingKeyframe = false;
+        return followed.last;
+    }
+    
+    /**
+     * Renders the given location update to every follower of its target.
+     * <p>
+     * An update for a target that is no longer followed is answered with a
+     * request to stop following it, so that a server never keeps pushing
+     * updates that nobody reads.
+     * 
+     * @param serverName The name of the server that sent the update.
+     * @param update The {@link LocationResponse} of the target.
+     */
+    public void update(@NotNull final String serverName, @NotNull final LocationResponse update) {
+        
+        final UUID targetId = update.getTargetId();
+        final Map<UUID, Boolean> followers;
+        synchronized (this) {
+            final FollowedTarget followed = this.targets.get(targetId);
+            if (followed == null) {
+                this.sendFollowRequest(serverName, new LocationFollowRequest(targetId, false, true, false));
+                return;
+            }
+            if (!followed.serverName.equals(serverName)) {
+                return;
+            }
+            followers = new LinkedHashMap<UUID, Boolean>(followed.followers);
+        }
+        
+        final String targetName = this.playerDataManager.getPlayerVisibleName(targetId);
+        BaseComponent[] withRegions = null;
+        BaseComponent[] withoutRegions = null;
+        for (final Map.Entry<UUID, Boolean> entry : followers.entrySet()) {
+            final ProxiedPlayer follower = this.proxy.getPlayer(entry.getKey());
+            if (follower == null) {
+                continue;
+            }
+            if (entry.getValue()) {
+                if (withRegions == null) {
+                    withRegions = LocationMessages.follow(targetName, serverName, update, true);
+                }
+                follower.sendMessage(withRegions);
+            } else {
+                if (withoutRegions == null) {
+                    withoutRegions = LocationMessages.follow(targetName, serverName, update, false);
+                }
+                follower.sendMessage(withoutRegions);
+            }
+        }
+    }
+    
+    /**
+     * Handles the notice that a followed target has left the given server.
+     * <p>
+     * If the target is still connected to the proxy, it is switching
+     * servers, and will be followed onto its new server once the switch
+     * completes. Otherwise, following it stops.
+     * 
+     * @param serverName The name of the server that sent the notice.
+     * @param targetId The {@link UUID} of the target.
+     */
+    public void end(@NotNull final String serverName, @NotNull final UUID targetId) {
+        
+        final ProxiedPlayer target = this.proxy.getPlayer(targetId);
+        if (target != null) {
+            return;
+        }
+        
+        final FollowedTarget followed;
+        synchronized (this) {
+            followed = this.targets.get(targetId);
+            if (followed == null || !followed.serverName.equals(serverName)) {
+                return;
+            }
+            this.targets.remove(targetId);
+        }
+        this.notifyStopped(followed, " is no longer online. Stopped following.");
+    }
+    
+    /**
+     * Moves the subscription for a followed target to the server it
+     * switched to, once the protocol version of that server is known.
+     * <p>
+     * Updates from the old server are dropped right away, while the new
+     * server is probed.
+     * 
+     * @param event The {@link ServerSwitchEvent}.
+     */
+    @EventHandler(priority = EventPriority.HIGHEST)
+    public void onServerSwitch(@NotNull final ServerSwitchEvent event) {
+        
+        final ProxiedPlayer target = event.getPlayer();
+        final Server server = target.getServer();
+        if (server == null) {
+            return;
+        }
+        
+        final UUID targetId = target.getUniqueId();
+        final String serverName = server.getInfo().getName();
+        synchronized (this) {
+            final FollowedTarget followed = this.targets.get(targetId);
+            if (followed == null) {
+                return;
+            }
+            followed.serverName = serverName;
+        }
+        this.protocols.probe(serverName).thenAccept(version -> this.moveSubscription(targetId, serverName, version));
+    }
+    
+    /**
+     * Subscribes to the given target on the server it switched to, or stops
+     * following it if that server does not support following.
+     * <p>
+     * Nothing is done if the target is no longer followed, or has switched
+     * servers again in the meantime.
+     * 
+     * @param targetId The {@link UUID} of the target.
+     * @param serverName The name of the server the target switched to.
+     * @param version The probed protocol version of the server.
+     */
+    private void moveSubscription(@NotNull final UUID targetId, @NotNull final String serverName, final int version) {
+        
+        final FollowedTarget followed;
+        synchronized (this) {
+            followed = this.targets.get(targetId);
+            if (followed == null || !followed.serverName.equals(serverName)) {
+                return;
+            }
+            followed.version = version;
+            if (FollowSubscriptions.isSupported(version)) {
+                this.subscribe(followed);
+                return;
+            }
+            this.targets.remove(targetId);
+        }
+        this.notifyStopped(followed, " moved to " + serverName + ", which does not support following. Stopped following.");
+    }
+    
+    /**
+     * Stops every follow of a disconnecting {@link ProxiedPlayer}, and stops
+     * following them, telling their followers.
+     * 
+     * @param event The {@link PlayerDisconnectEvent}.
+     */
+    @EventHandler(priority = EventPriority.HIGHEST)
+    public void onPlayerDisconnect(@NotNull final PlayerDisconnectEvent event) {
+        
+        final UUID playerId = event.getPlayer().getUniqueId();
+        final FollowedTarget followed;
+        synchronized (this) {
+            this.unfollowAll(playerId);
+            followed = this.targets.remove(playerId);
+        }
+        if (followed != null) {
+            this.notifyStopped(followed, " has left the network. Stopped following.");
+        }
+    }
+    
+    /**
+     * Updates the subscription for the given target after a follower has
+     * been removed, stopping it if there are no followers left, or dropping
+     * the WorldGuard regions if they are no longer wanted.
+     * <p>
+     * This must be called while synchronized.
+     * 
+     * @param followed The {@link FollowedTarget}.
+     */
+    private void refresh(@NotNull final FollowedTarget followed) {
+        if (followed.followers.isEmpty()) {
+            this.targets.remove(followed.targetId);
+            this.sendFollowRequest(followed.serverName, new LocationFollowRequest(followed.targetId, false, true, false));
+        } else if (followed.regions && !followed.isRegionsWanted()) {
+            this.subscribe(followed);
+        }
+    }
+    
+    /**
+     * Sends the follow request for the given target to the server it is
+     * connected to, asking for {@link LocationDelta LocationDeltas} if the
+     * server supports them.
+     * <p>
+     * This must be called while synchronized.
+     * 
+     * @param followed The {@link FollowedTarget}.
+     */
+    private void subscribe(@NotNull final FollowedTarget followed) {
+        followed.regions = followed.isRegionsWanted();
+        followed.last = null;
+        followed.awaitingKeyframe = followed.version >= LocationConstants.PROTOCOL_DELTA;
+        this.sendFollowRequest(followed.serverName, new LocationFollowRequest(followed.targetId, followed.regions, false, followed.awaitingKeyframe));
+    }
+    
+    /**
+     * Sends the given {@link LocationFollowRequest} to the given server.
+     * 
+     * @param serverName The name of the server.
+     * @param request The {@link LocationFollowRequest}.
+     */
+    private void sendFollowRequest(@NotNull final String serverName, @NotNull final LocationFollowRequest request) {
+        this.ipcPlugin.sendMessage(serverName, LocationConstants.BINARY_REQUEST_CHANNEL + LocationConstants.SEPARATOR + LocationCodec.encodeFollowRequest(request));
+    }
+    
+    /**
+     * Tells every follower of the given target that following it has
+     * stopped.
+     * 
+     * @param followed The {@link FollowedTarget} that is no longer followed.
+     * @param reason The reason, appended to the name of the target.
+     */
+    private void notifyStopped(@NotNull final FollowedTarget followed, @NotNull final String reason) {
+        
+        final BaseComponent[] message = new ComponentBuilder(this.playerDataManager.getPlayerVisibleName(followed.targetId)).color(ChatColor.GOLD).append(reason).color(ChatColor.RED).create();
+        for (final UUID followerId : followed.followers.keySet()) {
+            final ProxiedPlayer follower = this.proxy.getPlayer(followerId);
+            if (follower != null) {
+                follower.sendMessage(message);
+            }
+        }
+    }
+    
+    /**
+     * Represents a followed target, along with its followers.
+     */
+    private static final class FollowedTarget {
+        
+        private final UUID targetId;
+        private final Map<UUID, Boolean> followers;
+        
+        private String serverName;
+        private int version;
+        private boolean regions;
+        private LocationResponse last;
+        private int sequence;
+        private boolean awaitingKeyframe;
+        
+        /**
+         * Constructs a new {@link FollowedTarget}.
+         * 
+         * @param targetId The {@link UUID} of the target.
+         * @param serverName The name of the server the target is connected
+         *                   to.
+         */
+        private FollowedTarget(@NotNull final UUID targetId, @NotNull final String serverName) {
+            this.targetId = targetId;
+            this.followers = new LinkedHashMap<UUID, Boolean>();
+            this.serverName = serverName;
+            this.version = LocationConstants.PROTOCOL_TEXT;
+            this.regions = false;
+            this.last = null;
+            this.sequence = 0;
+            this.awaitingKeyframe = false;
+        }
+        
+        /**
+         * Checks if any of the followers wants the WorldGuard regions.
+         * 
+         * @return {@code true} if the WorldGuard regions are wanted,
+         *         {@code false} otherwise.
+         */
+        private boolean isRegionsWanted() {
+            for (final boolean regions : this.followers.values()) {
+                if (regions) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.bungeecord;
+
+import java.util.List;
+import net.md_5.bungee.api.ChatColor;
+import net.md_5.bungee.api.CommandSender;
+import net.md_5.bungee.api.chat.BaseComponent;
+import net.md_5.bungee.api.chat.ComponentBuilder;
+import org.bspfsystems.bungeelocation.core.LocationConstants;
+import org.bspfsystems.bungeelocation.core.LocationResponse;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Renders location responses as chat messages.
+ * <p>
+ * Each response is rendered into a single multi-line message, so that it is
+ * sent to a {@link CommandSender} as one chat packet. The parts that never
+ * change (the divider, the labels, and the {@code UNKNOWN} and
+ * {@code GLOBAL REGION} variants) are built once and reused.
+ */
+public final class LocationMessages {
+    
+    private static final String DIVIDER = "--------------------------------";
+    
+    private static final BaseComponent[] DIVIDER_LINE = new ComponentBuilder(DIVIDER + "\n").color(ChatColor.DARK_GRAY).create();
+    private static final BaseComponent[] DIVIDER_END = new ComponentBuilder(DIVIDER).color(ChatColor.DARK_GRAY).italic(false).create();
+    private static final BaseComponent[] WORLD_UNKNOWN = new ComponentBuilder("World: ").color(ChatColor.YELLOW).append("UNKNOWN\n").color(ChatColor.RED).create();
+    private static final BaseComponent[] REGIONS_UNKNOWN = new ComponentBuilder("Regions: ").color(ChatColor.YELLOW).append("UNKNOWN\n").color(ChatColor.RED).create();
+    private static final BaseComponent[] REGIONS_GLOBAL = new ComponentBuilder("Regions: ").color(ChatColor.YELLOW).append("GLOBAL REGION\n").color(ChatColor.AQUA).create();
+    private static final BaseComponent[] LINE_WORLD_UNKNOWN = new ComponentBuilder("UNKNOWN").color(ChatColor.RED).create();
+    private static final BaseComponent[] LINE_REGIONS_UNKNOWN = new ComponentBuilder(" [").color(ChatColor.DARK_GRAY).append("UNKNOWN").color(ChatColor.RED).append("]").color(ChatColor.DARK_GRAY).create();
+    private static final BaseComponent[] LINE_REGIONS_GLOBAL = new ComponentBuilder(" [").color(ChatColor.DARK_GRAY).append("GLOBAL REGION").color(ChatColor.AQUA).append("]").color(ChatColor.DARK_GRAY).create();
+    private static final BaseComponent[] FOLLOW_PREFIX = new ComponentBuilder("[Follow] ").color(ChatColor.DARK_GRAY).create();
+    
+    /**
+     * Prevents instantiation of this utility class.
+     */
+    private LocationMessages() {
+        // Do nothing.
+    }
+    
+    /**
+     * Renders the location of a single target.
+     * 
+     * @param targetName The name of the target.
+     * @param serverName The server name that the target is connected to, or
+     *                   {@code null} if it should not be displayed.
+     * @param location The {@link LocationResponse} of the target.
+     * @param showDetails {@code true} if the world and the WorldGuard regions
+     *                    (if requested) should be displayed, {@code false}
+     *                    otherwise.
+     * @return The rendered message.
+     */
+    @NotNull
+    public static BaseComponent[] location(@NotNull final String targetName, @Nullable final String serverName, @NotNull final LocationResponse location, final boolean showDetails) {
+        
+        final ComponentBuilder builder = new ComponentBuilder().append(DIVIDER_LINE);
+        builder.append("Player: " + targetName + "\n").color(ChatColor.YELLOW);
+        if (serverName != null) {
+            builder.append("Server: " + serverName + "\n").color(ChatColor.YELLOW);
+        }
+        if (showDetails) {
+            final String worldName = location.getWorldName();
+            if (worldName == null) {
+                builder.append(WORLD_UNKNOWN);
+            } else {
+                builder.append("World: " + worldName + "\n").color(ChatColor.YELLOW);
+            }
+        }
+        builder.append("Location: (" + location.getX() + ", " + location.getY() + ", " + location.getZ() + ")\n").color(ChatColor.YELLOW);
+        builder.append("Direction: " + location.getDirection().getName() + "\n").color(ChatColor.YELLOW);
+        
+        final List<String> regions = showDetails ? location.getRegions() : null;
+        if (regions == null) {
+            return builder.append(DIVIDER_END).create();
+        }
+        
+        builder.append(DIVIDER_LINE);
+        if (regions.isEmpty()) {
+            builder.append(REGIONS_UNKNOWN);
+        } else if (isGlobal(regions)) {
+            builder.append(REGIONS_GLOBAL);
+        } else {
+            builder.append("Regions: ").color(ChatColor.YELLOW);
+            final int size = regions.size();
+            for (int index = 0; index < size; index++) {
+                final ChatColor color = (index & 1) == 0 ? ChatColor.GREEN : ChatColor.DARK_GREEN;
+                builder.append(index + 1 < size ? regions.get(index) + ", " : regions.get(index) + "\n").color(color);
+            }
+        }
+        return builder.append(DIVIDER_END).create();
+    }
+    
+    /**
+     * Starts a message listing the locations of several targets, with a
+     * divider and the given header line.
+     * 
+     * @param header The header line.
+     * @return The {@link ComponentBuilder} to append the lines to.
+     */
+    @NotNull
+    public static ComponentBuilder list(@NotNull final String header) {
+        return new ComponentBuilder().append(DIVIDER_LINE).append(header).color(ChatColor.YELLOW);
+    }
+    
+    /**
+     * Appends a single line for the location of a target to a message
+     * started with {@link #list(String)}.
+     * 
+     * @param builder The {@link ComponentBuilder} of the message.
+     * @param targetName The name of the target.
+     * @param location The {@link LocationResponse} of the target.
+     */
+    public static void line(@NotNull final ComponentBuilder builder, @NotNull final String targetName, @NotNull final LocationResponse location) {
+        builder.append("\n" + targetName + ": ").color(ChatColor.GOLD);
+        appendLocation(builder, location, location.getRegions());
+    }
+    
+    /**
+     * Appends a single line for a past location of a target to a message
+     * started with {@link #list(String)}, labelled with how long ago the
+     * target was there.
+     * 
+     * @param builder The {@link ComponentBuilder} of the message.
+     * @param ageSeconds How many seconds ago the target was at the location.
+     * @param location The {@link LocationResponse} of the target.
+     */
+    public static void history(@NotNull final ComponentBuilder builder, final int ageSeconds, @NotNull final LocationResponse location) {
+        builder.append("\n" + age(ageSeconds) + ": ").color(ChatColor.GOLD);
+        appendLocation(builder, location, null);
+    }
+    
+    /**
+     * Renders a single-line location update for a followed target.
+     * 
+     * @param targetName The name of the target.
+     * @param serverName The server name that the target is connected to.
+     * @param location The {@link LocationResponse} of the target.
+     * @param showRegions {@code true} if the WorldGuard regions (if sent)
+     *                    should be displayed, {@code false} otherwise.
+     * @return The rendered message.
+     */
+    @NotNull
+    public static BaseComponent[] follow(@NotNull final String targetName, @NotNull final String serverName, @NotNull final LocationResponse location, final boolean showRegions) {
+        final ComponentBuilder builder = new ComponentBuilder().append(FOLLOW_PREFIX);
+        builder.append(targetName).color(ChatColor.GOLD).append(" @ " + serverName + ": ").color(ChatColor.GRAY);
+        appendLocation(builder, location, showRegions ? location.getRegions() : null);
+        return builder.create();
+    }
+    
+    /**
+     * Finishes a message started with {@link #list(String)}, closing it with
+     * a divider.
+     * 
+     * @param builder The {@link ComponentBuilder} of the message.
+     * @return The rendered message.
+     */
+    @NotNull
+    public static BaseComponent[] end(@NotNull final ComponentBuilder builder) {
+        return builder.append("\n").append(DIVIDER_END).create();
+    }
+    
+    /**
+     * Formats an age in seconds as a short, human-readable duration, such as
+     * {@code 4m 30s ago}.
+     * 
+     * @param seconds The age, in seconds.
+     * @return The formatted age.
+     */
+    @NotNull
+    private static String age(final int seconds) {
+        
+        if (seconds == 0) {
+            return "Now";
+        }
+        
+        final StringBuilder builder = new StringBuilder();
+        if (seconds >= 3600) {
+            builder.append(seconds / 3600).append("h ");
+        }
+        if (seconds >= 60) {
+            builder.append(seconds / 60 % 60).append("m ");
+        }
+        return builder.append(seconds % 60).append("s ago").toString();
+    }
+    
+    /**
+     * Appends the world, coordinates, direction and WorldGuard regions of a
+     * target on a single line.
+     * 
+     * @param builder The {@link ComponentBuilder} of the message.
+     * @param location The {@link LocationResponse} of the target.
+     * @param regions The WorldGuard regions to display, or {@code null} if
+     *                they should not be displayed.
+     */
+    private static void appendLocation(@NotNull final ComponentBuilder builder, @NotNull final LocationResponse location, @Nullable final List<String> regions) {
+        
+        if (location.getWorldName() == null) {
+            builder.append(LINE_WORLD_UNKNOWN);
+        } else {
+            builder.append(location.getWorldName()).color(ChatColor.YELLOW);
+        }
+        builder.append(" (" + location.getX() + ", " + location.getY() + ", " + location.getZ() + ") " + location.getDirection().getName()).color(ChatColor.YELLOW);
+        
+        if (regions == null) {
+            return;
+        }
+        if (regions.isEmpty()) {
+            builder.append(LINE_REGIONS_UNKNOWN);
+        } else if (isGlobal(regions)) {
+            builder.append(LINE_REGIONS_GLOBAL);
+        } else {
+            builder.append(" [").color(ChatColor.DARK_GRAY).append(String.join(", ", regions)).color(ChatColor.GREEN).append("]").color(ChatColor.DARK_GRAY);
+        }
+    }
+    
+    /**
+     * Checks if the given WorldGuard regions are only the global region.
+     * 
+     * @param regions The {@link List} of WorldGuard region names.
+     * @return {@code true} if the target is only in the global region,
+     *         {@code false} otherwise.
+     */
+    private static boolean isGlobal(@NotNull final List<String> regions) {
+        return regions.size() == 1 && regions.get(0).equalsIgnoreCase(LocationConstants.REGION_GLOBAL);
+    }
+}
@@ -0,0 +1,667 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.bungeecord;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.md_5.bungee.api.ChatColor;
+import net.md_5.bungee.api.CommandSender;
+import net.md_5.bungee.api.ProxyServer;
+import net.md_5.bungee.api.chat.BaseComponent;
+import net.md_5.bungee.api.chat.ComponentBuilder;
+import org.bspfsystems.bungeelocation.core.LocationConstants;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Keeps track of the location requests that have been sent to the Bukkit
+ * servers and not answered yet, so that a sender is told when their request
+ * times out, and late or duplicate responses are dropped.
+ * <p>
+ * Requests sent to servers that support
+ * {@link LocationConstants#PROTOCOL_REQUEST_ID} carry an id that is echoed
+ * back in the response. Single requests sent to older servers are matched by
+ * their server, sender and target instead, oldest first.
+ * <p>
+ * Single requests with an id are also coalesced: while a request for a
+ * target (and regions flag) is in flight, identical requests from other
+ * senders are not sent again, but added to the waiting senders of the
+ * in-flight request, and the single response is shown to all of them.
+ * <p>
+ * Timeouts are driven by a hashed timer wheel, which is advanced every
+ * {@value #TICK_MILLIS} milliseconds by the proxy scheduler. Registering a
+ * request only appends it to a slot, and answered requests are skipped when
+ * their slot comes around, so neither needs to search or cancel anything.
+ */
+public final class PendingRequests implements Runnable {
+    
+    /**
+     * The interval at which the timer wheel is advanced, in milliseconds.
+     */
+    public static final long TICK_MILLIS = 100L;
+    
+    private static final int WHEEL_SIZE = 128;
+    
+    private final ProxyServer proxy;
+    private final Logger logger;
+    private final ServerProtocols protocols;
+    private final QueryMetrics metrics;
+    private final long timeoutTicks;
+    
+    private final AtomicInteger nextId;
+    private final ConcurrentMap<Integer, PendingRequest> byId;
+    private final ConcurrentMap<String, Queue<PendingRequest>> byTarget;
+    private final ConcurrentMap<String, PendingRequest> byQuery;
+    private final Queue<PendingRequest>[] wheel;
+    private volatile long tick;
+    
+    private final LongAdder completed;
+    private final LongAdder timedOut;
+    private final LongAdder dropped;
+    private final LongAdder coalesced;
+    
+    /**
+     * Constructs a new {@link PendingRequests} table.
+     * 
+     * @param proxy The BungeeCord {@link ProxyServer}, used to notify senders
+     *              of timeouts.
+     * @param logger The {@link Logger} to log timeouts to.
+     * @param protocols The {@link ServerProtocols}, reset for a server when a
+     *                  request to it times out.
+     * @param metrics The {@link QueryMetrics} to record the round trip of
+     *                every answered request in.
+     * @param timeout The time after which an unanswered request times out,
+     *                in milliseconds.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public PendingRequests(@NotNull final ProxyServer proxy, @NotNull final Logger logger, @NotNull final ServerProtocols protocols, @NotNull final QueryMetrics metrics, final long timeout) {
+        this.proxy = proxy;
+        this.logger = logger;
+        this.protocols = protocols;
+        this.metrics = metrics;
+        this.timeoutTicks = Math.max(1L, (timeout + TICK_MILLIS - 1L) / TICK_MILLIS);
+        
+        this.nextId = new AtomicInteger(0);
+        this.byId = new ConcurrentHashMap<Integer, PendingRequest>();
+        this.byTarget = new ConcurrentHashMap<String, Queue<PendingRequest>>();
+        this.byQuery = new ConcurrentHashMap<String, PendingRequest>();
+        this.wheel = new Queue[WHEEL_SIZE];
+        for (int index = 0; index < WHEEL_SIZE; index++) {
+            this.wheel[index] = new ConcurrentLinkedQueue<PendingRequest>();
+        }
+        this.tick = 0L;
+        
+        this.completed = new LongAdder();
+        this.timedOut = new LongAdder();
+        this.dropped = new LongAdder();
+        this.coalesced = new LongAdder();
+    }
+    
+    /**
+     * Registers a request that carries a request id.
+     * 
+     * @param serverName The name of the server the request is sent to.
+     * @param senderId The {@link UUID} of the sender, or {@code null} if the
+     *                 console is the sender.
+     * @param description A description of the target(s), shown to the sender
+     *                    if the request times out.
+     * @return The request id to send with the request, never {@code 0}.
+     */
+    public int track(@NotNull final String serverName, @Nullable final UUID senderId, @NotNull final String description) {
+        final PendingRequest request = new PendingRequest(this.nextRequestId(), serverName, senderId, null, null, description, this.tick + this.timeoutTicks);
+        this.byId.put(request.requestId, request);
+        this.schedule(request);
+        return request.requestId;
+    }
+    
+    /**
+     * Registers a single request that carries a request id, unless an
+     * identical request is already in flight, in which case the sender is
+     * added to the senders waiting on it instead.
+     * 
+     * @param serverName The name of the server the request is sent to.
+     * @param senderId The {@link UUID} of the sender, or {@code null} if the
+     *                 console is the sender.
+     * @param targetId The {@link UUID} of the target.
+     * @param regions {@code true} if the WorldGuard regions are requested,
+     *                {@code false} otherwise.
+     * @param description A description of the target, shown to the senders
+     *                    if the request times out.
+     * @return The request id to send with the request, or {@code 0} if the
+     *         sender is waiting on an identical request, and nothing needs to
+     *         be sent.
+     */
+    public int trackCoalesced(@NotNull final String serverName, @Nullable final UUID senderId, @NotNull final UUID targetId, final boolean regions, @NotNull final String description) {
+        
+        final String key = this.getQueryKey(serverName, targetId, regions);
+        while (true) {
+            
+            final PendingRequest existing = this.byQuery.get(key);
+            if (existing != null) {
+                synchronized (existing) {
+                    if (!existing.done.get()) {
+                        if (!existing.senders.contains(senderId)) {
+                            existing.senders.add(senderId);
+                        }
+                        this.coalesced.increment();
+                        return 0;
+                    }
+                }
+                this.byQuery.remove(key, existing);
+                continue;
+            }
+            
+            final PendingRequest request = new PendingRequest(this.nextRequestId(), serverName, senderId, null, key, description, this.tick + this.timeoutTicks);
+            if (this.byQuery.putIfAbsent(key, request) != null) {
+                continue;
+            }
+            this.byId.put(request.requestId, request);
+            this.schedule(request);
+            return request.requestId;
+        }
+    }
+    
+    /**
+     * Registers a single request that cannot carry a request id, and will be
+     * matched by its server, sender and target instead.
+     * 
+     * @param serverName The name of the server the request is sent to.
+     * @param senderId The {@link UUID} of the sender, or {@code null} if the
+     *                 console is the sender.
+     * @param targetId The {@link UUID} of the target.
+     * @param description A description of the target, shown to the sender if
+     *                    the request times out.
+     */
+    public void trackByTarget(@NotNull final String serverName, @Nullable final UUID senderId, @NotNull final UUID targetId, @NotNull final String description) {
+        final String key = this.getTargetKey(serverName, senderId, targetId);
+        final PendingRequest request = new PendingRequest(0, serverName, senderId, key, null, description, this.tick + this.timeoutTicks);
+        this.byTarget.compute(key, (k, queue) -> {
+            final Queue<PendingRequest> requests = queue == null ? new ConcurrentLinkedQueue<PendingRequest>() : queue;
+            requests.add(request);
+            return requests;
+        });
+        this.schedule(request);
+    }
+    
+    /**
+     * Gets the future that is completed once the request with the given id
+     * is answered, or completed exceptionally with a
+     * {@link TimeoutException} once it times out.
+     * 
+     * @param requestId The request id.
+     * @return The {@link CompletableFuture}, already completed if the
+     *         request is no longer pending.
+     * @see #getResult(int)
+     */
+    @NotNull
+    public CompletableFuture<Void> getCompletion(final int requestId) {
+        final PendingRequest request = this.byId.get(requestId);
+        return request == null ? CompletableFuture.completedFuture(null) : request.completion.thenApply(result -> null);
+    }
+    
+    /**
+     * Gets the future that is completed with the result that the request
+     * with the given id was answered with, or completed exceptionally with a
+     * {@link TimeoutException} once it times out.
+     * 
+     * @param requestId The request id.
+     * @return The {@link CompletableFuture}, completed with the result given
+     *         to {@link #complete(int, Integer)}, or with {@code null} if the
+     *         request was answered without one, or is no longer pending.
+     */
+    @NotNull
+    public CompletableFuture<Integer> getResult(final int requestId) {
+        final PendingRequest request = this.byId.get(requestId);
+        return request == null ? CompletableFuture.completedFuture(null) : request.completion;
+    }
+    
+    /**
+     * Gets the future of the in-flight request that identical requests for
+     * the given target are coalesced with.
+     * 
+     * @param serverName The name of the server the request was sent to.
+     * @param targetId The {@link UUID} of the target.
+     * @param regions {@code true} if the WorldGuard regions were requested,
+     *                {@code false} otherwise.
+     * @return The {@link CompletableFuture}, already completed if there is no
+     *         such request pending.
+     * @see #getCompletion(int)
+     */
+    @NotNull
+    public CompletableFuture<Void> getCompletion(@NotNull final String serverName, @NotNull final UUID targetId, final boolean regions) {
+        final PendingRequest request = this.byQuery.get(this.getQueryKey(serverName, targetId, regions));
+        return request == null ? CompletableFuture.completedFuture(null) : request.completion.thenApply(result -> null);
+    }
+    
+    /**
+     * Marks the request with the given id as answered.
+     * 
+     * @param requestId The request id from the response.
+     * @return The {@link UUID UUIDs} of the senders waiting on the request,
+     *         with {@code null} for the console, or {@code null} if the
+     *         response is late or a duplicate, and should be dropped.
+     */
+    @Nullable
+    public List<UUID> complete(final int requestId) {
+        return this.complete(requestId, null);
+    }
+    
+    /**
+     * Marks the request with the given id as answered with the given result,
+     * which completes the future returned by {@link #getResult(int)}.
+     * 
+     * @param requestId The request id from the response.
+     * @param result The result of the request, such as the number of players
+     *               found, or {@code null} if it has none.
+     * @return The {@link UUID UUIDs} of the senders waiting on the request,
+     *         with {@code null} for the console, or {@code null} if the
+     *         response is late or a duplicate, and should be dropped.
+     */
+    @Nullable
+    public List<UUID> complete(final int requestId, @Nullable final Integer result) {
+        final PendingRequest request = this.byId.remove(requestId);
+        return this.finish(request, result);
+    }
+    
+    /**
+     * Marks a single page of the list request with the given id as answered.
+     * The request is only completed once every page has arrived.
+     * 
+     * @param requestId The request id from the page.
+     * @param page The number of the page, starting at {@code 1}.
+     * @param pages The total number of pages.
+     * @return {@code true} if the page was expected, {@code false} if it is
+     *         late or a duplicate, and should be dropped.
+     */
+    public boolean completePage(final int requestId, final int page, final int pages) {
+        
+        final PendingRequest request = this.byId.get(requestId);
+        if (request == null || page < 1 || page > pages) {
+            this.dropped.increment();
+            return false;
+        }
+        
+        synchronized (request) {
+            if (request.pages.get(page)) {
+                this.dropped.increment();
+                return false;
+            }
+            request.pages.set(page);
+            if (request.pages.cardinality() < pages) {
+                return !request.done.get();
+            }
+        }
+        
+        this.byId.remove(requestId, request);
+        return this.finish(request, null) != null;
+    }
+    
+    /**
+     * Marks the oldest pending request without an id for the given server,
+     * sender and target as answered.
+     * 
+     * @param serverName The name of the server that sent the response.
+     * @param senderId The {@link UUID} of the sender, or {@code null} if the
+     *                 console is the sender.
+     * @param targetId The {@link UUID} of the target.
+     * @return The {@link UUID UUIDs} of the senders waiting on the request,
+     *         with {@code null} for the console, or {@code null} if the
+     *         response is late or a duplicate, and should be dropped.
+     */
+    @Nullable
+    public List<UUID> completeByTarget(@NotNull final String serverName, @Nullable final UUID senderId, @NotNull final UUID targetId) {
+        
+        final String key = this.getTargetKey(serverName, senderId, targetId);
+        final Queue<PendingRequest> queue = this.byTarget.get(key);
+        List<UUID> senders = null;
+        if (queue != null) {
+            PendingRequest request;
+            while (senders == null && (request = queue.poll()) != null) {
+                senders = request.close();
+                if (senders != null) {
+                    this.metrics.recordRoundTrip(request.serverName, request.sent);
+                    request.completion.complete(null);
+                }
+            }
+            this.removeIfEmpty(key);
+        }
+        
+        if (senders == null) {
+            this.dropped.increment();
+        } else {
+            this.completed.increment();
+        }
+        return senders;
+    }
+    
+    /**
+     * Advances the timer wheel by one tick, timing out every request in the
+     * current slot whose deadline has passed.
+     */
+    @Override
+    public void run() {
+        
+        final long now = ++this.tick;
+        final Queue<PendingRequest> slot = this.wheel[(int) (now & (WHEEL_SIZE - 1))];
+        final int size = slot.size();
+        for (int index = 0; index < size; index++) {
+            final PendingRequest request = slot.poll();
+            if (request == null) {
+                break;
+            }
+            if (request.done.get()) {
+                continue;
+            }
+            if (request.deadline > now) {
+                slot.add(request);
+                continue;
+            }
+            this.expire(request);
+        }
+    }
+    
+    /**
+     * Gets the number of requests that are still waiting for a response.
+     * 
+     * @return The number of in-flight requests.
+     */
+    public int getInFlight() {
+        int count = this.byId.size();
+        for (final Queue<PendingRequest> queue : this.byTarget.values()) {
+            count += queue.size();
+        }
+        return count;
+    }
+    
+    /**
+     * Gets the number of requests that are still waiting for a response, by
+     * server.
+     * 
+     * @return The number of in-flight requests for each server with any.
+     */
+    @NotNull
+    public Map<String, Integer> getInFlightByServer() {
+        final Map<String, Integer> counts = new TreeMap<String, Integer>();
+        for (final PendingRequest request : this.byId.values()) {
+            counts.merge(request.serverName, 1, Integer::sum);
+        }
+        for (final Queue<PendingRequest> queue : this.byTarget.values()) {
+            for (final PendingRequest request : queue) {
+                counts.merge(request.serverName, 1, Integer::sum);
+            }
+        }
+        return counts;
+    }
+    
+    /**
+     * Gets the number of requests that were answered in time.
+     * 
+     * @return The number of completed requests.
+     */
+    public long getCompleted() {
+        return this.completed.sum();
+    }
+    
+    /**
+     * Gets the number of requests that timed out.
+     * 
+     * @return The number of timed out requests.
+     */
+    public long getTimedOut() {
+        return this.timedOut.sum();
+    }
+    
+    /**
+     * Gets the number of responses that were dropped for being late or
+     * duplicates.
+     * 
+     * @return The number of dropped responses.
+     */
+    public long getDropped() {
+        return this.dropped.sum();
+    }
+    
+    /**
+     * Gets the number of requests that were not sent, because the sender
+     * was added to an identical request that was already in flight.
+     * 
+     * @return The number of coalesced requests.
+     */
+    public long getCoalesced() {
+        return this.coalesced.sum();
+    }
+    
+    /**
+     * Adds the given request to the slot of the timer wheel for its
+     * deadline.
+     * 
+     * @param request The {@link PendingRequest} to schedule.
+     */
+    private void schedule(@NotNull final PendingRequest request) {
+        this.wheel[(int) (request.deadline & (WHEEL_SIZE - 1))].add(request);
+    }
+    
+    /**
+     * Marks the given request as answered.
+     * 
+     * @param request The {@link PendingRequest}, or {@code null} if it was
+     *                not found.
+     * @param result The result to complete the future of the request with,
+     *               or {@code null} if it has none.
+     * @return The {@link UUID UUIDs} of the senders waiting on the request,
+     *         or {@code null} if it was no longer pending.
+     */
+    @Nullable
+    private List<UUID> finish(@Nullable final PendingRequest request, @Nullable final Integer result) {
+        
+        final List<UUID> senders = request == null ? null : request.close();
+        if (senders == null) {
+            this.dropped.increment();
+            return null;
+        }
+        
+        if (request.queryKey != null) {
+            this.byQuery.remove(request.queryKey, request);
+        }
+        this.completed.increment();
+        this.metrics.recordRoundTrip(request.serverName, request.sent);
+        request.completion.complete(result);
+        return senders;
+    }
+    
+    /**
+     * Times out the given request, telling the sender that it was not
+     * answered, and renegotiating the protocol with the server in case it
+     * was restarted with a different version of the Bukkit plugin.
+     * 
+     * @param request The {@link PendingRequest} that timed out.
+     */
+    private void expire(@NotNull final PendingRequest request) {
+        
+        final List<UUID> senders = request.close();
+        if (senders == null) {
+            return;
+        }
+        if (request.queryKey != null) {
+            this.byQuery.remove(request.queryKey, request);
+        }
+        if (request.targetKey == null) {
+            this.byId.remove(request.requestId, request);
+        } else {
+            final Queue<PendingRequest> queue = this.byTarget.get(request.targetKey);
+            if (queue != null) {
+                queue.remove(request);
+                this.removeIfEmpty(request.targetKey);
+            }
+        }
+        
+        this.timedOut.increment();
+        request.completion.completeExceptionally(new TimeoutException("Location request for " + request.description + " on server " + request.serverName + " timed out."));
+        this.protocols.reset(request.serverName);
+        this.logger.log(Level.INFO, "Location request for " + request.description + " on server " + request.serverName + " timed out.");
+        
+        final ComponentBuilder builder = new ComponentBuilder("The location request for ").color(ChatColor.RED);
+        builder.append(request.description).color(ChatColor.GOLD);
+        builder.append(" on ").color(ChatColor.RED);
+        builder.append(request.serverName).color(ChatColor.GOLD);
+        builder.append(" timed out after " + TimeUnit.MILLISECONDS.toSeconds(this.timeoutTicks * TICK_MILLIS) + " second(s).").color(ChatColor.RED);
+        final BaseComponent[] timeoutMessage = builder.create();
+        
+        for (final UUID senderId : senders) {
+            final CommandSender sender = senderId == null ? this.proxy.getConsole() : this.proxy.getPlayer(senderId);
+            if (sender != null) {
+                sender.sendMessage(timeoutMessage);
+            }
+        }
+    }
+    
+    /**
+     * Gets the next request id.
+     * 
+     * @return The request id, never {@code 0} or the id of a request that is
+     *         still pending.
+     */
+    private int nextRequestId() {
+        int requestId;
+        do {
+            requestId = this.nextId.incrementAndGet();
+        } while (requestId == 0 || this.byId.containsKey(requestId));
+        return requestId;
+    }
+    
+    /**
+     * Gets the key used to coalesce identical requests.
+     * 
+     * @param serverName The name of the server the request is sent to.
+     * @param targetId The {@link UUID} of the target.
+     * @param regions {@code true} if the WorldGuard regions are requested,
+     *                {@code false} otherwise.
+     * @return The key.
+     */
+    @NotNull
+    private String getQueryKey(@NotNull final String serverName, @NotNull final UUID targetId, final boolean regions) {
+        return serverName + LocationConstants.SEPARATOR + targetId + LocationConstants.SEPARATOR + regions;
+    }
+    
+    /**
+     * Removes the queue of requests for the given target key if it is empty.
+     * 
+     * @param key The target key.
+     */
+    private void removeIfEmpty(@NotNull final String key) {
+        this.byTarget.computeIfPresent(key, (k, queue) -> queue.isEmpty() ? null : queue);
+    }
+    
+    /**
+     * Gets the key used to match a request without an id to its response.
+     * 
+     * @param serverName The name of the server.
+     * @param senderId The {@link UUID} of the sender, or {@code null} if the
+     *                 console is the sender.
+     * @param targetId The {@link UUID} of the target.
+     * @return The key.
+     */
+    @NotNull
+    private String getTargetKey(@NotNull final String serverName, @Nullable final UUID senderId, @NotNull final UUID targetId) {
+        return serverName + LocationConstants.SEPARATOR + senderId + LocationConstants.SEPARATOR + targetId;
+    }
+    
+    /**
+     * Represents a single request that has not been answered yet.
+     */
+    private static final class PendingRequest {
+        
+        private final int requestId;
+        private final String serverName;
+        private final String targetKey;
+        private final String queryKey;
+        private final String description;
+        private final long deadline;
+        private final long sent;
+        private final AtomicBoolean done;
+        private final CompletableFuture<Integer> completion;
+        private final List<UUID> senders;
+        private final BitSet pages;
+        
+        /**
+         * Constructs a new {@link PendingRequest}.
+         * 
+         * @param requestId The request id, or {@code 0} if it is matched by
+         *                  target.
+         * @param serverName The name of the server the request was sent to.
+         * @param senderId The {@link UUID} of the sender, or {@code null} if
+         *                 the console is the sender.
+         * @param targetKey The key used to match the request by target, or
+         *                  {@code null} if it has a request id.
+         * @param queryKey The key used to coalesce identical requests, or
+         *                 {@code null} if the request is not coalesced.
+         * @param description A description of the target(s).
+         * @param deadline The tick of the timer wheel at which the request
+         *                 times out.
+         */
+        private PendingRequest(final int requestId, @NotNull final String serverName, @Nullable final UUID senderId, @Nullable final String targetKey, @Nullable final String queryKey, @NotNull final String description, final long deadline) {
+            this.requestId = requestId;
+            this.serverName = serverName;
+            this.targetKey = targetKey;
+            this.queryKey = queryKey;
+            this.description = description;
+            this.deadline = deadline;
+            this.sent = System.nanoTime();
+            this.done = new AtomicBoolean(false);
+            this.completion = new CompletableFuture<Integer>();
+            this.senders = new ArrayList<UUID>(1);
+            this.senders.add(senderId);
+            this.pages = new BitSet();
+        }
+        
+        /**
+         * Marks this request as done, so that no more senders may be added
+         * to it.
+         * 
+         * @return The {@link UUID UUIDs} of the senders waiting on this
+         *         request, or {@code null} if it was already done.
+         */
+        @Nullable
+        private synchronized List<UUID> close() {
+            if (!this.done.compareAndSet(false, true)) {
+                return null;
+            }
+            return new ArrayList<UUID>(this.senders);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.bungeecord;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import net.md_5.bungee.api.ProxyServer;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import net.md_5.bungee.api.event.PlayerDisconnectEvent;
+import net.md_5.bungee.api.event.PostLoginEvent;
+import net.md_5.bungee.api.plugin.Listener;
+import net.md_5.bungee.event.EventHandler;
+import net.md_5.bungee.event.EventPriority;
+import org.cubeville.cvplayerdata.PlayerDataManager;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Indexes the real and visible names of the online
+ * {@link ProxiedPlayer ProxiedPlayers} by their lower-case form, so that
+ * names can be tab-completed by prefix without walking every
+ * {@link ProxiedPlayer}.
+ * <p>
+ * Players are added when they log in and removed when they disconnect. As
+ * there is no event for a changed visible name, the visible names of all
+ * online players are also refreshed periodically by running this index.
+ * The result of {@link PlayerDataManager#outranks(UUID, UUID)} is cached for
+ * each sender and target, and cleared on every refresh, so that rank
+ * changes are picked up as well.
+ */
+public final class PlayerNameIndex implements Listener, Runnable {
+    
+    private final ProxyServer proxy;
+    private final PlayerDataManager playerDataManager;
+    
+    private final ConcurrentNavigableMap<String, IndexedName> names;
+    private final ConcurrentMap<UUID, List<String>> keysById;
+    private final ConcurrentMap<UUID, ConcurrentMap<UUID, Boolean>> outranks;
+    
+    /**
+     * Constructs a new {@link PlayerNameIndex}, indexing the
+     * {@link ProxiedPlayer ProxiedPlayers} that are already online.
+     * 
+     * @param proxy The BungeeCord {@link ProxyServer}.
+     * @param playerDataManager The {@link PlayerDataManager}, used to look up
+     *                          the visible names and ranks.
+     */
+    public PlayerNameIndex(@NotNull final ProxyServer proxy, @NotNull final PlayerDataManager playerDataManager) {
+        this.proxy = proxy;
+        this.playerDataManager = playerDataManager;
+        
+        this.names = new ConcurrentSkipListMap<String, IndexedName>();
+        this.keysById = new ConcurrentHashMap<UUID, List<String>>();
+        this.outranks = new ConcurrentHashMap<UUID, ConcurrentMap<UUID, Boolean>>();
+        
+        this.run();
+    }
+    
+    /**
+     * Gets the indexed names that start with the given prefix, ignoring
+     * case, in alphabetical order.
+     * 
+     * @param prefix The prefix to complete.
+     * @param senderId The {@link UUID} of a sender that may only see the
+     *                 players they outrank, or {@code null} if all players
+     *                 may be completed.
+     * @return The matching names.
+     */
+    @NotNull
+    public List<String> complete(@NotNull final String prefix, @Nullable final UUID senderId) {
+        
+        final String from = prefix.toLowerCase(Locale.ROOT);
+        final ConcurrentNavigableMap<String, IndexedName> matches = this.names.subMap(from, true, from + Character.MAX_VALUE, false);
+        if (matches.isEmpty()) {
+            return Collections.emptyList();
+        }
+        
+        final List<String> completions = new ArrayList<String>();
+        for (final IndexedName name : matches.values()) {
+            if (senderId == null || this.outranks(senderId, name.playerId)) {
+                completions.add(name.name);
+            }
+        }
+        return completions;
+    }
+    
+    /**
+     * Re-indexes the names of every online {@link ProxiedPlayer}, picking up
+     * changed visible names, and clears the cached ranks.
+     * <p>
+     * Players that are indexed but no longer online, such as when a
+     * disconnect was missed, are removed from the index.
+     */
+    @Override
+    public void run() {
+        
+        this.outranks.clear();
+        final Set<UUID> online = new HashSet<UUID>();
+        for (final ProxiedPlayer player : this.proxy.getPlayers()) {
+            online.add(player.getUniqueId());
+            this.add(player.getUniqueId(), player.getName());
+        }
+        
+        for (final UUID playerId : this.keysById.keySet()) {
+            if (!online.contains(playerId) && this.proxy.getPlayer(playerId) == null) {
+                this.remove(playerId);
+            }
+        }
+    }
+    
+    /**
+     * Indexes a {@link ProxiedPlayer} when they log in.
+     * 
+     * @param event The {@link PostLoginEvent}.
+     */
+    @EventHandler(priority = EventPriority.HIGHEST)
+    public void onPostLogin(@NotNull final PostLoginEvent event) {
+        final ProxiedPlayer player = event.getPlayer();
+        this.add(player.getUniqueId(), player.getName());
+    }
+    
+    /**
+     * Removes a {@link ProxiedPlayer} from the index when they disconnect.
+     * 
+     * @param event The {@link PlayerDisconnectEvent}.
+     */
+    @EventHandler(priority = EventPriority.HIGHEST)
+    public void onPlayerDisconnect(@NotNull final PlayerDisconnectEvent event) {
+        final UUID playerId = event.getPlayer().getUniqueId();
+        this.remove(playerId);
+        this.outranks.remove(playerId);
+        for (final ConcurrentMap<UUID, Boolean> targets : this.outranks.values()) {
+            targets.remove(playerId);
+        }
+    }
+    
+    /**
+     * Indexes the real and visible name of a player, replacing any names
+     * indexed for them before.
+     * 
+     * @param playerId The {@link UUID} of the player.
+     * @param name The real name of the player.
+     */
+    private void add(@NotNull final UUID playerId, @NotNull final String name) {
+        
+        final String visibleName = this.playerDataManager.getPlayerVisibleName(playerId);
+        final List<String> keys = new ArrayList<String>(2);
+        keys.add(this.getKey(name, playerId));
+        if (visibleName != null && !visibleName.equalsIgnoreCase(name)) {
+            keys.add(this.getKey(visibleName, playerId));
+        }
+        
+        final List<String> previous = this.keysById.put(playerId, keys);
+        if (previous != null) {
+            for (final String key : previous) {
+                if (!keys.contains(key)) {
+                    this.names.remove(key);
+                }
+            }
+        }
+        this.names.put(keys.get(0), new IndexedName(name, playerId));
+        if (keys.size() > 1) {
+            this.names.put(keys.get(1), new IndexedName(visibleName, playerId));
+        }
+    }
+    
+    /**
+     * Removes the names indexed for a player.
+     * 
+     * @param playerId The {@link UUID} of the player.
+     */
+    private void remove(@NotNull final UUID playerId) {
+        final List<String> keys = this.keysById.remove(playerId);
+        if (keys != null) {
+            for (final String key : keys) {
+                this.names.remove(key);
+            }
+        }
+    }
+    
+    /**
+     * Checks if the given sender outranks the given target, caching the
+     * answer until the next refresh.
+     * 
+     * @param senderId The {@link UUID} of the sender.
+     * @param targetId The {@link UUID} of the target.
+     * @return {@code true} if the sender may see the target, {@code false}
+     *         otherwise.
+     */
+    private boolean outranks(@NotNull final UUID senderId, @NotNull final UUID targetId) {
+        return this.outranks.computeIfAbsent(senderId, id -> new ConcurrentHashMap<UUID, Boolean>()).computeIfAbsent(targetId, id -> this.playerDataManager.outranks(senderId, targetId));
+    }
+    
+    /**
+     * Gets the key of a name in the index. Names are unique per player, but
+     * not across players, so the {@link UUID} of the player is appended.
+     * 
+     * @param name The name.
+     * @param playerId The {@link UUID} of the player.
+     * @return The key.
+     */
+    @NotNull
+    private String getKey(@NotNull final String name, @NotNull final UUID playerId) {
+        return name.toLowerCase(Locale.ROOT) + '\u0000' + playerId;
+    }
+    
+    /**
+     * Represents an indexed name, in its original case, and the player it
+     * belongs to.
+     */
+    private static final class IndexedName {
+        
+        private final String name;
+        private final UUID playerId;
+        
+        /**
+         * Constructs a new {@link IndexedName}.
+         * 
+         * @param name The name, in its original case.
+         * @param playerId The {@link UUID} of the player.
+         */
+        private IndexedName(@NotNull final String name, @NotNull final UUID playerId) {
+            this.name = name;
+            this.playerId = playerId;
+        }
+    }
+}
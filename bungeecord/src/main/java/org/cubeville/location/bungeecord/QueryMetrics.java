@@ -0,0 +1,188 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.bungeecord;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.bspfsystems.bungeelocation.core.LatencyHistogram;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.UnmodifiableView;
+
+/**
+ * Records how long each stage of answering a {@code /where} takes on the
+ * proxy, in a {@link LatencyHistogram} per {@link Stage}, and the round trip
+ * to each server in a {@link LatencyHistogram} per server.
+ * <p>
+ * Recording is lock-free and does not allocate (other than the first time a
+ * server is seen), so it is done for every request. The histograms are
+ * reported by {@code /whereadmin metrics}, and logged periodically by
+ * running this {@link QueryMetrics}.
+ */
+public final class QueryMetrics implements Runnable {
+    
+    /**
+     * The stages of answering a {@code /where} on the proxy.
+     */
+    public enum Stage {
+        
+        /**
+         * The whole {@code /where} command, from its execution until every
+         * response has been shown (or has timed out).
+         */
+        COMMAND("Command"),
+        
+        /**
+         * Handing a request to the IPC plugin.
+         */
+        SEND("IPC send"),
+        
+        /**
+         * The time from sending a request until its response arrives, across
+         * all servers.
+         */
+        ROUND_TRIP("Round trip"),
+        
+        /**
+         * Handling a response, from decoding it until it has been shown to
+         * every sender.
+         */
+        RESPONSE("Response"),
+        
+        /**
+         * Rendering a single location and sending it to its senders.
+         */
+        RENDER("Render");
+        
+        private final String name;
+        
+        /**
+         * Constructs a new {@link Stage}.
+         * 
+         * @param name The display name of the {@link Stage}.
+         */
+        Stage(@NotNull final String name) {
+            this.name = name;
+        }
+        
+        /**
+         * Gets the display name of this {@link Stage}.
+         * 
+         * @return The display name.
+         */
+        @NotNull
+        public String getName() {
+            return this.name;
+        }
+    }
+    
+    private static final Stage[] STAGES = Stage.values();
+    
+    private final Logger logger;
+    private final LatencyHistogram[] stages;
+    private final ConcurrentMap<String, LatencyHistogram> roundTrips;
+    
+    /**
+     * Constructs a new, empty set of {@link QueryMetrics}.
+     * 
+     * @param logger The {@link Logger} to log the periodic reports to.
+     */
+    public QueryMetrics(@NotNull final Logger logger) {
+        this.logger = logger;
+        this.stages = new LatencyHistogram[STAGES.length];
+        for (int index = 0; index < STAGES.length; index++) {
+            this.stages[index] = new LatencyHistogram();
+        }
+        this.roundTrips = new ConcurrentHashMap<String, LatencyHistogram>();
+    }
+    
+    /**
+     * Records the time elapsed since the given start time for the given
+     * {@link Stage}.
+     * 
+     * @param stage The {@link Stage}.
+     * @param startNanos The start time, as returned by
+     *                   {@link System#nanoTime()}.
+     */
+    public void record(@NotNull final Stage stage, final long startNanos) {
+        this.stages[stage.ordinal()].recordSince(startNanos);
+    }
+    
+    /**
+     * Records the round trip of a request to the given server, both for the
+     * server and across all servers.
+     * 
+     * @param serverName The name of the server the request was sent to.
+     * @param startNanos The time the request was sent, as returned by
+     *                   {@link System#nanoTime()}.
+     */
+    public void recordRoundTrip(@NotNull final String serverName, final long startNanos) {
+        final long elapsed = System.nanoTime() - startNanos;
+        this.stages[Stage.ROUND_TRIP.ordinal()].record(elapsed);
+        this.roundTrips.computeIfAbsent(serverName, name -> new LatencyHistogram()).record(elapsed);
+    }
+    
+    /**
+     * Gets the {@link LatencyHistogram} of the given {@link Stage}.
+     * 
+     * @param stage The {@link Stage}.
+     * @return The {@link LatencyHistogram}.
+     */
+    @NotNull
+    public LatencyHistogram getHistogram(@NotNull final Stage stage) {
+        return this.stages[stage.ordinal()];
+    }
+    
+    /**
+     * Gets the round trip {@link LatencyHistogram} of every server that has
+     * answered a request, by server name.
+     * 
+     * @return The {@link LatencyHistogram LatencyHistograms}, in order of
+     *         their server names.
+     */
+    @NotNull
+    @UnmodifiableView
+    public Map<String, LatencyHistogram> getRoundTrips() {
+        return Collections.unmodifiableMap(new TreeMap<String, LatencyHistogram>(this.roundTrips));
+    }
+    
+    /**
+     * Logs a report of every {@link Stage} and server that has recorded
+     * anything so far.
+     */
+    @Override
+    public void run() {
+        for (final Stage stage : STAGES) {
+            final LatencyHistogram histogram = this.getHistogram(stage);
+            if (histogram.getCount() > 0L) {
+                this.logger.log(Level.INFO, "Metrics: " + stage.getName() + ": " + histogram.format());
+            }
+        }
+        for (final Map.Entry<String, LatencyHistogram> entry : this.getRoundTrips().entrySet()) {
+            this.logger.log(Level.INFO, "Metrics: Round trip to " + entry.getKey() + ": " + entry.getValue().format());
+        }
+    }
+}
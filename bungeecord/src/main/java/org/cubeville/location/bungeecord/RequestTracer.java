@@ -0,0 +1,241 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.bungeecord;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bspfsystems.bungeelocation.core.LocationTrace;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.UnmodifiableView;
+
+/**
+ * Samples 1 in every N single location requests to be traced, and keeps the
+ * most recent {@link Trace Traces} in a bounded ring, so that they can be
+ * dumped by {@code /whereadmin traces}.
+ * <p>
+ * A traced request carries the time it was dispatched by the proxy, and the
+ * response carries the time spent on the server, as a {@link LocationTrace}.
+ * Together with the time the response was received, this splits the round
+ * trip into the IPC transport, the wait for the main server thread, and the
+ * WorldGuard region lookup.
+ */
+public final class RequestTracer {
+    
+    private final int sampleRate;
+    private final AtomicLong requests;
+    private final Trace[] ring;
+    private int next;
+    private int size;
+    
+    /**
+     * Constructs a new {@link RequestTracer}.
+     * 
+     * @param sampleRate The number of requests for each one that is traced,
+     *                   or {@code 0} to trace none.
+     * @param capacity The number of {@link Trace Traces} to keep.
+     */
+    public RequestTracer(final int sampleRate, final int capacity) {
+        this.sampleRate = Math.max(0, sampleRate);
+        this.requests = new AtomicLong(0L);
+        this.ring = new Trace[Math.max(1, capacity)];
+        this.next = 0;
+        this.size = 0;
+    }
+    
+    /**
+     * Checks if the next request should be traced.
+     * 
+     * @return {@code true} if the request should be traced, {@code false}
+     *         otherwise.
+     */
+    public boolean sample() {
+        return this.sampleRate > 0 && this.requests.getAndIncrement() % this.sampleRate == 0L;
+    }
+    
+    /**
+     * Records the {@link LocationTrace} of an answered request.
+     * 
+     * @param serverName The name of the server that answered the request.
+     * @param targetName The name of the target of the request.
+     * @param trace The {@link LocationTrace} sent back with the response.
+     * @param received The time the response was received, as returned by
+     *                 {@link System#nanoTime()}.
+     */
+    public void record(@NotNull final String serverName, @NotNull final String targetName, @NotNull final LocationTrace trace, final long received) {
+        final Trace entry = new Trace(System.currentTimeMillis(), serverName, targetName, received - trace.getDispatched(), trace, System.nanoTime() - received);
+        synchronized (this.ring) {
+            this.ring[this.next] = entry;
+            this.next = (this.next + 1) % this.ring.length;
+            this.size = Math.min(this.size + 1, this.ring.length);
+        }
+    }
+    
+    /**
+     * Gets the recorded {@link Trace Traces}.
+     * 
+     * @return The {@link Trace Traces}, most recent first.
+     */
+    @NotNull
+    @UnmodifiableView
+    public List<Trace> getTraces() {
+        final List<Trace> traces;
+        synchronized (this.ring) {
+            traces = new ArrayList<Trace>(this.size);
+            for (int count = 1; count <= this.size; count++) {
+                traces.add(this.ring[(this.next - count + this.ring.length) % this.ring.length]);
+            }
+        }
+        return Collections.unmodifiableList(traces);
+    }
+    
+    /**
+     * Gets the number of requests for each one that is traced.
+     * 
+     * @return The sample rate, or {@code 0} if tracing is disabled.
+     */
+    public int getSampleRate() {
+        return this.sampleRate;
+    }
+    
+    /**
+     * Represents a single traced request, with the time spent at each hop.
+     */
+    public static final class Trace {
+        
+        private final long timestamp;
+        private final String serverName;
+        private final String targetName;
+        private final long roundTrip;
+        private final LocationTrace trace;
+        private final long rendered;
+        
+        /**
+         * Constructs a new {@link Trace}.
+         * 
+         * @param timestamp The time the response was received, in
+         *                  milliseconds since the epoch.
+         * @param serverName The name of the server that answered.
+         * @param targetName The name of the target.
+         * @param roundTrip The time, in nanoseconds, from dispatching the
+         *                  request until receiving the response.
+         * @param trace The {@link LocationTrace} sent back by the server.
+         * @param rendered The time, in nanoseconds, from receiving the
+         *                 response until it was shown.
+         */
+        private Trace(final long timestamp, @NotNull final String serverName, @NotNull final String targetName, final long roundTrip, @NotNull final LocationTrace trace, final long rendered) {
+            this.timestamp = timestamp;
+            this.serverName = serverName;
+            this.targetName = targetName;
+            this.roundTrip = roundTrip;
+            this.trace = trace;
+            this.rendered = rendered;
+        }
+        
+        /**
+         * Gets the time the response was received.
+         * 
+         * @return The time, in milliseconds since the epoch.
+         */
+        public long getTimestamp() {
+            return this.timestamp;
+        }
+        
+        /**
+         * Gets the name of the server that answered.
+         * 
+         * @return The server name.
+         */
+        @NotNull
+        public String getServerName() {
+            return this.serverName;
+        }
+        
+        /**
+         * Gets the name of the target.
+         * 
+         * @return The target name.
+         */
+        @NotNull
+        public String getTargetName() {
+            return this.targetName;
+        }
+        
+        /**
+         * Gets the time from dispatching the request until receiving the
+         * response.
+         * 
+         * @return The round trip, in nanoseconds.
+         */
+        public long getRoundTrip() {
+            return this.roundTrip;
+        }
+        
+        /**
+         * Gets the time spent in the IPC transport, in both directions.
+         * 
+         * @return The round trip less the time spent on the server, in
+         *         nanoseconds.
+         */
+        public long getTransport() {
+            return Math.max(0L, this.roundTrip - this.trace.getHandled());
+        }
+        
+        /**
+         * Gets the time the server waited for its main thread.
+         * 
+         * @return The queue time, in nanoseconds.
+         */
+        public long getQueued() {
+            return this.trace.getQueued();
+        }
+        
+        /**
+         * Gets the time the server spent getting the WorldGuard regions.
+         * 
+         * @return The region lookup time, in nanoseconds.
+         */
+        public long getRegions() {
+            return this.trace.getRegions();
+        }
+        
+        /**
+         * Gets the time spent on the server.
+         * 
+         * @return The time from the server receiving the request until it
+         *         replied, in nanoseconds.
+         */
+        public long getHandled() {
+            return this.trace.getHandled();
+        }
+        
+        /**
+         * Gets the time from receiving the response until it was shown.
+         * 
+         * @return The rendering time, in nanoseconds.
+         */
+        public long getRendered() {
+            return this.rendered;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.bungeecord;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import net.md_5.bungee.api.event.PlayerDisconnectEvent;
+import net.md_5.bungee.api.event.ServerSwitchEvent;
+import net.md_5.bungee.api.plugin.Listener;
+import net.md_5.bungee.event.EventHandler;
+import net.md_5.bungee.event.EventPriority;
+import org.bspfsystems.bungeelocation.core.LocationResponse;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Caches the last {@link LocationResponse} for each target and regions flag,
+ * so that a repeat location request within a short window is answered
+ * without a round trip to the Bukkit server.
+ * <p>
+ * The cache is bounded, evicting the least recently used entry once full,
+ * and every entry expires after a short time to live. The entries for a
+ * {@link ProxiedPlayer} are also removed as soon as they switch servers or
+ * disconnect.
+ * <p>
+ * The cache is accessed from both the command and the IPC threads, so all
+ * access to the entries is synchronized.
+ */
+public final class ResponseCache implements Listener {
+    
+    private final Logger logger;
+    private final int maxEntries;
+    private final long timeToLive;
+    private final LinkedHashMap<TargetKey, CachedResponse> entries;
+    
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder invalidations;
+    private final LongAdder servedAge;
+    private final LongAccumulator maxServedAge;
+    
+    /**
+     * Constructs a new {@link ResponseCache}.
+     * 
+     * @param logger The {@link Logger}, used to log the age of each served
+     *               entry.
+     * @param maxEntries The maximum number of responses to cache.
+     * @param timeToLive The time to live of an entry, in milliseconds.
+     */
+    public ResponseCache(@NotNull final Logger logger, final int maxEntries, final long timeToLive) {
+        this.logger = logger;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.timeToLive = TimeUnit.MILLISECONDS.toNanos(timeToLive);
+        this.entries = new LinkedHashMap<TargetKey, CachedResponse>(Math.min(this.maxEntries, 1024) * 2, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<TargetKey, CachedResponse> eldest) {
+                return this.size() > ResponseCache.this.maxEntries;
+            }
+        };
+        
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.invalidations = new LongAdder();
+        this.servedAge = new LongAdder();
+        this.maxServedAge = new LongAccumulator(Math::max, 0L);
+    }
+    
+    /**
+     * Gets the cached {@link LocationResponse} for the given target, if it
+     * came from the server the target is currently connected to.
+     * 
+     * @param serverName The name of the server the target is connected to.
+     * @param targetId The {@link UUID} of the target.
+     * @param regions {@code true} if the WorldGuard regions are requested,
+     *                {@code false} otherwise.
+     * @return The cached {@link LocationResponse}, or {@code null} if there
+     *         is no live entry.
+     */
+    @Nullable
+    public LocationResponse get(@NotNull final String serverName, @NotNull final UUID targetId, final boolean regions) {
+        
+        final TargetKey key = new TargetKey(targetId, regions);
+        final CachedResponse cached;
+        final long age;
+        synchronized (this.entries) {
+            cached = this.entries.get(key);
+            if (cached == null) {
+                this.misses.increment();
+                return null;
+            }
+            age = System.nanoTime() - cached.created;
+            if (age > this.timeToLive || !cached.serverName.equals(serverName)) {
+                this.entries.remove(key);
+                this.misses.increment();
+                return null;
+            }
+        }
+        
+        final long ageMillis = TimeUnit.NANOSECONDS.toMillis(age);
+        this.hits.increment();
+        this.servedAge.add(ageMillis);
+        this.maxServedAge.accumulate(ageMillis);
+        if (this.logger.isLoggable(Level.FINE)) {
+            this.logger.log(Level.FINE, "Served cached location of " + targetId + " on server " + serverName + ", " + ageMillis + " ms old.");
+        }
+        return cached.response;
+    }
+    
+    /**
+     * Caches the given {@link LocationResponse}.
+     * 
+     * @param serverName The name of the server that sent the response.
+     * @param response The {@link LocationResponse} to cache.
+     */
+    public void put(@NotNull final String serverName, @NotNull final LocationResponse response) {
+        final TargetKey key = new TargetKey(response.getTargetId(), response.getRegions() != null);
+        final CachedResponse cached = new CachedResponse(serverName, response, System.nanoTime());
+        synchronized (this.entries) {
+            this.entries.put(key, cached);
+        }
+    }
+    
+    /**
+     * Removes all entries for the given target.
+     * 
+     * @param targetId The {@link UUID} of the target.
+     */
+    public void invalidate(@NotNull final UUID targetId) {
+        synchronized (this.entries) {
+            final Iterator<TargetKey> iterator = this.entries.keySet().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().targetId.equals(targetId)) {
+                    iterator.remove();
+                }
+            }
+        }
+        this.invalidations.increment();
+    }
+    
+    /**
+     * Gets the number of lookups answered from the cache.
+     * 
+     * @return The number of cache hits.
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+    
+    /**
+     * Gets the number of lookups that had to query the Bukkit server.
+     * 
+     * @return The number of cache misses.
+     */
+    public long getMisses() {
+        return this.misses.sum();
+    }
+    
+    /**
+     * Gets the number of times the entries of a target were invalidated.
+     * 
+     * @return The number of invalidations.
+     */
+    public long getInvalidations() {
+        return this.invalidations.sum();
+    }
+    
+    /**
+     * Gets the average age of the entries that were served from the cache.
+     * 
+     * @return The average age, in milliseconds, or {@code 0} if no entries
+     *         were served.
+     */
+    public long getAverageServedAge() {
+        final long hits = this.hits.sum();
+        return hits == 0L ? 0L : this.servedAge.sum() / hits;
+    }
+    
+    /**
+     * Gets the age of the oldest entry that was served from the cache.
+     * 
+     * @return The maximum age, in milliseconds.
+     */
+    public long getMaxServedAge() {
+        return this.maxServedAge.get();
+    }
+    
+    /**
+     * Gets the number of cached responses.
+     * 
+     * @return The number of entries.
+     */
+    public int size() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+    
+    /**
+     * Removes the entries of a {@link ProxiedPlayer} when they switch
+     * servers.
+     * 
+     * @param event The {@link ServerSwitchEvent}.
+     */
+    @EventHandler(priority = EventPriority.HIGHEST)
+    public void onServerSwitch(@NotNull final ServerSwitchEvent event) {
+        this.invalidate(event.getPlayer().getUniqueId());
+    }
+    
+    /**
+     * Removes the entries of a {@link ProxiedPlayer} when they disconnect.
+     * 
+     * @param event The {@link PlayerDisconnectEvent}.
+     */
+    @EventHandler(priority = EventPriority.HIGHEST)
+    public void onPlayerDisconnect(@NotNull final PlayerDisconnectEvent event) {
+        this.invalidate(event.getPlayer().getUniqueId());
+    }
+    
+    /**
+     * Represents a target and whether the WorldGuard regions were requested.
+     */
+    private static final class TargetKey {
+        
+        private final UUID targetId;
+        private final boolean regions;
+        
+        /**
+         * Constructs a new {@link TargetKey}.
+         * 
+         * @param targetId The {@link UUID} of the target.
+         * @param regions {@code true} if the WorldGuard regions were
+         *                requested, {@code false} otherwise.
+         */
+        private TargetKey(@NotNull final UUID targetId, final boolean regions) {
+            this.targetId = targetId;
+            this.regions = regions;
+        }
+        
+        @Override
+        public boolean equals(@Nullable final Object object) {
+            if (this == object) {
+                return true;
+            }
+            if (!(object instanceof TargetKey)) {
+                return false;
+            }
+            final TargetKey other = (TargetKey) object;
+            return this.regions == other.regions && this.targetId.equals(other.targetId);
+        }
+        
+        @Override
+        public int hashCode() {
+            return 31 * this.targetId.hashCode() + (this.regions ? 1 : 0);
+        }
+    }
+    
+    /**
+     * Represents a cached {@link LocationResponse}, the server it came from,
+     * and the time it was created.
+     */
+    private static final class CachedResponse {
+        
+        private final String serverName;
+        private final LocationResponse response;
+        private final long created;
+        
+        /**
+         * Constructs a new {@link CachedResponse}.
+         * 
+         * @param serverName The name of the server that sent the response.
+         * @param response The cached {@link LocationResponse}.
+         * @param created The {@link System#nanoTime()} it was created at.
+         */
+        private CachedResponse(@NotNull final String serverName, @NotNull final LocationResponse response, final long created) {
+            this.serverName = serverName;
+            this.response = response;
+            this.created = created;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.bungeecord;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.md_5.bungee.api.event.ServerSwitchEvent;
+import net.md_5.bungee.api.plugin.Listener;
+import net.md_5.bungee.event.EventHandler;
+import org.bspfsystems.bungeelocation.core.LocationConstants;
+import org.cubeville.cvipc.CVIPC;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Keeps track of the protocol version negotiated with the Bukkit plugin on
+ * each server of the network.
+ * <p>
+ * The version of a server is unknown until it has been probed with a hello
+ * message. Servers running a newer Bukkit plugin answer with the version
+ * they support (and also announce it on their own when they start up),
+ * while older ones simply ignore it. A server that does not answer within
+ * {@value #HELLO_TIMEOUT_MILLIS} milliseconds is known to be on
+ * {@link LocationConstants#PROTOCOL_TEXT}, which every version of the Bukkit
+ * plugin understands, until it is probed again
+ * {@value #SILENT_RETRY_MILLIS} milliseconds later.
+ * <p>
+ * Servers are probed when a player connects to them, and commands that
+ * depend on the version of a server wait for {@link #probe(String)}, so that
+ * a server that was not probed yet, or was reset after a timeout, is not
+ * mistaken for one running an older Bukkit plugin.
+ * <p>
+ * A hello message that was not sent in answer to one of ours means that the
+ * Bukkit plugin has (re)started, so it is answered with our own, letting the
+ * Bukkit plugin know which protocol version the proxy supports.
+ */
+public final class ServerProtocols implements Listener {
+    
+    /**
+     * The time to wait for the answer to a hello message, in milliseconds.
+     */
+    public static final long HELLO_TIMEOUT_MILLIS = 1000L;
+    
+    /**
+     * The time after which a server that did not answer a hello message is
+     * probed again, in milliseconds.
+     */
+    public static final long SILENT_RETRY_MILLIS = 60000L;
+    
+    private final CVIPC ipcPlugin;
+    private final Logger logger;
+    private final ConcurrentMap<String, Integer> versions;
+    private final ConcurrentMap<String, Long> silentUntil;
+    private final ConcurrentMap<String, CompletableFuture<Integer>> probes;
+    private final Set<String> pendingHellos;
+    
+    /**
+     * Constructs a new {@link ServerProtocols} tracker.
+     * 
+     * @param ipcPlugin The {@link CVIPC} plugin, used to send hello messages.
+     * @param logger The {@link Logger} to log negotiation results to.
+     */
+    public ServerProtocols(@NotNull final CVIPC ipcPlugin, @NotNull final Logger logger) {
+        this.ipcPlugin = ipcPlugin;
+        this.logger = logger;
+        this.versions = new ConcurrentHashMap<String, Integer>();
+        this.silentUntil = new ConcurrentHashMap<String, Long>();
+        this.probes = new ConcurrentHashMap<String, CompletableFuture<Integer>>();
+        this.pendingHellos = ConcurrentHashMap.newKeySet();
+    }
+    
+    /**
+     * Gets the protocol version to use when talking to the given server right
+     * away, probing it if its version is not known.
+     * <p>
+     * A server whose version is not known yet is talked to with
+     * {@link LocationConstants#PROTOCOL_TEXT}. Callers that would rather
+     * wait for the version should use {@link #probe(String)}.
+     * 
+     * @param serverName The name of the server.
+     * @return The negotiated protocol version.
+     */
+    public int getVersion(@NotNull final String serverName) {
+        
+        final Integer version = this.versions.get(serverName);
+        if (version != null) {
+            return version;
+        }
+        if (!this.isSilent(serverName)) {
+            this.probe(serverName);
+        }
+        return LocationConstants.PROTOCOL_TEXT;
+    }
+    
+    /**
+     * Checks if the protocol version of the given server is known, either
+     * because it answered a hello message, or because it recently did not.
+     * 
+     * @param serverName The name of the server.
+     * @return {@code true} if the version is known, {@code false} if the
+     *         server needs to be probed first.
+     */
+    public boolean isKnown(@NotNull final String serverName) {
+        return this.versions.containsKey(serverName) || this.isSilent(serverName);
+    }
+    
+    /**
+     * Gets the protocol version of the given server once it is known,
+     * sending it a hello message if it is not.
+     * <p>
+     * Concurrent probes of the same server share a single hello message. If
+     * the server does not answer in time, the future completes with
+     * {@link LocationConstants#PROTOCOL_TEXT}.
+     * 
+     * @param serverName The name of the server.
+     * @return A {@link CompletableFuture} that completes with the negotiated
+     *         protocol version, already completed if it is known.
+     */
+    @NotNull
+    public CompletableFuture<Integer> probe(@NotNull final String serverName) {
+        
+        final Integer version = this.versions.get(serverName);
+        if (version != null) {
+            return CompletableFuture.completedFuture(version);
+        }
+        if (this.isSilent(serverName)) {
+            return CompletableFuture.completedFuture(LocationConstants.PROTOCOL_TEXT);
+        }
+        
+        final CompletableFuture<Integer> created = new CompletableFuture<Integer>();
+        final CompletableFuture<Integer> existing = this.probes.putIfAbsent(serverName, created);
+        if (existing != null) {
+            return existing;
+        }
+        
+        created.completeOnTimeout(LocationConstants.PROTOCOL_TEXT, HELLO_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS).thenRun(() -> {
+            if (!this.probes.remove(serverName, created)) {
+                return;
+            }
+            this.pendingHellos.remove(serverName);
+            if (!this.versions.containsKey(serverName)) {
+                this.silentUntil.put(serverName, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SILENT_RETRY_MILLIS));
+                this.logger.log(Level.INFO, "Server " + serverName + " did not answer the hello message, using location protocol version " + LocationConstants.PROTOCOL_TEXT + " for now.");
+            }
+        });
+        this.sendHello(serverName);
+        return created;
+    }
+    
+    /**
+     * Sends a hello message to the given server, announcing the protocol
+     * version supported by the proxy.
+     * 
+     * @param serverName The name of the server.
+     */
+    public void sendHello(@NotNull final String serverName) {
+        this.pendingHellos.add(serverName);
+        this.ipcPlugin.sendMessage(serverName, LocationConstants.HELLO_CHANNEL + LocationConstants.SEPARATOR + LocationConstants.PROTOCOL_VERSION);
+    }
+    
+    /**
+     * Records the protocol version announced by the given server, answering
+     * with a hello message of our own if it was not an answer to one.
+     * 
+     * @param serverName The name of the server.
+     * @param rawVersion The announced version, as sent in the hello message.
+     */
+    public void update(@NotNull final String serverName, @NotNull final String rawVersion) {
+        
+        final int announced;
+        try {
+            announced = Integer.parseInt(rawVersion.trim());
+        } catch (final NumberFormatException e) {
+            this.logger.log(Level.WARNING, "Invalid protocol version from server " + serverName + ": " + rawVersion);
+            return;
+        }
+        
+        final int version = Math.max(LocationConstants.PROTOCOL_TEXT, Math.min(announced, LocationConstants.PROTOCOL_VERSION));
+        final Integer previous = this.versions.put(serverName, version);
+        this.silentUntil.remove(serverName);
+        if (previous == null || previous != version) {
+            this.logger.log(Level.INFO, "Using location protocol version " + version + " for server " + serverName + ".");
+        }
+        final CompletableFuture<Integer> probe = this.probes.remove(serverName);
+        if (probe != null) {
+            probe.complete(version);
+        }
+        if (!this.pendingHellos.remove(serverName)) {
+            this.sendHello(serverName);
+        }
+    }
+    
+    /**
+     * Forgets the protocol version of the given server, so that it is
+     * negotiated again the next time the server is used.
+     * 
+     * @param serverName The name of the server.
+     */
+    public void reset(@NotNull final String serverName) {
+        this.versions.remove(serverName);
+        this.silentUntil.remove(serverName);
+    }
+    
+    /**
+     * Probes the server a player connects to, if its protocol version is not
+     * known yet, so that it is usually known by the time a command needs it.
+     * 
+     * @param event The {@link ServerSwitchEvent}.
+     */
+    @EventHandler
+    public void onServerSwitch(@NotNull final ServerSwitchEvent event) {
+        final String serverName = event.getPlayer().getServer().getInfo().getName();
+        if (!this.isKnown(serverName)) {
+            this.probe(serverName);
+        }
+    }
+    
+    /**
+     * Checks if the given server recently did not answer a hello message.
+     * 
+     * @param serverName The name of the server.
+     * @return {@code true} if the server is treated as running an older
+     *         Bukkit plugin for now, {@code false} otherwise.
+     */
+    private boolean isSilent(@NotNull final String serverName) {
+        final Long until = this.silentUntil.get(serverName);
+        if (until == null) {
+            return false;
+        }
+        if (System.nanoTime() - until < 0L) {
+            return true;
+        }
+        this.silentUntil.remove(serverName, until);
+        return false;
+    }
+}
@@ -0,0 +1,241 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.bungeecord.command;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import net.md_5.bungee.api.ChatColor;
+import net.md_5.bungee.api.CommandSender;
+import net.md_5.bungee.api.chat.ComponentBuilder;
+import net.md_5.bungee.api.plugin.Command;
+import net.md_5.bungee.api.plugin.TabExecutor;
+import org.bspfsystems.bungeelocation.core.LatencyHistogram;
+import org.cubeville.location.bungeecord.BungeeLocationPlugin;
+import org.cubeville.location.bungeecord.FollowSubscriptions;
+import org.cubeville.location.bungeecord.PendingRequests;
+import org.cubeville.location.bungeecord.QueryMetrics;
+import org.cubeville.location.bungeecord.RequestTracer;
+import org.cubeville.location.bungeecord.ResponseCache;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.UnmodifiableView;
+
+/**
+ * Represents the {@code /whereadmin} administrative {@link Command}, which
+ * reports the internal statistics of the BungeeCord plugin, or with
+ * {@code metrics}, the latency of each stage of answering a {@code /where},
+ * or with {@code traces}, the most recent traced requests.
+ */
+public final class WhereAdminCommand extends Command implements TabExecutor {
+    
+    private static final List<String> OPTIONS = Arrays.asList("metrics", "traces");
+    
+    private final PendingRequests pendingRequests;
+    private final ResponseCache responseCache;
+    private final FollowSubscriptions followSubscriptions;
+    private final QueryMetrics metrics;
+    private final RequestTracer tracer;
+    
+    /**
+     * Constructs a new {@code /whereadmin} {@link Command}.
+     * 
+     * @param pendingRequests The {@link PendingRequests} to report on.
+     * @param responseCache The {@link ResponseCache} to report on, or
+     *                      {@code null} if it is disabled.
+     * @param followSubscriptions The {@link FollowSubscriptions} to report
+     *                            on.
+     * @param metrics The {@link QueryMetrics} to report on.
+     * @param tracer The {@link RequestTracer} to dump the traces of.
+     */
+    public WhereAdminCommand(@NotNull final PendingRequests pendingRequests, @Nullable final ResponseCache responseCache, @NotNull final FollowSubscriptions followSubscriptions, @NotNull final QueryMetrics metrics, @NotNull final RequestTracer tracer) {
+        super("whereadmin", BungeeLocationPlugin.PERMISSION_ADMIN);
+        
+        this.pendingRequests = pendingRequests;
+        this.responseCache = responseCache;
+        this.followSubscriptions = followSubscriptions;
+        this.metrics = metrics;
+        this.tracer = tracer;
+    }
+    
+    /**
+     * Executes this {@code /whereadmin} {@link Command}.
+     * 
+     * @param sender The {@link CommandSender} executing this {@link Command}.
+     * @param args The arguments supplied with this {@link Command}.
+     */
+    @Override
+    public void execute(@NotNull final CommandSender sender, @NotNull final String[] args) {
+        
+        if (!sender.hasPermission(BungeeLocationPlugin.PERMISSION_ADMIN)) {
+            sender.sendMessage(BungeeLocationPlugin.NO_PERMISSION_MESSAGE);
+            return;
+        }
+        if (args.length == 1 && args[0].equalsIgnoreCase("metrics")) {
+            this.sendMetrics(sender);
+            return;
+        }
+        if (args.length == 1 && args[0].equalsIgnoreCase("traces")) {
+            this.sendTraces(sender);
+            return;
+        }
+        if (args.length != 0) {
+            sender.sendMessage(new ComponentBuilder("Syntax: ").color(ChatColor.RED).append("/whereadmin").color(ChatColor.AQUA).append(" [metrics|traces]").color(ChatColor.GREEN).create());
+            return;
+        }
+        
+        sender.sendMessage(new ComponentBuilder("In-flight requests: ").color(ChatColor.GOLD).append(String.valueOf(this.pendingRequests.getInFlight())).color(ChatColor.WHITE).create());
+        for (final Map.Entry<String, Integer> entry : this.pendingRequests.getInFlightByServer().entrySet()) {
+            sender.sendMessage(new ComponentBuilder("  " + entry.getKey() + ": ").color(ChatColor.YELLOW).append(String.valueOf(entry.getValue())).color(ChatColor.WHITE).create());
+        }
+        
+        final ComponentBuilder builder = new ComponentBuilder("Completed: ").color(ChatColor.GOLD);
+        builder.append(String.valueOf(this.pendingRequests.getCompleted())).color(ChatColor.WHITE);
+        builder.append(" / Timed out: ").color(ChatColor.GOLD);
+        builder.append(String.valueOf(this.pendingRequests.getTimedOut())).color(ChatColor.WHITE);
+        builder.append(" / Dropped: ").color(ChatColor.GOLD);
+        builder.append(String.valueOf(this.pendingRequests.getDropped())).color(ChatColor.WHITE);
+        builder.append(" / Coalesced: ").color(ChatColor.GOLD);
+        builder.append(String.valueOf(this.pendingRequests.getCoalesced())).color(ChatColor.WHITE);
+        sender.sendMessage(builder.create());
+        
+        final ComponentBuilder followBuilder = new ComponentBuilder("Followed players: ").color(ChatColor.GOLD);
+        followBuilder.append(String.valueOf(this.followSubscriptions.getTargetCount())).color(ChatColor.WHITE);
+        followBuilder.append(" / Follows: ").color(ChatColor.GOLD);
+        followBuilder.append(String.valueOf(this.followSubscriptions.getFollowCount())).color(ChatColor.WHITE);
+        followBuilder.append(" / Resyncs: ").color(ChatColor.GOLD);
+        followBuilder.append(String.valueOf(this.followSubscriptions.getResyncs())).color(ChatColor.WHITE);
+        sender.sendMessage(followBuilder.create());
+        
+        if (this.responseCache == null) {
+            sender.sendMessage(new ComponentBuilder("Response cache: ").color(ChatColor.GOLD).append("disabled").color(ChatColor.GRAY).create());
+            return;
+        }
+        
+        final long hits = this.responseCache.getHits();
+        final long lookups = hits + this.responseCache.getMisses();
+        final ComponentBuilder cacheBuilder = new ComponentBuilder("Response cache: ").color(ChatColor.GOLD);
+        cacheBuilder.append(this.responseCache.size() + " entries").color(ChatColor.WHITE);
+        cacheBuilder.append(" / Hits: ").color(ChatColor.GOLD);
+        cacheBuilder.append(hits + "/" + lookups + " (" + (lookups == 0L ? 0L : hits * 100L / lookups) + "%)").color(ChatColor.WHITE);
+        cacheBuilder.append(" / Invalidations: ").color(ChatColor.GOLD);
+        cacheBuilder.append(String.valueOf(this.responseCache.getInvalidations())).color(ChatColor.WHITE);
+        sender.sendMessage(cacheBuilder.create());
+        
+        final ComponentBuilder ageBuilder = new ComponentBuilder("Served entry age: ").color(ChatColor.GOLD);
+        ageBuilder.append("avg " + this.responseCache.getAverageServedAge() + " ms, max " + this.responseCache.getMaxServedAge() + " ms").color(ChatColor.WHITE);
+        sender.sendMessage(ageBuilder.create());
+    }
+    
+    /**
+     * Sends the latency of each stage of answering a {@code /where}, and of
+     * the round trip to each server, to the given {@link CommandSender}.
+     * 
+     * @param sender The {@link CommandSender} to send the metrics to.
+     */
+    private void sendMetrics(@NotNull final CommandSender sender) {
+        
+        sender.sendMessage(new ComponentBuilder("Latency (ms):").color(ChatColor.GOLD).create());
+        for (final QueryMetrics.Stage stage : QueryMetrics.Stage.values()) {
+            final LatencyHistogram histogram = this.metrics.getHistogram(stage);
+            sender.sendMessage(new ComponentBuilder("  " + stage.getName() + ": ").color(ChatColor.YELLOW).append(histogram.format()).color(ChatColor.WHITE).create());
+        }
+        
+        final Map<String, LatencyHistogram> roundTrips = this.metrics.getRoundTrips();
+        if (roundTrips.isEmpty()) {
+            return;
+        }
+        sender.sendMessage(new ComponentBuilder("Round trip by server (ms):").color(ChatColor.GOLD).create());
+        for (final Map.Entry<String, LatencyHistogram> entry : roundTrips.entrySet()) {
+            sender.sendMessage(new ComponentBuilder("  " + entry.getKey() + ": ").color(ChatColor.YELLOW).append(entry.getValue().format()).color(ChatColor.WHITE).create());
+        }
+    }
+    
+    /**
+     * Sends the most recent traced requests to the given
+     * {@link CommandSender}, with the time spent at each hop.
+     * 
+     * @param sender The {@link CommandSender} to send the traces to.
+     */
+    private void sendTraces(@NotNull final CommandSender sender) {
+        
+        if (this.tracer.getSampleRate() == 0) {
+            sender.sendMessage(new ComponentBuilder("Tracing: ").color(ChatColor.GOLD).append("disabled").color(ChatColor.GRAY).create());
+            return;
+        }
+        final List<RequestTracer.Trace> traces = this.tracer.getTraces();
+        sender.sendMessage(new ComponentBuilder("Traced requests (1 in " + this.tracer.getSampleRate() + "): ").color(ChatColor.GOLD).append(String.valueOf(traces.size())).color(ChatColor.WHITE).create());
+        
+        final SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss", Locale.ROOT);
+        for (final RequestTracer.Trace trace : traces) {
+            final ComponentBuilder builder = new ComponentBuilder(format.format(new Date(trace.getTimestamp())) + " ").color(ChatColor.GRAY);
+            builder.append(trace.getTargetName() + "@" + trace.getServerName() + ": ").color(ChatColor.YELLOW);
+            builder.append(WhereAdminCommand.millis(trace.getRoundTrip()) + " ms").color(ChatColor.WHITE);
+            builder.append(" = transport ").color(ChatColor.GOLD).append(WhereAdminCommand.millis(trace.getTransport())).color(ChatColor.WHITE);
+            builder.append(" + queue ").color(ChatColor.GOLD).append(WhereAdminCommand.millis(trace.getQueued())).color(ChatColor.WHITE);
+            builder.append(" + regions ").color(ChatColor.GOLD).append(WhereAdminCommand.millis(trace.getRegions())).color(ChatColor.WHITE);
+            builder.append(" + other ").color(ChatColor.GOLD).append(WhereAdminCommand.millis(Math.max(0L, trace.getHandled() - trace.getQueued() - trace.getRegions()))).color(ChatColor.WHITE);
+            builder.append(" (render ").color(ChatColor.GOLD).append(WhereAdminCommand.millis(trace.getRendered())).color(ChatColor.WHITE).append(")").color(ChatColor.GOLD);
+            sender.sendMessage(builder.create());
+        }
+    }
+    
+    /**
+     * Formats the given number of nanoseconds as milliseconds.
+     * 
+     * @param nanos The number of nanoseconds.
+     * @return The formatted number of milliseconds.
+     */
+    @NotNull
+    private static String millis(final long nanos) {
+        return String.format(Locale.ROOT, "%.2f", nanos / 1000000.0D);
+    }
+    
+    /**
+     * Provides tab-completion suggestions for the given {@link CommandSender}.
+     * 
+     * @param sender The {@link CommandSender} requesting tab-completions.
+     * @param args The current command line arguments.
+     * @return A {@link Iterable} of potential tab-completions.
+     */
+    @Override
+    @NotNull
+    @UnmodifiableView
+    public Iterable<String> onTabComplete(@NotNull final CommandSender sender, @NotNull final String[] args) {
+        if (args.length != 1 || !sender.hasPermission(BungeeLocationPlugin.PERMISSION_ADMIN)) {
+            return Collections.emptyList();
+        }
+        
+        final List<String> completions = new ArrayList<String>();
+        for (final String option : OPTIONS) {
+            if (option.startsWith(args[0].toLowerCase(Locale.ROOT))) {
+                completions.add(option);
+            }
+        }
+        return Collections.unmodifiableList(completions);
+    }
+}
@@ -0,0 +1,209 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and BungeeCord
+ * proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cubeville.location.bungeecord.command;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import net.md_5.bungee.api.ChatColor;
+import net.md_5.bungee.api.CommandSender;
+import net.md_5.bungee.api.ProxyServer;
+import net.md_5.bungee.api.chat.ComponentBuilder;
+import net.md_5.bungee.api.config.ServerInfo;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import net.md_5.bungee.api.plugin.Command;
+import net.md_5.bungee.api.plugin.Plugin;
+import net.md_5.bungee.api.plugin.TabExecutor;
+import org.bspfsystems.bungeelocation.core.LocationCodec;
+import org.bspfsystems.bungeelocation.core.LocationConstants;
+import org.bspfsystems.bungeelocation.core.LocationListRequest;
+import org.cubeville.cvipc.CVIPC;
+import org.cubeville.cvplayerdata.CVPlayerData;
+import org.cubeville.cvplayerdata.PlayerDataManager;
+import org.cubeville.location.bungeecord.BungeeLocationPlugin;
+import org.cubeville.location.bungeecord.PendingRequests;
+import org.cubeville.location.bungeecord.ServerProtocols;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.UnmodifiableView;
+
+/**
+ * Represents a {@link Command} that lists the locations of every
+ * {@link ProxiedPlayer} on the network, server by server.
+ * <p>
+ * Each server is sent a single list request, and streams the locations back
+ * in pages that are shown as soon as they arrive. Servers that do not support
+ * list requests are queried for their {@link ProxiedPlayer ProxiedPlayers}
+ * the same way as {@code /where -s <server>}.
+ */
+public final class WhereAllCommand extends Command implements TabExecutor {
+    
+    private static final int PAGE_SIZE = 16;
+    
+    private final ProxyServer proxy;
+    private final CVIPC ipcPlugin;
+    private final PlayerDataManager playerDataManager;
+    private final ServerProtocols protocols;
+    private final PendingRequests pendingRequests;
+    private final WhereCommand whereCommand;
+    
+    /**
+     * Constructs a new {@code /whereall} {@link Command}.
+     * 
+     * @param proxy The BungeeCord {@link ProxyServer}.
+     * @param ipcPlugin The {@link CVIPC} {@link Plugin}, used to send the
+     *                  list requests to the Bukkit servers.
+     * @param playerDataPlugin The {@link CVPlayerData} {@link Plugin}, used to
+     *                         determine which {@link ProxiedPlayer
+     *                         ProxiedPlayers} a sender outranks.
+     * @param protocols The {@link ServerProtocols}, used to determine whether
+     *                  a server supports list requests.
+     * @param pendingRequests The {@link PendingRequests}, used to track the
+     *                        list requests until every page has arrived.
+     * @param whereCommand The {@link WhereCommand}, used to query servers
+     *                     that do not support list requests.
+     */
+    public WhereAllCommand(@NotNull final ProxyServer proxy, @NotNull final CVIPC ipcPlugin, @NotNull final CVPlayerData playerDataPlugin, @NotNull final ServerProtocols protocols, @NotNull final PendingRequests pendingRequests, @NotNull final WhereCommand whereCommand) {
+        super("whereall");
+        
+        this.proxy = proxy;
+        this.ipcPlugin = ipcPlugin;
+        this.playerDataManager = playerDataPlugin.getPlayerDataManager();
+        this.protocols = protocols;
+        this.pendingRequests = pendingRequests;
+        this.whereCommand = whereCommand;
+    }
+    
+    /**
+     * Executes this {@code /whereall} {@link Command}.
+     * 
+     * @param sender The {@link CommandSender} executing this {@link Command}.
+     * @param args The arguments supplied with this {@link Command}.
+     */
+    @Override
+    public void execute(@NotNull final CommandSender sender, @NotNull final String[] args) {
+        
+        final UUID senderId = sender instanceof ProxiedPlayer ? ((ProxiedPlayer) sender).getUniqueId() : null;
+        final boolean unlimited = senderId == null || sender.hasPermission(BungeeLocationPlugin.PERMISSION_UNLIMITED);
+        if (!unlimited && !sender.hasPermission(BungeeLocationPlugin.PERMISSION_LIMITED)) {
+            sender.sendMessage(BungeeLocationPlugin.NO_PERMISSION_MESSAGE);
+            return;
+        }
+        
+        final boolean getRegions;
+        if (args.length == 0) {
+            getRegions = false;
+        } else if (args.length == 1 && (args[0].equalsIgnoreCase("-r") || args[0].equalsIgnoreCase("--regions"))) {
+            getRegions = true;
+        } else {
+            sender.sendMessage(new ComponentBuilder("Syntax: ").color(ChatColor.RED).append("/whereall").color(ChatColor.AQUA).append(" [-r|--regions]").color(ChatColor.GREEN).create());
+            return;
+        }
+        
+        int queried = 0;
+        for (final ServerInfo server : this.proxy.getServers().values()) {
+            if (this.queryServer(server, senderId, unlimited, getRegions)) {
+                queried++;
+            }
+        }
+        
+        if (queried == 0) {
+            sender.sendMessage(new ComponentBuilder("There are no players you can locate.").color(ChatColor.RED).create());
+        }
+    }
+    
+    /**
+     * Queries the locations of the {@link ProxiedPlayer ProxiedPlayers} on
+     * the given server.
+     * <p>
+     * Once the protocol version of the server is known, it is sent a single,
+     * paged list request if it supports one, and a request for the players
+     * the sender may locate otherwise.
+     * 
+     * @param server The {@link ServerInfo} of the server.
+     * @param senderId The {@link UUID} of the sending {@link ProxiedPlayer},
+     *                 or {@code null} if the console is the sender.
+     * @param unlimited {@code true} if the sender may check the location of
+     *                  any {@link ProxiedPlayer}, {@code false} if only the
+     *                  ones they outrank.
+     * @param getRegions {@code true} if the WorldGuard regions should be
+     *                   retrieved, {@code false} otherwise.
+     * @return {@code true} if the server was queried, {@code false} if there
+     *         was nobody on it to locate.
+     */
+    private boolean queryServer(@NotNull final ServerInfo server, @Nullable final UUID senderId, final boolean unlimited, final boolean getRegions) {
+        
+        final String serverName = server.getName();
+        if (server.getPlayers().isEmpty()) {
+            return false;
+        }
+        
+        final List<UUID> targetIds = new ArrayList<UUID>();
+        for (final ProxiedPlayer player : server.getPlayers()) {
+            final UUID targetId = player.getUniqueId();
+            if (unlimited || targetId.equals(senderId) || this.playerDataManager.outranks(senderId, targetId)) {
+                targetIds.add(targetId);
+            }
+        }
+        if (targetIds.isEmpty()) {
+            return false;
+        }
+        
+        this.protocols.probe(serverName).thenAccept(version -> {
+            if (version < LocationConstants.PROTOCOL_LIST) {
+                this.whereCommand.queryLocations(serverName, senderId, targetIds, getRegions);
+                return;
+            }
+            final int requestId = version >= LocationConstants.PROTOCOL_REQUEST_ID ? this.pendingRequests.track(serverName, senderId, "all players") : 0;
+            final LocationListRequest request = new LocationListRequest(requestId, senderId, getRegions, PAGE_SIZE, version >= LocationConstants.PROTOCOL_DIRECTION);
+            this.ipcPlugin.sendMessage(serverName, LocationConstants.BINARY_REQUEST_CHANNEL + LocationConstants.SEPARATOR + LocationCodec.encodeListRequest(request));
+        });
+        return true;
+    }
+    
+    /**
+     * Provides tab-completion suggestions for the given {@link CommandSender}.
+     * 
+     * @param sender The {@link CommandSender} requesting tab-completions.
+     * @param args The current command line arguments.
+     * @return A {@link Iterable} of potential tab-completions.
+     */
+    @Override
+    @NotNull
+    @UnmodifiableView
+    public Iterable<String> onTabComplete(@NotNull final CommandSender sender, @NotNull final String[] args) {
+        
+        if (args.length != 1) {
+            return Collections.emptyList();
+        }
+        if (!sender.hasPermission(BungeeLocationPlugin.PERMISSION_UNLIMITED) && !sender.hasPermission(BungeeLocationPlugin.PERMISSION_LIMITED) && sender instanceof ProxiedPlayer) {
+            return Collections.emptyList();
+        }
+        
+        final List<String> completions = new ArrayList<String>();
+        completions.add("-r");
+        completions.add("--regions");
+        completions.removeIf(completion -> !completion.startsWith(args[0].toLowerCase()));
+        return Collections.unmodifiableList(completions);
+    }
+}
@@ -25,22 +25,49 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.logging.Level;
 import net.md_5.bungee.api.ChatColor;
 import net.md_5.bungee.api.CommandSender;
 import net.md_5.bungee.api.ProxyServer;
 import net.md_5.bungee.api.chat.ComponentBuilder;
+import net.md_5.bungee.api.config.ServerInfo;
 import net.md_5.bungee.api.connection.ProxiedPlayer;
 import net.md_5.bungee.api.plugin.Command;
 import net.md_5.bungee.api.plugin.Plugin;
 import net.md_5.bungee.api.plugin.TabExecutor;
 import org.cubeville.cvplayerdata.PlayerDataManager;
 import org.cubeville.location.bungeecord.BungeeLocationPlugin;
+import org.cubeville.location.bungeecord.FollowSubscriptions;
+import org.cubeville.location.bungeecord.PendingRequests;
+import org.cubeville.location.bungeecord.PlayerNameIndex;
+import org.cubeville.location.bungeecord.QueryMetrics;
+import org.cubeville.location.bungeecord.RequestTracer;
+import org.cubeville.location.bungeecord.ResponseCache;
+import org.cubeville.location.bungeecord.ServerProtocols;
+import org.bspfsystems.bungeelocation.core.BulkLocationRequest;
+import org.bspfsystems.bungeelocation.core.Durations;
+import org.bspfsystems.bungeelocation.core.LocationAreaRequest;
+import org.bspfsystems.bungeelocation.core.LocationCodec;
 import org.bspfsystems.bungeelocation.core.LocationConstants;
+import org.bspfsystems.bungeelocation.core.LocationHistoryRequest;
+import org.bspfsystems.bungeelocation.core.LocationRequest;
+import org.bspfsystems.bungeelocation.core.LocationTrace;
+import org.bspfsystems.bungeelocation.core.TextCodec;
 import org.cubeville.cvipc.CVIPC;
 import org.cubeville.cvplayerdata.CVPlayerData;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.UnmodifiableView;
 
 /**
@@ -50,13 +77,29 @@ import org.jetbrains.annotations.UnmodifiableView;
  */
 public final class WhereCommand extends Command implements TabExecutor {
     
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+    private static final int REGION_UNSUPPORTED = -2;
+    private static final CompletableFuture<Integer> UNSUPPORTED = CompletableFuture.completedFuture(REGION_UNSUPPORTED);
+    private static final int TRAIL_POINTS = 10;
+    private static final long MAX_HISTORY_SECONDS = 86400L;
+    
+    private final BungeeLocationPlugin plugin;
     private final ProxyServer proxy;
     private final CVIPC ipcPlugin;
     private final PlayerDataManager playerDataManager;
+    private final ServerProtocols protocols;
+    private final PendingRequests pendingRequests;
+    private final PlayerNameIndex nameIndex;
+    private final FollowSubscriptions followSubscriptions;
+    private final QueryMetrics metrics;
+    private final RequestTracer tracer;
+    private final ExecutorService executor;
     
     /**
      * Constructs a new {@code /where} {@link Command}.
      * 
+     * @param plugin The {@link BungeeLocationPlugin}, used to answer repeat
+     *               location requests from its {@link ResponseCache}.
      * @param proxy The BungeeCord {@link ProxyServer}.
      * @param ipcPlugin The {@link CVIPC} {@link Plugin}, used to send the
      *                  location request to the Bukkit server.
@@ -64,17 +107,46 @@ public final class WhereCommand extends Command implements TabExecutor {
      *                         verify that {@link ProxiedPlayer ProxiedPlayers}
      *                         have the ability to check the location of other
      *                         {@link ProxiedPlayer ProxiedPlayers}.
+     * @param protocols The {@link ServerProtocols}, used to determine whether
+     *                  a location request may be sent in the binary format.
+     * @param pendingRequests The {@link PendingRequests}, used to track the
+     *                        location requests until they are answered.
+     * @param nameIndex The {@link PlayerNameIndex}, used to tab-complete
+     *                  player names.
+     * @param followSubscriptions The {@link FollowSubscriptions}, used to
+     *                            follow the location of a
+     *                            {@link ProxiedPlayer} as it changes.
+     * @param metrics The {@link QueryMetrics}, used to record how long each
+     *                command and request takes.
+     * @param tracer The {@link RequestTracer}, used to pick the single
+     *               location requests to trace.
+     * @param executor The {@link ExecutorService} that commands are run on.
      */
-    public WhereCommand(@NotNull final ProxyServer proxy, @NotNull final CVIPC ipcPlugin, @NotNull final CVPlayerData playerDataPlugin) {
+    public WhereCommand(@NotNull final BungeeLocationPlugin plugin, @NotNull final ProxyServer proxy, @NotNull final CVIPC ipcPlugin, @NotNull final CVPlayerData playerDataPlugin, @NotNull final ServerProtocols protocols, @NotNull final PendingRequests pendingRequests, @NotNull final PlayerNameIndex nameIndex, @NotNull final FollowSubscriptions followSubscriptions, @NotNull final QueryMetrics metrics, @NotNull final RequestTracer tracer, @NotNull final ExecutorService executor) {
         super("where", null, "whereami");
         
+        this.plugin = plugin;
         this.proxy = proxy;
         this.ipcPlugin = ipcPlugin;
         this.playerDataManager = playerDataPlugin.getPlayerDataManager();
+        this.protocols = protocols;
+        this.pendingRequests = pendingRequests;
+        this.nameIndex = nameIndex;
+        this.followSubscriptions = followSubscriptions;
+        this.metrics = metrics;
+        this.tracer = tracer;
+        this.executor = executor;
     }
     
     /**
      * Executes this {@code /where} {@link Command}.
+     * <p>
+     * The command is run on the command executor, so that slow player data
+     * lookups never block the command handling of the proxy. Each location
+     * request goes through the same stages: the target is resolved, the
+     * sender is authorized, the request is dispatched, and then the
+     * response (or timeout) is awaited. Any unexpected failure is logged and
+     * reported to the sender.
      * 
      * @param sender The {@link CommandSender} executing this {@link Command}.
      * @param args The arguments supplied with this {@link Command}.
@@ -82,12 +154,21 @@ public final class WhereCommand extends Command implements TabExecutor {
     @Override
     public void execute(@NotNull final CommandSender sender, @NotNull final String[] args) {
         
+        final long started = System.nanoTime();
         final List<String> argsList = new ArrayList<String>(Arrays.asList(args));
-        if (sender instanceof ProxiedPlayer) {
-            this.executePlayer((ProxiedPlayer) sender, argsList);
-        } else {
-            this.executeConsole(sender, argsList);
+        final CompletableFuture<Void> future;
+        try {
+            future = CompletableFuture.supplyAsync(() -> sender instanceof ProxiedPlayer ? this.executePlayer((ProxiedPlayer) sender, argsList) : this.executeConsole(sender, argsList), this.executor).thenCompose(Function.identity());
+        } catch (final RejectedExecutionException e) {
+            this.handleFailure(sender, e);
+            return;
         }
+        future.whenComplete((result, thrown) -> {
+            this.metrics.record(QueryMetrics.Stage.COMMAND, started);
+            if (thrown != null) {
+                this.handleFailure(sender, thrown);
+            }
+        });
     }
     
     /**
@@ -95,122 +176,718 @@ public final class WhereCommand extends Command implements TabExecutor {
      * 
      * @param sender The {@link ProxiedPlayer} executing this {@link Command}.
      * @param args A {@link List} of supplied {@link Command} arguments.
+     * @return A {@link CompletableFuture} that completes once every location
+     *         request of the {@link Command} is answered.
      */
-    private void executePlayer(@NotNull final ProxiedPlayer sender, @NotNull final List<String> args) {
+    @NotNull
+    private CompletableFuture<Void> executePlayer(@NotNull final ProxiedPlayer sender, @NotNull final List<String> args) {
         
         final UUID senderId = sender.getUniqueId();
         if (args.isEmpty()) {
-            this.queryLocation(sender.getServer().getInfo().getName(), senderId, senderId, false);
-            return;
+            return this.queryLocation(sender.getServer().getInfo().getName(), senderId, senderId, false);
         }
         
         final boolean unlimited = sender.hasPermission(BungeeLocationPlugin.PERMISSION_UNLIMITED);
         final boolean limited = sender.hasPermission(BungeeLocationPlugin.PERMISSION_LIMITED);
         if (!unlimited && !limited) {
             this.sendSyntax(sender);
-            return;
+            return DONE;
+        }
+        if (this.isFollowFlag(args.get(0)) || this.isUnfollowFlag(args.get(0))) {
+            return this.executeFollow(sender, senderId, unlimited, args);
+        }
+        if (this.isNearFlag(args.get(0))) {
+            return this.executeNear(sender, senderId, unlimited, args);
+        }
+        if (this.isInsideFlag(args.get(0))) {
+            return this.executeInside(sender, senderId, args);
+        }
+        if (args.size() >= 2 && (this.isAtFlag(args.get(1)) || this.isTrailFlag(args.get(1)))) {
+            return this.executeHistory(sender, senderId, unlimited, args);
+        }
+        if (this.isBulk(args)) {
+            return this.executeBulk(sender, senderId, unlimited, args);
         }
         
         final String targetName = args.remove(0);
         if (targetName.equalsIgnoreCase(this.proxy.getConsole().getName())) {
             sender.sendMessage(new ComponentBuilder("The Console is omnipresent...").color(ChatColor.GOLD).italic(true).create());
-            return;
+            return DONE;
+        }
+        if (!this.isRegionArgs(args)) {
+            this.sendSyntax(sender);
+            return DONE;
         }
         
-        final UUID targetId = this.playerDataManager.getPlayerByVisibleName(targetName);
-        if (targetId == null) {
-            sender.sendMessage(new ComponentBuilder("Unknown player ").color(ChatColor.RED).append(targetName).color(ChatColor.GOLD).create());
-            return;
+        return this.locate(sender, senderId, unlimited, targetName, !args.isEmpty());
+    }
+    
+    /**
+     * Executes this {@code /where} {@link Command} as the console
+     * {@link CommandSender}.
+     * 
+     * @param sender The console {@link CommandSender} executing this
+     *               {@link Command}.
+     * @param args A {@link List} of supplied {@link Command} arguments.
+     * @return A {@link CompletableFuture} that completes once every location
+     *         request of the {@link Command} is answered.
+     */
+    @NotNull
+    private CompletableFuture<Void> executeConsole(@NotNull final CommandSender sender, @NotNull final List<String> args) {
+        
+        if (args.isEmpty()) {
+            this.sendSyntax(sender);
+            return DONE;
+        }
+        if (this.isFollowFlag(args.get(0)) || this.isUnfollowFlag(args.get(0))) {
+            sender.sendMessage(new ComponentBuilder("Only players may follow the location of other players.").color(ChatColor.RED).create());
+            return DONE;
+        }
+        if (this.isNearFlag(args.get(0))) {
+            return this.executeNear(sender, null, true, args);
+        }
+        if (this.isInsideFlag(args.get(0))) {
+            return this.executeInside(sender, null, args);
+        }
+        if (args.size() >= 2 && (this.isAtFlag(args.get(1)) || this.isTrailFlag(args.get(1)))) {
+            return this.executeHistory(sender, null, true, args);
+        }
+        if (this.isBulk(args)) {
+            return this.executeBulk(sender, null, true, args);
         }
         
-        final String displayName = this.playerDataManager.getPlayerVisibleName(targetId);
-        if (!unlimited && !this.playerDataManager.outranks(senderId, targetId)) {
-            
-            final ComponentBuilder builder = new ComponentBuilder("You do not have permission to check ").color(ChatColor.RED);
-            builder.append(displayName + "'s").color(ChatColor.GOLD);
-            builder.append(" location.").color(ChatColor.RED);
-            sender.sendMessage(builder.create());
-            return;
+        final String targetName = args.remove(0);
+        if (targetName.equalsIgnoreCase(this.proxy.getConsole().getName())) {
+            sender.sendMessage(new ComponentBuilder("I would hope you know where you are, as you are the console...").color(ChatColor.GOLD).create());
+            return DONE;
+        }
+        if (!this.isRegionArgs(args)) {
+            this.sendSyntax(sender);
+            return DONE;
         }
         
-        final ProxiedPlayer target = this.proxy.getPlayer(targetId);
-        if (target == null) {
-            sender.sendMessage(new ComponentBuilder(displayName).color(ChatColor.GOLD).append(" is not online.").color(ChatColor.RED).create());
-            return;
+        return this.locate(sender, null, true, targetName, !args.isEmpty());
+    }
+    
+    /**
+     * Locates a single {@link ProxiedPlayer} by name, in stages: resolving
+     * the target, authorizing the sender, dispatching the request, and
+     * awaiting the response.
+     * 
+     * @param sender The {@link CommandSender} executing this {@link Command}.
+     * @param senderId The {@link UUID} of the sending {@link ProxiedPlayer},
+     *                 or {@code null} if the console is the sender.
+     * @param unlimited {@code true} if the sender may check the location of
+     *                  any {@link ProxiedPlayer}, {@code false} if only the
+     *                  ones they outrank.
+     * @param targetName The name of the target.
+     * @param getRegions {@code true} if the WorldGuard regions should be
+     *                   retrieved, {@code false} otherwise.
+     * @return A {@link CompletableFuture} that completes once the location
+     *         request is answered, or right away if it was not sent.
+     */
+    @NotNull
+    private CompletableFuture<Void> locate(@NotNull final CommandSender sender, @Nullable final UUID senderId, final boolean unlimited, @NotNull final String targetName, final boolean getRegions) {
+        return CompletableFuture.completedFuture(targetName)
+                .thenApply(name -> this.resolveTarget(sender, senderId, name))
+                .thenApply(targetId -> targetId == null ? null : this.authorize(sender, senderId, unlimited, targetId))
+                .thenCompose(target -> target == null ? DONE : this.queryLocation(target.getServer().getInfo().getName(), senderId, target.getUniqueId(), getRegions));
+    }
+    
+    /**
+     * Executes a {@code /where --follow} or {@code /where --unfollow}
+     * {@link Command}, starting or stopping the live updates of the location
+     * of a {@link ProxiedPlayer}.
+     * <p>
+     * A follow goes through the same resolve and authorize stages as a
+     * single location request, and is then handed to the
+     * {@link FollowSubscriptions}, which renders every update pushed by the
+     * server of the target until the follow is cancelled.
+     * 
+     * @param sender The {@link ProxiedPlayer} executing this {@link Command}.
+     * @param senderId The {@link UUID} of the sending {@link ProxiedPlayer}.
+     * @param unlimited {@code true} if the sender may follow any
+     *                  {@link ProxiedPlayer}, {@code false} if only the ones
+     *                  they outrank.
+     * @param args A {@link List} of supplied {@link Command} arguments.
+     * @return A {@link CompletableFuture} that completes once the follow has
+     *         been started or stopped.
+     */
+    @NotNull
+    private CompletableFuture<Void> executeFollow(@NotNull final ProxiedPlayer sender, @NotNull final UUID senderId, final boolean unlimited, @NotNull final List<String> args) {
+        
+        if (this.isUnfollowFlag(args.remove(0))) {
+            if (args.isEmpty()) {
+                final int count = this.followSubscriptions.unfollowAll(senderId);
+                sender.sendMessage(new ComponentBuilder("Stopped following " + count + " player(s).").color(ChatColor.GOLD).create());
+                return DONE;
+            }
+            if (args.size() != 1) {
+                this.sendSyntax(sender);
+                return DONE;
+            }
+            
+            final UUID targetId = this.resolveTarget(sender, senderId, args.get(0));
+            if (targetId == null) {
+                return DONE;
+            }
+            final String displayName = this.playerDataManager.getPlayerVisibleName(targetId);
+            if (this.followSubscriptions.unfollow(senderId, targetId)) {
+                sender.sendMessage(new ComponentBuilder("Stopped following ").color(ChatColor.GOLD).append(displayName).color(ChatColor.YELLOW).append(".").color(ChatColor.GOLD).create());
+            } else {
+                sender.sendMessage(new ComponentBuilder("You are not following ").color(ChatColor.RED).append(displayName).color(ChatColor.GOLD).append(".").color(ChatColor.RED).create());
+            }
+            return DONE;
         }
         
-        final String serverName = target.getServer().getInfo().getName();
         if (args.isEmpty()) {
-            this.queryLocation(serverName, senderId, targetId, false);
-            return;
+            this.sendSyntax(sender);
+            return DONE;
         }
-        
-        final String regionFlag = args.remove(0);
-        if (!args.isEmpty()) {
+        final String targetName = args.remove(0);
+        if (!this.isRegionArgs(args)) {
             this.sendSyntax(sender);
-            return;
+            return DONE;
         }
         
-        if (!regionFlag.equalsIgnoreCase("-r") && !regionFlag.equalsIgnoreCase("--regions")) {
+        final boolean getRegions = !args.isEmpty();
+        return CompletableFuture.completedFuture(targetName)
+                .thenApply(name -> this.resolveTarget(sender, senderId, name))
+                .thenApply(targetId -> targetId == null ? null : this.authorize(sender, senderId, unlimited, targetId))
+                .thenCompose(target -> target == null ? DONE : this.protocols.probe(target.getServer().getInfo().getName()).thenAccept(version -> this.follow(sender, senderId, target, getRegions, version)));
+    }
+    
+    /**
+     * Executes a {@code /where --near} {@link Command}, listing every
+     * {@link ProxiedPlayer} within a radius of another
+     * {@link ProxiedPlayer}.
+     * <p>
+     * The center goes through the same resolve and authorize stages as a
+     * single location request, and the server of the center then answers
+     * from its spatial index, in a single response.
+     * 
+     * @param sender The {@link CommandSender} executing this {@link Command}.
+     * @param senderId The {@link UUID} of the sending {@link ProxiedPlayer},
+     *                 or {@code null} if the console is the sender.
+     * @param unlimited {@code true} if the sender may check the location of
+     *                  any {@link ProxiedPlayer}, {@code false} if only the
+     *                  ones they outrank.
+     * @param args A {@link List} of supplied {@link Command} arguments.
+     * @return A {@link CompletableFuture} that completes once the area
+     *         request is answered, or right away if it was not sent.
+     */
+    @NotNull
+    private CompletableFuture<Void> executeNear(@NotNull final CommandSender sender, @Nullable final UUID senderId, final boolean unlimited, @NotNull final List<String> args) {
+        
+        args.remove(0);
+        if (args.size() < 2) {
             this.sendSyntax(sender);
-            return;
+            return DONE;
+        }
+        final String targetName = args.remove(0);
+        final String rawRadius = args.remove(0);
+        if (!this.isRegionArgs(args)) {
+            this.sendSyntax(sender);
+            return DONE;
         }
         
-        this.queryLocation(serverName, senderId, targetId, true);
+        final int radius;
+        try {
+            radius = Integer.parseInt(rawRadius);
+        } catch (final NumberFormatException e) {
+            sender.sendMessage(new ComponentBuilder("Invalid radius ").color(ChatColor.RED).append(rawRadius).color(ChatColor.GOLD).create());
+            return DONE;
+        }
+        if (radius < 1) {
+            sender.sendMessage(new ComponentBuilder("The radius must be at least 1 block.").color(ChatColor.RED).create());
+            return DONE;
+        }
+        
+        final boolean getRegions = !args.isEmpty();
+        return CompletableFuture.completedFuture(targetName)
+                .thenApply(name -> this.resolveTarget(sender, senderId, name))
+                .thenApply(targetId -> targetId == null ? null : this.authorize(sender, senderId, unlimited, targetId))
+                .thenCompose(target -> target == null ? DONE : this.queryArea(sender, target.getServer().getInfo().getName(), new LocationAreaRequest(0, senderId, target.getUniqueId(), radius, null, getRegions, true), "players near " + this.playerDataManager.getPlayerVisibleName(target.getUniqueId())));
     }
     
     /**
-     * Executes this {@code /where} {@link Command} as the console
-     * {@link CommandSender}.
+     * Executes a {@code /where --inside} {@link Command}, listing every
+     * {@link ProxiedPlayer} inside a WorldGuard region.
+     * <p>
+     * Region ids are only unique per world, so the search is sent to every
+     * server with players on it at once (or only to the named one), each of
+     * which answers from its region membership index, once its protocol
+     * version is known to support it. Servers that do not define the region,
+     * or have nobody in it, stay silent, and the sender is told once every
+     * server has answered if nobody was found at all.
      * 
-     * @param sender The console {@link CommandSender} executing this
-     *               {@link Command}.
+     * @param sender The {@link CommandSender} executing this {@link Command}.
+     * @param senderId The {@link UUID} of the sending {@link ProxiedPlayer},
+     *                 or {@code null} if the console is the sender.
      * @param args A {@link List} of supplied {@link Command} arguments.
+     * @return A {@link CompletableFuture} that completes once every server
+     *         has answered the search.
      */
-    private void executeConsole(@NotNull final CommandSender sender, @NotNull final List<String> args) {
+    @NotNull
+    private CompletableFuture<Void> executeInside(@NotNull final CommandSender sender, @Nullable final UUID senderId, @NotNull final List<String> args) {
         
-        if (args.isEmpty()) {
+        args.remove(0);
+        if (args.isEmpty() || this.isRegionFlag(args.get(0)) || this.isServerFlag(args.get(0))) {
             this.sendSyntax(sender);
-            return;
+            return DONE;
+        }
+        final String regionName = args.remove(0);
+        
+        final Collection<ServerInfo> servers;
+        if (!args.isEmpty() && this.isServerFlag(args.get(0))) {
+            if (args.size() < 2) {
+                this.sendSyntax(sender);
+                return DONE;
+            }
+            args.remove(0);
+            final String serverName = args.remove(0);
+            final ServerInfo server = this.proxy.getServerInfo(serverName);
+            if (server == null) {
+                sender.sendMessage(new ComponentBuilder("Unknown server ").color(ChatColor.RED).append(serverName).color(ChatColor.GOLD).create());
+                return DONE;
+            }
+            servers = Collections.singletonList(server);
+        } else {
+            servers = this.proxy.getServers().values();
+        }
+        if (!this.isRegionArgs(args)) {
+            this.sendSyntax(sender);
+            return DONE;
+        }
+        
+        final boolean getRegions = !args.isEmpty();
+        final List<CompletableFuture<Integer>> futures = new ArrayList<CompletableFuture<Integer>>();
+        for (final ServerInfo server : servers) {
+            if (server.getPlayers().isEmpty()) {
+                continue;
+            }
+            final String serverName = server.getName();
+            futures.add(this.protocols.probe(serverName).thenCompose(version -> version < LocationConstants.PROTOCOL_AREA ? UNSUPPORTED : this.queryRegion(serverName, new LocationAreaRequest(0, senderId, null, 0, regionName, getRegions, true), "players in region " + regionName)));
+        }
+        if (futures.isEmpty()) {
+            sender.sendMessage(new ComponentBuilder("There are no players on any server to search.").color(ChatColor.RED).create());
+            return DONE;
         }
         
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenRun(() -> {
+            boolean supported = false;
+            boolean defined = false;
+            boolean answered = true;
+            for (final CompletableFuture<Integer> future : futures) {
+                final Integer result = future.join();
+                if (result != null && result == REGION_UNSUPPORTED) {
+                    continue;
+                }
+                supported = true;
+                if (result == null) {
+                    answered = false;
+                    continue;
+                }
+                if (result > 0) {
+                    return;
+                }
+                defined |= result == 0;
+            }
+            if (!supported) {
+                sender.sendMessage(new ComponentBuilder("There are no servers with players that support region searches.").color(ChatColor.RED).create());
+            } else if (defined) {
+                sender.sendMessage(new ComponentBuilder("Nobody is in region ").color(ChatColor.RED).append(regionName).color(ChatColor.GOLD).append(".").color(ChatColor.RED).create());
+            } else if (answered) {
+                sender.sendMessage(new ComponentBuilder("The region ").color(ChatColor.RED).append(regionName).color(ChatColor.GOLD).append(" does not exist on any server with players.").color(ChatColor.RED).create());
+            } else {
+                sender.sendMessage(new ComponentBuilder("The region ").color(ChatColor.RED).append(regionName).color(ChatColor.GOLD).append(" does not exist on any server that answered.").color(ChatColor.RED).create());
+            }
+        });
+    }
+    
+    /**
+     * Executes a {@code /where <player> --at} or {@code /where <player>
+     * --trail} {@link Command}, showing where a {@link ProxiedPlayer} was in
+     * the past.
+     * <p>
+     * The target goes through the same resolve and authorize stages as a
+     * single location request, and the server of the target then answers from
+     * its location history, which only goes back to when the target joined
+     * that server.
+     * 
+     * @param sender The {@link CommandSender} executing this {@link Command}.
+     * @param senderId The {@link UUID} of the sending {@link ProxiedPlayer},
+     *                 or {@code null} if the console is the sender.
+     * @param unlimited {@code true} if the sender may check the location of
+     *                  any {@link ProxiedPlayer}, {@code false} if only the
+     *                  ones they outrank.
+     * @param args A {@link List} of supplied {@link Command} arguments.
+     * @return A {@link CompletableFuture} that completes once the history
+     *         request is answered, or right away if it was not sent.
+     */
+    @NotNull
+    private CompletableFuture<Void> executeHistory(@NotNull final CommandSender sender, @Nullable final UUID senderId, final boolean unlimited, @NotNull final List<String> args) {
+        
         final String targetName = args.remove(0);
-        if (targetName.equalsIgnoreCase(this.proxy.getConsole().getName())) {
-            sender.sendMessage(new ComponentBuilder("I would hope you know where you are, as you are the console...").color(ChatColor.GOLD).create());
+        final boolean trail = this.isTrailFlag(args.remove(0));
+        if (args.size() > 1 || (!trail && args.isEmpty())) {
+            this.sendSyntax(sender);
+            return DONE;
+        }
+        
+        final int ageSeconds;
+        if (args.isEmpty()) {
+            ageSeconds = 0;
+        } else {
+            final String rawDuration = args.remove(0);
+            ageSeconds = (int) Durations.parseSeconds(rawDuration, MAX_HISTORY_SECONDS);
+            if (ageSeconds < 1) {
+                sender.sendMessage(new ComponentBuilder("Invalid duration ").color(ChatColor.RED).append(rawDuration).color(ChatColor.GOLD).append(", use e.g. 30s, 5m or 1m30s.").color(ChatColor.RED).create());
+                return DONE;
+            }
+        }
+        
+        final int points = trail ? TRAIL_POINTS : 1;
+        return CompletableFuture.completedFuture(targetName)
+                .thenApply(name -> this.resolveTarget(sender, senderId, name))
+                .thenApply(targetId -> targetId == null ? null : this.authorize(sender, senderId, unlimited, targetId))
+                .thenCompose(target -> target == null ? DONE : this.queryHistory(sender, target.getServer().getInfo().getName(), new LocationHistoryRequest(0, senderId, target.getUniqueId(), ageSeconds, points, true), "location history of " + this.playerDataManager.getPlayerVisibleName(target.getUniqueId())));
+    }
+    
+    /**
+     * Starts following the given target for the given sender, if the server
+     * of the target supports it, and the sender is not already following too
+     * many other {@link ProxiedPlayer ProxiedPlayers}.
+     * 
+     * @param sender The {@link ProxiedPlayer} executing this {@link Command}.
+     * @param senderId The {@link UUID} of the sending {@link ProxiedPlayer}.
+     * @param target The target {@link ProxiedPlayer}.
+     * @param getRegions {@code true} if the WorldGuard regions should be
+     *                   shown with each update, {@code false} otherwise.
+     * @param version The probed protocol version of the server of the
+     *                target.
+     */
+    private void follow(@NotNull final ProxiedPlayer sender, @NotNull final UUID senderId, @NotNull final ProxiedPlayer target, final boolean getRegions, final int version) {
+        
+        final String displayName = this.playerDataManager.getPlayerVisibleName(target.getUniqueId());
+        final String serverName = target.getServer().getInfo().getName();
+        if (!FollowSubscriptions.isSupported(version)) {
+            sender.sendMessage(new ComponentBuilder("The server ").color(ChatColor.RED).append(serverName).color(ChatColor.GOLD).append(" does not support following players.").color(ChatColor.RED).create());
+            return;
+        }
+        if (this.followSubscriptions.getFollowCount(senderId) >= FollowSubscriptions.MAX_FOLLOWS) {
+            sender.sendMessage(new ComponentBuilder("You may not follow more than " + FollowSubscriptions.MAX_FOLLOWS + " players at once.").color(ChatColor.RED).create());
             return;
         }
         
+        this.followSubscriptions.follow(senderId, target, getRegions, version);
+        final ComponentBuilder builder = new ComponentBuilder("Now following ").color(ChatColor.GOLD);
+        builder.append(displayName).color(ChatColor.YELLOW);
+        builder.append(". Use ").color(ChatColor.GOLD);
+        builder.append("/where --unfollow").color(ChatColor.AQUA);
+        builder.append(" to stop.").color(ChatColor.GOLD);
+        sender.sendMessage(builder.create());
+    }
+    
+    /**
+     * Resolves the {@link UUID} of the target with the given visible name.
+     * 
+     * @param sender The {@link CommandSender} executing this {@link Command},
+     *               told if the target is unknown.
+     * @param senderId The {@link UUID} of the sending {@link ProxiedPlayer},
+     *                 or {@code null} if the console is the sender.
+     * @param targetName The name of the target.
+     * @return The {@link UUID} of the target, or {@code null} if it is
+     *         unknown.
+     */
+    @Nullable
+    private UUID resolveTarget(@NotNull final CommandSender sender, @Nullable final UUID senderId, @NotNull final String targetName) {
+        
         final UUID targetId = this.playerDataManager.getPlayerByVisibleName(targetName);
-        if (targetId == null) {
+        if (targetId != null) {
+            return targetId;
+        }
+        
+        if (senderId == null) {
             sender.sendMessage(new ComponentBuilder(targetName).color(ChatColor.GOLD).append(" is not online.").color(ChatColor.RED).create());
-            return;
+        } else {
+            sender.sendMessage(new ComponentBuilder("Unknown player ").color(ChatColor.RED).append(targetName).color(ChatColor.GOLD).create());
         }
+        return null;
+    }
+    
+    /**
+     * Checks that the sender may check the location of the given target, and
+     * that the target is online.
+     * 
+     * @param sender The {@link CommandSender} executing this {@link Command},
+     *               told if the target may not be located.
+     * @param senderId The {@link UUID} of the sending {@link ProxiedPlayer},
+     *                 or {@code null} if the console is the sender.
+     * @param unlimited {@code true} if the sender may check the location of
+     *                  any {@link ProxiedPlayer}, {@code false} if only the
+     *                  ones they outrank.
+     * @param targetId The {@link UUID} of the target.
+     * @return The target {@link ProxiedPlayer}, or {@code null} if they may
+     *         not be located.
+     */
+    @Nullable
+    private ProxiedPlayer authorize(@NotNull final CommandSender sender, @Nullable final UUID senderId, final boolean unlimited, @NotNull final UUID targetId) {
         
         final String displayName = this.playerDataManager.getPlayerVisibleName(targetId);
+        if (!unlimited && !this.playerDataManager.outranks(senderId, targetId)) {
+            
+            final ComponentBuilder builder = new ComponentBuilder("You do not have permission to check ").color(ChatColor.RED);
+            builder.append(displayName + "'s").color(ChatColor.GOLD);
+            builder.append(" location.").color(ChatColor.RED);
+            sender.sendMessage(builder.create());
+            return null;
+        }
+        
         final ProxiedPlayer target = this.proxy.getPlayer(targetId);
         if (target == null) {
             sender.sendMessage(new ComponentBuilder(displayName).color(ChatColor.GOLD).append(" is not online.").color(ChatColor.RED).create());
-            return;
         }
+        return target;
+    }
+    
+    /**
+     * Checks if the arguments after the target name are valid, which is
+     * either nothing, or a single regions flag.
+     * 
+     * @param args The remaining {@link Command} arguments.
+     * @return {@code true} if the arguments are valid, {@code false}
+     *         otherwise.
+     */
+    private boolean isRegionArgs(@NotNull final List<String> args) {
+        return args.isEmpty() || args.size() == 1 && this.isRegionFlag(args.get(0));
+    }
+    
+    /**
+     * Reports an unexpected failure of a {@code /where} {@link Command}.
+     * <p>
+     * Timeouts are not reported, as the sender is already told about them
+     * by the {@link PendingRequests}.
+     * 
+     * @param sender The {@link CommandSender} executing this {@link Command}.
+     * @param thrown The failure.
+     */
+    private void handleFailure(@NotNull final CommandSender sender, @NotNull final Throwable thrown) {
         
-        final String serverName = target.getServer().getInfo().getName();
-        if (args.isEmpty()) {
-            this.queryLocation(serverName, targetId, false);
+        final Throwable cause = thrown instanceof CompletionException && thrown.getCause() != null ? thrown.getCause() : thrown;
+        if (cause instanceof TimeoutException) {
             return;
         }
         
-        final String regionFlag = args.remove(0);
-        if (!args.isEmpty()) {
-            this.sendSyntax(sender);
-            return;
+        this.plugin.getLogger().log(Level.WARNING, "Unable to execute /where for " + sender.getName() + ".", cause);
+        sender.sendMessage(new ComponentBuilder("An error occurred while locating the player(s).").color(ChatColor.RED).create());
+    }
+    
+    /**
+     * Checks if the given arguments request the locations of more than one
+     * {@link ProxiedPlayer}, either by listing several names or by naming a
+     * server.
+     * 
+     * @param args A {@link List} of supplied {@link Command} arguments.
+     * @return {@code true} if this is a bulk request, {@code false}
+     *         otherwise.
+     */
+    private boolean isBulk(@NotNull final List<String> args) {
+        
+        if (this.isServerFlag(args.get(0))) {
+            return true;
         }
         
-        if (!regionFlag.equalsIgnoreCase("-r") && !regionFlag.equalsIgnoreCase("--regions")) {
-            this.sendSyntax(sender);
-            return;
+        int names = 0;
+        for (final String arg : args) {
+            if (!this.isRegionFlag(arg)) {
+                names++;
+            }
+        }
+        return names > 1;
+    }
+    
+    /**
+     * Executes a bulk {@code /where} {@link Command}, grouping the targets by
+     * the server they are connected to, so that each server is only sent a
+     * single request.
+     * 
+     * @param sender The {@link CommandSender} executing this {@link Command}.
+     * @param senderId The {@link UUID} of the sending {@link ProxiedPlayer},
+     *                 or {@code null} if the console is the sender.
+     * @param unlimited {@code true} if the sender may check the location of
+     *                  any {@link ProxiedPlayer}, {@code false} if only the
+     *                  ones they outrank.
+     * @param args A {@link List} of supplied {@link Command} arguments.
+     * @return A {@link CompletableFuture} that completes once every location
+     *         request is answered.
+     */
+    @NotNull
+    private CompletableFuture<Void> executeBulk(@NotNull final CommandSender sender, @Nullable final UUID senderId, final boolean unlimited, @NotNull final List<String> args) {
+        
+        boolean getRegions = false;
+        if (this.isRegionFlag(args.get(args.size() - 1))) {
+            args.remove(args.size() - 1);
+            getRegions = true;
+        }
+        
+        final Map<String, List<UUID>> targets = new LinkedHashMap<String, List<UUID>>();
+        if (this.isServerFlag(args.get(0))) {
+            
+            if (args.size() != 2) {
+                this.sendSyntax(sender);
+                return DONE;
+            }
+            
+            final ServerInfo server = this.proxy.getServerInfo(args.get(1));
+            if (server == null) {
+                sender.sendMessage(new ComponentBuilder("Unknown server ").color(ChatColor.RED).append(args.get(1)).color(ChatColor.GOLD).create());
+                return DONE;
+            }
+            
+            final List<UUID> targetIds = new ArrayList<UUID>();
+            for (final ProxiedPlayer player : server.getPlayers()) {
+                final UUID targetId = player.getUniqueId();
+                if (unlimited || targetId.equals(senderId) || this.playerDataManager.outranks(senderId, targetId)) {
+                    targetIds.add(targetId);
+                }
+            }
+            if (targetIds.isEmpty()) {
+                sender.sendMessage(new ComponentBuilder("There are no players you can locate on ").color(ChatColor.RED).append(server.getName()).color(ChatColor.GOLD).append(".").color(ChatColor.RED).create());
+                return DONE;
+            }
+            targets.put(server.getName(), targetIds);
+            
+        } else {
+            
+            for (final String targetName : args) {
+                
+                if (this.isRegionFlag(targetName) || this.isServerFlag(targetName)) {
+                    this.sendSyntax(sender);
+                    return DONE;
+                }
+                
+                final UUID targetId = this.playerDataManager.getPlayerByVisibleName(targetName);
+                if (targetId == null) {
+                    sender.sendMessage(new ComponentBuilder("Unknown player ").color(ChatColor.RED).append(targetName).color(ChatColor.GOLD).create());
+                    continue;
+                }
+                
+                final String displayName = this.playerDataManager.getPlayerVisibleName(targetId);
+                if (!unlimited && !targetId.equals(senderId) && !this.playerDataManager.outranks(senderId, targetId)) {
+                    final ComponentBuilder builder = new ComponentBuilder("You do not have permission to check ").color(ChatColor.RED);
+                    builder.append(displayName + "'s").color(ChatColor.GOLD);
+                    builder.append(" location.").color(ChatColor.RED);
+                    sender.sendMessage(builder.create());
+                    continue;
+                }
+                
+                final ProxiedPlayer target = this.proxy.getPlayer(targetId);
+                if (target == null) {
+                    sender.sendMessage(new ComponentBuilder(displayName).color(ChatColor.GOLD).append(" is not online.").color(ChatColor.RED).create());
+                    continue;
+                }
+                
+                final List<UUID> targetIds = targets.computeIfAbsent(target.getServer().getInfo().getName(), serverName -> new ArrayList<UUID>());
+                if (!targetIds.contains(targetId)) {
+                    targetIds.add(targetId);
+                }
+            }
         }
         
-        this.queryLocation(serverName, targetId, true);
+        final List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>(targets.size());
+        for (final Map.Entry<String, List<UUID>> entry : targets.entrySet()) {
+            futures.add(this.queryLocations(entry.getKey(), senderId, entry.getValue(), getRegions));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]));
+    }
+    
+    /**
+     * Checks if the given argument is the regions flag.
+     * 
+     * @param arg The argument to check.
+     * @return {@code true} if the argument is {@code -r} or
+     *         {@code --regions}, {@code false} otherwise.
+     */
+    private boolean isRegionFlag(@NotNull final String arg) {
+        return arg.equalsIgnoreCase("-r") || arg.equalsIgnoreCase("--regions");
+    }
+    
+    /**
+     * Checks if the given argument is the server flag.
+     * 
+     * @param arg The argument to check.
+     * @return {@code true} if the argument is {@code -s} or
+     *         {@code --server}, {@code false} otherwise.
+     */
+    private boolean isServerFlag(@NotNull final String arg) {
+        return arg.equalsIgnoreCase("-s") || arg.equalsIgnoreCase("--server");
+    }
+    
+    /**
+     * Checks if the given argument is the follow flag.
+     * 
+     * @param arg The argument to check.
+     * @return {@code true} if the argument is {@code -f} or
+     *         {@code --follow}, {@code false} otherwise.
+     */
+    private boolean isFollowFlag(@NotNull final String arg) {
+        return arg.equalsIgnoreCase("-f") || arg.equalsIgnoreCase("--follow");
+    }
+    
+    /**
+     * Checks if the given argument is the near flag.
+     * 
+     * @param arg The argument to check.
+     * @return {@code true} if the argument is {@code -n} or {@code --near},
+     *         {@code false} otherwise.
+     */
+    private boolean isNearFlag(@NotNull final String arg) {
+        return arg.equalsIgnoreCase("-n") || arg.equalsIgnoreCase("--near");
+    }
+    
+    /**
+     * Checks if the given argument is the inside flag.
+     * 
+     * @param arg The argument to check.
+     * @return {@code true} if the argument is {@code -i} or
+     *         {@code --inside}, {@code false} otherwise.
+     */
+    private boolean isInsideFlag(@NotNull final String arg) {
+        return arg.equalsIgnoreCase("-i") || arg.equalsIgnoreCase("--inside");
+    }
+    
+    /**
+     * Checks if the given argument is the at flag.
+     * 
+     * @param arg The argument to check.
+     * @return {@code true} if the argument is {@code --at}, {@code false}
+     *         otherwise.
+     */
+    private boolean isAtFlag(@NotNull final String arg) {
+        return arg.equalsIgnoreCase("--at");
+    }
+    
+    /**
+     * Checks if the given argument is the trail flag.
+     * 
+     * @param arg The argument to check.
+     * @return {@code true} if the argument is {@code -t} or
+     *         {@code --trail}, {@code false} otherwise.
+     */
+    private boolean isTrailFlag(@NotNull final String arg) {
+        return arg.equalsIgnoreCase("-t") || arg.equalsIgnoreCase("--trail");
+    }
+    
+    /**
+     * Checks if the given argument is the unfollow flag.
+     * 
+     * @param arg The argument to check.
+     * @return {@code true} if the argument is {@code --unfollow},
+     *         {@code false} otherwise.
+     */
+    private boolean isUnfollowFlag(@NotNull final String arg) {
+        return arg.equalsIgnoreCase("--unfollow");
     }
     
     /**
@@ -227,9 +904,33 @@ public final class WhereCommand extends Command implements TabExecutor {
         builder.append("/where").color(ChatColor.AQUA);
         
         if (!(sender instanceof ProxiedPlayer)) {
-            builder.append(" <player> [-r|--regions]").color(ChatColor.GREEN);
+            builder.append(" <player...|-s <server>> [-r|--regions]").color(ChatColor.GREEN);
+            builder.append("\nSyntax: ").color(ChatColor.RED);
+            builder.append("/where").color(ChatColor.AQUA);
+            builder.append(" -n|--near <player> <radius> [-r|--regions]").color(ChatColor.GREEN);
+            builder.append("\nSyntax: ").color(ChatColor.RED);
+            builder.append("/where").color(ChatColor.AQUA);
+            builder.append(" -i|--inside <region> [-s <server>] [-r|--regions]").color(ChatColor.GREEN);
+            builder.append("\nSyntax: ").color(ChatColor.RED);
+            builder.append("/where").color(ChatColor.AQUA);
+            builder.append(" <player> --at <duration>|-t|--trail [duration]").color(ChatColor.GREEN);
         } else if (sender.hasPermission(BungeeLocationPlugin.PERMISSION_UNLIMITED) || sender.hasPermission(BungeeLocationPlugin.PERMISSION_LIMITED)) {
-            builder.append(" [player] [-r|--regions]");
+            builder.append(" [player...|-s <server>] [-r|--regions]");
+            builder.append("\nSyntax: ").color(ChatColor.RED);
+            builder.append("/where").color(ChatColor.AQUA);
+            builder.append(" -n|--near <player> <radius> [-r|--regions]");
+            builder.append("\nSyntax: ").color(ChatColor.RED);
+            builder.append("/where").color(ChatColor.AQUA);
+            builder.append(" -i|--inside <region> [-s <server>] [-r|--regions]");
+            builder.append("\nSyntax: ").color(ChatColor.RED);
+            builder.append("/where").color(ChatColor.AQUA);
+            builder.append(" <player> --at <duration>|-t|--trail [duration]");
+            builder.append("\nSyntax: ").color(ChatColor.RED);
+            builder.append("/where").color(ChatColor.AQUA);
+            builder.append(" -f|--follow <player> [-r|--regions]");
+            builder.append("\nSyntax: ").color(ChatColor.RED);
+            builder.append("/where").color(ChatColor.AQUA);
+            builder.append(" --unfollow [player]");
         }
         
         sender.sendMessage(builder.create());
@@ -240,57 +941,200 @@ public final class WhereCommand extends Command implements TabExecutor {
      * {@link UUID}, returning the WorldGuard regions the player is in, if
      * requested.
      * <p>
-     * This method is called by the Console {@link CommandSender}.
+     * The request is sent in the binary format if the Bukkit plugin on the
+     * target server supports it, otherwise it falls back to the text format.
+     * A server whose protocol version is not known yet is probed first.
+     * Either way, it is tracked by the {@link PendingRequests} until it is
+     * answered or times out. Binary requests sampled by the
+     * {@link RequestTracer} carry the time they were dispatched.
+     * <p>
+     * Nothing is sent if the {@link ResponseCache} holds a recent response
+     * for the target, or if an identical request is already in flight to a
+     * server that supports request ids. The sender is shown that response
+     * instead.
      * 
      * @param serverName The name of the server that the target
      *                   {@link ProxiedPlayer} is connected to.
+     * @param senderId The {@link UUID} of the sending {@link ProxiedPlayer},
+     *                 or {@code null} if the console is the sender.
      * @param targetId The {@link UUID} of the target {@link ProxiedPlayer}.
      * @param getRegions {@code true} if the WorldGuard regions should be
      *                   retrieved, {@code false} otherwise.
      */
-    private void queryLocation(@NotNull final String serverName, @NotNull final UUID targetId, final boolean getRegions) {
-        this.queryLocation(serverName, this.proxy.getConsole().getName(), targetId.toString(), getRegions);
+    @NotNull
+    private CompletableFuture<Void> queryLocation(@NotNull final String serverName, @Nullable final UUID senderId, @NotNull final UUID targetId, final boolean getRegions) {
+        
+        if (this.plugin.sendCached(serverName, senderId, targetId, getRegions)) {
+            return DONE;
+        }
+        
+        final String description = this.playerDataManager.getPlayerVisibleName(targetId);
+        return this.protocols.probe(serverName).thenCompose(version -> {
+            final int requestId;
+            if (version >= LocationConstants.PROTOCOL_REQUEST_ID) {
+                requestId = this.pendingRequests.trackCoalesced(serverName, senderId, targetId, getRegions, description);
+                if (requestId == 0) {
+                    return this.pendingRequests.getCompletion(serverName, targetId, getRegions);
+                }
+            } else {
+                requestId = 0;
+                this.pendingRequests.trackByTarget(serverName, senderId, targetId, description);
+            }
+            
+            if (version >= LocationConstants.PROTOCOL_BINARY) {
+                final LocationTrace trace = version >= LocationConstants.PROTOCOL_TRACE && this.tracer.sample() ? new LocationTrace(System.nanoTime()) : null;
+                final LocationRequest request = new LocationRequest(requestId, senderId, targetId, getRegions, version >= LocationConstants.PROTOCOL_DIRECTION, trace);
+                this.send(serverName, LocationConstants.BINARY_REQUEST_CHANNEL + LocationConstants.SEPARATOR + LocationCodec.encodeRequest(request));
+                return requestId == 0 ? DONE : this.pendingRequests.getCompletion(requestId);
+            }
+            
+            this.send(serverName, LocationConstants.REQUEST_CHANNEL + LocationConstants.SEPARATOR + TextCodec.encodeRequest(senderId, targetId, getRegions, this.proxy.getConsole().getName()));
+            return DONE;
+        });
     }
     
     /**
-     * Queries the location of the {@link ProxiedPlayer} with the given target
-     * {@link UUID}, returning the WorldGuard regions the player is in, if
-     * requested.
+     * Queries the locations of every {@link ProxiedPlayer} in an area of the
+     * given server, if the Bukkit plugin on the server supports it.
      * <p>
-     * This method is called by another {@link ProxiedPlayer} sender.
+     * The request is tracked by the {@link PendingRequests} until it is
+     * answered or times out.
      * 
-     * @param serverName The name of the server that the target
-     *                   {@link ProxiedPlayer} is connected to.
-     * @param senderId The {@link UUID} of the sending {@link ProxiedPlayer}.
-     * @param targetId The {@link UUID} of the target {@link ProxiedPlayer}.
-     * @param getRegions {@code true} if the WorldGuard regions should be
-     *                   retrieved, {@code false} otherwise.
+     * @param sender The {@link CommandSender} executing this {@link Command},
+     *               told if the server does not support area requests.
+     * @param serverName The name of the server to query.
+     * @param area The {@link LocationAreaRequest} to send, whose request id
+     *             is replaced with the tracked one.
+     * @param description A description of the area, shown to the sender if
+     *                    the request times out.
+     * @return A {@link CompletableFuture} that completes once the area
+     *         request is answered, or right away if it was not sent.
      */
-    private void queryLocation(@NotNull final String serverName, @NotNull final UUID senderId, @NotNull final UUID targetId, final boolean getRegions) {
-        this.queryLocation(serverName, senderId.toString(), targetId.toString(), getRegions);
+    @NotNull
+    private CompletableFuture<Void> queryArea(@NotNull final CommandSender sender, @NotNull final String serverName, @NotNull final LocationAreaRequest area, @NotNull final String description) {
+        
+        return this.protocols.probe(serverName).thenCompose(version -> {
+            if (version < LocationConstants.PROTOCOL_AREA) {
+                sender.sendMessage(new ComponentBuilder("The server ").color(ChatColor.RED).append(serverName).color(ChatColor.GOLD).append(" does not support area searches.").color(ChatColor.RED).create());
+                return DONE;
+            }
+            
+            final int requestId = this.pendingRequests.track(serverName, area.getSenderId(), description);
+            final LocationAreaRequest request = new LocationAreaRequest(requestId, area.getSenderId(), area.getCenterId(), area.getRadius(), area.getRegionName(), area.isRegions(), area.isDirectionOnly());
+            this.send(serverName, LocationConstants.BINARY_REQUEST_CHANNEL + LocationConstants.SEPARATOR + LocationCodec.encodeAreaRequest(request));
+            return this.pendingRequests.getCompletion(requestId);
+        });
     }
     
     /**
-     * Queries the location of the {@link ProxiedPlayer} with the given target
-     * {@link UUID}, returning the WorldGuard regions the player is in, if
+     * Queries the past locations of a {@link ProxiedPlayer} from the location
+     * history of the given server, if the Bukkit plugin on the server
+     * supports it.
+     * <p>
+     * The request is tracked by the {@link PendingRequests} until it is
+     * answered or times out.
+     * 
+     * @param sender The {@link CommandSender} executing this {@link Command},
+     *               told if the server does not support history requests.
+     * @param serverName The name of the server to query.
+     * @param history The {@link LocationHistoryRequest} to send, whose
+     *                request id is replaced with the tracked one.
+     * @param description A description of the request, shown to the sender
+     *                    if the request times out.
+     * @return A {@link CompletableFuture} that completes once the history
+     *         request is answered, or right away if it was not sent.
+     */
+    @NotNull
+    private CompletableFuture<Void> queryHistory(@NotNull final CommandSender sender, @NotNull final String serverName, @NotNull final LocationHistoryRequest history, @NotNull final String description) {
+        
+        return this.protocols.probe(serverName).thenCompose(version -> {
+            if (version < LocationConstants.PROTOCOL_HISTORY) {
+                sender.sendMessage(new ComponentBuilder("The server ").color(ChatColor.RED).append(serverName).color(ChatColor.GOLD).append(" does not support location history.").color(ChatColor.RED).create());
+                return DONE;
+            }
+            
+            final int requestId = this.pendingRequests.track(serverName, history.getSenderId(), description);
+            final LocationHistoryRequest request = new LocationHistoryRequest(requestId, history.getSenderId(), history.getTargetId(), history.getAgeSeconds(), history.getPoints(), history.isDirectionOnly());
+            this.send(serverName, LocationConstants.BINARY_REQUEST_CHANNEL + LocationConstants.SEPARATOR + LocationCodec.encodeHistoryRequest(request));
+            return this.pendingRequests.getCompletion(requestId);
+        });
+    }
+    
+    /**
+     * Searches a single server for the {@link ProxiedPlayer ProxiedPlayers}
+     * in a WorldGuard region, as part of a search across several servers.
+     * <p>
+     * The server must already be known to support area requests. The request
+     * is tracked by the {@link PendingRequests} until it is answered or times
+     * out.
+     * 
+     * @param serverName The name of the server to query.
+     * @param area The {@link LocationAreaRequest} to send, whose request id
+     *             is replaced with the tracked one.
+     * @param description A description of the region, shown to the sender if
+     *                    the request times out.
+     * @return A {@link CompletableFuture} that completes with the number of
+     *         {@link ProxiedPlayer ProxiedPlayers} in the region on the
+     *         server, {@code -1} if it does not define the region, or
+     *         {@code null} if it did not answer.
+     */
+    @NotNull
+    private CompletableFuture<Integer> queryRegion(@NotNull final String serverName, @NotNull final LocationAreaRequest area, @NotNull final String description) {
+        
+        final int requestId = this.pendingRequests.track(serverName, area.getSenderId(), description);
+        final LocationAreaRequest request = new LocationAreaRequest(requestId, area.getSenderId(), area.getCenterId(), area.getRadius(), area.getRegionName(), area.isRegions(), area.isDirectionOnly());
+        this.send(serverName, LocationConstants.BINARY_REQUEST_CHANNEL + LocationConstants.SEPARATOR + LocationCodec.encodeAreaRequest(request));
+        return this.pendingRequests.getResult(requestId).handle((result, thrown) -> thrown == null ? result : null);
+    }
+    
+    /**
+     * Queries the locations of the {@link ProxiedPlayer ProxiedPlayers} with
+     * the given target {@link UUID UUIDs}, which are all connected to the
+     * same server.
+     * <p>
+     * The targets are sent in a single bulk request if the Bukkit plugin on
+     * the server supports it, otherwise each target is queried on its own.
      * 
      * @param serverName The name of the server that the target
-     *                   {@link ProxiedPlayer} is connected to.
-     * @param senderId The {@link String} value of the {@link CommandSender}.
-     * @param targetId The {@link String} value of the {@link UUID} of the
-     *                 target {@link ProxiedPlayer}.
+     *                   {@link ProxiedPlayer ProxiedPlayers} are connected
+     *                   to.
+     * @param senderId The {@link UUID} of the sending {@link ProxiedPlayer},
+     *                 or {@code null} if the console is the sender.
+     * @param targetIds The {@link UUID UUIDs} of the target
+     *                  {@link ProxiedPlayer ProxiedPlayers}.
      * @param getRegions {@code true} if the WorldGuard regions should be
      *                   retrieved, {@code false} otherwise.
      */
-    private void queryLocation(@NotNull final String serverName, @NotNull final String senderId, @NotNull final String targetId, final boolean getRegions) {
-        
-        final StringBuilder builder = new StringBuilder();
-        builder.append(LocationConstants.REQUEST_CHANNEL).append(LocationConstants.SEPARATOR);
-        builder.append(senderId).append(LocationConstants.SEPARATOR);
-        builder.append(targetId).append(LocationConstants.SEPARATOR);
-        builder.append(getRegions);
+    @NotNull
+    CompletableFuture<Void> queryLocations(@NotNull final String serverName, @Nullable final UUID senderId, @NotNull final List<UUID> targetIds, final boolean getRegions) {
         
-        this.ipcPlugin.sendMessage(serverName, builder.toString());
+        return this.protocols.probe(serverName).thenCompose(version -> {
+            if (version >= LocationConstants.PROTOCOL_BULK) {
+                final int requestId = version >= LocationConstants.PROTOCOL_REQUEST_ID ? this.pendingRequests.track(serverName, senderId, targetIds.size() + " player(s)") : 0;
+                final BulkLocationRequest request = new BulkLocationRequest(requestId, senderId, targetIds, getRegions, version >= LocationConstants.PROTOCOL_DIRECTION);
+                this.send(serverName, LocationConstants.BINARY_REQUEST_CHANNEL + LocationConstants.SEPARATOR + LocationCodec.encodeBulkRequest(request));
+                return requestId == 0 ? DONE : this.pendingRequests.getCompletion(requestId);
+            }
+            
+            final CompletableFuture<?>[] futures = new CompletableFuture<?>[targetIds.size()];
+            for (int index = 0; index < futures.length; index++) {
+                futures[index] = this.queryLocation(serverName, senderId, targetIds.get(index), getRegions);
+            }
+            return CompletableFuture.allOf(futures);
+        });
+    }
+    
+    /**
+     * Sends a request message to the given server, recording how long the
+     * IPC plugin takes to accept it.
+     * 
+     * @param serverName The name of the server.
+     * @param message The message, including the channel.
+     */
+    private void send(@NotNull final String serverName, @NotNull final String message) {
+        final long started = System.nanoTime();
+        this.ipcPlugin.sendMessage(serverName, message);
+        this.metrics.record(QueryMetrics.Stage.SEND, started);
     }
     
     /**
@@ -305,90 +1149,82 @@ public final class WhereCommand extends Command implements TabExecutor {
     @UnmodifiableView
     public Iterable<String> onTabComplete(@NotNull final CommandSender sender, @NotNull final String[] args) {
         
-        final List<String> argsList = new ArrayList<String>(Arrays.asList(args));
-        final Collection<String> completions = new ArrayList<String>();
-        
-        final boolean unlimited;
-        final boolean limited;
-        
-        final Collection<ProxiedPlayer> players = this.proxy.getPlayers();
-        if (!(sender instanceof ProxiedPlayer)) {
-            
-            for (final ProxiedPlayer player : players) {
-                final String name = player.getName();
-                final String displayName = this.playerDataManager.getPlayerVisibleName(player.getUniqueId());
-                completions.add(player.getName());
-                if (!displayName.equalsIgnoreCase(name)) {
-                    completions.add(displayName);
-                }
-            }
-            
-            unlimited = true;
-            limited = true;
-            
-        } else if (sender.hasPermission(BungeeLocationPlugin.PERMISSION_UNLIMITED)) {
-            
-            for (final ProxiedPlayer player : players) {
-                final String name = player.getName();
-                final String displayName = this.playerDataManager.getPlayerVisibleName(player.getUniqueId());
-                completions.add(player.getName());
-                if (!displayName.equalsIgnoreCase(name)) {
-                    completions.add(displayName);
-                }
-            }
-            
-            unlimited = true;
-            limited = false;
-            
+        final UUID limitedId;
+        if (!(sender instanceof ProxiedPlayer) || sender.hasPermission(BungeeLocationPlugin.PERMISSION_UNLIMITED)) {
+            limitedId = null;
         } else if (sender.hasPermission(BungeeLocationPlugin.PERMISSION_LIMITED)) {
-            
-            for (final ProxiedPlayer player : players) {
-                final UUID senderId = ((ProxiedPlayer) sender).getUniqueId();
-                final UUID targetId = player.getUniqueId();
-                if (!this.playerDataManager.outranks(senderId, targetId)) {
-                    continue;
-                }
-                
-                final String name = player.getName();
-                final String displayName = this.playerDataManager.getPlayerVisibleName(player.getUniqueId());
-                completions.add(player.getName());
-                if (!displayName.equalsIgnoreCase(name)) {
-                    completions.add(displayName);
-                }
-            }
-            
-            unlimited = false;
-            limited = true;
-            
+            limitedId = ((ProxiedPlayer) sender).getUniqueId();
         } else {
-            unlimited = false;
-            limited = false;
-        }
-        
-        if (argsList.isEmpty()) {
-            return Collections.unmodifiableCollection(completions);
-        }
-        
-        if (!unlimited && !limited) {
             return Collections.emptyList();
         }
         
-        final String targetName = argsList.remove(0);
+        final List<String> argsList = new ArrayList<String>(Arrays.asList(args));
         if (argsList.isEmpty()) {
-            completions.removeIf(completion -> !completion.toLowerCase().startsWith(targetName.toLowerCase()));
-            return Collections.unmodifiableCollection(completions);
+            return Collections.unmodifiableList(this.nameIndex.complete("", limitedId));
         }
         
-        completions.clear();
-        completions.add("-r");
-        completions.add("--regions");
-        
-        final String regionFlag = argsList.remove(0);
-        if (argsList.isEmpty()) {
-            completions.removeIf(completion -> !completion.toLowerCase().startsWith(regionFlag.toLowerCase()));
-            return Collections.unmodifiableCollection(completions);
+        final String lastArg = argsList.remove(argsList.size() - 1);
+        final List<String> completions = new ArrayList<String>();
+        if (!argsList.isEmpty() && sender instanceof ProxiedPlayer && (this.isFollowFlag(argsList.get(0)) || this.isUnfollowFlag(argsList.get(0)))) {
+            if (argsList.size() == 1) {
+                completions.addAll(this.nameIndex.complete(lastArg, limitedId));
+            } else if (argsList.size() == 2 && this.isFollowFlag(argsList.get(0))) {
+                completions.add("-r");
+                completions.add("--regions");
+            }
+        } else if (!argsList.isEmpty() && this.isNearFlag(argsList.get(0))) {
+            if (argsList.size() == 1) {
+                completions.addAll(this.nameIndex.complete(lastArg, limitedId));
+            } else if (argsList.size() == 3) {
+                completions.add("-r");
+                completions.add("--regions");
+            }
+        } else if (!argsList.isEmpty() && this.isInsideFlag(argsList.get(0))) {
+            if (argsList.size() == 2) {
+                completions.add("-s");
+                completions.add("--server");
+                completions.add("-r");
+                completions.add("--regions");
+            } else if (argsList.size() == 3 && this.isServerFlag(argsList.get(2))) {
+                completions.addAll(this.proxy.getServers().keySet());
+            } else if (argsList.size() == 4 && this.isServerFlag(argsList.get(2))) {
+                completions.add("-r");
+                completions.add("--regions");
+            }
+        } else if (!argsList.isEmpty() && this.isServerFlag(argsList.get(0))) {
+            if (argsList.size() == 1) {
+                completions.addAll(this.proxy.getServers().keySet());
+            } else if (argsList.size() == 2) {
+                completions.add("-r");
+                completions.add("--regions");
+            }
+        } else if (!argsList.isEmpty() && this.isRegionFlag(argsList.get(argsList.size() - 1))) {
+            return Collections.emptyList();
+        } else if (argsList.size() >= 2 && (this.isAtFlag(argsList.get(1)) || this.isTrailFlag(argsList.get(1)))) {
+            return Collections.emptyList();
+        } else {
+            completions.addAll(this.nameIndex.complete(lastArg, limitedId));
+            if (argsList.isEmpty()) {
+                completions.add("-s");
+                completions.add("--server");
+                completions.add("--near");
+                completions.add("--inside");
+                if (sender instanceof ProxiedPlayer) {
+                    completions.add("--follow");
+                    completions.add("--unfollow");
+                }
+            } else {
+                completions.add("-r");
+                completions.add("--regions");
+                if (argsList.size() == 1) {
+                    completions.add("--at");
+                    completions.add("--trail");
+                }
+            }
         }
         
-        return Collections.emptyList();
+        final String prefix = lastArg.toLowerCase(Locale.ROOT);
+        completions.removeIf(completion -> !completion.toLowerCase(Locale.ROOT).startsWith(prefix));
+        return Collections.unmodifiableList(completions);
     }
 }
@@ -0,0 +1,189 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and
+ * BungeeCord proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.bspfsystems.bungeelocation.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Reads primitive values written by a {@link BinaryWriter}.
+ * <p>
+ * All read methods throw an {@link IllegalArgumentException} if the message
+ * is truncated, so that callers can handle malformed messages the same way
+ * they handle malformed {@link UUID UUIDs}.
+ */
+public final class BinaryReader {
+    
+    private static final Base64.Decoder DECODER = Base64.getDecoder();
+    
+    private final byte[] buffer;
+    private int position;
+    
+    /**
+     * Constructs a new {@link BinaryReader} over the given raw bytes.
+     * 
+     * @param buffer The raw bytes.
+     */
+    public BinaryReader(final byte[] buffer) {
+        this.buffer = buffer;
+        this.position = 0;
+    }
+    
+    /**
+     * Constructs a new {@link BinaryReader} over a message created by
+     * {@link BinaryWriter#toMessage()}.
+     * 
+     * @param message The encoded message.
+     * @return The new {@link BinaryReader}.
+     * @throws IllegalArgumentException If the message is not validly encoded.
+     */
+    public static BinaryReader fromMessage(final String message) {
+        return new BinaryReader(DECODER.decode(message));
+    }
+    
+    /**
+     * Reads a single unsigned byte.
+     * 
+     * @return The value, from {@code 0} to {@code 255}.
+     */
+    public int readUnsignedByte() {
+        this.require(1);
+        return this.buffer[this.position++] & 0xFF;
+    }
+    
+    /**
+     * Reads an unsigned 16-bit value.
+     * 
+     * @return The value, from {@code 0} to {@code 65535}.
+     */
+    public int readUnsignedShort() {
+        this.require(2);
+        return (this.buffer[this.position++] & 0xFF) << 8 | this.buffer[this.position++] & 0xFF;
+    }
+    
+    /**
+     * Reads a 32-bit integer.
+     * 
+     * @return The value.
+     */
+    public int readInt() {
+        this.require(4);
+        return (this.buffer[this.position++] & 0xFF) << 24
+                | (this.buffer[this.position++] & 0xFF) << 16
+                | (this.buffer[this.position++] & 0xFF) << 8
+                | this.buffer[this.position++] & 0xFF;
+    }
+    
+    /**
+     * Reads an unsigned variable-length integer written by
+     * {@link BinaryWriter#writeVarInt(int)}.
+     * 
+     * @return The value.
+     */
+    public int readVarInt() {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            this.require(1);
+            final int next = this.buffer[this.position++];
+            value |= (next & 0x7F) << shift;
+            if ((next & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Variable-length integer is too long at offset " + this.position + ".");
+    }
+    
+    /**
+     * Reads a signed variable-length integer written by
+     * {@link BinaryWriter#writeSignedVarInt(int)}.
+     * 
+     * @return The value.
+     */
+    public int readSignedVarInt() {
+        final int value = this.readVarInt();
+        return value >>> 1 ^ -(value & 1);
+    }
+    
+    /**
+     * Reads a 64-bit integer.
+     * 
+     * @return The value.
+     */
+    public long readLong() {
+        final long high = this.readInt();
+        return high << 32 | this.readInt() & 0xFFFFFFFFL;
+    }
+    
+    /**
+     * Reads a 32-bit floating point value.
+     * 
+     * @return The value.
+     */
+    public float readFloat() {
+        return Float.intBitsToFloat(this.readInt());
+    }
+    
+    /**
+     * Reads a {@link UUID}.
+     * 
+     * @return The {@link UUID}.
+     */
+    public UUID readUUID() {
+        final long most = this.readLong();
+        return new UUID(most, this.readLong());
+    }
+    
+    /**
+     * Reads a length-prefixed UTF-8 {@link String}.
+     * 
+     * @return The {@link String}.
+     */
+    public String readString() {
+        final int length = this.readUnsignedShort();
+        this.require(length);
+        final String value = new String(this.buffer, this.position, length, StandardCharsets.UTF_8);
+        this.position += length;
+        return value;
+    }
+    
+    /**
+     * Checks if there are any unread bytes remaining.
+     * 
+     * @return {@code true} if there are unread bytes, {@code false} otherwise.
+     */
+    public boolean hasRemaining() {
+        return this.position < this.buffer.length;
+    }
+    
+    /**
+     * Verifies that the given number of bytes are available to be read.
+     * 
+     * @param length The number of bytes that are about to be read.
+     * @throws IllegalArgumentException If the message is too short.
+     */
+    private void require(final int length) {
+        if (this.position + length > this.buffer.length) {
+            throw new IllegalArgumentException("Truncated message, needed " + length + " more byte(s) at offset " + this.position + ".");
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and
+ * BungeeCord proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.bspfsystems.bungeelocation.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Writes primitive values into a growable, big-endian byte buffer for the
+ * binary IPC protocol.
+ * <p>
+ * The finished buffer is converted to a {@link String} with
+ * {@link #toMessage()}, as the underlying IPC transport only carries text.
+ */
+public final class BinaryWriter {
+    
+    private static final Base64.Encoder ENCODER = Base64.getEncoder().withoutPadding();
+    
+    private byte[] buffer;
+    private int position;
+    
+    /**
+     * Constructs a new {@link BinaryWriter} with the given initial capacity.
+     * 
+     * @param capacity The initial capacity, in bytes.
+     */
+    public BinaryWriter(final int capacity) {
+        this.buffer = new byte[Math.max(capacity, 16)];
+        this.position = 0;
+    }
+    
+    /**
+     * Writes a single byte.
+     * 
+     * @param value The byte value (only the low 8 bits are used).
+     * @return This {@link BinaryWriter}.
+     */
+    public BinaryWriter writeByte(final int value) {
+        this.ensure(1);
+        this.buffer[this.position++] = (byte) value;
+        return this;
+    }
+    
+    /**
+     * Writes an unsigned 16-bit value.
+     * 
+     * @param value The value, from {@code 0} to {@code 65535}.
+     * @return This {@link BinaryWriter}.
+     * @throws IllegalArgumentException If the value is out of range.
+     */
+    public BinaryWriter writeUnsignedShort(final int value) {
+        if (value < 0 || value > 0xFFFF) {
+            throw new IllegalArgumentException("Value out of range for an unsigned short: " + value);
+        }
+        this.ensure(2);
+        this.buffer[this.position++] = (byte) (value >>> 8);
+        this.buffer[this.position++] = (byte) value;
+        return this;
+    }
+    
+    /**
+     * Writes a 32-bit integer.
+     * 
+     * @param value The value.
+     * @return This {@link BinaryWriter}.
+     */
+    public BinaryWriter writeInt(final int value) {
+        this.ensure(4);
+        this.buffer[this.position++] = (byte) (value >>> 24);
+        this.buffer[this.position++] = (byte) (value >>> 16);
+        this.buffer[this.position++] = (byte) (value >>> 8);
+        this.buffer[this.position++] = (byte) value;
+        return this;
+    }
+    
+    /**
+     * Writes an unsigned variable-length integer, using 7 bits per byte, so
+     * that small values take a single byte.
+     * 
+     * @param value The value, treated as unsigned.
+     * @return This {@link BinaryWriter}.
+     */
+    public BinaryWriter writeVarInt(final int value) {
+        this.ensure(5);
+        int remaining = value;
+        while ((remaining & ~0x7F) != 0) {
+            this.buffer[this.position++] = (byte) (remaining & 0x7F | 0x80);
+            remaining >>>= 7;
+        }
+        this.buffer[this.position++] = (byte) remaining;
+        return this;
+    }
+    
+    /**
+     * Writes a signed variable-length integer, zigzag-encoded so that small
+     * negative values take as few bytes as small positive ones.
+     * 
+     * @param value The value.
+     * @return This {@link BinaryWriter}.
+     */
+    public BinaryWriter writeSignedVarInt(final int value) {
+        return this.writeVarInt(value << 1 ^ value >> 31);
+    }
+    
+    /**
+     * Writes a 64-bit integer.
+     * 
+     * @param value The value.
+     * @return This {@link BinaryWriter}.
+     */
+    public BinaryWriter writeLong(final long value) {
+        this.writeInt((int) (value >>> 32));
+        return this.writeInt((int) value);
+    }
+    
+    /**
+     * Writes a 32-bit floating point value.
+     * 
+     * @param value The value.
+     * @return This {@link BinaryWriter}.
+     */
+    public BinaryWriter writeFloat(final float value) {
+        return this.writeInt(Float.floatToIntBits(value));
+    }
+    
+    /**
+     * Writes a {@link UUID} as its most significant and least significant
+     * 64 bits.
+     * 
+     * @param value The {@link UUID}.
+     * @return This {@link BinaryWriter}.
+     */
+    public BinaryWriter writeUUID(final UUID value) {
+        this.writeLong(value.getMostSignificantBits());
+        return this.writeLong(value.getLeastSignificantBits());
+    }
+    
+    /**
+     * Writes a {@link String} as an unsigned 16-bit length followed by its
+     * UTF-8 bytes.
+     * 
+     * @param value The {@link String}.
+     * @return This {@link BinaryWriter}.
+     * @throws IllegalArgumentException If the encoded value is longer than
+     *                                  {@code 65535} bytes.
+     */
+    public BinaryWriter writeString(final String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        this.writeUnsignedShort(bytes.length);
+        this.ensure(bytes.length);
+        System.arraycopy(bytes, 0, this.buffer, this.position, bytes.length);
+        this.position += bytes.length;
+        return this;
+    }
+    
+    /**
+     * Gets the number of bytes written so far.
+     * 
+     * @return The number of bytes written.
+     */
+    public int size() {
+        return this.position;
+    }
+    
+    /**
+     * Encodes the written bytes into a {@link String} that is safe to send as
+     * part of an IPC message.
+     * 
+     * @return The encoded message.
+     */
+    public String toMessage() {
+        return ENCODER.encodeToString(this.position == this.buffer.length ? this.buffer : Arrays.copyOf(this.buffer, this.position));
+    }
+    
+    /**
+     * Grows the buffer, if needed, so that the given number of bytes may be
+     * written.
+     * 
+     * @param length The number of bytes that are about to be written.
+     */
+    private void ensure(final int length) {
+        if (this.position + length <= this.buffer.length) {
+            return;
+        }
+        this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length << 1, this.position + length));
+    }
+}
@@ -0,0 +1,95 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and
+ * BungeeCord proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.bspfsystems.bungeelocation.core;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Represents the response to a {@link BulkLocationRequest}, sent from the
+ * Bukkit plugin back to the BungeeCord plugin.
+ */
+public final class BulkLocationResponse {
+    
+    private final int requestId;
+    private final UUID senderId;
+    private final List<LocationResponse> locations;
+    private final List<UUID> offlineIds;
+    
+    /**
+     * Constructs a new {@link BulkLocationResponse}.
+     * 
+     * @param requestId The id used to match the response to the request,
+     *                  or {@code 0} if the request is not tracked.
+     * @param senderId The {@link UUID} of the player that requested the
+     *                 locations, or {@code null} if the request came from the
+     *                 console.
+     * @param locations The locations of the targets that are online, in the
+     *                  order they were requested.
+     * @param offlineIds The {@link UUID UUIDs} of the targets that are no
+     *                   longer online on the server.
+     */
+    public BulkLocationResponse(final int requestId, final UUID senderId, final List<LocationResponse> locations, final List<UUID> offlineIds) {
+        this.requestId = requestId;
+        this.senderId = senderId;
+        this.locations = locations;
+        this.offlineIds = offlineIds;
+    }
+    
+    /**
+     * Gets the id used to match the response to the request.
+     * 
+     * @return The request id, or {@code 0} if the request is not tracked.
+     */
+    public int getRequestId() {
+        return this.requestId;
+    }
+    
+    /**
+     * Gets the {@link UUID} of the player that requested the locations.
+     * 
+     * @return The sender {@link UUID}, or {@code null} if the request came
+     *         from the console.
+     */
+    public UUID getSenderId() {
+        return this.senderId;
+    }
+    
+    /**
+     * Gets the locations of the targets that are online.
+     * 
+     * @return The {@link LocationResponse LocationResponses}.
+     */
+    public List<LocationResponse> getLocations() {
+        return this.locations;
+    }
+    
+    /**
+     * Gets the {@link UUID UUIDs} of the targets that are no longer online on
+     * the server.
+     * 
+     * @return The offline target {@link UUID UUIDs}.
+     */
+    public List<UUID> getOfflineIds() {
+        return this.offlineIds;
+    }
+}
@@ -0,0 +1,113 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and
+ * BungeeCord proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.bspfsystems.bungeelocation.core;
+
+/**
+ * Represents the 8-way compass direction a player is facing.
+ * <p>
+ * The direction is found by quantizing the yaw to a byte angle (256 steps
+ * per full turn, like the Minecraft protocol does), and looking it up in a
+ * precomputed table, so no normalization or range checks are needed. Each
+ * direction covers exactly 45 degrees, centered on its compass point.
+ */
+public enum Direction {
+    
+    SOUTH("South"),
+    SOUTHWEST("Southwest"),
+    WEST("West"),
+    NORTHWEST("Northwest"),
+    NORTH("North"),
+    NORTHEAST("Northeast"),
+    EAST("East"),
+    SOUTHEAST("Southeast"),
+    UNDETERMINED("Undetermined");
+    
+    private static final Direction[] VALUES = Direction.values();
+    private static final Direction[] BY_ANGLE = new Direction[256];
+    
+    static {
+        for (int angle = 0; angle < BY_ANGLE.length; angle++) {
+            BY_ANGLE[angle] = VALUES[((angle + 16) >> 5) & 7];
+        }
+    }
+    
+    private final String name;
+    
+    /**
+     * Constructs a new {@link Direction}.
+     * 
+     * @param name The display name.
+     */
+    Direction(final String name) {
+        this.name = name;
+    }
+    
+    /**
+     * Gets the display name of this {@link Direction}.
+     * 
+     * @return The display name.
+     */
+    public String getName() {
+        return this.name;
+    }
+    
+    /**
+     * Gets the id of this {@link Direction}, used to send it as a single
+     * byte.
+     * 
+     * @return The id.
+     */
+    public int getId() {
+        return this.ordinal();
+    }
+    
+    /**
+     * Gets the {@link Direction} for the given yaw.
+     * 
+     * @param yaw The yaw, in degrees, where {@code 0} faces south and
+     *            {@code 90} faces west. Any value is accepted, as the angle
+     *            wraps around.
+     * @return The {@link Direction}, or {@link #UNDETERMINED} if the yaw is
+     *         not a finite number.
+     */
+    public static Direction fromYaw(final float yaw) {
+        if (Float.isNaN(yaw) || Float.isInfinite(yaw)) {
+            return UNDETERMINED;
+        }
+        return BY_ANGLE[(int) ((long) Math.floor(yaw * 256.0D / 360.0D) & 0xFFL)];
+    }
+    
+    /**
+     * Gets the {@link Direction} with the given id.
+     * 
+     * @param id The id, as returned by {@link #getId()}.
+     * @return The {@link Direction}.
+     * @throws IllegalArgumentException If there is no {@link Direction} with
+     *                                  the given id.
+     */
+    public static Direction fromId(final int id) {
+        if (id < 0 || id >= VALUES.length) {
+            throw new IllegalArgumentException("Invalid direction id: " + id);
+        }
+        return VALUES[id];
+    }
+}
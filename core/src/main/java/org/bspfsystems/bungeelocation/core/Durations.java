@@ -0,0 +1,91 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and
+ * BungeeCord proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.bspfsystems.bungeelocation.core;
+
+import java.util.Locale;
+
+/**
+ * Parses the durations typed in the commands of the Bukkit and BungeeCord
+ * plugins, such as {@code 90}, {@code 30s}, {@code 5m}, {@code 1h} or
+ * {@code 1m30s}.
+ */
+public final class Durations {
+    
+    /**
+     * Parses a duration into seconds. A bare number is a number of seconds,
+     * and a number followed by {@code h}, {@code m} or {@code s} is a number
+     * of hours, minutes or seconds. Several of them may be combined, such as
+     * {@code 1h30m}.
+     * 
+     * @param rawDuration The duration, as typed by the sender.
+     * @param maxSeconds The longest duration allowed, in seconds.
+     * @return The duration in seconds, or {@code -1} if it is invalid or
+     *         longer than the given maximum.
+     */
+    public static long parseSeconds(final String rawDuration, final long maxSeconds) {
+        
+        final String duration = rawDuration.toLowerCase(Locale.ROOT);
+        if (duration.isEmpty()) {
+            return -1L;
+        }
+        
+        long seconds = 0L;
+        long value = -1L;
+        for (int index = 0; index < duration.length(); index++) {
+            final char next = duration.charAt(index);
+            if (next >= '0' && next <= '9') {
+                value = (value < 0L ? 0L : value * 10L) + (next - '0');
+                if (value > maxSeconds) {
+                    return -1L;
+                }
+                continue;
+            }
+            if (value < 0L) {
+                return -1L;
+            }
+            if (next == 'h') {
+                seconds += value * 3600L;
+            } else if (next == 'm') {
+                seconds += value * 60L;
+            } else if (next == 's') {
+                seconds += value;
+            } else {
+                return -1L;
+            }
+            if (seconds > maxSeconds) {
+                return -1L;
+            }
+            value = -1L;
+        }
+        if (value >= 0L) {
+            seconds += value;
+        }
+        return seconds > maxSeconds ? -1L : seconds;
+    }
+    
+    /**
+     * Prevents instantiation of this utility class.
+     */
+    private Durations() {
+        // Do nothing.
+    }
+}
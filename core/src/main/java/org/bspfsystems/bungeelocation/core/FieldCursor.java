@@ -0,0 +1,396 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and
+ * BungeeCord proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.bspfsystems.bungeelocation.core;
+
+import java.util.UUID;
+
+/**
+ * Reads the fields of a text IPC message in place, without splitting the
+ * message into separate {@link String Strings}.
+ * <p>
+ * Fields are separated by {@link LocationConstants#SEPARATOR}. Like the
+ * {@link java.util.StringTokenizer} that was used before, empty fields are
+ * skipped. The cursor starts before the first field; {@link #next()} moves it
+ * onto the next field, after which the typed accessors parse the current
+ * field directly from the underlying {@link CharSequence}.
+ * <p>
+ * A {@link FieldCursor} is not thread-safe, but may be re-used for several
+ * messages via {@link #reset(CharSequence)}.
+ */
+public final class FieldCursor {
+    
+    private static final char SEPARATOR = LocationConstants.SEPARATOR.charAt(0);
+    private static final int UUID_LENGTH = 36;
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    
+    private CharSequence message;
+    private int start;
+    private int end;
+    
+    /**
+     * Constructs a new {@link FieldCursor} over the given message.
+     * 
+     * @param message The message to read.
+     */
+    public FieldCursor(final CharSequence message) {
+        this.reset(message);
+    }
+    
+    /**
+     * Resets this {@link FieldCursor} to read the given message from the
+     * start.
+     * 
+     * @param message The message to read.
+     * @return This {@link FieldCursor}.
+     */
+    public FieldCursor reset(final CharSequence message) {
+        this.message = message;
+        this.start = 0;
+        this.end = 0;
+        return this;
+    }
+    
+    /**
+     * Moves the cursor onto the next non-empty field.
+     * 
+     * @return {@code true} if there was another field, {@code false} if the
+     *         end of the message has been reached.
+     */
+    public boolean next() {
+        
+        final int length = this.message.length();
+        int index = this.end;
+        while (index < length && this.message.charAt(index) == SEPARATOR) {
+            index++;
+        }
+        if (index >= length) {
+            this.start = length;
+            this.end = length;
+            return false;
+        }
+        
+        this.start = index;
+        while (index < length && this.message.charAt(index) != SEPARATOR) {
+            index++;
+        }
+        this.end = index;
+        return true;
+    }
+    
+    /**
+     * Moves the cursor onto the next non-empty field, failing if there is
+     * none.
+     * 
+     * @return This {@link FieldCursor}.
+     * @throws IllegalArgumentException If the end of the message has been
+     *                                  reached.
+     */
+    public FieldCursor require() {
+        if (!this.next()) {
+            throw new IllegalArgumentException("Unexpected end of message.");
+        }
+        return this;
+    }
+    
+    /**
+     * Counts the non-empty fields after the current one, without moving the
+     * cursor.
+     * 
+     * @return The number of remaining fields.
+     */
+    public int remaining() {
+        
+        final int length = this.message.length();
+        int count = 0;
+        boolean inField = false;
+        for (int index = this.end; index < length; index++) {
+            if (this.message.charAt(index) == SEPARATOR) {
+                inField = false;
+            } else if (!inField) {
+                inField = true;
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Gets the length of the current field.
+     * 
+     * @return The length of the current field.
+     */
+    public int length() {
+        return this.end - this.start;
+    }
+    
+    /**
+     * Checks if the current field is equal to the given value, ignoring case.
+     * 
+     * @param value The value to compare against.
+     * @return {@code true} if the current field matches, {@code false}
+     *         otherwise.
+     */
+    public boolean equalsIgnoreCase(final String value) {
+        
+        final int length = this.end - this.start;
+        if (value.length() != length) {
+            return false;
+        }
+        for (int index = 0; index < length; index++) {
+            final char a = this.message.charAt(this.start + index);
+            final char b = value.charAt(index);
+            if (a != b && Character.toUpperCase(a) != Character.toUpperCase(b) && Character.toLowerCase(a) != Character.toLowerCase(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Parses the current field as a boolean, in the same way as
+     * {@link Boolean#parseBoolean(String)}.
+     * 
+     * @return {@code true} if the current field is {@code "true"}, ignoring
+     *         case, {@code false} otherwise.
+     */
+    public boolean booleanValue() {
+        return this.equalsIgnoreCase("true");
+    }
+    
+    /**
+     * Parses the current field as a decimal integer.
+     * 
+     * @return The parsed value.
+     * @throws NumberFormatException If the current field is not a valid
+     *                               integer.
+     */
+    public int intValue() {
+        
+        int index = this.start;
+        if (index >= this.end) {
+            throw new NumberFormatException("Empty field.");
+        }
+        
+        final boolean negative = this.message.charAt(index) == '-';
+        if (negative || this.message.charAt(index) == '+') {
+            index++;
+        }
+        if (index >= this.end) {
+            throw this.numberFormat();
+        }
+        
+        long value = 0L;
+        for (; index < this.end; index++) {
+            final int digit = this.message.charAt(index) - '0';
+            if (digit < 0 || digit > 9) {
+                throw this.numberFormat();
+            }
+            value = value * 10L + digit;
+            if (value > (long) Integer.MAX_VALUE + 1L) {
+                throw this.numberFormat();
+            }
+        }
+        
+        if (negative) {
+            value = -value;
+        }
+        if (value > Integer.MAX_VALUE) {
+            throw this.numberFormat();
+        }
+        return (int) value;
+    }
+    
+    /**
+     * Parses the current field as a floating point value.
+     * <p>
+     * Plain decimal values with an optional exponent (as produced by
+     * {@link Float#toString(float)}) are parsed in place. Anything else, such
+     * as {@code "NaN"}, falls back to {@link Float#parseFloat(String)}.
+     * 
+     * @return The parsed value.
+     * @throws NumberFormatException If the current field is not a valid
+     *                               floating point value.
+     */
+    public float floatValue() {
+        
+        int index = this.start;
+        if (index >= this.end) {
+            throw new NumberFormatException("Empty field.");
+        }
+        
+        final boolean negative = this.message.charAt(index) == '-';
+        if (negative || this.message.charAt(index) == '+') {
+            index++;
+        }
+        
+        long mantissa = 0L;
+        int digits = 0;
+        int exponent = 0;
+        boolean seenDigit = false;
+        boolean seenPoint = false;
+        for (; index < this.end; index++) {
+            final char c = this.message.charAt(index);
+            if (c >= '0' && c <= '9') {
+                seenDigit = true;
+                if (digits < 18) {
+                    mantissa = mantissa * 10L + (c - '0');
+                    if (mantissa != 0L) {
+                        digits++;
+                    }
+                    if (seenPoint) {
+                        exponent--;
+                    }
+                } else if (!seenPoint) {
+                    exponent++;
+                }
+            } else if (c == '.' && !seenPoint) {
+                seenPoint = true;
+            } else {
+                break;
+            }
+        }
+        
+        if (!seenDigit) {
+            return Float.parseFloat(this.toString());
+        }
+        
+        if (index < this.end) {
+            final char c = this.message.charAt(index);
+            if (c != 'e' && c != 'E') {
+                return Float.parseFloat(this.toString());
+            }
+            index++;
+            if (index >= this.end) {
+                throw this.numberFormat();
+            }
+            final boolean negativeExponent = this.message.charAt(index) == '-';
+            if (negativeExponent || this.message.charAt(index) == '+') {
+                index++;
+            }
+            if (index >= this.end) {
+                throw this.numberFormat();
+            }
+            int explicit = 0;
+            for (; index < this.end; index++) {
+                final int digit = this.message.charAt(index) - '0';
+                if (digit < 0 || digit > 9) {
+                    throw this.numberFormat();
+                }
+                explicit = Math.min(explicit * 10 + digit, 1000);
+            }
+            exponent += negativeExponent ? -explicit : explicit;
+        }
+        
+        if (exponent < -22 || exponent > 22) {
+            return Float.parseFloat(this.toString());
+        }
+        
+        double value = mantissa;
+        if (exponent < 0) {
+            value /= POWERS_OF_TEN[-exponent];
+        } else {
+            value *= POWERS_OF_TEN[exponent];
+        }
+        return (float) (negative ? -value : value);
+    }
+    
+    /**
+     * Parses the current field as a {@link UUID}.
+     * <p>
+     * The canonical 36-character form is parsed in place. Anything else falls
+     * back to {@link UUID#fromString(String)}.
+     * 
+     * @return The parsed {@link UUID}.
+     * @throws IllegalArgumentException If the current field is not a valid
+     *                                  {@link UUID}.
+     */
+    public UUID uuidValue() {
+        
+        if (this.end - this.start != UUID_LENGTH
+                || this.message.charAt(this.start + 8) != '-'
+                || this.message.charAt(this.start + 13) != '-'
+                || this.message.charAt(this.start + 18) != '-'
+                || this.message.charAt(this.start + 23) != '-') {
+            return UUID.fromString(this.toString());
+        }
+        
+        final long most = this.hex(0, 8) << 32 | this.hex(9, 13) << 16 | this.hex(14, 18);
+        final long least = this.hex(19, 23) << 48 | this.hex(24, 36);
+        return new UUID(most, least);
+    }
+    
+    /**
+     * Appends the current field to the given {@link StringBuilder}, without
+     * creating an intermediate {@link String}.
+     * 
+     * @param builder The {@link StringBuilder} to append to.
+     * @return The given {@link StringBuilder}.
+     */
+    public StringBuilder appendTo(final StringBuilder builder) {
+        return builder.append(this.message, this.start, this.end);
+    }
+    
+    /**
+     * Gets the current field as a new {@link String}.
+     * 
+     * @return The current field.
+     */
+    @Override
+    public String toString() {
+        return this.message.subSequence(this.start, this.end).toString();
+    }
+    
+    /**
+     * Parses the hexadecimal digits between the given offsets of the current
+     * field.
+     * 
+     * @param from The offset of the first digit, inclusive.
+     * @param to The offset of the last digit, exclusive.
+     * @return The parsed value.
+     * @throws IllegalArgumentException If a character is not a hexadecimal
+     *                                  digit.
+     */
+    private long hex(final int from, final int to) {
+        
+        long value = 0L;
+        for (int index = this.start + from; index < this.start + to; index++) {
+            final int digit = Character.digit(this.message.charAt(index), 16);
+            if (digit < 0) {
+                throw new IllegalArgumentException("Invalid UUID string: " + this);
+            }
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+    
+    /**
+     * Creates a {@link NumberFormatException} for the current field.
+     * 
+     * @return The new {@link NumberFormatException}.
+     */
+    private NumberFormatException numberFormat() {
+        return new NumberFormatException("For input string: \"" + this + "\"");
+    }
+}
@@ -0,0 +1,207 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and
+ * BungeeCord proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.bspfsystems.bungeelocation.core;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records latencies, in nanoseconds, into a fixed set of logarithmic
+ * buckets, in the style of an HDR histogram.
+ * <p>
+ * Each power of two is split into {@value #SUB_BUCKETS} linear buckets, so
+ * every recorded value is reported within about 6% of its real value, from
+ * a few nanoseconds up to hours, in a fixed array of counters.
+ * <p>
+ * Recording is lock-free and does not allocate, so it may be done on every
+ * request from any thread. Reading the percentiles walks the buckets, and is
+ * only meant for the occasional report; it does not stop concurrent
+ * recording, so a report may be off by the values recorded while it runs.
+ */
+public final class LatencyHistogram {
+    
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    
+    private final AtomicLongArray counts;
+    private final LongAdder count;
+    private final LongAdder total;
+    private final AtomicLong max;
+    
+    /**
+     * Constructs a new, empty {@link LatencyHistogram}.
+     */
+    public LatencyHistogram() {
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.count = new LongAdder();
+        this.total = new LongAdder();
+        this.max = new AtomicLong(0L);
+    }
+    
+    /**
+     * Records a single latency.
+     * 
+     * @param nanos The latency, in nanoseconds. Negative values are recorded
+     *              as {@code 0}.
+     */
+    public void record(final long nanos) {
+        
+        final long value = Math.max(0L, nanos);
+        this.counts.incrementAndGet(LatencyHistogram.getIndex(value));
+        this.count.increment();
+        this.total.add(value);
+        
+        long current = this.max.get();
+        while (value > current && !this.max.compareAndSet(current, value)) {
+            current = this.max.get();
+        }
+    }
+    
+    /**
+     * Records the time elapsed since the given start time.
+     * 
+     * @param startNanos The start time, as returned by
+     *                   {@link System#nanoTime()}.
+     */
+    public void recordSince(final long startNanos) {
+        this.record(System.nanoTime() - startNanos);
+    }
+    
+    /**
+     * Gets the number of recorded latencies.
+     * 
+     * @return The number of recorded latencies.
+     */
+    public long getCount() {
+        return this.count.sum();
+    }
+    
+    /**
+     * Gets the mean of the recorded latencies.
+     * 
+     * @return The mean, in nanoseconds, or {@code 0} if nothing was
+     *         recorded.
+     */
+    public long getMean() {
+        final long recorded = this.count.sum();
+        return recorded == 0L ? 0L : this.total.sum() / recorded;
+    }
+    
+    /**
+     * Gets the largest recorded latency.
+     * 
+     * @return The largest latency, in nanoseconds, or {@code 0} if nothing
+     *         was recorded.
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+    
+    /**
+     * Gets the latency at the given percentile.
+     * 
+     * @param percentile The percentile, from {@code 0} to {@code 100}.
+     * @return The highest value in the bucket holding the percentile, in
+     *         nanoseconds, capped at the largest recorded latency, or
+     *         {@code 0} if nothing was recorded.
+     */
+    public long getPercentile(final double percentile) {
+        
+        long recorded = 0L;
+        for (int index = 0; index < BUCKETS; index++) {
+            recorded += this.counts.get(index);
+        }
+        if (recorded == 0L) {
+            return 0L;
+        }
+        
+        final long rank = Math.max(1L, (long) Math.ceil(Math.min(100.0D, Math.max(0.0D, percentile)) / 100.0D * recorded));
+        long seen = 0L;
+        for (int index = 0; index < BUCKETS; index++) {
+            seen += this.counts.get(index);
+            if (seen >= rank) {
+                return Math.min(LatencyHistogram.getHighestValue(index), this.max.get());
+            }
+        }
+        return this.max.get();
+    }
+    
+    /**
+     * Formats a summary of the recorded latencies, in milliseconds, for
+     * reports and logs.
+     * 
+     * @return The summary.
+     */
+    public String format() {
+        return "n=" + this.getCount()
+                + " mean=" + LatencyHistogram.toMillis(this.getMean())
+                + " p50=" + LatencyHistogram.toMillis(this.getPercentile(50.0D))
+                + " p90=" + LatencyHistogram.toMillis(this.getPercentile(90.0D))
+                + " p99=" + LatencyHistogram.toMillis(this.getPercentile(99.0D))
+                + " p99.9=" + LatencyHistogram.toMillis(this.getPercentile(99.9D))
+                + " max=" + LatencyHistogram.toMillis(this.getMax()) + " ms";
+    }
+    
+    /**
+     * Gets the bucket of the given value. Small values each have their own
+     * bucket, and each power of two above them is split into
+     * {@value #SUB_BUCKETS} buckets.
+     * 
+     * @param value The value, which must not be negative.
+     * @return The index of the bucket.
+     */
+    private static int getIndex(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+    
+    /**
+     * Gets the highest value that falls into the given bucket.
+     * 
+     * @param index The index of the bucket.
+     * @return The highest value.
+     */
+    private static long getHighestValue(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKETS - 1;
+        final long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1L;
+    }
+    
+    /**
+     * Converts nanoseconds to milliseconds, with three decimal places.
+     * 
+     * @param nanos The value, in nanoseconds.
+     * @return The value, in milliseconds.
+     */
+    private static String toMillis(final long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0D);
+    }
+}
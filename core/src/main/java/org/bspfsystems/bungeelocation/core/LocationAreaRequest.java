@@ -0,0 +1,146 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and
+ * BungeeCord proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.bspfsystems.bungeelocation.core;
+
+import java.util.UUID;
+
+/**
+ * Represents a request for the locations of every player in an area of a
+ * server, sent from the BungeeCord plugin to the Bukkit plugin on that
+ * server.
+ * <p>
+ * The area is either a sphere around a center player, or a WorldGuard
+ * region. The Bukkit plugin answers with a single
+ * {@link LocationAreaResponse}.
+ */
+public final class LocationAreaRequest {
+    
+    private final int requestId;
+    private final UUID senderId;
+    private final UUID centerId;
+    private final int radius;
+    private final String regionName;
+    private final boolean regions;
+    private final boolean directionOnly;
+    
+    /**
+     * Constructs a new {@link LocationAreaRequest}.
+     * <p>
+     * Exactly one of the center {@link UUID} and the region name must be
+     * given.
+     * 
+     * @param requestId The id used to match the response to the request,
+     *                  or {@code 0} if the request is not tracked.
+     * @param senderId The {@link UUID} of the player that requested the
+     *                 locations, or {@code null} if the request came from the
+     *                 console.
+     * @param centerId The {@link UUID} of the player at the center of the
+     *                 area, or {@code null} if the area is a region.
+     * @param radius The radius around the center player, in blocks, or
+     *               {@code 0} if the area is a region.
+     * @param regionName The id of the WorldGuard region, or {@code null} if
+     *                   the area is around a center player.
+     * @param regions {@code true} if the WorldGuard regions should be
+     *                retrieved, {@code false} otherwise.
+     * @param directionOnly {@code true} if only the compass direction of
+     *                      the targets should be sent back, instead of the
+     *                      exact yaw.
+     */
+    public LocationAreaRequest(final int requestId, final UUID senderId, final UUID centerId, final int radius, final String regionName, final boolean regions, final boolean directionOnly) {
+        this.requestId = requestId;
+        this.senderId = senderId;
+        this.centerId = centerId;
+        this.radius = radius;
+        this.regionName = regionName;
+        this.regions = regions;
+        this.directionOnly = directionOnly;
+    }
+    
+    /**
+     * Gets the id used to match the response to the request.
+     * 
+     * @return The request id, or {@code 0} if the request is not tracked.
+     */
+    public int getRequestId() {
+        return this.requestId;
+    }
+    
+    /**
+     * Gets the {@link UUID} of the player that requested the locations.
+     * 
+     * @return The sender {@link UUID}, or {@code null} if the request came
+     *         from the console.
+     */
+    public UUID getSenderId() {
+        return this.senderId;
+    }
+    
+    /**
+     * Gets the {@link UUID} of the player at the center of the area.
+     * 
+     * @return The center {@link UUID}, or {@code null} if the area is a
+     *         region.
+     */
+    public UUID getCenterId() {
+        return this.centerId;
+    }
+    
+    /**
+     * Gets the radius around the center player.
+     * 
+     * @return The radius, in blocks, or {@code 0} if the area is a region.
+     */
+    public int getRadius() {
+        return this.radius;
+    }
+    
+    /**
+     * Gets the id of the WorldGuard region.
+     * 
+     * @return The region id, or {@code null} if the area is around a center
+     *         player.
+     */
+    public String getRegionName() {
+        return this.regionName;
+    }
+    
+    /**
+     * Checks if the WorldGuard regions should be retrieved.
+     * 
+     * @return {@code true} if the WorldGuard regions should be retrieved,
+     *         {@code false} otherwise.
+     */
+    public boolean isRegions() {
+        return this.regions;
+    }
+    
+    /**
+     * Checks if only the compass direction of the targets should be sent
+     * back, instead of the exact yaw.
+     * 
+     * @return {@code true} if only the {@link Direction} should be sent,
+     *         {@code false} otherwise.
+     */
+    public boolean isDirectionOnly() {
+        return this.directionOnly;
+    }
+}
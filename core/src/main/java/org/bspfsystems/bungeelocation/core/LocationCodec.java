@@ -0,0 +1,1267 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and
+ * BungeeCord proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.bspfsystems.bungeelocation.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Encodes and decodes the messages of the binary IPC protocol.
+ * <p>
+ * Every message starts with the protocol version and the message type, each
+ * as a single byte, followed by a flags byte, the request id (if any) and the
+ * sender (unless it is the console). {@link UUID UUIDs} are sent as two
+ * longs, coordinates as ints, the yaw as a float (or, if the request asked
+ * for it, the {@link Direction} as a single byte), and world and region
+ * names as length-prefixed UTF-8. Region names may instead be sent as the
+ * ids of a {@link RegionDictionary}, and either way are preceded by their
+ * count as a varint. The resulting bytes are Base64-encoded, so a binary
+ * message never contains {@link LocationConstants#SEPARATOR}.
+ * <p>
+ * The lower six bits of the flags byte mean the same in every message type.
+ * The upper two bits are reused, and only mean something in the message
+ * types that each of those flags is documented for.
+ */
+public final class LocationCodec {
+    
+    /**
+     * The message type of a {@link LocationRequest}.
+     */
+    public static final int TYPE_REQUEST = 1;
+    
+    /**
+     * The message type of a {@link LocationResponse}.
+     */
+    public static final int TYPE_RESPONSE = 2;
+    
+    /**
+     * The message type of a {@link BulkLocationRequest}, supported since
+     * {@link LocationConstants#PROTOCOL_BULK}.
+     */
+    public static final int TYPE_BULK_REQUEST = 3;
+    
+    /**
+     * The message type of a {@link BulkLocationResponse}, supported since
+     * {@link LocationConstants#PROTOCOL_BULK}.
+     */
+    public static final int TYPE_BULK_RESPONSE = 4;
+    
+    /**
+     * The message type of a {@link LocationListRequest}, supported since
+     * {@link LocationConstants#PROTOCOL_LIST}.
+     */
+    public static final int TYPE_LIST_REQUEST = 5;
+    
+    /**
+     * The message type of a {@link LocationListPage}, supported since
+     * {@link LocationConstants#PROTOCOL_LIST}.
+     */
+    public static final int TYPE_LIST_PAGE = 6;
+    
+    /**
+     * The message type of a {@link LocationNotFound}, supported since
+     * {@link LocationConstants#PROTOCOL_REQUEST_ID}.
+     */
+    public static final int TYPE_NOT_FOUND = 7;
+    
+    /**
+     * The message type of a {@link LocationFollowRequest}, supported since
+     * {@link LocationConstants#PROTOCOL_FOLLOW}.
+     */
+    public static final int TYPE_FOLLOW_REQUEST = 8;
+    
+    /**
+     * The message type of a {@link LocationResponse} pushed for a followed
+     * target, supported since {@link LocationConstants#PROTOCOL_FOLLOW}.
+     */
+    public static final int TYPE_FOLLOW_UPDATE = 9;
+    
+    /**
+     * The message type sent when a followed target leaves the server,
+     * supported since {@link LocationConstants#PROTOCOL_FOLLOW}.
+     */
+    public static final int TYPE_FOLLOW_END = 10;
+    
+    /**
+     * The message type of a {@link LocationDelta}, supported since
+     * {@link LocationConstants#PROTOCOL_DELTA}.
+     */
+    public static final int TYPE_FOLLOW_DELTA = 11;
+    
+    /**
+     * The message type announcing new entries of the {@link RegionDictionary}
+     * of a server, supported since
+     * {@link LocationConstants#PROTOCOL_REGION_IDS}.
+     */
+    public static final int TYPE_REGION_DICTIONARY = 12;
+    
+    /**
+     * The message type of a {@link LocationAreaRequest}, supported since
+     * {@link LocationConstants#PROTOCOL_AREA}.
+     */
+    public static final int TYPE_AREA_REQUEST = 13;
+    
+    /**
+     * The message type of a {@link LocationAreaResponse}, supported since
+     * {@link LocationConstants#PROTOCOL_AREA}.
+     */
+    public static final int TYPE_AREA_RESPONSE = 14;
+    
+    /**
+     * The message type of a {@link LocationHistoryRequest}, supported since
+     * {@link LocationConstants#PROTOCOL_HISTORY}.
+     */
+    public static final int TYPE_HISTORY_REQUEST = 15;
+    
+    /**
+     * The message type of a {@link LocationHistoryResponse}, supported since
+     * {@link LocationConstants#PROTOCOL_HISTORY}.
+     */
+    public static final int TYPE_HISTORY_RESPONSE = 16;
+    
+    private static final int FLAG_REGIONS = 0x01;
+    private static final int FLAG_CONSOLE = 0x02;
+    private static final int FLAG_WORLD = 0x04;
+    private static final int FLAG_REGIONS_UNKNOWN = 0x08;
+    private static final int FLAG_REQUEST_ID = 0x10;
+    private static final int FLAG_DIRECTION = 0x20;
+    
+    /**
+     * Set on a location, or a {@link #TYPE_FOLLOW_DELTA}, whose WorldGuard
+     * regions are sent as {@link RegionDictionary} ids.
+     */
+    private static final int FLAG_REGION_IDS = 0x40;
+    
+    /**
+     * Set on a {@link #TYPE_FOLLOW_REQUEST} that stops following the target.
+     */
+    private static final int FLAG_STOP = 0x40;
+    
+    /**
+     * Set on a {@link #TYPE_AREA_REQUEST} or {@link #TYPE_AREA_RESPONSE}
+     * whose area is a WorldGuard region.
+     */
+    private static final int FLAG_AREA_REGION = 0x40;
+    
+    /**
+     * Set on a {@link #TYPE_REQUEST} that is traced.
+     */
+    private static final int FLAG_TRACE = 0x80;
+    
+    /**
+     * Set on a {@link #TYPE_FOLLOW_REQUEST} that asks for
+     * {@link #TYPE_FOLLOW_DELTA} updates.
+     */
+    private static final int FLAG_DELTA = 0x80;
+    
+    /**
+     * Set on a {@link #TYPE_FOLLOW_DELTA} that is a keyframe.
+     */
+    private static final int FLAG_KEYFRAME = 0x80;
+    
+    /**
+     * Set on a {@link #TYPE_AREA_RESPONSE} whose center player is not online
+     * on the server, or whose WorldGuard region does not exist there.
+     */
+    private static final int FLAG_AREA_NOT_FOUND = 0x80;
+    
+    /**
+     * Set on a {@link #TYPE_HISTORY_RESPONSE} whose target is no longer
+     * online on the server.
+     */
+    private static final int FLAG_HISTORY_NOT_FOUND = 0x80;
+    
+    /**
+     * Prevents instantiation of this utility class.
+     */
+    private LocationCodec() {
+        // Do nothing.
+    }
+    
+    /**
+     * Opens the given binary message, validating the protocol marker.
+     * 
+     * @param message The encoded message, without the channel.
+     * @return A {@link BinaryReader} positioned at the message type.
+     * @throws IllegalArgumentException If the message is malformed, or was
+     *                                  written with an unsupported protocol
+     *                                  version.
+     */
+    public static BinaryReader open(final String message) {
+        final BinaryReader reader = BinaryReader.fromMessage(message);
+        final int version = reader.readUnsignedByte();
+        if (version != LocationConstants.PROTOCOL_BINARY) {
+            throw new IllegalArgumentException("Unsupported protocol version: " + version);
+        }
+        return reader;
+    }
+    
+    /**
+     * Encodes the given {@link LocationRequest}.
+     * 
+     * @param request The {@link LocationRequest} to encode.
+     * @return The encoded message, without the channel.
+     */
+    public static String encodeRequest(final LocationRequest request) {
+        
+        final LocationTrace trace = request.getTrace();
+        final BinaryWriter writer = LocationCodec.begin(TYPE_REQUEST, trace == null ? 39 : 47);
+        LocationCodec.writeHeader(writer, LocationCodec.getRequestFlags(request.isRegions(), request.isDirectionOnly()) | (trace != null ? FLAG_TRACE : 0), request.getRequestId(), request.getSenderId());
+        writer.writeUUID(request.getTargetId());
+        if (trace != null) {
+            writer.writeLong(trace.getDispatched());
+        }
+        return writer.toMessage();
+    }
+    
+    /**
+     * Decodes a {@link LocationRequest} from the given {@link BinaryReader}.
+     * 
+     * @param reader The {@link BinaryReader}, positioned after the message
+     *               type.
+     * @return The decoded {@link LocationRequest}.
+     * @throws IllegalArgumentException If the message is malformed.
+     */
+    public static LocationRequest decodeRequest(final BinaryReader reader) {
+        final int flags = reader.readUnsignedByte();
+        final int requestId = LocationCodec.readRequestId(reader, flags);
+        final UUID senderId = LocationCodec.readSenderId(reader, flags);
+        final UUID targetId = reader.readUUID();
+        final LocationTrace trace = (flags & FLAG_TRACE) != 0 ? new LocationTrace(reader.readLong()) : null;
+        return new LocationRequest(requestId, senderId, targetId, (flags & FLAG_REGIONS) != 0, (flags & FLAG_DIRECTION) != 0, trace);
+    }
+    
+    /**
+     * Encodes the given {@link LocationResponse}.
+     * 
+     * @param response The {@link LocationResponse} to encode.
+     * @param dictionary The {@link RegionDictionary} to write the WorldGuard
+     *                   regions as ids with, or {@code null} to write their
+     *                   names.
+     * @return The encoded message, without the channel.
+     */
+    public static String encodeResponse(final LocationResponse response, final RegionDictionary dictionary) {
+        return LocationCodec.encodeResponse(response, dictionary, null);
+    }
+    
+    /**
+     * Encodes the given {@link LocationResponse}, followed by the given
+     * {@link LocationTrace} of the request it answers.
+     * <p>
+     * The {@link LocationTrace} is written after the location, so that it
+     * can be read with {@link #decodeTrace(BinaryReader)} once the response
+     * itself has been decoded.
+     * 
+     * @param response The {@link LocationResponse} to encode.
+     * @param dictionary The {@link RegionDictionary} to write the WorldGuard
+     *                   regions as ids with, or {@code null} to write their
+     *                   names.
+     * @param trace The {@link LocationTrace} of the request, or {@code null}
+     *              if the request was not traced.
+     * @return The encoded message, without the channel.
+     */
+    public static String encodeResponse(final LocationResponse response, final RegionDictionary dictionary, final LocationTrace trace) {
+        final BinaryWriter writer = LocationCodec.begin(TYPE_RESPONSE, trace == null ? 68 : 100);
+        LocationCodec.writeHeader(writer, LocationCodec.getLocationFlags(response, dictionary), response.getRequestId(), response.getSenderId());
+        LocationCodec.writeLocation(writer, response, dictionary);
+        if (trace != null) {
+            writer.writeLong(trace.getDispatched());
+            writer.writeLong(trace.getQueued());
+            writer.writeLong(trace.getRegions());
+            writer.writeLong(trace.getHandled());
+        }
+        return writer.toMessage();
+    }
+    
+    /**
+     * Decodes a {@link LocationResponse} from the given {@link BinaryReader}.
+     * 
+     * @param reader The {@link BinaryReader}, positioned after the message
+     *               type.
+     * @param dictionary The {@link RegionDictionary} of the sending server,
+     *                   used to resolve WorldGuard region ids.
+     * @return The decoded {@link LocationResponse}.
+     * @throws IllegalArgumentException If the message is malformed.
+     */
+    public static LocationResponse decodeResponse(final BinaryReader reader, final RegionDictionary dictionary) {
+        final int flags = reader.readUnsignedByte();
+        final int requestId = LocationCodec.readRequestId(reader, flags);
+        final UUID senderId = LocationCodec.readSenderId(reader, flags);
+        return LocationCodec.readLocation(reader, flags, requestId, senderId, dictionary);
+    }
+    
+    /**
+     * Decodes the {@link LocationTrace} following a {@link LocationResponse},
+     * if the request it answers was traced.
+     * 
+     * @param reader The {@link BinaryReader}, positioned after the
+     *               {@link LocationResponse}.
+     * @return The decoded {@link LocationTrace}, or {@code null} if the
+     *         response is not followed by one.
+     * @throws IllegalArgumentException If the message is malformed.
+     */
+    public static LocationTrace decodeTrace(final BinaryReader reader) {
+        if (!reader.hasRemaining()) {
+            return null;
+        }
+        final long dispatched = reader.readLong();
+        final long queued = reader.readLong();
+        final long regions = reader.readLong();
+        return new LocationTrace(dispatched, queued, regions, reader.readLong());
+    }
+    
+    /**
+     * Encodes the given {@link BulkLocationRequest}.
+     * 
+     * @param request The {@link BulkLocationRequest} to encode.
+     * @return The encoded message, without the channel.
+     * @throws IllegalArgumentException If there are more than {@code 65535}
+     *                                  targets.
+     */
+    public static String encodeBulkRequest(final BulkLocationRequest request) {
+        
+        final List<UUID> targetIds = request.getTargetIds();
+        final BinaryWriter writer = LocationCodec.begin(TYPE_BULK_REQUEST, 23 + targetIds.size() * 16);
+        LocationCodec.writeHeader(writer, LocationCodec.getRequestFlags(request.isRegions(), request.isDirectionOnly()), request.getRequestId(), request.getSenderId());
+        writer.writeUnsignedShort(targetIds.size());
+        for (final UUID targetId : targetIds) {
+            writer.writeUUID(targetId);
+        }
+        return writer.toMessage();
+    }
+    
+    /**
+     * Decodes a {@link BulkLocationRequest} from the given
+     * {@link BinaryReader}.
+     * 
+     * @param reader The {@link BinaryReader}, positioned after the message
+     *               type.
+     * @return The decoded {@link BulkLocationRequest}.
+     * @throws IllegalArgumentException If the message is malformed.
+     */
+    public static BulkLocationRequest decodeBulkRequest(final BinaryReader reader) {
+        
+        final int flags = reader.readUnsignedByte();
+        final int requestId = LocationCodec.readRequestId(reader, flags);
+        final UUID senderId = LocationCodec.readSenderId(reader, flags);
+        final int count = reader.readUnsignedShort();
+        final List<UUID> targetIds = new ArrayList<UUID>(count);
+        for (int index = 0; index < count; index++) {
+            targetIds.add(reader.readUUID());
+        }
+        return new BulkLocationRequest(requestId, senderId, Collections.unmodifiableList(targetIds), (flags & FLAG_REGIONS) != 0, (flags & FLAG_DIRECTION) != 0);
+    }
+    
+    /**
+     * Encodes the given {@link BulkLocationResponse}.
+     * <p>
+     * The request id and sender are written once for the whole message, and
+     * each location is then written with its own flags, in the same layout as
+     * the body of a single {@link LocationResponse}.
+     * 
+     * @param response The {@link BulkLocationResponse} to encode.
+     * @param dictionary The {@link RegionDictionary} to write the WorldGuard
+     *                   regions as ids with, or {@code null} to write their
+     *                   names.
+     * @return The encoded message, without the channel.
+     * @throws IllegalArgumentException If there are more than {@code 65535}
+     *                                  locations or offline targets.
+     */
+    public static String encodeBulkResponse(final BulkLocationResponse response, final RegionDictionary dictionary) {
+        
+        final List<LocationResponse> locations = response.getLocations();
+        final List<UUID> offlineIds = response.getOfflineIds();
+        
+        final BinaryWriter writer = LocationCodec.begin(TYPE_BULK_RESPONSE, 25 + locations.size() * 48 + offlineIds.size() * 16);
+        LocationCodec.writeHeader(writer, 0, response.getRequestId(), response.getSenderId());
+        
+        writer.writeUnsignedShort(locations.size());
+        for (final LocationResponse location : locations) {
+            writer.writeByte(LocationCodec.getLocationFlags(location, dictionary));
+            LocationCodec.writeLocation(writer, location, dictionary);
+        }
+        
+        writer.writeUnsignedShort(offlineIds.size());
+        for (final UUID offlineId : offlineIds) {
+            writer.writeUUID(offlineId);
+        }
+        return writer.toMessage();
+    }
+    
+    /**
+     * Decodes a {@link BulkLocationResponse} from the given
+     * {@link BinaryReader}.
+     * 
+     * @param reader The {@link BinaryReader}, positioned after the message
+     *               type.
+     * @param dictionary The {@link RegionDictionary} of the sending server,
+     *                   used to resolve WorldGuard region ids.
+     * @return The decoded {@link BulkLocationResponse}.
+     * @throws IllegalArgumentException If the message is malformed.
+     */
+    public static BulkLocationResponse decodeBulkResponse(final BinaryReader reader, final RegionDictionary dictionary) {
+        
+        final int flags = reader.readUnsignedByte();
+        final int requestId = LocationCodec.readRequestId(reader, flags);
+        final UUID senderId = LocationCodec.readSenderId(reader, flags);
+        
+        final int count = reader.readUnsignedShort();
+        final List<LocationResponse> locations = new ArrayList<LocationResponse>(count);
+        for (int index = 0; index < count; index++) {
+            locations.add(LocationCodec.readLocation(reader, reader.readUnsignedByte(), requestId, senderId, dictionary));
+        }
+        
+        final int offlineCount = reader.readUnsignedShort();
+        final List<UUID> offlineIds = new ArrayList<UUID>(offlineCount);
+        for (int index = 0; index < offlineCount; index++) {
+            offlineIds.add(reader.readUUID());
+        }
+        
+        return new BulkLocationResponse(requestId, senderId, Collections.unmodifiableList(locations), Collections.unmodifiableList(offlineIds));
+    }
+    
+    /**
+     * Encodes the given {@link LocationListRequest}.
+     * 
+     * @param request The {@link LocationListRequest} to encode.
+     * @return The encoded message, without the channel.
+     * @throws IllegalArgumentException If the page size is out of range.
+     */
+    public static String encodeListRequest(final LocationListRequest request) {
+        final BinaryWriter writer = LocationCodec.begin(TYPE_LIST_REQUEST, 23);
+        LocationCodec.writeHeader(writer, LocationCodec.getRequestFlags(request.isRegions(), request.isDirectionOnly()), request.getRequestId(), request.getSenderId());
+        writer.writeUnsignedShort(request.getPageSize());
+        return writer.toMessage();
+    }
+    
+    /**
+     * Decodes a {@link LocationListRequest} from the given
+     * {@link BinaryReader}.
+     * 
+     * @param reader The {@link BinaryReader}, positioned after the message
+     *               type.
+     * @return The decoded {@link LocationListRequest}.
+     * @throws IllegalArgumentException If the message is malformed.
+     */
+    public static LocationListRequest decodeListRequest(final BinaryReader reader) {
+        final int flags = reader.readUnsignedByte();
+        final int requestId = LocationCodec.readRequestId(reader, flags);
+        final UUID senderId = LocationCodec.readSenderId(reader, flags);
+        return new LocationListRequest(requestId, senderId, (flags & FLAG_REGIONS) != 0, reader.readUnsignedShort(), (flags & FLAG_DIRECTION) != 0);
+    }
+    
+    /**
+     * Encodes the given {@link LocationListPage}.
+     * 
+     * @param page The {@link LocationListPage} to encode.
+     * @param dictionary The {@link RegionDictionary} to write the WorldGuard
+     *                   regions as ids with, or {@code null} to write their
+     *                   names.
+     * @return The encoded message, without the channel.
+     * @throws IllegalArgumentException If there are more than {@code 65535}
+     *                                  pages or locations.
+     */
+    public static String encodeListPage(final LocationListPage page, final RegionDictionary dictionary) {
+        
+        final List<LocationResponse> locations = page.getLocations();
+        final BinaryWriter writer = LocationCodec.begin(TYPE_LIST_PAGE, 27 + locations.size() * 48);
+        LocationCodec.writeHeader(writer, 0, page.getRequestId(), page.getSenderId());
+        writer.writeUnsignedShort(page.getPage());
+        writer.writeUnsignedShort(page.getPages());
+        
+        writer.writeUnsignedShort(locations.size());
+        for (final LocationResponse location : locations) {
+            writer.writeByte(LocationCodec.getLocationFlags(location, dictionary));
+            LocationCodec.writeLocation(writer, location, dictionary);
+        }
+        return writer.toMessage();
+    }
+    
+    /**
+     * Decodes a {@link LocationListPage} from the given {@link BinaryReader}.
+     * 
+     * @param reader The {@link BinaryReader}, positioned after the message
+     *               type.
+     * @param dictionary The {@link RegionDictionary} of the sending server,
+     *                   used to resolve WorldGuard region ids.
+     * @return The decoded {@link LocationListPage}.
+     * @throws IllegalArgumentException If the message is malformed.
+     */
+    public static LocationListPage decodeListPage(final BinaryReader reader, final RegionDictionary dictionary) {
+        
+        final int flags = reader.readUnsignedByte();
+        final int requestId = LocationCodec.readRequestId(reader, flags);
+        final UUID senderId = LocationCodec.readSenderId(reader, flags);
+        final int page = reader.readUnsignedShort();
+        final int pages = reader.readUnsignedShort();
+        
+        final int count = reader.readUnsignedShort();
+        final List<LocationResponse> locations = new ArrayList<LocationResponse>(count);
+        for (int index = 0; index < count; index++) {
+            locations.add(LocationCodec.readLocation(reader, reader.readUnsignedByte(), requestId, senderId, dictionary));
+        }
+        return new LocationListPage(requestId, senderId, page, pages, Collections.unmodifiableList(locations));
+    }
+    
+    /**
+     * Encodes the given {@link LocationNotFound}.
+     * 
+     * @param notFound The {@link LocationNotFound} to encode.
+     * @return The encoded message, without the channel.
+     */
+    public static String encodeNotFound(final LocationNotFound notFound) {
+        final BinaryWriter writer = LocationCodec.begin(TYPE_NOT_FOUND, 37);
+        LocationCodec.writeHeader(writer, 0, notFound.getRequestId(), notFound.getSenderId());
+        writer.writeUUID(notFound.getTargetId());
+        return writer.toMessage();
+    }
+    
+    /**
+     * Decodes a {@link LocationNotFound} from the given {@link BinaryReader}.
+     * 
+     * @param reader The {@link BinaryReader}, positioned after the message
+     *               type.
+     * @return The decoded {@link LocationNotFound}.
+     * @throws IllegalArgumentException If the message is malformed.
+     */
+    public static LocationNotFound decodeNotFound(final BinaryReader reader) {
+        final int flags = reader.readUnsignedByte();
+        final int requestId = LocationCodec.readRequestId(reader, flags);
+        final UUID senderId = LocationCodec.readSenderId(reader, flags);
+        return new LocationNotFound(requestId, senderId, reader.readUUID());
+    }
+    
+    /**
+     * Encodes the given {@link LocationFollowRequest}.
+     * 
+     * @param request The {@link LocationFollowRequest} to encode.
+     * @return The encoded message, without the channel.
+     */
+    public static String encodeFollowRequest(final LocationFollowRequest request) {
+        final BinaryWriter writer = LocationCodec.begin(TYPE_FOLLOW_REQUEST, 17);
+        LocationCodec.writeHeader(writer, (request.isRegions() ? FLAG_REGIONS : 0) | (request.isStop() ? FLAG_STOP : 0) | (request.isDelta() ? FLAG_DELTA : 0), 0, null);
+        writer.writeUUID(request.getTargetId());
+        return writer.toMessage();
+    }
+    
+    /**
+     * Decodes a {@link LocationFollowRequest} from the given
+     * {@link BinaryReader}.
+     * 
+     * @param reader The {@link BinaryReader}, positioned after the message
+     *               type.
+     * @return The decoded {@link LocationFollowRequest}.
+     * @throws IllegalArgumentException If the message is malformed.
+     */
+    public static LocationFollowRequest decodeFollowRequest(final BinaryReader reader) {
+        final int flags = reader.readUnsignedByte();
+        LocationCodec.readRequestId(reader, flags);
+        LocationCodec.readSenderId(reader, flags);
+        return new LocationFollowRequest(reader.readUUID(), (flags & FLAG_REGIONS) != 0, (flags & FLAG_STOP) != 0, (flags & FLAG_DELTA) != 0);
+    }
+    
+    /**
+     * Encodes the given {@link LocationResponse} as an update for a followed
+     * target.
+     * <p>
+     * The layout is the same as that of a single {@link LocationResponse},
+     * only with its own message type, so that an update is never mistaken
+     * for the answer to a request.
+     * 
+     * @param response The {@link LocationResponse} to encode.
+     * @param dictionary The {@link RegionDictionary} to write the WorldGuard
+     *                   regions as ids with, or {@code null} to write their
+     *                   names.
+     * @return The encoded message, without the channel.
+     */
+    public static String encodeFollowUpdate(final LocationResponse response, final RegionDictionary dictionary) {
+        final BinaryWriter writer = LocationCodec.begin(TYPE_FOLLOW_UPDATE, 52);
+        LocationCodec.writeHeader(writer, LocationCodec.getLocationFlags(response, dictionary), 0, null);
+        LocationCodec.writeLocation(writer, response, dictionary);
+        return writer.toMessage();
+    }
+    
+    /**
+     * Decodes an update for a followed target from the given
+     * {@link BinaryReader}.
+     * 
+     * @param reader The {@link BinaryReader}, positioned after the message
+     *               type.
+     * @param dictionary The {@link RegionDictionary} of the sending server,
+     *                   used to resolve WorldGuard region ids.
+     * @return The decoded {@link LocationResponse}.
+     * @throws IllegalArgumentException If the message is malformed.
+     */
+    public static LocationResponse decodeFollowUpdate(final BinaryReader reader, final RegionDictionary dictionary) {
+        return LocationCodec.decodeResponse(reader, dictionary);
+    }
+    
+    /**
+     * Encodes the given {@link LocationDelta}.
+     * <p>
+     * The coordinates (or their changes) are written as zigzag-encoded
+     * variable-length integers, so a target that moved a few blocks costs a
+     * single byte per coordinate. The world and the WorldGuard regions are
+     * only written if they are sent with the update.
+     * 
+     * @param delta The {@link LocationDelta} to encode.
+     * @param dictionary The {@link RegionDictionary} to write the WorldGuard
+     *                   regions as ids with, or {@code null} to write their
+     *                   names.
+     * @return The encoded message, without the channel.
+     */
+    public static String encodeFollowDelta(final LocationDelta delta, final RegionDictionary dictionary) {
+        
+        final String worldName = delta.getWorldName();
+        final List<String> regions = delta.getRegions();
+        int flags = delta.isKeyframe() ? FLAG_KEYFRAME : 0;
+        if (delta.isWorldChanged() && worldName != null) {
+            flags |= FLAG_WORLD;
+        }
+        if (delta.isRegionsChanged() && regions != null) {
+            flags |= FLAG_REGIONS;
+            if (regions.isEmpty()) {
+                flags |= FLAG_REGIONS_UNKNOWN;
+            } else if (dictionary != null) {
+                flags |= FLAG_REGION_IDS;
+            }
+        }
+        
+        final BinaryWriter writer = LocationCodec.begin(TYPE_FOLLOW_DELTA, 24);
+        LocationCodec.writeHeader(writer, flags, 0, null);
+        writer.writeUUID(delta.getTargetId());
+        writer.writeByte(delta.getSequence());
+        writer.writeSignedVarInt(delta.getX());
+        writer.writeSignedVarInt(delta.getY());
+        writer.writeSignedVarInt(delta.getZ());
+        writer.writeByte(delta.getDirection().getId());
+        if ((flags & FLAG_WORLD) != 0) {
+            writer.writeString(worldName);
+        }
+        if ((flags & FLAG_REGIONS) != 0 && (flags & FLAG_REGIONS_UNKNOWN) == 0) {
+            LocationCodec.writeRegions(writer, regions, dictionary);
+        }
+        return writer.toMessage();
+    }
+    
+    /**
+     * Decodes a {@link LocationDelta} from the given {@link BinaryReader}.
+     * 
+     * @param reader The {@link BinaryReader}, positioned after the message
+     *               type.
+     * @param dictionary The {@link RegionDictionary} of the sending server,
+     *                   used to resolve WorldGuard region ids.
+     * @return The decoded {@link LocationDelta}.
+     * @throws IllegalArgumentException If the message is malformed.
+     */
+    public static LocationDelta decodeFollowDelta(final BinaryReader reader, final RegionDictionary dictionary) {
+        
+        final int flags = reader.readUnsignedByte();
+        LocationCodec.readRequestId(reader, flags);
+        LocationCodec.readSenderId(reader, flags);
+        
+        final UUID targetId = reader.readUUID();
+        final int sequence = reader.readUnsignedByte();
+        final int x = reader.readSignedVarInt();
+        final int y = reader.readSignedVarInt();
+        final int z = reader.readSignedVarInt();
+        final Direction direction = Direction.fromId(reader.readUnsignedByte());
+        final boolean keyframe = (flags & FLAG_KEYFRAME) != 0;
+        final String worldName = (flags & FLAG_WORLD) != 0 ? reader.readString() : null;
+        
+        final List<String> regions;
+        if ((flags & FLAG_REGIONS) == 0) {
+            regions = null;
+        } else if ((flags & FLAG_REGIONS_UNKNOWN) != 0) {
+            regions = Collections.emptyList();
+        } else if ((flags & FLAG_REGION_IDS) != 0) {
+            regions = LocationCodec.readRegionIds(reader, dictionary);
+        } else {
+            regions = LocationCodec.readRegionNames(reader);
+        }
+        return new LocationDelta(targetId, sequence, keyframe, x, y, z, direction, (flags & FLAG_WORLD) != 0, worldName, (flags & FLAG_REGIONS) != 0, regions);
+    }
+    
+    /**
+     * Encodes the notice that a followed target has left the server.
+     * 
+     * @param targetId The {@link UUID} of the target.
+     * @return The encoded message, without the channel.
+     */
+    public static String encodeFollowEnd(final UUID targetId) {
+        final BinaryWriter writer = LocationCodec.begin(TYPE_FOLLOW_END, 17);
+        LocationCodec.writeHeader(writer, 0, 0, null);
+        writer.writeUUID(targetId);
+        return writer.toMessage();
+    }
+    
+    /**
+     * Decodes the notice that a followed target has left the server from the
+     * given {@link BinaryReader}.
+     * 
+     * @param reader The {@link BinaryReader}, positioned after the message
+     *               type.
+     * @return The {@link UUID} of the target.
+     * @throws IllegalArgumentException If the message is malformed.
+     */
+    public static UUID decodeFollowEnd(final BinaryReader reader) {
+        final int flags = reader.readUnsignedByte();
+        LocationCodec.readRequestId(reader, flags);
+        LocationCodec.readSenderId(reader, flags);
+        return reader.readUUID();
+    }
+    
+    /**
+     * Encodes the given {@link LocationAreaRequest}.
+     * 
+     * @param request The {@link LocationAreaRequest} to encode.
+     * @return The encoded message, without the channel.
+     */
+    public static String encodeAreaRequest(final LocationAreaRequest request) {
+        
+        final String regionName = request.getRegionName();
+        final int flags = LocationCodec.getRequestFlags(request.isRegions(), request.isDirectionOnly()) | (regionName != null ? FLAG_AREA_REGION : 0);
+        
+        final BinaryWriter writer = LocationCodec.begin(TYPE_AREA_REQUEST, 44);
+        LocationCodec.writeHeader(writer, flags, request.getRequestId(), request.getSenderId());
+        LocationCodec.writeArea(writer, request.getCenterId(), request.getRadius(), regionName);
+        return writer.toMessage();
+    }
+    
+    /**
+     * Decodes a {@link LocationAreaRequest} from the given
+     * {@link BinaryReader}.
+     * 
+     * @param reader The {@link BinaryReader}, positioned after the message
+     *               type.
+     * @return The decoded {@link LocationAreaRequest}.
+     * @throws IllegalArgumentException If the message is malformed.
+     */
+    public static LocationAreaRequest decodeAreaRequest(final BinaryReader reader) {
+        
+        final int flags = reader.readUnsignedByte();
+        final int requestId = LocationCodec.readRequestId(reader, flags);
+        final UUID senderId = LocationCodec.readSenderId(reader, flags);
+        
+        if ((flags & FLAG_AREA_REGION) != 0) {
+            return new LocationAreaRequest(requestId, senderId, null, 0, reader.readString(), (flags & FLAG_REGIONS) != 0, (flags & FLAG_DIRECTION) != 0);
+        }
+        final UUID centerId = reader.readUUID();
+        return new LocationAreaRequest(requestId, senderId, centerId, reader.readVarInt(), null, (flags & FLAG_REGIONS) != 0, (flags & FLAG_DIRECTION) != 0);
+    }
+    
+    /**
+     * Encodes the given {@link LocationAreaResponse}.
+     * 
+     * @param response The {@link LocationAreaResponse} to encode.
+     * @param dictionary The {@link RegionDictionary} to write the WorldGuard
+     *                   regions as ids with, or {@code null} to write their
+     *                   names.
+     * @return The encoded message, without the channel.
+     */
+    public static String encodeAreaResponse(final LocationAreaResponse response, final RegionDictionary dictionary) {
+        
+        final String regionName = response.getRegionName();
+        final List<LocationResponse> locations = response.getLocations();
+        final int flags = (regionName != null ? FLAG_AREA_REGION : 0) | (response.isFound() ? 0 : FLAG_AREA_NOT_FOUND);
+        
+        final BinaryWriter writer = LocationCodec.begin(TYPE_AREA_RESPONSE, 46 + locations.size() * 48);
+        LocationCodec.writeHeader(writer, flags, response.getRequestId(), response.getSenderId());
+        LocationCodec.writeArea(writer, response.getCenterId(), response.getRadius(), regionName);
+        
+        writer.writeVarInt(locations.size());
+        for (final LocationResponse location : locations) {
+            writer.writeByte(LocationCodec.getLocationFlags(location, dictionary));
+            LocationCodec.writeLocation(writer, location, dictionary);
+        }
+        return writer.toMessage();
+    }
+    
+    /**
+     * Decodes a {@link LocationAreaResponse} from the given
+     * {@link BinaryReader}.
+     * 
+     * @param reader The {@link BinaryReader}, positioned after the message
+     *               type.
+     * @param dictionary The {@link RegionDictionary} of the sending server,
+     *                   used to resolve WorldGuard region ids.
+     * @return The decoded {@link LocationAreaResponse}.
+     * @throws IllegalArgumentException If the message is malformed.
+     */
+    public static LocationAreaResponse decodeAreaResponse(final BinaryReader reader, final RegionDictionary dictionary) {
+        
+        final int flags = reader.readUnsignedByte();
+        final int requestId = LocationCodec.readRequestId(reader, flags);
+        final UUID senderId = LocationCodec.readSenderId(reader, flags);
+        
+        UUID centerId = null;
+        int radius = 0;
+        String regionName = null;
+        if ((flags & FLAG_AREA_REGION) != 0) {
+            regionName = reader.readString();
+        } else {
+            centerId = reader.readUUID();
+            radius = reader.readVarInt();
+        }
+        
+        final int count = reader.readVarInt();
+        final List<LocationResponse> locations = new ArrayList<LocationResponse>(Math.min(count, 256));
+        for (int index = 0; index < count; index++) {
+            locations.add(LocationCodec.readLocation(reader, reader.readUnsignedByte(), requestId, senderId, dictionary));
+        }
+        return new LocationAreaResponse(requestId, senderId, centerId, radius, regionName, (flags & FLAG_AREA_NOT_FOUND) == 0, Collections.unmodifiableList(locations));
+    }
+    
+    /**
+     * Encodes the given {@link LocationHistoryRequest}.
+     * 
+     * @param request The {@link LocationHistoryRequest} to encode.
+     * @return The encoded message, without the channel.
+     */
+    public static String encodeHistoryRequest(final LocationHistoryRequest request) {
+        final BinaryWriter writer = LocationCodec.begin(TYPE_HISTORY_REQUEST, 47);
+        LocationCodec.writeHeader(writer, LocationCodec.getRequestFlags(false, request.isDirectionOnly()), request.getRequestId(), request.getSenderId());
+        writer.writeUUID(request.getTargetId());
+        writer.writeVarInt(request.getAgeSeconds());
+        writer.writeVarInt(request.getPoints());
+        return writer.toMessage();
+    }
+    
+    /**
+     * Decodes a {@link LocationHistoryRequest} from the given
+     * {@link BinaryReader}.
+     * 
+     * @param reader The {@link BinaryReader}, positioned after the message
+     *               type.
+     * @return The decoded {@link LocationHistoryRequest}.
+     * @throws IllegalArgumentException If the message is malformed.
+     */
+    public static LocationHistoryRequest decodeHistoryRequest(final BinaryReader reader) {
+        
+        final int flags = reader.readUnsignedByte();
+        final int requestId = LocationCodec.readRequestId(reader, flags);
+        final UUID senderId = LocationCodec.readSenderId(reader, flags);
+        final UUID targetId = reader.readUUID();
+        final int ageSeconds = reader.readVarInt();
+        return new LocationHistoryRequest(requestId, senderId, targetId, ageSeconds, reader.readVarInt(), (flags & FLAG_DIRECTION) != 0);
+    }
+    
+    /**
+     * Encodes the given {@link LocationHistoryResponse}.
+     * <p>
+     * Each location is written with its age, followed by its own flags and
+     * the same layout as the body of a single {@link LocationResponse}.
+     * 
+     * @param response The {@link LocationHistoryResponse} to encode.
+     * @return The encoded message, without the channel.
+     */
+    public static String encodeHistoryResponse(final LocationHistoryResponse response) {
+        
+        final List<LocationResponse> locations = response.getLocations();
+        final List<Integer> ages = response.getAges();
+        
+        final BinaryWriter writer = LocationCodec.begin(TYPE_HISTORY_RESPONSE, 40 + locations.size() * 48);
+        LocationCodec.writeHeader(writer, response.isFound() ? 0 : FLAG_HISTORY_NOT_FOUND, response.getRequestId(), response.getSenderId());
+        writer.writeUUID(response.getTargetId());
+        
+        writer.writeVarInt(locations.size());
+        for (int index = 0; index < locations.size(); index++) {
+            final LocationResponse location = locations.get(index);
+            writer.writeVarInt(ages.get(index));
+            writer.writeByte(LocationCodec.getLocationFlags(location, null));
+            LocationCodec.writeLocation(writer, location, null);
+        }
+        return writer.toMessage();
+    }
+    
+    /**
+     * Decodes a {@link LocationHistoryResponse} from the given
+     * {@link BinaryReader}.
+     * 
+     * @param reader The {@link BinaryReader}, positioned after the message
+     *               type.
+     * @return The decoded {@link LocationHistoryResponse}.
+     * @throws IllegalArgumentException If the message is malformed.
+     */
+    public static LocationHistoryResponse decodeHistoryResponse(final BinaryReader reader) {
+        
+        final int flags = reader.readUnsignedByte();
+        final int requestId = LocationCodec.readRequestId(reader, flags);
+        final UUID senderId = LocationCodec.readSenderId(reader, flags);
+        final UUID targetId = reader.readUUID();
+        
+        final int count = reader.readVarInt();
+        final List<LocationResponse> locations = new ArrayList<LocationResponse>(Math.min(count, 256));
+        final List<Integer> ages = new ArrayList<Integer>(Math.min(count, 256));
+        for (int index = 0; index < count; index++) {
+            ages.add(reader.readVarInt());
+            locations.add(LocationCodec.readLocation(reader, reader.readUnsignedByte(), requestId, senderId, null));
+        }
+        return new LocationHistoryResponse(requestId, senderId, targetId, (flags & FLAG_HISTORY_NOT_FOUND) == 0, Collections.unmodifiableList(locations), Collections.unmodifiableList(ages));
+    }
+    
+    /**
+     * Encodes an announcement of new {@link RegionDictionary} entries.
+     * 
+     * @param firstId The id of the first announced region name.
+     * @param names The announced region names, in id order.
+     * @return The encoded message, without the channel.
+     */
+    public static String encodeRegionDictionary(final int firstId, final List<String> names) {
+        final BinaryWriter writer = LocationCodec.begin(TYPE_REGION_DICTIONARY, 8 + names.size() * 24);
+        LocationCodec.writeHeader(writer, 0, 0, null);
+        writer.writeVarInt(firstId);
+        writer.writeVarInt(names.size());
+        for (final String name : names) {
+            writer.writeString(name);
+        }
+        return writer.toMessage();
+    }
+    
+    /**
+     * Decodes an announcement of new {@link RegionDictionary} entries from
+     * the given {@link BinaryReader}, adding them to the given
+     * {@link RegionDictionary}.
+     * 
+     * @param reader The {@link BinaryReader}, positioned after the message
+     *               type.
+     * @param dictionary The {@link RegionDictionary} of the sending server.
+     * @throws IllegalArgumentException If the message is malformed, or does
+     *                                  not directly follow the existing
+     *                                  entries.
+     */
+    public static void decodeRegionDictionary(final BinaryReader reader, final RegionDictionary dictionary) {
+        
+        final int flags = reader.readUnsignedByte();
+        LocationCodec.readRequestId(reader, flags);
+        LocationCodec.readSenderId(reader, flags);
+        
+        final int firstId = reader.readVarInt();
+        final int count = reader.readVarInt();
+        final List<String> names = new ArrayList<String>(Math.min(count, 1024));
+        for (int index = 0; index < count; index++) {
+            names.add(reader.readString());
+        }
+        dictionary.define(firstId, names);
+    }
+    
+    /**
+     * Writes the flags byte, followed by the request id and the sender, if
+     * present.
+     * 
+     * @param writer The {@link BinaryWriter} to write to.
+     * @param flags The message-specific flags.
+     * @param requestId The request id, or {@code 0} if the request is not
+     *                  tracked.
+     * @param senderId The {@link UUID} of the sender, or {@code null} if the
+     *                 request came from the console.
+     */
+    private static void writeHeader(final BinaryWriter writer, final int flags, final int requestId, final UUID senderId) {
+        
+        int header = flags;
+        if (requestId != 0) {
+            header |= FLAG_REQUEST_ID;
+        }
+        if (senderId == null) {
+            header |= FLAG_CONSOLE;
+        }
+        
+        writer.writeByte(header);
+        if (requestId != 0) {
+            writer.writeInt(requestId);
+        }
+        if (senderId != null) {
+            writer.writeUUID(senderId);
+        }
+    }
+    
+    /**
+     * Reads the request id written by
+     * {@link #writeHeader(BinaryWriter, int, int, UUID)}.
+     * 
+     * @param reader The {@link BinaryReader}, positioned after the flags.
+     * @param flags The flags byte.
+     * @return The request id, or {@code 0} if the request is not tracked.
+     * @throws IllegalArgumentException If the message is malformed.
+     */
+    private static int readRequestId(final BinaryReader reader, final int flags) {
+        return (flags & FLAG_REQUEST_ID) != 0 ? reader.readInt() : 0;
+    }
+    
+    /**
+     * Reads the sender written by
+     * {@link #writeHeader(BinaryWriter, int, int, UUID)}.
+     * 
+     * @param reader The {@link BinaryReader}, positioned after the request
+     *               id.
+     * @param flags The flags byte.
+     * @return The {@link UUID} of the sender, or {@code null} if the request
+     *         came from the console.
+     * @throws IllegalArgumentException If the message is malformed.
+     */
+    private static UUID readSenderId(final BinaryReader reader, final int flags) {
+        return (flags & FLAG_CONSOLE) != 0 ? null : reader.readUUID();
+    }
+    
+    /**
+     * Gets the flags of a request.
+     * 
+     * @param regions {@code true} if the WorldGuard regions should be
+     *                retrieved, {@code false} otherwise.
+     * @param directionOnly {@code true} if only the compass direction should
+     *                      be sent back, {@code false} otherwise.
+     * @return The regions and direction flags.
+     */
+    private static int getRequestFlags(final boolean regions, final boolean directionOnly) {
+        return (regions ? FLAG_REGIONS : 0) | (directionOnly ? FLAG_DIRECTION : 0);
+    }
+    
+    /**
+     * Gets the flags describing the optional fields of the given
+     * {@link LocationResponse}.
+     * 
+     * @param response The {@link LocationResponse}.
+     * @param dictionary The {@link RegionDictionary} to write the WorldGuard
+     *                   regions as ids with, or {@code null} to write their
+     *                   names.
+     * @return The world, region and direction flags.
+     */
+    private static int getLocationFlags(final LocationResponse response, final RegionDictionary dictionary) {
+        
+        final List<String> regions = response.getRegions();
+        int flags = 0;
+        if (response.getWorldName() != null) {
+            flags |= FLAG_WORLD;
+        }
+        if (LocationCodec.isDirectionOnly(response)) {
+            flags |= FLAG_DIRECTION;
+        }
+        if (regions != null) {
+            flags |= FLAG_REGIONS;
+            if (regions.isEmpty()) {
+                flags |= FLAG_REGIONS_UNKNOWN;
+            } else if (dictionary != null) {
+                flags |= FLAG_REGION_IDS;
+            }
+        }
+        return flags;
+    }
+    
+    /**
+     * Checks if the given {@link LocationResponse} should be sent with its
+     * {@link Direction} instead of its yaw.
+     * <p>
+     * An {@link Direction#UNDETERMINED} direction is sent as a {@link Float#NaN}
+     * yaw instead, as that decodes to the same direction on any version.
+     * 
+     * @param response The {@link LocationResponse}.
+     * @return {@code true} if only the {@link Direction} is known,
+     *         {@code false} otherwise.
+     */
+    private static boolean isDirectionOnly(final LocationResponse response) {
+        return Float.isNaN(response.getYaw()) && response.getDirection() != Direction.UNDETERMINED;
+    }
+    
+    /**
+     * Writes the target, location and regions of the given
+     * {@link LocationResponse}.
+     * 
+     * @param writer The {@link BinaryWriter} to write to.
+     * @param response The {@link LocationResponse}.
+     * @param dictionary The {@link RegionDictionary} to write the WorldGuard
+     *                   regions as ids with, or {@code null} to write their
+     *                   names.
+     */
+    private static void writeLocation(final BinaryWriter writer, final LocationResponse response, final RegionDictionary dictionary) {
+        
+        final String worldName = response.getWorldName();
+        final List<String> regions = response.getRegions();
+        
+        writer.writeUUID(response.getTargetId());
+        if (worldName != null) {
+            writer.writeString(worldName);
+        }
+        writer.writeInt(response.getX());
+        writer.writeInt(response.getY());
+        writer.writeInt(response.getZ());
+        if (LocationCodec.isDirectionOnly(response)) {
+            writer.writeByte(response.getDirection().getId());
+        } else {
+            writer.writeFloat(response.getYaw());
+        }
+        
+        if (regions != null && !regions.isEmpty()) {
+            LocationCodec.writeRegions(writer, regions, dictionary);
+        }
+    }
+    
+    /**
+     * Reads the target, location and regions written by
+     * {@link #writeLocation(BinaryWriter, LocationResponse, RegionDictionary)}.
+     * 
+     * @param reader The {@link BinaryReader} to read from.
+     * @param flags The flags describing the optional fields.
+     * @param requestId The request id, or {@code 0} if the request is not
+     *                  tracked.
+     * @param senderId The {@link UUID} of the sender, or {@code null} if the
+     *                 request came from the console.
+     * @param dictionary The {@link RegionDictionary} of the sending server,
+     *                   used to resolve WorldGuard region ids.
+     * @return The decoded {@link LocationResponse}.
+     * @throws IllegalArgumentException If the message is malformed.
+     */
+    private static LocationResponse readLocation(final BinaryReader reader, final int flags, final int requestId, final UUID senderId, final RegionDictionary dictionary) {
+        
+        final UUID targetId = reader.readUUID();
+        final String worldName = (flags & FLAG_WORLD) != 0 ? reader.readString() : null;
+        final int x = reader.readInt();
+        final int y = reader.readInt();
+        final int z = reader.readInt();
+        final Direction direction = (flags & FLAG_DIRECTION) != 0 ? Direction.fromId(reader.readUnsignedByte()) : null;
+        final float yaw = direction == null ? reader.readFloat() : Float.NaN;
+        
+        final List<String> regions;
+        if ((flags & FLAG_REGIONS) == 0) {
+            regions = null;
+        } else if ((flags & FLAG_REGIONS_UNKNOWN) != 0) {
+            regions = Collections.emptyList();
+        } else if ((flags & FLAG_REGION_IDS) != 0) {
+            regions = LocationCodec.readRegionIds(reader, dictionary);
+        } else {
+            regions = LocationCodec.readRegionNames(reader);
+        }
+        
+        if (direction != null) {
+            return new LocationResponse(requestId, senderId, targetId, worldName, x, y, z, direction, regions);
+        }
+        return new LocationResponse(requestId, senderId, targetId, worldName, x, y, z, yaw, regions);
+    }
+    
+    /**
+     * Writes the area of a {@link LocationAreaRequest} or
+     * {@link LocationAreaResponse}, which is either the region id, or the
+     * center {@link UUID} and the radius.
+     * 
+     * @param writer The {@link BinaryWriter} to write to.
+     * @param centerId The {@link UUID} of the center player, or {@code null}
+     *                 if the area is a region.
+     * @param radius The radius around the center player.
+     * @param regionName The id of the region, or {@code null} if the area is
+     *                   around a center player.
+     */
+    private static void writeArea(final BinaryWriter writer, final UUID centerId, final int radius, final String regionName) {
+        if (regionName != null) {
+            writer.writeString(regionName);
+        } else {
+            writer.writeUUID(centerId);
+            writer.writeVarInt(radius);
+        }
+    }
+    
+    /**
+     * Writes the given WorldGuard regions, prefixed with their count as a
+     * varint, either as their {@link RegionDictionary} ids, assigning ids to
+     * any new names, or as their names.
+     * 
+     * @param writer The {@link BinaryWriter} to write to.
+     * @param regions The region names.
+     * @param dictionary The {@link RegionDictionary} to write the regions as
+     *                   ids with, or {@code null} to write their names.
+     */
+    private static void writeRegions(final BinaryWriter writer, final List<String> regions, final RegionDictionary dictionary) {
+        writer.writeVarInt(regions.size());
+        for (final String region : regions) {
+            if (dictionary == null) {
+                writer.writeString(region);
+            } else {
+                writer.writeVarInt(dictionary.getId(region));
+            }
+        }
+    }
+    
+    /**
+     * Reads WorldGuard regions written as {@link RegionDictionary} ids.
+     * <p>
+     * If any id is unknown, the regions are treated as undetermined, and the
+     * {@link RegionDictionary} is marked as missing entries.
+     * 
+     * @param reader The {@link BinaryReader} to read from.
+     * @param dictionary The {@link RegionDictionary} of the sending server.
+     * @return The region names, or an empty {@link List} if any id is
+     *         unknown.
+     * @throws IllegalArgumentException If the message is malformed, or
+     *                                  there is no {@link RegionDictionary}.
+     */
+    private static List<String> readRegionIds(final BinaryReader reader, final RegionDictionary dictionary) {
+        
+        if (dictionary == null) {
+            throw new IllegalArgumentException("Region ids sent without a region dictionary.");
+        }
+        
+        final int count = reader.readVarInt();
+        final List<String> names = new ArrayList<String>(Math.min(count, 64));
+        boolean unknown = false;
+        for (int index = 0; index < count; index++) {
+            final String name = dictionary.getName(reader.readVarInt());
+            if (name == null) {
+                unknown = true;
+            } else {
+                names.add(name);
+            }
+        }
+        return unknown ? Collections.<String>emptyList() : Collections.unmodifiableList(names);
+    }
+    
+    /**
+     * Reads WorldGuard regions written as their names.
+     * 
+     * @param reader The {@link BinaryReader} to read from.
+     * @return The region names.
+     * @throws IllegalArgumentException If the message is malformed.
+     */
+    private static List<String> readRegionNames(final BinaryReader reader) {
+        final int count = reader.readVarInt();
+        final List<String> names = new ArrayList<String>(Math.min(count, 64));
+        for (int index = 0; index < count; index++) {
+            names.add(reader.readString());
+        }
+        return Collections.unmodifiableList(names);
+    }
+    
+    /**
+     * Starts a new binary message with the binary protocol marker and the
+     * given message type.
+     * <p>
+     * Messages are always marked with {@link LocationConstants#PROTOCOL_BINARY},
+     * as newer protocol versions only add message types and flags, which the
+     * other side will only be sent after it has announced support for them.
+     * 
+     * @param type The message type.
+     * @param capacity The expected size of the message, in bytes.
+     * @return The {@link BinaryWriter} to write the rest of the message to.
+     */
+    static BinaryWriter begin(final int type, final int capacity) {
+        return new BinaryWriter(capacity + 2).writeByte(LocationConstants.PROTOCOL_BINARY).writeByte(type);
+    }
+}
@@ -42,6 +42,99 @@ public final class LocationConstants {
      */
     public static final String RESPONSE_CHANNEL = "locationresponse";
     
+    /**
+     * The IPC channel used for binary-encoded location requests.
+     */
+    public static final String BINARY_REQUEST_CHANNEL = "locationrequestbin";
+    
+    /**
+     * The IPC channel used for binary-encoded location responses.
+     */
+    public static final String BINARY_RESPONSE_CHANNEL = "locationresponsebin";
+    
+    /**
+     * The IPC channel used by the Bukkit and BungeeCord plugins to announce
+     * the highest protocol version that they support.
+     */
+    public static final String HELLO_CHANNEL = "locationhello";
+    
+    /**
+     * The original pipe-delimited text protocol. Every version of the plugins
+     * understands it, so it is used whenever the other side has not announced
+     * anything newer.
+     */
+    public static final int PROTOCOL_TEXT = 1;
+    
+    /**
+     * The binary protocol, as implemented by {@link LocationCodec}.
+     */
+    public static final int PROTOCOL_BINARY = 2;
+    
+    /**
+     * The binary protocol, with support for {@link BulkLocationRequest}
+     * messages.
+     */
+    public static final int PROTOCOL_BULK = 3;
+    
+    /**
+     * The binary protocol, with support for {@link LocationListRequest}
+     * messages.
+     */
+    public static final int PROTOCOL_LIST = 4;
+    
+    /**
+     * The binary protocol, with request ids carried in every message, and
+     * {@link LocationNotFound} answers for targets that are not online.
+     */
+    public static final int PROTOCOL_REQUEST_ID = 5;
+    
+    /**
+     * The binary protocol, with the option to send the {@link Direction} of
+     * each target as a single byte instead of its exact yaw.
+     */
+    public static final int PROTOCOL_DIRECTION = 6;
+    
+    /**
+     * The binary protocol, with support for {@link LocationFollowRequest}
+     * messages, and the location updates pushed for them.
+     */
+    public static final int PROTOCOL_FOLLOW = 7;
+    
+    /**
+     * The binary protocol, with the updates for followed targets sent as
+     * {@link LocationDelta LocationDeltas}.
+     */
+    public static final int PROTOCOL_DELTA = 8;
+    
+    /**
+     * The binary protocol, with WorldGuard regions sent as the ids of a
+     * {@link RegionDictionary}.
+     */
+    public static final int PROTOCOL_REGION_IDS = 9;
+    
+    /**
+     * The binary protocol, with requests for the locations of every player
+     * around another player or inside a WorldGuard region.
+     */
+    public static final int PROTOCOL_AREA = 10;
+    
+    /**
+     * The binary protocol, with single location requests optionally traced
+     * by a {@link LocationTrace}.
+     */
+    public static final int PROTOCOL_TRACE = 11;
+    
+    /**
+     * The binary protocol, with requests for the past locations of a player
+     * from the location history of the server.
+     */
+    public static final int PROTOCOL_HISTORY = 12;
+    
+    /**
+     * The highest protocol version supported by this build.
+     */
+    public static final int PROTOCOL_VERSION = PROTOCOL_HISTORY;
+    
     /**
      * The global WorldGuard region name.
      */
@@ -0,0 +1,246 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and
+ * BungeeCord proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.bspfsystems.bungeelocation.core;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Represents a location update for a followed target, sent as either a
+ * keyframe or a delta against the previous update.
+ * <p>
+ * A keyframe carries the full location. A delta only carries the change in
+ * each coordinate, and the world and WorldGuard regions if they changed, so
+ * that a target walking around the same area costs only a few bytes per
+ * update. Every update has a sequence number, so that the receiver can tell
+ * when it has missed one, and must wait for the next keyframe instead of
+ * applying a delta to the wrong base.
+ * <p>
+ * The {@link Direction} is always sent in full, as a single byte.
+ */
+public final class LocationDelta {
+    
+    private final UUID targetId;
+    private final int sequence;
+    private final boolean keyframe;
+    private final int x;
+    private final int y;
+    private final int z;
+    private final Direction direction;
+    private final boolean worldChanged;
+    private final String worldName;
+    private final boolean regionsChanged;
+    private final List<String> regions;
+    
+    /**
+     * Constructs a new {@link LocationDelta}.
+     * 
+     * @param targetId The {@link UUID} of the target.
+     * @param sequence The sequence number, from {@code 0} to {@code 255}.
+     * @param keyframe {@code true} if this is a keyframe, {@code false} if
+     *                 it is a delta.
+     * @param x The X coordinate, or its change for a delta.
+     * @param y The Y coordinate, or its change for a delta.
+     * @param z The Z coordinate, or its change for a delta.
+     * @param direction The {@link Direction} the target is facing.
+     * @param worldChanged {@code true} if the world is sent, {@code false}
+     *                     if it is unchanged. Always {@code true} for a
+     *                     keyframe.
+     * @param worldName The name of the world, or {@code null} if it could
+     *                  not be determined or is unchanged.
+     * @param regionsChanged {@code true} if the WorldGuard regions are sent,
+     *                       {@code false} if they are unchanged. Always
+     *                       {@code true} for a keyframe.
+     * @param regions The WorldGuard regions. If {@code null}, regions were
+     *                not requested or are unchanged. If empty, the regions
+     *                could not be determined.
+     */
+    public LocationDelta(final UUID targetId, final int sequence, final boolean keyframe, final int x, final int y, final int z, final Direction direction, final boolean worldChanged, final String worldName, final boolean regionsChanged, final List<String> regions) {
+        this.targetId = targetId;
+        this.sequence = sequence & 0xFF;
+        this.keyframe = keyframe;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.direction = direction;
+        this.worldChanged = keyframe || worldChanged;
+        this.worldName = worldName;
+        this.regionsChanged = keyframe || regionsChanged;
+        this.regions = regions;
+    }
+    
+    /**
+     * Creates the {@link LocationDelta} that turns the given previous
+     * {@link LocationResponse} into the given current one.
+     * <p>
+     * A keyframe is created instead if there is no previous response, or if
+     * the world became unknown, or the WorldGuard regions were requested for
+     * only one of the two, as a delta cannot express those changes.
+     * 
+     * @param previous The previously sent {@link LocationResponse}, or
+     *                 {@code null} if a keyframe should be sent.
+     * @param current The current {@link LocationResponse}.
+     * @param sequence The sequence number of the new update.
+     * @return The {@link LocationDelta}.
+     */
+    public static LocationDelta between(final LocationResponse previous, final LocationResponse current, final int sequence) {
+        
+        final String worldName = current.getWorldName();
+        final List<String> regions = current.getRegions();
+        if (previous == null || worldName == null && previous.getWorldName() != null || (regions == null) != (previous.getRegions() == null)) {
+            return new LocationDelta(current.getTargetId(), sequence, true, current.getX(), current.getY(), current.getZ(), current.getDirection(), true, worldName, true, regions);
+        }
+        
+        final boolean worldChanged = !Objects.equals(worldName, previous.getWorldName());
+        final boolean regionsChanged = regions != null && !regions.equals(previous.getRegions());
+        return new LocationDelta(current.getTargetId(), sequence, false, current.getX() - previous.getX(), current.getY() - previous.getY(), current.getZ() - previous.getZ(), current.getDirection(), worldChanged, worldChanged ? worldName : null, regionsChanged, regionsChanged ? regions : null);
+    }
+    
+    /**
+     * Applies this {@link LocationDelta} to the given previous
+     * {@link LocationResponse}.
+     * 
+     * @param previous The previous {@link LocationResponse} of the target,
+     *                 which may be {@code null} if this is a keyframe.
+     * @return The current {@link LocationResponse} of the target.
+     * @throws IllegalStateException If this is a delta, and there is no
+     *                               previous {@link LocationResponse}.
+     */
+    public LocationResponse apply(final LocationResponse previous) {
+        
+        if (this.keyframe) {
+            return new LocationResponse(0, null, this.targetId, this.worldName, this.x, this.y, this.z, this.direction, this.regions);
+        }
+        if (previous == null) {
+            throw new IllegalStateException("Cannot apply a location delta without a previous location.");
+        }
+        
+        final String worldName = this.worldChanged ? this.worldName : previous.getWorldName();
+        final List<String> regions = this.regionsChanged ? this.regions : previous.getRegions();
+        return new LocationResponse(0, null, this.targetId, worldName, previous.getX() + this.x, previous.getY() + this.y, previous.getZ() + this.z, this.direction, regions);
+    }
+    
+    /**
+     * Gets the {@link UUID} of the target.
+     * 
+     * @return The target {@link UUID}.
+     */
+    public UUID getTargetId() {
+        return this.targetId;
+    }
+    
+    /**
+     * Gets the sequence number of this update.
+     * 
+     * @return The sequence number, from {@code 0} to {@code 255}.
+     */
+    public int getSequence() {
+        return this.sequence;
+    }
+    
+    /**
+     * Checks if this update is a keyframe, carrying the full location.
+     * 
+     * @return {@code true} if this is a keyframe, {@code false} if it is a
+     *         delta.
+     */
+    public boolean isKeyframe() {
+        return this.keyframe;
+    }
+    
+    /**
+     * Gets the X coordinate, or its change for a delta.
+     * 
+     * @return The X coordinate or change.
+     */
+    public int getX() {
+        return this.x;
+    }
+    
+    /**
+     * Gets the Y coordinate, or its change for a delta.
+     * 
+     * @return The Y coordinate or change.
+     */
+    public int getY() {
+        return this.y;
+    }
+    
+    /**
+     * Gets the Z coordinate, or its change for a delta.
+     * 
+     * @return The Z coordinate or change.
+     */
+    public int getZ() {
+        return this.z;
+    }
+    
+    /**
+     * Gets the compass direction the target is facing.
+     * 
+     * @return The {@link Direction}.
+     */
+    public Direction getDirection() {
+        return this.direction;
+    }
+    
+    /**
+     * Checks if the world is sent with this update.
+     * 
+     * @return {@code true} if the world is sent, {@code false} if it is
+     *         unchanged.
+     */
+    public boolean isWorldChanged() {
+        return this.worldChanged;
+    }
+    
+    /**
+     * Gets the name of the world the target is in.
+     * 
+     * @return The world name, or {@code null} if it could not be determined
+     *         or is unchanged.
+     */
+    public String getWorldName() {
+        return this.worldName;
+    }
+    
+    /**
+     * Checks if the WorldGuard regions are sent with this update.
+     * 
+     * @return {@code true} if the regions are sent, {@code false} if they
+     *         are unchanged.
+     */
+    public boolean isRegionsChanged() {
+        return this.regionsChanged;
+    }
+    
+    /**
+     * Gets the WorldGuard regions the target is standing in.
+     * 
+     * @return The regions. If {@code null}, regions were not requested or
+     *         are unchanged. If empty, the regions could not be determined.
+     */
+    public List<String> getRegions() {
+        return this.regions;
+    }
+}
@@ -0,0 +1,102 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and
+ * BungeeCord proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.bspfsystems.bungeelocation.core;
+
+import java.util.UUID;
+
+/**
+ * Represents a request from the BungeeCord plugin for the Bukkit plugin to
+ * start (or stop) pushing the location of a target player whenever it
+ * changes.
+ * <p>
+ * A follow request is not tied to any sender, as the BungeeCord plugin
+ * subscribes to each target only once, no matter how many players are
+ * following it. A later request for the same target replaces the earlier
+ * one.
+ */
+public final class LocationFollowRequest {
+    
+    private final UUID targetId;
+    private final boolean regions;
+    private final boolean stop;
+    private final boolean delta;
+    
+    /**
+     * Constructs a new {@link LocationFollowRequest}.
+     * 
+     * @param targetId The {@link UUID} of the player to follow.
+     * @param regions {@code true} if the WorldGuard regions should be sent,
+     *                and changes to them should trigger an update,
+     *                {@code false} otherwise.
+     * @param stop {@code true} if the target should no longer be followed,
+     *             {@code false} otherwise.
+     * @param delta {@code true} if the updates may be sent as
+     *              {@link LocationDelta LocationDeltas}, {@code false} if
+     *              every update must carry the full location.
+     */
+    public LocationFollowRequest(final UUID targetId, final boolean regions, final boolean stop, final boolean delta) {
+        this.targetId = targetId;
+        this.regions = regions;
+        this.stop = stop;
+        this.delta = delta;
+    }
+    
+    /**
+     * Gets the {@link UUID} of the player to follow.
+     * 
+     * @return The target {@link UUID}.
+     */
+    public UUID getTargetId() {
+        return this.targetId;
+    }
+    
+    /**
+     * Checks if the WorldGuard regions should be sent with each update.
+     * 
+     * @return {@code true} if the WorldGuard regions should be sent,
+     *         {@code false} otherwise.
+     */
+    public boolean isRegions() {
+        return this.regions;
+    }
+    
+    /**
+     * Checks if the target should no longer be followed.
+     * 
+     * @return {@code true} if the target should no longer be followed,
+     *         {@code false} otherwise.
+     */
+    public boolean isStop() {
+        return this.stop;
+    }
+    
+    /**
+     * Checks if the updates may be sent as {@link LocationDelta
+     * LocationDeltas}.
+     * 
+     * @return {@code true} if the updates may be sent as deltas,
+     *         {@code false} if every update must carry the full location.
+     */
+    public boolean isDelta() {
+        return this.delta;
+    }
+}
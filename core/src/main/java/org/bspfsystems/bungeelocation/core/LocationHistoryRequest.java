@@ -0,0 +1,129 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and
+ * BungeeCord proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.bspfsystems.bungeelocation.core;
+
+import java.util.UUID;
+
+/**
+ * Represents a request for the past locations of a player, sent from the
+ * BungeeCord plugin to the Bukkit plugin on the server that the player is
+ * connected to.
+ * <p>
+ * A single point asks where the player was a given number of seconds ago,
+ * while several points ask for a trail, spread evenly from that long ago
+ * until now. The Bukkit plugin answers from its location history with a
+ * single {@link LocationHistoryResponse}.
+ */
+public final class LocationHistoryRequest {
+    
+    private final int requestId;
+    private final UUID senderId;
+    private final UUID targetId;
+    private final int ageSeconds;
+    private final int points;
+    private final boolean directionOnly;
+    
+    /**
+     * Constructs a new {@link LocationHistoryRequest}.
+     * 
+     * @param requestId The id used to match the response to the request,
+     *                  or {@code 0} if the request is not tracked.
+     * @param senderId The {@link UUID} of the player that requested the
+     *                 locations, or {@code null} if the request came from the
+     *                 console.
+     * @param targetId The {@link UUID} of the player to locate.
+     * @param ageSeconds How many seconds ago the (first) location should be
+     *                   from, or {@code 0} for a trail as far back as the
+     *                   history goes.
+     * @param points The number of locations to send back, {@code 1} for a
+     *               single location.
+     * @param directionOnly {@code true} if only the compass direction of
+     *                      the target should be sent back, instead of the
+     *                      exact yaw.
+     */
+    public LocationHistoryRequest(final int requestId, final UUID senderId, final UUID targetId, final int ageSeconds, final int points, final boolean directionOnly) {
+        this.requestId = requestId;
+        this.senderId = senderId;
+        this.targetId = targetId;
+        this.ageSeconds = ageSeconds;
+        this.points = points;
+        this.directionOnly = directionOnly;
+    }
+    
+    /**
+     * Gets the id used to match the response to the request.
+     * 
+     * @return The request id, or {@code 0} if the request is not tracked.
+     */
+    public int getRequestId() {
+        return this.requestId;
+    }
+    
+    /**
+     * Gets the {@link UUID} of the player that requested the locations.
+     * 
+     * @return The sender {@link UUID}, or {@code null} if the request came
+     *         from the console.
+     */
+    public UUID getSenderId() {
+        return this.senderId;
+    }
+    
+    /**
+     * Gets the {@link UUID} of the player to locate.
+     * 
+     * @return The target {@link UUID}.
+     */
+    public UUID getTargetId() {
+        return this.targetId;
+    }
+    
+    /**
+     * Gets how many seconds ago the (first) location should be from.
+     * 
+     * @return The age, in seconds, or {@code 0} for a trail as far back as the
+     *         history goes.
+     */
+    public int getAgeSeconds() {
+        return this.ageSeconds;
+    }
+    
+    /**
+     * Gets the number of locations to send back.
+     * 
+     * @return The number of locations, {@code 1} for a single location.
+     */
+    public int getPoints() {
+        return this.points;
+    }
+    
+    /**
+     * Checks if only the compass direction of the target should be sent
+     * back, instead of the exact yaw.
+     * 
+     * @return {@code true} if only the {@link Direction} should be sent,
+     *         {@code false} otherwise.
+     */
+    public boolean isDirectionOnly() {
+        return this.directionOnly;
+    }
+}
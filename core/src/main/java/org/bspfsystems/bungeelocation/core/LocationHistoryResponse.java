@@ -0,0 +1,125 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and
+ * BungeeCord proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.bspfsystems.bungeelocation.core;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Represents the response to a {@link LocationHistoryRequest}, sent from
+ * the Bukkit plugin back to the BungeeCord plugin.
+ * <p>
+ * Each location is sent with its age, in seconds, at the same index. The
+ * locations are ordered from the oldest to the most recent, and never
+ * include the WorldGuard regions, which are not kept in the history.
+ */
+public final class LocationHistoryResponse {
+    
+    private final int requestId;
+    private final UUID senderId;
+    private final UUID targetId;
+    private final boolean found;
+    private final List<LocationResponse> locations;
+    private final List<Integer> ages;
+    
+    /**
+     * Constructs a new {@link LocationHistoryResponse}.
+     * 
+     * @param requestId The id used to match the response to the request,
+     *                  or {@code 0} if the request is not tracked.
+     * @param senderId The {@link UUID} of the player that requested the
+     *                 locations, or {@code null} if the request came from the
+     *                 console.
+     * @param targetId The {@link UUID} of the located player.
+     * @param found {@code true} if the player is online on the server,
+     *              {@code false} otherwise.
+     * @param locations The past locations of the player, from the oldest to
+     *                  the most recent.
+     * @param ages The age of each location, in seconds.
+     */
+    public LocationHistoryResponse(final int requestId, final UUID senderId, final UUID targetId, final boolean found, final List<LocationResponse> locations, final List<Integer> ages) {
+        this.requestId = requestId;
+        this.senderId = senderId;
+        this.targetId = targetId;
+        this.found = found;
+        this.locations = locations;
+        this.ages = ages;
+    }
+    
+    /**
+     * Gets the id used to match the response to the request.
+     * 
+     * @return The request id, or {@code 0} if the request is not tracked.
+     */
+    public int getRequestId() {
+        return this.requestId;
+    }
+    
+    /**
+     * Gets the {@link UUID} of the player that requested the locations.
+     * 
+     * @return The sender {@link UUID}, or {@code null} if the request came
+     *         from the console.
+     */
+    public UUID getSenderId() {
+        return this.senderId;
+    }
+    
+    /**
+     * Gets the {@link UUID} of the located player.
+     * 
+     * @return The target {@link UUID}.
+     */
+    public UUID getTargetId() {
+        return this.targetId;
+    }
+    
+    /**
+     * Checks if the player is online on the server.
+     * 
+     * @return {@code true} if the player was found, {@code false} if they
+     *         are no longer online on the server.
+     */
+    public boolean isFound() {
+        return this.found;
+    }
+    
+    /**
+     * Gets the past locations of the player.
+     * 
+     * @return The {@link LocationResponse LocationResponses}, from the
+     *         oldest to the most recent, which is empty if the history does
+     *         not go back far enough.
+     */
+    public List<LocationResponse> getLocations() {
+        return this.locations;
+    }
+    
+    /**
+     * Gets the age of each location.
+     * 
+     * @return The ages, in seconds, at the same index as the locations.
+     */
+    public List<Integer> getAges() {
+        return this.ages;
+    }
+}
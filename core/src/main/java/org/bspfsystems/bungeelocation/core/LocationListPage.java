@@ -0,0 +1,107 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and
+ * BungeeCord proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.bspfsystems.bungeelocation.core;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Represents a single page of the response to a {@link LocationListRequest},
+ * sent from the Bukkit plugin back to the BungeeCord plugin.
+ * <p>
+ * Pages are sampled and sent one per tick, and may arrive out of order.
+ */
+public final class LocationListPage {
+    
+    private final int requestId;
+    private final UUID senderId;
+    private final int page;
+    private final int pages;
+    private final List<LocationResponse> locations;
+    
+    /**
+     * Constructs a new {@link LocationListPage}.
+     * 
+     * @param requestId The id used to match the response to the request,
+     *                  or {@code 0} if the request is not tracked.
+     * @param senderId The {@link UUID} of the player that requested the
+     *                 locations, or {@code null} if the request came from the
+     *                 console.
+     * @param page The number of this page, starting at {@code 1}.
+     * @param pages The total number of pages.
+     * @param locations The locations on this page, which may be fewer than
+     *                  the page size if some players went offline.
+     */
+    public LocationListPage(final int requestId, final UUID senderId, final int page, final int pages, final List<LocationResponse> locations) {
+        this.requestId = requestId;
+        this.senderId = senderId;
+        this.page = page;
+        this.pages = pages;
+        this.locations = locations;
+    }
+    
+    /**
+     * Gets the id used to match the response to the request.
+     * 
+     * @return The request id, or {@code 0} if the request is not tracked.
+     */
+    public int getRequestId() {
+        return this.requestId;
+    }
+    
+    /**
+     * Gets the {@link UUID} of the player that requested the locations.
+     * 
+     * @return The sender {@link UUID}, or {@code null} if the request came
+     *         from the console.
+     */
+    public UUID getSenderId() {
+        return this.senderId;
+    }
+    
+    /**
+     * Gets the number of this page.
+     * 
+     * @return The page number, starting at {@code 1}.
+     */
+    public int getPage() {
+        return this.page;
+    }
+    
+    /**
+     * Gets the total number of pages.
+     * 
+     * @return The number of pages.
+     */
+    public int getPages() {
+        return this.pages;
+    }
+    
+    /**
+     * Gets the locations on this page.
+     * 
+     * @return The {@link LocationResponse LocationResponses}.
+     */
+    public List<LocationResponse> getLocations() {
+        return this.locations;
+    }
+}
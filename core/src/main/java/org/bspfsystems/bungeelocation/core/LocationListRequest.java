@@ -0,0 +1,114 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and
+ * BungeeCord proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.bspfsystems.bungeelocation.core;
+
+import java.util.UUID;
+
+/**
+ * Represents a request for the locations of every player on a server, sent
+ * from the BungeeCord plugin to the Bukkit plugin on that server.
+ * <p>
+ * The Bukkit plugin answers with a stream of {@link LocationListPage
+ * LocationListPages}, so that neither side has to hold the locations of
+ * every player at once.
+ */
+public final class LocationListRequest {
+    
+    private final int requestId;
+    private final UUID senderId;
+    private final boolean regions;
+    private final int pageSize;
+    private final boolean directionOnly;
+    
+    /**
+     * Constructs a new {@link LocationListRequest}.
+     * 
+     * @param requestId The id used to match the response to the request,
+     *                  or {@code 0} if the request is not tracked.
+     * @param senderId The {@link UUID} of the player that requested the
+     *                 locations, or {@code null} if the request came from the
+     *                 console.
+     * @param regions {@code true} if the WorldGuard regions should be
+     *                retrieved, {@code false} otherwise.
+     * @param pageSize The maximum number of locations in each
+     *                 {@link LocationListPage}.
+     * @param directionOnly {@code true} if only the compass direction of
+     *                      the targets should be sent back, instead of the
+     *                      exact yaw.
+     */
+    public LocationListRequest(final int requestId, final UUID senderId, final boolean regions, final int pageSize, final boolean directionOnly) {
+        this.requestId = requestId;
+        this.senderId = senderId;
+        this.regions = regions;
+        this.pageSize = pageSize;
+        this.directionOnly = directionOnly;
+    }
+    
+    /**
+     * Gets the id used to match the response to the request.
+     * 
+     * @return The request id, or {@code 0} if the request is not tracked.
+     */
+    public int getRequestId() {
+        return this.requestId;
+    }
+    
+    /**
+     * Gets the {@link UUID} of the player that requested the locations.
+     * 
+     * @return The sender {@link UUID}, or {@code null} if the request came
+     *         from the console.
+     */
+    public UUID getSenderId() {
+        return this.senderId;
+    }
+    
+    /**
+     * Checks if the WorldGuard regions should be retrieved.
+     * 
+     * @return {@code true} if the WorldGuard regions should be retrieved,
+     *         {@code false} otherwise.
+     */
+    public boolean isRegions() {
+        return this.regions;
+    }
+    
+    /**
+     * Gets the maximum number of locations in each {@link LocationListPage}.
+     * 
+     * @return The page size.
+     */
+    public int getPageSize() {
+        return this.pageSize;
+    }
+    
+    /**
+     * Checks if only the compass direction of the targets should be sent
+     * back, instead of the exact yaw.
+     * 
+     * @return {@code true} if only the {@link Direction} should be sent,
+     *         {@code false} otherwise.
+     */
+    public boolean isDirectionOnly() {
+        return this.directionOnly;
+    }
+}
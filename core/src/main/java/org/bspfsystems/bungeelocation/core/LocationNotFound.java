@@ -0,0 +1,79 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and
+ * BungeeCord proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.bspfsystems.bungeelocation.core;
+
+import java.util.UUID;
+
+/**
+ * Represents the answer to a tracked {@link LocationRequest} whose target is
+ * not online on the server it was sent to, so that the BungeeCord plugin
+ * does not have to wait for the request to time out.
+ */
+public final class LocationNotFound {
+    
+    private final int requestId;
+    private final UUID senderId;
+    private final UUID targetId;
+    
+    /**
+     * Constructs a new {@link LocationNotFound}.
+     * 
+     * @param requestId The id of the {@link LocationRequest} being answered.
+     * @param senderId The {@link UUID} of the player that requested the
+     *                 location, or {@code null} if the request came from the
+     *                 console.
+     * @param targetId The {@link UUID} of the player that was not found.
+     */
+    public LocationNotFound(final int requestId, final UUID senderId, final UUID targetId) {
+        this.requestId = requestId;
+        this.senderId = senderId;
+        this.targetId = targetId;
+    }
+    
+    /**
+     * Gets the id of the {@link LocationRequest} being answered.
+     * 
+     * @return The request id.
+     */
+    public int getRequestId() {
+        return this.requestId;
+    }
+    
+    /**
+     * Gets the {@link UUID} of the player that requested the location.
+     * 
+     * @return The sender {@link UUID}, or {@code null} if the request came
+     *         from the console.
+     */
+    public UUID getSenderId() {
+        return this.senderId;
+    }
+    
+    /**
+     * Gets the {@link UUID} of the player that was not found.
+     * 
+     * @return The target {@link UUID}.
+     */
+    public UUID getTargetId() {
+        return this.targetId;
+    }
+}
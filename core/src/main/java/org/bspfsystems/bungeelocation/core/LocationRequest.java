@@ -0,0 +1,143 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and
+ * BungeeCord proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.bspfsystems.bungeelocation.core;
+
+import java.util.UUID;
+
+/**
+ * Represents a single location request, sent from the BungeeCord plugin to
+ * the Bukkit plugin on the server that the target player is connected to.
+ */
+public final class LocationRequest {
+    
+    private final int requestId;
+    private final UUID senderId;
+    private final UUID targetId;
+    private final boolean regions;
+    private final boolean directionOnly;
+    private final LocationTrace trace;
+    
+    /**
+     * Constructs a new {@link LocationRequest}.
+     * 
+     * @param requestId The id used to match the response to the request,
+     *                  or {@code 0} if the request is not tracked.
+     * @param senderId The {@link UUID} of the player that requested the
+     *                 location, or {@code null} if the request came from the
+     *                 console.
+     * @param targetId The {@link UUID} of the player to locate.
+     * @param regions {@code true} if the WorldGuard regions should be
+     *                retrieved, {@code false} otherwise.
+     * @param directionOnly {@code true} if only the compass direction of
+     *                      the target should be sent back, instead of the
+     *                      exact yaw.
+     */
+    public LocationRequest(final int requestId, final UUID senderId, final UUID targetId, final boolean regions, final boolean directionOnly) {
+        this(requestId, senderId, targetId, regions, directionOnly, null);
+    }
+    
+    /**
+     * Constructs a new, possibly traced {@link LocationRequest}.
+     * 
+     * @param requestId The id used to match the response to the request,
+     *                  or {@code 0} if the request is not tracked.
+     * @param senderId The {@link UUID} of the player that requested the
+     *                 location, or {@code null} if the request came from the
+     *                 console.
+     * @param targetId The {@link UUID} of the player to locate.
+     * @param regions {@code true} if the WorldGuard regions should be
+     *                retrieved, {@code false} otherwise.
+     * @param directionOnly {@code true} if only the compass direction of
+     *                      the target should be sent back, instead of the
+     *                      exact yaw.
+     * @param trace The {@link LocationTrace} holding the dispatch time, or
+     *              {@code null} if the request is not traced.
+     */
+    public LocationRequest(final int requestId, final UUID senderId, final UUID targetId, final boolean regions, final boolean directionOnly, final LocationTrace trace) {
+        this.requestId = requestId;
+        this.senderId = senderId;
+        this.targetId = targetId;
+        this.regions = regions;
+        this.directionOnly = directionOnly;
+        this.trace = trace;
+    }
+    
+    /**
+     * Gets the id used to match the response to the request.
+     * 
+     * @return The request id, or {@code 0} if the request is not tracked.
+     */
+    public int getRequestId() {
+        return this.requestId;
+    }
+    
+    /**
+     * Gets the {@link UUID} of the player that requested the location.
+     * 
+     * @return The sender {@link UUID}, or {@code null} if the request came
+     *         from the console.
+     */
+    public UUID getSenderId() {
+        return this.senderId;
+    }
+    
+    /**
+     * Gets the {@link UUID} of the player to locate.
+     * 
+     * @return The target {@link UUID}.
+     */
+    public UUID getTargetId() {
+        return this.targetId;
+    }
+    
+    /**
+     * Checks if the WorldGuard regions should be retrieved.
+     * 
+     * @return {@code true} if the WorldGuard regions should be retrieved,
+     *         {@code false} otherwise.
+     */
+    public boolean isRegions() {
+        return this.regions;
+    }
+    
+    /**
+     * Checks if only the compass direction of the target should be sent
+     * back, instead of the exact yaw.
+     * 
+     * @return {@code true} if only the {@link Direction} should be sent,
+     *         {@code false} otherwise.
+     */
+    public boolean isDirectionOnly() {
+        return this.directionOnly;
+    }
+    
+    /**
+     * Gets the {@link LocationTrace} holding the time the proxy sent this
+     * request, which is echoed back with the response.
+     * 
+     * @return The {@link LocationTrace}, or {@code null} if the request is
+     *         not traced.
+     */
+    public LocationTrace getTrace() {
+        return this.trace;
+    }
+}
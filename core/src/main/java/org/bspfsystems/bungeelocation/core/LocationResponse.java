@@ -0,0 +1,211 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and
+ * BungeeCord proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.bspfsystems.bungeelocation.core;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Represents the response to a {@link LocationRequest}, sent from the Bukkit
+ * plugin back to the BungeeCord plugin.
+ */
+public final class LocationResponse {
+    
+    private final int requestId;
+    private final UUID senderId;
+    private final UUID targetId;
+    private final String worldName;
+    private final int x;
+    private final int y;
+    private final int z;
+    private final float yaw;
+    private final Direction direction;
+    private final List<String> regions;
+    
+    /**
+     * Constructs a new {@link LocationResponse}.
+     * 
+     * @param requestId The id used to match the response to the request,
+     *                  or {@code 0} if the request is not tracked.
+     * @param senderId The {@link UUID} of the player that requested the
+     *                 location, or {@code null} if the request came from the
+     *                 console.
+     * @param targetId The {@link UUID} of the located player.
+     * @param worldName The name of the world the target is in, or
+     *                  {@code null} if it could not be determined.
+     * @param x The X coordinate.
+     * @param y The Y coordinate.
+     * @param z The Z coordinate.
+     * @param yaw The yaw of the target.
+     * @param regions The WorldGuard regions the target is standing in. If
+     *                {@code null}, regions were not requested. If empty, the
+     *                regions could not be determined.
+     */
+    public LocationResponse(final int requestId, final UUID senderId, final UUID targetId, final String worldName, final int x, final int y, final int z, final float yaw, final List<String> regions) {
+        this(requestId, senderId, targetId, worldName, x, y, z, yaw, Direction.fromYaw(yaw), regions);
+    }
+    
+    /**
+     * Constructs a new {@link LocationResponse} that only carries the
+     * compass direction of the target, not its exact yaw.
+     * 
+     * @param requestId The id used to match the response to the request,
+     *                  or {@code 0} if the request is not tracked.
+     * @param senderId The {@link UUID} of the player that requested the
+     *                 location, or {@code null} if the request came from the
+     *                 console.
+     * @param targetId The {@link UUID} of the located player.
+     * @param worldName The name of the world the target is in, or
+     *                  {@code null} if it could not be determined.
+     * @param x The X coordinate.
+     * @param y The Y coordinate.
+     * @param z The Z coordinate.
+     * @param direction The {@link Direction} the target is facing.
+     * @param regions The WorldGuard regions the target is standing in. If
+     *                {@code null}, regions were not requested. If empty, the
+     *                regions could not be determined.
+     */
+    public LocationResponse(final int requestId, final UUID senderId, final UUID targetId, final String worldName, final int x, final int y, final int z, final Direction direction, final List<String> regions) {
+        this(requestId, senderId, targetId, worldName, x, y, z, Float.NaN, direction, regions);
+    }
+    
+    /**
+     * Constructs a new {@link LocationResponse}.
+     * 
+     * @param requestId The request id.
+     * @param senderId The {@link UUID} of the sender.
+     * @param targetId The {@link UUID} of the target.
+     * @param worldName The world name.
+     * @param x The X coordinate.
+     * @param y The Y coordinate.
+     * @param z The Z coordinate.
+     * @param yaw The yaw, or {@link Float#NaN} if only the direction is
+     *            known.
+     * @param direction The {@link Direction}.
+     * @param regions The WorldGuard regions.
+     */
+    private LocationResponse(final int requestId, final UUID senderId, final UUID targetId, final String worldName, final int x, final int y, final int z, final float yaw, final Direction direction, final List<String> regions) {
+        this.requestId = requestId;
+        this.senderId = senderId;
+        this.targetId = targetId;
+        this.worldName = worldName;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.yaw = yaw;
+        this.direction = direction;
+        this.regions = regions;
+    }
+    
+    /**
+     * Gets the id used to match the response to the request.
+     * 
+     * @return The request id, or {@code 0} if the request is not tracked.
+     */
+    public int getRequestId() {
+        return this.requestId;
+    }
+    
+    /**
+     * Gets the {@link UUID} of the player that requested the location.
+     * 
+     * @return The sender {@link UUID}, or {@code null} if the request came
+     *         from the console.
+     */
+    public UUID getSenderId() {
+        return this.senderId;
+    }
+    
+    /**
+     * Gets the {@link UUID} of the located player.
+     * 
+     * @return The target {@link UUID}.
+     */
+    public UUID getTargetId() {
+        return this.targetId;
+    }
+    
+    /**
+     * Gets the name of the world the target is in.
+     * 
+     * @return The world name, or {@code null} if it could not be determined.
+     */
+    public String getWorldName() {
+        return this.worldName;
+    }
+    
+    /**
+     * Gets the X coordinate of the target.
+     * 
+     * @return The X coordinate.
+     */
+    public int getX() {
+        return this.x;
+    }
+    
+    /**
+     * Gets the Y coordinate of the target.
+     * 
+     * @return The Y coordinate.
+     */
+    public int getY() {
+        return this.y;
+    }
+    
+    /**
+     * Gets the Z coordinate of the target.
+     * 
+     * @return The Z coordinate.
+     */
+    public int getZ() {
+        return this.z;
+    }
+    
+    /**
+     * Gets the yaw of the target.
+     * 
+     * @return The yaw, or {@link Float#NaN} if only the compass direction is
+     *         known.
+     */
+    public float getYaw() {
+        return this.yaw;
+    }
+    
+    /**
+     * Gets the compass direction the target is facing.
+     * 
+     * @return The {@link Direction}.
+     */
+    public Direction getDirection() {
+        return this.direction;
+    }
+    
+    /**
+     * Gets the WorldGuard regions the target is standing in.
+     * 
+     * @return The regions. If {@code null}, regions were not requested. If
+     *         empty, the regions could not be determined.
+     */
+    public List<String> getRegions() {
+        return this.regions;
+    }
+}
@@ -0,0 +1,111 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and
+ * BungeeCord proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.bspfsystems.bungeelocation.core;
+
+/**
+ * Represents the timestamps of a traced single location request, taken at
+ * each hop between the BungeeCord plugin and the Bukkit plugin.
+ * <p>
+ * The proxy and the server do not share a monotonic clock, so only the
+ * dispatch time is an actual timestamp, taken on the proxy and echoed back
+ * as is. Every hop on the server is sent as the time elapsed since the
+ * server received the request, which lets the proxy tell the time spent in
+ * the IPC transport apart from the time spent on the server.
+ */
+public final class LocationTrace {
+    
+    private final long dispatched;
+    private final long queued;
+    private final long regions;
+    private final long handled;
+    
+    /**
+     * Constructs a new {@link LocationTrace} for a request that is about to
+     * be sent.
+     * 
+     * @param dispatched The time the proxy sent the request, as returned by
+     *                   {@link System#nanoTime()} on the proxy.
+     */
+    public LocationTrace(final long dispatched) {
+        this(dispatched, 0L, 0L, 0L);
+    }
+    
+    /**
+     * Constructs a new {@link LocationTrace} for a request that has been
+     * answered.
+     * 
+     * @param dispatched The time the proxy sent the request, as returned by
+     *                   {@link System#nanoTime()} on the proxy.
+     * @param queued The time, in nanoseconds, from the server receiving the
+     *               request until the target was sampled on the main server
+     *               thread.
+     * @param regions The time, in nanoseconds, spent getting the WorldGuard
+     *                regions of the target.
+     * @param handled The time, in nanoseconds, from the server receiving the
+     *                request until it replied.
+     */
+    public LocationTrace(final long dispatched, final long queued, final long regions, final long handled) {
+        this.dispatched = dispatched;
+        this.queued = queued;
+        this.regions = regions;
+        this.handled = handled;
+    }
+    
+    /**
+     * Gets the time the proxy sent the request.
+     * 
+     * @return The dispatch time, as returned by {@link System#nanoTime()} on
+     *         the proxy.
+     */
+    public long getDispatched() {
+        return this.dispatched;
+    }
+    
+    /**
+     * Gets the time from the server receiving the request until the target
+     * was sampled on the main server thread.
+     * 
+     * @return The time waiting for the main server thread, in nanoseconds.
+     */
+    public long getQueued() {
+        return this.queued;
+    }
+    
+    /**
+     * Gets the time spent getting the WorldGuard regions of the target.
+     * 
+     * @return The region lookup time, in nanoseconds, or {@code 0} if the
+     *         regions were not requested.
+     */
+    public long getRegions() {
+        return this.regions;
+    }
+    
+    /**
+     * Gets the time from the server receiving the request until it replied.
+     * 
+     * @return The time spent on the server, in nanoseconds.
+     */
+    public long getHandled() {
+        return this.handled;
+    }
+}
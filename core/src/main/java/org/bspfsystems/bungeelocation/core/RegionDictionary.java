@@ -0,0 +1,178 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and
+ * BungeeCord proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.bspfsystems.bungeelocation.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps WorldGuard region names to small integer ids, so that location
+ * messages can carry the ids instead of repeating the names.
+ * <p>
+ * The Bukkit plugin assigns the ids, in the order in which the names are
+ * first sent, and announces the new names to the proxy before any message
+ * that uses them. The proxy keeps one {@link RegionDictionary} per server,
+ * built from those announcements, and resolves every id to the same
+ * {@link String} instance.
+ * <p>
+ * Ids are only stable for the lifetime of the Bukkit plugin. An announcement
+ * that starts at id {@code 0} replaces the whole dictionary.
+ */
+public final class RegionDictionary {
+    
+    private final Map<String, Integer> ids;
+    private String[] names;
+    private int size;
+    private boolean missing;
+    
+    /**
+     * Constructs a new, empty {@link RegionDictionary}.
+     */
+    public RegionDictionary() {
+        this.ids = new ConcurrentHashMap<String, Integer>();
+        this.names = new String[64];
+        this.size = 0;
+        this.missing = false;
+    }
+    
+    /**
+     * Gets the id of the given region name, assigning the next free id if
+     * the name has not been seen before.
+     * 
+     * @param name The region name.
+     * @return The id.
+     */
+    public int getId(final String name) {
+        
+        final Integer id = this.ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        
+        synchronized (this) {
+            final Integer existing = this.ids.get(name);
+            if (existing != null) {
+                return existing;
+            }
+            this.add(name);
+            return this.size - 1;
+        }
+    }
+    
+    /**
+     * Gets the region name with the given id.
+     * <p>
+     * If the id is unknown, this {@link RegionDictionary} is marked as
+     * missing entries, which can be checked with {@link #takeMissing()}.
+     * 
+     * @param id The id.
+     * @return The region name, or {@code null} if the id is unknown.
+     */
+    public synchronized String getName(final int id) {
+        if (id >= 0 && id < this.size) {
+            return this.names[id];
+        }
+        this.missing = true;
+        return null;
+    }
+    
+    /**
+     * Adds the given announced region names, starting at the given id.
+     * <p>
+     * If the first id is {@code 0}, all existing entries are removed first,
+     * as the Bukkit plugin has started over.
+     * 
+     * @param firstId The id of the first name.
+     * @param names The region names.
+     * @throws IllegalArgumentException If the announcement does not directly
+     *                                  follow the existing entries.
+     */
+    public synchronized void define(final int firstId, final List<String> names) {
+        
+        if (firstId == 0) {
+            this.ids.clear();
+            Arrays.fill(this.names, 0, this.size, null);
+            this.size = 0;
+        }
+        if (firstId != this.size) {
+            this.missing = true;
+            throw new IllegalArgumentException("Region dictionary announcement starts at id " + firstId + ", expected " + this.size + ".");
+        }
+        for (final String name : names) {
+            this.add(name);
+        }
+    }
+    
+    /**
+     * Gets the region names from the given id onwards, in id order.
+     * 
+     * @param fromId The first id to include.
+     * @return The region names, which is empty if there are none.
+     */
+    public synchronized List<String> getNames(final int fromId) {
+        if (fromId >= this.size) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(new ArrayList<String>(Arrays.asList(this.names).subList(fromId, this.size)));
+    }
+    
+    /**
+     * Gets the number of region names in this {@link RegionDictionary}.
+     * 
+     * @return The number of region names.
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+    
+    /**
+     * Checks if an unknown id was looked up, or an announcement was missed,
+     * since the last check, and clears the mark.
+     * 
+     * @return {@code true} if entries are missing, {@code false} otherwise.
+     */
+    public synchronized boolean takeMissing() {
+        final boolean missing = this.missing;
+        this.missing = false;
+        return missing;
+    }
+    
+    /**
+     * Adds the given region name with the next free id.
+     * <p>
+     * This must be called while synchronized.
+     * 
+     * @param name The region name.
+     */
+    private void add(final String name) {
+        if (this.size == this.names.length) {
+            this.names = Arrays.copyOf(this.names, this.size << 1);
+        }
+        this.names[this.size] = name;
+        this.ids.put(name, this.size);
+        this.size++;
+    }
+}
@@ -0,0 +1,188 @@
+/* 
+ * This file is part of the CVLocation plugins for Bukkit servers and
+ * BungeeCord proxies for Minecraft.
+ * 
+ * Copyright (C) 2018-2023 Matt Ciolkosz (https://github.com/mciolkosz/)
+ * Copyright (C) 2018-2023 Cubeville (https://www.cubeville.org/)
+ * 
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.bspfsystems.bungeelocation.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Encodes and decodes the messages of the original pipe-delimited text
+ * protocol, which is still used for servers and proxies that predate the
+ * binary one.
+ * <p>
+ * A request holds the sender, the target and whether the WorldGuard regions
+ * are requested. The sender is the {@link UUID} of a player, or the name of
+ * the console of the proxy. A response echoes the sender and the target of
+ * the request exactly as they were sent, followed by the world name (or
+ * {@code null}), the X, Y and Z coordinates and the yaw, and, if the regions
+ * were requested, either the region names or
+ * {@link LocationConstants#REGIONS_UNKNOWN}. Every field is separated by
+ * {@link LocationConstants#SEPARATOR}, and parsed with a
+ * {@link FieldCursor}.
+ */
+public final class TextCodec {
+    
+    /**
+     * Prevents instantiation of this utility class.
+     */
+    private TextCodec() {
+        // Do nothing.
+    }
+    
+    /**
+     * Encodes a location request.
+     * 
+     * @param senderId The {@link UUID} of the sender, or {@code null} if it
+     *                 is the console.
+     * @param targetId The {@link UUID} of the target.
+     * @param regions {@code true} if the WorldGuard regions are requested,
+     *                {@code false} otherwise.
+     * @param consoleName The name of the console of the proxy.
+     * @return The encoded message, without the channel.
+     */
+    public static String encodeRequest(final UUID senderId, final UUID targetId, final boolean regions, final String consoleName) {
+        
+        final StringBuilder builder = new StringBuilder(80);
+        builder.append(senderId == null ? consoleName : senderId.toString()).append(LocationConstants.SEPARATOR);
+        builder.append(targetId).append(LocationConstants.SEPARATOR);
+        builder.append(regions);
+        return builder.toString();
+    }
+    
+    /**
+     * Decodes a location request.
+     * <p>
+     * The sender is {@code null} if it is not a {@link UUID}, as it is the
+     * name of the console of the proxy then. It is never needed to answer
+     * the request, as
+     * {@link #encodeResponse(String, String, int, int, int, float, String)}
+     * echoes it as it was sent.
+     * 
+     * @param message The message, without the channel.
+     * @return The decoded {@link LocationRequest}.
+     * @throws IllegalArgumentException If the message is malformed.
+     */
+    public static LocationRequest decodeRequest(final String message) {
+        
+        final FieldCursor cursor = new FieldCursor(message);
+        final int fields = cursor.remaining();
+        if (fields != 3) {
+            throw new IllegalArgumentException("Expected the sender UUID, target UUID, and regions flag, found " + fields + " fields.");
+        }
+        
+        UUID senderId;
+        try {
+            senderId = cursor.require().uuidValue();
+        } catch (final IllegalArgumentException e) {
+            senderId = null;
+        }
+        final UUID targetId = cursor.require().uuidValue();
+        final boolean regions = cursor.require().booleanValue();
+        return new LocationRequest(0, senderId, targetId, regions, false);
+    }
+    
+    /**
+     * Encodes a location response to the given request.
+     * 
+     * @param request The message of the request, without the channel.
+     * @param worldName The name of the world, or {@code null} if unknown.
+     * @param x The block X coordinate.
+     * @param y The block Y coordinate.
+     * @param z The block Z coordinate.
+     * @param yaw The yaw.
+     * @param regions The region names joined by
+     *                {@link LocationConstants#SEPARATOR},
+     *                {@link LocationConstants#REGIONS_UNKNOWN} if they could
+     *                not be determined, or {@code null} if they were not
+     *                requested.
+     * @return The encoded message, without the channel.
+     * @throws IllegalArgumentException If the request is malformed.
+     */
+    public static String encodeResponse(final String request, final String worldName, final int x, final int y, final int z, final float yaw, final String regions) {
+        
+        final FieldCursor cursor = new FieldCursor(request);
+        final StringBuilder builder = new StringBuilder(request.length() + 64 + (regions == null ? 0 : regions.length()));
+        cursor.require().appendTo(builder).append(LocationConstants.SEPARATOR);
+        cursor.require().appendTo(builder).append(LocationConstants.SEPARATOR);
+        
+        builder.append(worldName == null ? "null" : worldName).append(LocationConstants.SEPARATOR);
+        builder.append(x).append(LocationConstants.SEPARATOR);
+        builder.append(y).append(LocationConstants.SEPARATOR);
+        builder.append(z).append(LocationConstants.SEPARATOR);
+        builder.append(yaw);
+        if (regions != null) {
+            builder.append(LocationConstants.SEPARATOR).append(regions);
+        }
+        return builder.toString();
+    }
+    
+    /**
+     * Decodes a location response.
+     * <p>
+     * A yaw that cannot be parsed is decoded as {@link Float#NaN}, so that
+     * the rest of the location is still shown.
+     * 
+     * @param message The message, without the channel.
+     * @param consoleName The name of the console of the proxy, which is sent
+     *                    as the sender of the requests made by the console.
+     * @return The decoded {@link LocationResponse}, with a {@code null}
+     *         sender if the request was made by the console.
+     * @throws IllegalArgumentException If the message is malformed.
+     */
+    public static LocationResponse decodeResponse(final String message, final String consoleName) {
+        
+        final FieldCursor cursor = new FieldCursor(message);
+        if (cursor.remaining() < 7) {
+            throw new IllegalArgumentException("Missing some combination of sender UUID, target UUID, world name, X, Y, Z, and Yaw.");
+        }
+        
+        final UUID senderId = cursor.require().equalsIgnoreCase(consoleName) ? null : cursor.uuidValue();
+        final UUID targetId = cursor.require().uuidValue();
+        final String worldName = cursor.require().equalsIgnoreCase("null") ? null : cursor.toString();
+        final int x = cursor.require().intValue();
+        final int y = cursor.require().intValue();
+        final int z = cursor.require().intValue();
+        
+        float yaw;
+        try {
+            yaw = cursor.require().floatValue();
+        } catch (final NumberFormatException e) {
+            yaw = Float.NaN;
+        }
+        
+        final List<String> regions;
+        if (!cursor.next()) {
+            regions = null;
+        } else if (cursor.equalsIgnoreCase(LocationConstants.REGIONS_UNKNOWN)) {
+            regions = Collections.emptyList();
+        } else {
+            regions = new ArrayList<String>(cursor.remaining() + 1);
+            do {
+                regions.add(cursor.toString());
+            } while (cursor.next());
+        }
+        
+        return new LocationResponse(0, senderId, targetId, worldName, x, y, z, yaw, regions);
+    }
+}